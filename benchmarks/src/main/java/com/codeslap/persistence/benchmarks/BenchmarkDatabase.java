@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence.benchmarks;
+
+import android.app.Activity;
+import android.content.Context;
+import com.codeslap.persistence.*;
+import com.codeslap.persistence.benchmarks.Entities.*;
+import org.openjdk.jmh.annotations.Param;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Base of the benchmark states. It opens an empty database with the benchmark entities, and exposes the shape of
+ * the synthetic data as JMH parameters.
+ */
+public abstract class BenchmarkDatabase {
+    static final String DATABASE_NAME = "benchmarks.db";
+    private static File sDirectory;
+
+    /**
+     * Number of rows of the fixture tables
+     */
+    @Param({"1000"})
+    public int rows;
+
+    /**
+     * Number of populated text columns of each record
+     */
+    @Param({"4", "12"})
+    public int width;
+
+    /**
+     * Children of each parent and tags of each item
+     */
+    @Param({"10"})
+    public int fanOut;
+
+    @Param({"32"})
+    public int textLength;
+
+    SqlAdapter adapter;
+    DataGenerator generator;
+
+    void open() {
+        PersistenceConfig.clear();
+        DatabaseSpec spec = PersistenceConfig.registerSpec(1);
+        spec.match(Entry.class);
+        spec.match(new HasMany(Parent.class, Child.class));
+        spec.match(new ManyToMany(Item.class, Tag.class));
+        useBenchmarkStorage(spec);
+        adapter = Persistence.getAdapter(getContext(), DATABASE_NAME);
+        truncate();
+        generator = new DataGenerator(width, fanOut, textLength);
+    }
+
+    /**
+     * Makes a spec use the JDBC storage when the benchmarks run without Robolectric
+     *
+     * @param spec the spec to configure
+     */
+    static void useBenchmarkStorage(DatabaseSpec spec) {
+        if (BenchmarkMain.isPlainJvm()) {
+            spec.setStorageBuilder(JdbcStorage.builder(getDirectory()));
+        }
+    }
+
+    /**
+     * @return the context to open the databases with, which is null without Robolectric
+     */
+    static Context getContext() {
+        return BenchmarkMain.isPlainJvm() ? null : new Activity();
+    }
+
+    /**
+     * @return a directory for the databases of this JVM, deleted when it exits
+     */
+    private static synchronized File getDirectory() {
+        if (sDirectory == null) {
+            final File directory = new File(System.getProperty("java.io.tmpdir"),
+                    "persistence-benchmarks-" + System.nanoTime());
+            if (!directory.mkdirs()) {
+                throw new IllegalStateException("Could not create " + directory);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    File[] files = directory.listFiles();
+                    if (files != null) {
+                        for (File file : files) {
+                            file.delete();
+                        }
+                    }
+                    directory.delete();
+                }
+            });
+            sDirectory = directory;
+        }
+        return sDirectory;
+    }
+
+    void truncate() {
+        adapter.truncate(Entry.class, Parent.class, Child.class, Item.class, Tag.class);
+    }
+
+    /**
+     * Makes the beans look new again, so that storing them inserts new rows
+     *
+     * @param records the records to reset
+     */
+    static void resetIds(List<Entry> records) {
+        for (Entry record : records) {
+            record.id = 0;
+        }
+    }
+
+    static void resetIds(Parent parent) {
+        parent.id = 0;
+        for (Child child : parent.children) {
+            child.id = 0;
+        }
+    }
+
+    static void resetIds(Item item) {
+        item.id = 0;
+        for (Tag tag : item.tags) {
+            tag.id = 0;
+        }
+    }
+}
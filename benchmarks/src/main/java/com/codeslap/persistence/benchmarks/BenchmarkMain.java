@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence.benchmarks;
+
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Entry point of the benchmarks. By default the library uses the Android storage, which only works inside
+ * Robolectric, so JMH is started from a test run by the Robolectric runner (see {@link BenchmarkSuite}) and
+ * benchmarks run in the same JVM. When the first argument is <code>--jvm</code> the benchmarks use the JDBC storage
+ * instead and JMH runs directly, forking as usual. It accepts the same arguments as the JMH command line, except
+ * forking in the Robolectric mode.
+ */
+public class BenchmarkMain {
+    /**
+     * System property set in the benchmark JVMs when they run without Robolectric
+     */
+    static final String JVM_PROPERTY = "persistence.benchmarks.jvm";
+    private static final String JVM_FLAG = "--jvm";
+    private static final String ARGS_PROPERTY = "persistence.benchmarks.args";
+    private static final char ARGS_SEPARATOR = '\u001f';
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && JVM_FLAG.equals(args[0])) {
+            runWithoutAndroid(Arrays.copyOfRange(args, 1, args.length));
+        } else {
+            launch(BenchmarkSuite.class, args);
+        }
+    }
+
+    /**
+     * Runs JMH on the JDBC storage. The hand written baseline uses the Android database classes, so it is skipped.
+     *
+     * @param args the JMH command line arguments
+     */
+    private static void runWithoutAndroid(String[] args) throws Exception {
+        // set in this JVM as well, in case forking is disabled
+        System.setProperty(JVM_PROPERTY, "true");
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .exclude(RawSqliteBenchmarks.class.getSimpleName())
+                .jvmArgsAppend("-D" + JVM_PROPERTY + "=true")
+                .build()).run();
+    }
+
+    /**
+     * @return true if the benchmarks run on the JDBC storage, without Robolectric
+     */
+    static boolean isPlainJvm() {
+        return Boolean.getBoolean(JVM_PROPERTY);
+    }
+
+    /**
+     * Runs the only test of a suite that uses the Robolectric runner, and exits with an error code if it fails
+     *
+     * @param suite the suite to run
+     * @param args  the command line arguments, which the suite can get with {@link #getArgs()}
+     */
+    static void launch(Class<?> suite, String[] args) {
+        // the suite is loaded by the Robolectric class loader, so it cannot see the static state of this class
+        StringBuilder joined = new StringBuilder();
+        for (String arg : args) {
+            if (joined.length() > 0) {
+                joined.append(ARGS_SEPARATOR);
+            }
+            joined.append(arg);
+        }
+        System.setProperty(ARGS_PROPERTY, joined.toString());
+
+        Result result = JUnitCore.runClasses(suite);
+        for (Failure failure : result.getFailures()) {
+            System.err.println(failure.getTrace());
+        }
+        System.exit(result.wasSuccessful() ? 0 : 1);
+    }
+
+    /**
+     * @return the command line arguments passed to {@link #launch(Class, String[])}
+     */
+    static String[] getArgs() {
+        String joined = System.getProperty(ARGS_PROPERTY, "");
+        return joined.length() == 0 ? new String[0] : joined.split(String.valueOf(ARGS_SEPARATOR));
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence.benchmarks;
+
+import com.codeslap.robolectric.RobolectricSimpleRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs JMH inside the Robolectric environment. Forking is disabled since forked JVMs would not have the Android
+ * classes instrumented.
+ */
+@RunWith(RobolectricSimpleRunner.class)
+public class BenchmarkSuite {
+
+    @Test
+    public void run() throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(BenchmarkMain.getArgs());
+        new Runner(new OptionsBuilder()
+                .parent(commandLine)
+                .forks(0)
+                .build()).run();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence.benchmarks;
+
+import com.codeslap.persistence.benchmarks.Entities.*;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic data for the benchmarks. It always uses the same seed, so every run works on the same data.
+ */
+public class DataGenerator {
+    private static final long SEED = 0x5eed;
+    private static final char[] ALPHABET = "abcdefghijklmnopqrstuvwxyz ".toCharArray();
+
+    private final Random mRandom = new Random(SEED);
+    private final int mWidth;
+    private final int mFanOut;
+    private final int mTextLength;
+
+    /**
+     * @param width      number of text columns of each {@link Entry} that are populated, up to
+     *                   {@link Entities#MAX_WIDTH}
+     * @param fanOut     number of children of each {@link Parent} and tags of each {@link Item}
+     * @param textLength length of the generated strings
+     */
+    public DataGenerator(int width, int fanOut, int textLength) {
+        if (width < 0 || width > Entities.MAX_WIDTH) {
+            throw new IllegalArgumentException("Width must be between 0 and " + Entities.MAX_WIDTH);
+        }
+        mWidth = width;
+        mFanOut = fanOut;
+        mTextLength = textLength;
+    }
+
+    public Entry record(int index) {
+        Entry record = new Entry();
+        record.number = index;
+        record.timestamp = 1356998400000L + index * 1000L;
+        record.amount = mRandom.nextDouble() * 1000;
+        record.flag = mRandom.nextBoolean();
+        for (int i = 0; i < mWidth; i++) {
+            setText(record, "c" + i, text());
+        }
+        return record;
+    }
+
+    public List<Entry> records(int count) {
+        List<Entry> records = new ArrayList<Entry>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(record(i));
+        }
+        return records;
+    }
+
+    public Parent parent(int index) {
+        Parent parent = new Parent();
+        parent.name = "parent " + index;
+        parent.children = new ArrayList<Child>(mFanOut);
+        for (int i = 0; i < mFanOut; i++) {
+            Child child = new Child();
+            child.name = text();
+            child.position = i;
+            parent.children.add(child);
+        }
+        return parent;
+    }
+
+    public List<Parent> parents(int count) {
+        List<Parent> parents = new ArrayList<Parent>(count);
+        for (int i = 0; i < count; i++) {
+            parents.add(parent(i));
+        }
+        return parents;
+    }
+
+    public Item item(int index) {
+        Item item = new Item();
+        item.name = "item " + index;
+        item.tags = new ArrayList<Tag>(mFanOut);
+        for (int i = 0; i < mFanOut; i++) {
+            Tag tag = new Tag();
+            tag.label = text();
+            item.tags.add(tag);
+        }
+        return item;
+    }
+
+    public List<Item> items(int count) {
+        List<Item> items = new ArrayList<Item>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(item(i));
+        }
+        return items;
+    }
+
+    /**
+     * @param count number of rows
+     * @return a script with one INSERT statement per line, as accepted by the importers
+     */
+    public String insertScript(int count) {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            script.append("INSERT INTO entries (number, timestamp, amount, flag, c0) VALUES (")
+                    .append(i).append(", ")
+                    .append(1356998400000L + i * 1000L).append(", ")
+                    .append(mRandom.nextDouble() * 1000).append(", ")
+                    .append(mRandom.nextBoolean() ? 1 : 0).append(", '")
+                    .append(text()).append("');\n");
+        }
+        return script.toString();
+    }
+
+    private String text() {
+        char[] text = new char[mTextLength];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = ALPHABET[mRandom.nextInt(ALPHABET.length)];
+        }
+        return new String(text);
+    }
+
+    private static void setText(Entry record, String column, String value) {
+        try {
+            Field field = Entry.class.getDeclaredField(column);
+            field.setAccessible(true);
+            field.set(record, value);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not populate column " + column, e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence.benchmarks;
+
+import java.util.List;
+
+/**
+ * Entities used by the benchmarks.
+ */
+public final class Entities {
+    /**
+     * Number of text columns of {@link Entry}. The width of the generated data is the number of them that are
+     * populated.
+     */
+    public static final int MAX_WIDTH = 12;
+
+    private Entities() {
+    }
+
+    public static class Entry {
+        long id;
+        int number;
+        long timestamp;
+        double amount;
+        boolean flag;
+        String c0;
+        String c1;
+        String c2;
+        String c3;
+        String c4;
+        String c5;
+        String c6;
+        String c7;
+        String c8;
+        String c9;
+        String c10;
+        String c11;
+    }
+
+    public static class Parent {
+        long id;
+        String name;
+        List<Child> children;
+    }
+
+    public static class Child {
+        long id;
+        String name;
+        int position;
+    }
+
+    public static class Item {
+        long id;
+        String name;
+        List<Tag> tags;
+    }
+
+    public static class Tag {
+        long id;
+        String label;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence.benchmarks;
+
+import com.codeslap.persistence.DatabaseSpec;
+import com.codeslap.persistence.Persistence;
+import com.codeslap.persistence.PersistenceConfig;
+import com.codeslap.persistence.SqlAdapter;
+import com.codeslap.persistence.benchmarks.Entities.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of cascade deletes and of the importers used when a database is created.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+public class MaintenanceBenchmarks {
+
+    @State(Scope.Thread)
+    public static class Graphs extends BenchmarkDatabase {
+        List<Item> items;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            open();
+            items = generator.items(Math.max(1, rows / fanOut));
+        }
+
+        @Setup(Level.Invocation)
+        public void store() {
+            truncate();
+            for (Item item : items) {
+                resetIds(item);
+                adapter.store(item);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Script extends BenchmarkDatabase {
+        String script;
+        String specId;
+        String databaseName;
+        int databases;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            generator = new DataGenerator(width, fanOut, textLength);
+            script = generator.insertScript(rows);
+        }
+
+        @Setup(Level.Invocation)
+        public void register() {
+            // every invocation needs a database that does not exist yet, so that the importer runs
+            databases++;
+            specId = "import-" + databases;
+            databaseName = "import-" + databases + ".db";
+            DatabaseSpec spec = PersistenceConfig.registerSpec(specId, 1);
+            spec.match(Entry.class);
+            spec.afterCreateImportFromString(script);
+            useBenchmarkStorage(spec);
+        }
+    }
+
+    @Benchmark
+    public int deleteCascade(Graphs state) {
+        return state.adapter.delete(Item.class, null, null, true);
+    }
+
+    @Benchmark
+    public int importFromString(Script state) {
+        // opening the database creates it and runs the importer
+        SqlAdapter adapter = Persistence.getAdapter(BenchmarkDatabase.getContext(), state.databaseName, state.specId);
+        return adapter.count(Entry.class);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence.benchmarks;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import com.codeslap.persistence.benchmarks.Entities.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hand written SQLite code doing the same work as some of the {@link WriteBenchmarks} and {@link ReadBenchmarks},
+ * used as the baseline to compare the overhead of the library with.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class RawSqliteBenchmarks {
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS entries (id INTEGER PRIMARY KEY " +
+            "AUTOINCREMENT, number INTEGER, timestamp INTEGER, amount REAL, flag INTEGER, c0 TEXT, c1 TEXT, c2 TEXT, " +
+            "c3 TEXT, c4 TEXT, c5 TEXT, c6 TEXT, c7 TEXT, c8 TEXT, c9 TEXT, c10 TEXT, c11 TEXT)";
+    private static final String INSERT = "INSERT INTO entries (number, timestamp, amount, flag, c0, c1, c2, c3, c4, " +
+            "c5, c6, c7, c8, c9, c10, c11) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @State(Scope.Thread)
+    public static class Baseline {
+        @Param({"1000"})
+        public int rows;
+
+        @Param({"4", "12"})
+        public int width;
+
+        @Param({"32"})
+        public int textLength;
+
+        SQLiteDatabase db;
+        List<Entry> records;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            File file = new File(System.getProperty("java.io.tmpdir"), "persistence-baseline.db");
+            file.delete();
+            db = SQLiteDatabase.openOrCreateDatabase(file.getPath(), null);
+            db.execSQL(CREATE_TABLE);
+            records = new DataGenerator(width, 0, textLength).records(rows);
+            insertAll(db, records);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            db.close();
+        }
+
+        int nextNumber() {
+            return next++ % rows;
+        }
+    }
+
+    @Benchmark
+    public long insert(Baseline state) {
+        Entry record = state.records.get(state.nextNumber());
+        ContentValues values = new ContentValues();
+        values.put("number", record.number);
+        values.put("timestamp", record.timestamp);
+        values.put("amount", record.amount);
+        values.put("flag", record.flag ? 1 : 0);
+        String[] texts = texts(record);
+        for (int i = 0; i < texts.length; i++) {
+            values.put("c" + i, texts[i]);
+        }
+        return state.db.insert("entries", null, values);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void insertCollection(Baseline state) {
+        insertAll(state.db, state.records);
+    }
+
+    @Benchmark
+    public Entry findFirstByWhere(Baseline state) {
+        Cursor cursor = state.db.rawQuery("SELECT * FROM entries WHERE number = ? LIMIT 1",
+                new String[]{String.valueOf(state.nextNumber())});
+        try {
+            return cursor.moveToFirst() ? read(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Entry> findAllByWhere(Baseline state) {
+        Cursor cursor = state.db.rawQuery("SELECT * FROM entries WHERE number < ?",
+                new String[]{String.valueOf(state.rows / 2)});
+        try {
+            List<Entry> result = new ArrayList<Entry>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                result.add(read(cursor));
+            }
+            return result;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Benchmark
+    public long count(Baseline state) {
+        Cursor cursor = state.db.rawQuery("SELECT COUNT(*) FROM entries WHERE flag = ?", new String[]{"1"});
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void insertAll(SQLiteDatabase db, List<Entry> records) {
+        SQLiteStatement statement = db.compileStatement(INSERT);
+        db.beginTransaction();
+        try {
+            for (Entry record : records) {
+                statement.clearBindings();
+                statement.bindLong(1, record.number);
+                statement.bindLong(2, record.timestamp);
+                statement.bindDouble(3, record.amount);
+                statement.bindLong(4, record.flag ? 1 : 0);
+                String[] texts = texts(record);
+                for (int i = 0; i < texts.length; i++) {
+                    if (texts[i] == null) {
+                        statement.bindNull(5 + i);
+                    } else {
+                        statement.bindString(5 + i, texts[i]);
+                    }
+                }
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+    }
+
+    private static String[] texts(Entry record) {
+        return new String[]{record.c0, record.c1, record.c2, record.c3, record.c4, record.c5, record.c6, record.c7,
+                record.c8, record.c9, record.c10, record.c11};
+    }
+
+    private static Entry read(Cursor cursor) {
+        Entry record = new Entry();
+        record.id = cursor.getLong(0);
+        record.number = cursor.getInt(1);
+        record.timestamp = cursor.getLong(2);
+        record.amount = cursor.getDouble(3);
+        record.flag = cursor.getInt(4) == 1;
+        record.c0 = cursor.getString(5);
+        record.c1 = cursor.getString(6);
+        record.c2 = cursor.getString(7);
+        record.c3 = cursor.getString(8);
+        record.c4 = cursor.getString(9);
+        record.c5 = cursor.getString(10);
+        record.c6 = cursor.getString(11);
+        record.c7 = cursor.getString(12);
+        record.c8 = cursor.getString(13);
+        record.c9 = cursor.getString(14);
+        record.c10 = cursor.getString(15);
+        record.c11 = cursor.getString(16);
+        return record;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence.benchmarks;
+
+import com.codeslap.persistence.benchmarks.Entities.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the read paths: queries by sample and by where clause, relation loads and counts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ReadBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class Fixture extends BenchmarkDatabase {
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            open();
+            adapter.storeCollection(generator.records(rows), null);
+            // relations are loaded eagerly, so keep the number of parents independent from the fan out
+            int graphs = Math.max(1, rows / fanOut);
+            for (Parent parent : generator.parents(graphs)) {
+                adapter.store(parent);
+            }
+            for (Item item : generator.items(graphs)) {
+                adapter.store(item);
+            }
+        }
+
+        int nextNumber() {
+            return next++ % rows;
+        }
+    }
+
+    @Benchmark
+    public Entry findFirstBySample(Fixture state) {
+        Entry sample = new Entry();
+        sample.number = state.nextNumber();
+        return state.adapter.findFirst(sample);
+    }
+
+    @Benchmark
+    public Entry findFirstByWhere(Fixture state) {
+        return state.adapter.findFirst(Entry.class, "number = ?",
+                new String[]{String.valueOf(state.nextNumber())});
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Entry> findAllBySample(Fixture state) {
+        Entry sample = new Entry();
+        sample.flag = true;
+        return state.adapter.findAll(sample);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Entry> findAllByWhere(Fixture state) {
+        return state.adapter.findAll(Entry.class, "number < ?", new String[]{String.valueOf(state.rows / 2)});
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Parent> loadHasMany(Fixture state) {
+        return state.adapter.findAll(Parent.class);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Item> loadManyToMany(Fixture state) {
+        return state.adapter.findAll(Item.class);
+    }
+
+    @Benchmark
+    public int count(Fixture state) {
+        return state.adapter.count(Entry.class, "flag = ?", new String[]{"1"});
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence.benchmarks;
+
+import android.content.ContentProvider;
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import com.xtremelabs.robolectric.internal.Implementation;
+import com.xtremelabs.robolectric.internal.Implements;
+import com.xtremelabs.robolectric.internal.RealObject;
+
+/**
+ * Gives content providers the lifecycle of a real device: {@link ContentProvider#attachInfo(Context, ProviderInfo)}
+ * keeps the context and creates the provider.
+ */
+@Implements(ContentProvider.class)
+public class ShadowContentProvider {
+    @RealObject
+    private ContentProvider mRealProvider;
+    private Context mContext;
+
+    @Implementation
+    public void attachInfo(Context context, ProviderInfo info) {
+        if (mContext == null) {
+            mContext = context;
+            mRealProvider.onCreate();
+        }
+    }
+
+    @Implementation
+    public Context getContext() {
+        return mContext;
+    }
+}
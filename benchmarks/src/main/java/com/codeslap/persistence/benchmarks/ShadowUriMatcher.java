@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence.benchmarks;
+
+import android.content.UriMatcher;
+import android.net.Uri;
+import com.xtremelabs.robolectric.internal.Implementation;
+import com.xtremelabs.robolectric.internal.Implements;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Matches the authority and exact path of a {@link Uri}, which is all the content providers of the library
+ * register. Wildcards are not supported.
+ */
+@Implements(UriMatcher.class)
+public class ShadowUriMatcher {
+    private final Map<String, Integer> mCodes = new HashMap<String, Integer>();
+    private int mNoMatch;
+
+    public void __constructor__(int code) {
+        mNoMatch = code;
+    }
+
+    @Implementation
+    public void addURI(String authority, String path, int code) {
+        synchronized (mCodes) {
+            mCodes.put(authority + "/" + path, code);
+        }
+    }
+
+    @Implementation
+    public int match(Uri uri) {
+        String path = uri.getPath();
+        if (path != null && path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        Integer code;
+        synchronized (mCodes) {
+            code = mCodes.get(uri.getAuthority() + "/" + path);
+        }
+        return code == null ? mNoMatch : code;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence.benchmarks;
+
+/**
+ * Configuration of a {@link StressHarness} run. It is read from command line arguments like
+ * {@code --readers 4 --writers 2 --seconds 30}.
+ */
+public class StressConfig {
+    int readers = 4;
+    int rawReaders = 1;
+    /**
+     * Threads that query a {@link com.codeslap.persistence.BaseContentProvider} shared by all of them
+     */
+    int providerReaders = 1;
+    int writers = 2;
+    int seconds = 10;
+    int batchSize = 20;
+    /**
+     * Percentage of writer operations that insert a collection instead of a single bean
+     */
+    int batchPercent = 10;
+    /**
+     * Percentage of writer operations that update a bean
+     */
+    int updatePercent = 25;
+    /**
+     * Percentage of writer operations that delete a bean
+     */
+    int deletePercent = 10;
+    /**
+     * Whether every thread gets its own adapter, or all of them share one
+     */
+    boolean sharedAdapter;
+
+    static StressConfig parse(String[] args) {
+        StressConfig config = new StressConfig();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--shared-adapter")) {
+                config.sharedAdapter = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            int value = Integer.parseInt(args[++i]);
+            if (arg.equals("--readers")) {
+                config.readers = value;
+            } else if (arg.equals("--raw-readers")) {
+                config.rawReaders = value;
+            } else if (arg.equals("--provider-readers")) {
+                config.providerReaders = value;
+            } else if (arg.equals("--writers")) {
+                config.writers = value;
+            } else if (arg.equals("--seconds")) {
+                config.seconds = value;
+            } else if (arg.equals("--batch-size")) {
+                config.batchSize = value;
+            } else if (arg.equals("--batch-percent")) {
+                config.batchPercent = value;
+            } else if (arg.equals("--update-percent")) {
+                config.updatePercent = value;
+            } else if (arg.equals("--delete-percent")) {
+                config.deletePercent = value;
+            } else {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (config.batchPercent + config.updatePercent + config.deletePercent > 100) {
+            throw new IllegalArgumentException("The percentages of the writer operations add up to more than 100");
+        }
+        return config;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d readers, %d raw readers, %d provider readers, %d writers, %d seconds, %s adapter",
+                readers, rawReaders, providerReaders, writers, seconds, sharedAdapter ? "shared" : "per thread");
+    }
+}
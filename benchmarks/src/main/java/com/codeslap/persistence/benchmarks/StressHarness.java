@@ -0,0 +1,479 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence.benchmarks;
+
+import android.app.Activity;
+import android.database.Cursor;
+import android.net.Uri;
+import android.database.sqlite.SQLiteException;
+import com.codeslap.persistence.*;
+import com.codeslap.persistence.benchmarks.Entities.Entry;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a mix of reader and writer threads against one database for a fixed time, and reports throughput,
+ * latencies, lock waits, busy errors and data integrity violations.
+ * <p/>
+ * Each writer owns the rows whose c0 column is its name, and keeps track of what they must contain. Every row
+ * carries a checksum of its values in the timestamp column, so readers can detect torn or corrupted rows. When
+ * the run ends, the content of the database is compared with what the writers expect.
+ */
+public class StressHarness {
+    private static final String DATABASE_NAME = "stress.db";
+    private static final String AUTHORITY = "com.codeslap.persistence.benchmarks";
+    private static final int RECENT_ROWS = 50;
+
+    private final StressConfig mConfig;
+    private final StressReport mReport;
+    private final List<Writer> mWriters = new ArrayList<Writer>();
+    private final ThreadMXBean mThreadBean = ManagementFactory.getThreadMXBean();
+    private SqlAdapter mSharedAdapter;
+    private BaseContentProvider mProvider;
+    private volatile boolean mRunning;
+
+    public StressHarness(StressConfig config) {
+        mConfig = config;
+        mReport = new StressReport(config);
+    }
+
+    public StressReport run() throws InterruptedException {
+        PersistenceConfig.clear();
+        DatabaseSpec spec = PersistenceConfig.registerSpec(1);
+        spec.match(Entry.class);
+        mSharedAdapter = Persistence.getAdapter(new Activity(), DATABASE_NAME);
+        mSharedAdapter.truncate(Entry.class);
+        if (mConfig.providerReaders > 0) {
+            // like on a device, there is one provider shared by all the threads that query it
+            mProvider = new StressProvider();
+            mProvider.attachInfo(new Activity(), null);
+        }
+        if (mThreadBean.isThreadContentionMonitoringSupported()) {
+            mThreadBean.setThreadContentionMonitoringEnabled(true);
+        }
+
+        List<Worker> workers = new ArrayList<Worker>();
+        for (int i = 0; i < mConfig.writers; i++) {
+            Writer writer = new Writer("w" + i, i);
+            mWriters.add(writer);
+            workers.add(writer);
+        }
+        if (mWriters.isEmpty() && (mConfig.readers > 0 || mConfig.rawReaders > 0 || mConfig.providerReaders > 0)) {
+            throw new IllegalArgumentException("Readers need at least one writer");
+        }
+        for (int i = 0; i < mConfig.readers; i++) {
+            workers.add(new Reader(i));
+        }
+        for (int i = 0; i < mConfig.rawReaders; i++) {
+            workers.add(new RawReader(i));
+        }
+        for (int i = 0; i < mConfig.providerReaders; i++) {
+            workers.add(new ProviderReader(i));
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (Worker worker : workers) {
+            worker.mStart = start;
+            Thread thread = new Thread(worker, worker.mName);
+            threads.add(thread);
+            thread.start();
+        }
+        mRunning = true;
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(mConfig.seconds * 1000L);
+        mRunning = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        mReport.setDuration(System.nanoTime() - begin);
+
+        for (Writer writer : mWriters) {
+            writer.verify();
+        }
+        return mReport;
+    }
+
+    private SqlAdapter newAdapter() {
+        return mConfig.sharedAdapter ? mSharedAdapter : Persistence.getAdapter(new Activity(), DATABASE_NAME);
+    }
+
+    static long checksum(String owner, int number, double amount) {
+        long bits = Double.doubleToLongBits(amount);
+        return (owner.hashCode() * 31L + number) * 31L + (bits ^ (bits >>> 32));
+    }
+
+    private abstract class Worker implements Runnable {
+        final String mName;
+        final Random mRandom;
+        CountDownLatch mStart;
+
+        Worker(String name, int seed) {
+            mName = name;
+            mRandom = new Random(seed * 7919L + name.hashCode());
+        }
+
+        @Override
+        public void run() {
+            try {
+                mStart.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            while (mRunning) {
+                String operation = nextOperation();
+                long start = System.nanoTime();
+                try {
+                    execute(operation);
+                    mReport.record(operation, System.nanoTime() - start);
+                } catch (SQLiteException e) {
+                    String message = String.valueOf(e.getMessage()).toLowerCase();
+                    if (message.contains("locked") || message.contains("busy")) {
+                        mReport.busyError();
+                    } else {
+                        mReport.error(operation, e);
+                    }
+                    onFailure(operation);
+                } catch (RuntimeException e) {
+                    mReport.error(operation, e);
+                    onFailure(operation);
+                }
+            }
+            ThreadInfo info = mThreadBean.getThreadInfo(Thread.currentThread().getId());
+            if (info != null) {
+                mReport.addLockStats(info.getBlockedCount(), Math.max(0, info.getBlockedTime()),
+                        info.getWaitedCount(), Math.max(0, info.getWaitedTime()));
+            }
+        }
+
+        abstract String nextOperation();
+
+        abstract void execute(String operation);
+
+        void onFailure(String operation) {
+        }
+
+        Writer randomWriter() {
+            return mWriters.get(mRandom.nextInt(mWriters.size()));
+        }
+
+        /**
+         * Checks a row read while the writers are running
+         */
+        void check(Entry entry) {
+            if (entry.timestamp != checksum(entry.c0, entry.number, entry.amount)) {
+                mReport.violation("row " + entry.id + " of " + entry.c0 + " has a wrong checksum");
+            }
+            Writer owner = findWriter(entry.c0);
+            if (owner == null) {
+                mReport.violation("row " + entry.id + " has an unknown owner " + entry.c0);
+            } else if (entry.number > owner.mAttempted.get()) {
+                mReport.violation("row " + entry.id + " of " + entry.c0 + " has a number that was never written");
+            }
+        }
+
+        /**
+         * Checks all the rows of a cursor with the columns of an entry, and closes it
+         */
+        void checkAll(Cursor cursor) {
+            try {
+                int id = cursor.getColumnIndex("_id");
+                int owner = cursor.getColumnIndex("c0");
+                int number = cursor.getColumnIndex("number");
+                int amount = cursor.getColumnIndex("amount");
+                int timestamp = cursor.getColumnIndex("timestamp");
+                while (cursor.moveToNext()) {
+                    Entry entry = new Entry();
+                    entry.id = cursor.getLong(id);
+                    entry.c0 = cursor.getString(owner);
+                    entry.number = cursor.getInt(number);
+                    entry.amount = cursor.getDouble(amount);
+                    entry.timestamp = cursor.getLong(timestamp);
+                    check(entry);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        private Writer findWriter(String name) {
+            for (Writer writer : mWriters) {
+                if (writer.mName.equals(name)) {
+                    return writer;
+                }
+            }
+            return null;
+        }
+    }
+
+    private class Writer extends Worker {
+        private final SqlAdapter mAdapter = newAdapter();
+        // highest number that was written or is being written; readers must never see a higher one
+        final AtomicLong mAttempted = new AtomicLong();
+        private final Map<Long, Double> mExpected = new HashMap<Long, Double>();
+        private final List<Long> mIds = new ArrayList<Long>();
+        // rows whose state is unknown because the operation that touched them failed
+        private final Set<Long> mUncertainIds = new HashSet<Long>();
+        private final Set<Integer> mUncertainNumbers = new HashSet<Integer>();
+        private int mSequence;
+        private long mCurrentId;
+        private int mCurrentFrom;
+
+        Writer(String name, int seed) {
+            super(name, seed);
+        }
+
+        @Override
+        String nextOperation() {
+            int dice = mRandom.nextInt(100);
+            if (mIds.isEmpty() || dice >= mConfig.batchPercent + mConfig.updatePercent + mConfig.deletePercent) {
+                return "store";
+            }
+            if (dice < mConfig.batchPercent) {
+                return "storeCollection";
+            }
+            if (dice < mConfig.batchPercent + mConfig.updatePercent) {
+                return "update";
+            }
+            return "delete";
+        }
+
+        @Override
+        void execute(String operation) {
+            mCurrentId = 0;
+            mCurrentFrom = mSequence + 1;
+            if (operation.equals("store")) {
+                Entry entry = newEntry();
+                mAdapter.store(entry);
+                expect(entry.id, entry.amount);
+            } else if (operation.equals("storeCollection")) {
+                List<Entry> entries = new ArrayList<Entry>();
+                for (int i = 0; i < mConfig.batchSize; i++) {
+                    entries.add(newEntry());
+                }
+                mAdapter.storeCollection(entries, null);
+                // the fast insertion path does not populate the ids
+                List<Entry> stored = mAdapter.findAll(Entry.class, "c0 = ? AND number >= ?",
+                        new String[]{mName, String.valueOf(mCurrentFrom)});
+                if (stored.size() != entries.size()) {
+                    mReport.violation(mName + " stored " + entries.size() + " rows but " + stored.size() +
+                            " were found");
+                }
+                for (Entry entry : stored) {
+                    expect(entry.id, entry.amount);
+                }
+            } else if (operation.equals("update")) {
+                mCurrentId = mIds.get(mRandom.nextInt(mIds.size()));
+                Entry entry = mAdapter.findById(Entry.class, mCurrentId);
+                if (entry == null) {
+                    mReport.violation("row " + mCurrentId + " of " + mName + " disappeared");
+                    forget(mCurrentId);
+                    return;
+                }
+                entry.amount = mRandom.nextDouble();
+                entry.timestamp = checksum(mName, entry.number, entry.amount);
+                int updated = mAdapter.update(entry, "_id = ?", new String[]{String.valueOf(mCurrentId)});
+                if (updated != 1) {
+                    mReport.violation("update of row " + mCurrentId + " of " + mName + " affected " + updated +
+                            " rows");
+                }
+                mExpected.put(mCurrentId, entry.amount);
+            } else {
+                mCurrentId = mIds.get(mRandom.nextInt(mIds.size()));
+                int deleted = mAdapter.delete(Entry.class, "_id = ?", new String[]{String.valueOf(mCurrentId)});
+                if (deleted != 1) {
+                    mReport.violation("delete of row " + mCurrentId + " of " + mName + " affected " + deleted +
+                            " rows");
+                }
+                forget(mCurrentId);
+            }
+        }
+
+        @Override
+        void onFailure(String operation) {
+            if (mCurrentId != 0) {
+                mUncertainIds.add(mCurrentId);
+                forget(mCurrentId);
+            }
+            for (int number = mCurrentFrom; number <= mSequence; number++) {
+                mUncertainNumbers.add(number);
+            }
+        }
+
+        private Entry newEntry() {
+            Entry entry = new Entry();
+            entry.c0 = mName;
+            entry.number = ++mSequence;
+            entry.amount = mRandom.nextDouble();
+            entry.timestamp = checksum(mName, entry.number, entry.amount);
+            mAttempted.set(entry.number);
+            return entry;
+        }
+
+        private void expect(long id, double amount) {
+            if (mExpected.put(id, amount) == null) {
+                mIds.add(id);
+            }
+        }
+
+        private void forget(long id) {
+            mExpected.remove(id);
+            mIds.remove(id);
+        }
+
+        /**
+         * Compares the rows of this writer with what it expects, once all the threads stopped
+         */
+        void verify() {
+            Map<Long, Double> remaining = new HashMap<Long, Double>(mExpected);
+            for (Entry entry : mSharedAdapter.findAll(Entry.class, "c0 = ?", new String[]{mName})) {
+                if (mUncertainIds.contains(entry.id) || mUncertainNumbers.contains(entry.number)) {
+                    remaining.remove(entry.id);
+                    continue;
+                }
+                if (entry.timestamp != checksum(mName, entry.number, entry.amount)) {
+                    mReport.violation("row " + entry.id + " of " + mName + " has a wrong checksum");
+                }
+                Double amount = remaining.remove(entry.id);
+                if (amount == null) {
+                    mReport.violation("row " + entry.id + " of " + mName + " should not exist");
+                } else if (amount != entry.amount) {
+                    mReport.violation("row " + entry.id + " of " + mName + " lost an update");
+                }
+            }
+            for (Long id : remaining.keySet()) {
+                mReport.violation("row " + id + " of " + mName + " is missing");
+            }
+        }
+    }
+
+    private class Reader extends Worker {
+        private final SqlAdapter mAdapter = newAdapter();
+
+        Reader(int index) {
+            super("r" + index, index);
+        }
+
+        @Override
+        String nextOperation() {
+            int dice = mRandom.nextInt(100);
+            if (dice < 40) {
+                return "findFirst";
+            }
+            if (dice < 70) {
+                return "findAllRecent";
+            }
+            if (dice < 90) {
+                return "findAllBySample";
+            }
+            return "count";
+        }
+
+        @Override
+        void execute(String operation) {
+            Writer writer = randomWriter();
+            int last = (int) writer.mAttempted.get();
+            if (operation.equals("findFirst")) {
+                Entry entry = mAdapter.findFirst(Entry.class, "c0 = ? AND number = ?",
+                        new String[]{writer.mName, String.valueOf(1 + mRandom.nextInt(Math.max(1, last)))});
+                if (entry != null) {
+                    check(entry);
+                }
+            } else if (operation.equals("findAllRecent")) {
+                List<Entry> entries = mAdapter.findAll(Entry.class, "c0 = ? AND number > ?",
+                        new String[]{writer.mName, String.valueOf(last - RECENT_ROWS)});
+                for (Entry entry : entries) {
+                    check(entry);
+                }
+            } else if (operation.equals("findAllBySample")) {
+                Entry sample = new Entry();
+                sample.c0 = writer.mName;
+                sample.number = 1 + mRandom.nextInt(Math.max(1, last));
+                for (Entry entry : mAdapter.findAll(sample)) {
+                    check(entry);
+                }
+            } else {
+                mAdapter.count(Entry.class);
+            }
+        }
+    }
+
+    private class RawReader extends Worker {
+        private final RawQuery mRawQuery = Persistence.getRawQuery(new Activity(), DATABASE_NAME);
+
+        RawReader(int index) {
+            super("raw" + index, 1000 + index);
+        }
+
+        @Override
+        String nextOperation() {
+            return "rawQuery";
+        }
+
+        @Override
+        void execute(String operation) {
+            Writer writer = randomWriter();
+            int last = (int) writer.mAttempted.get();
+            checkAll(mRawQuery.findAll(Entry.class, "c0 = ? AND number > ?",
+                    new String[]{writer.mName, String.valueOf(last - RECENT_ROWS)}));
+        }
+    }
+
+    private class ProviderReader extends Worker {
+        private final Uri mUri = BaseContentProvider.buildBaseUri(AUTHORITY, Entry.class);
+
+        ProviderReader(int index) {
+            super("provider" + index, 2000 + index);
+        }
+
+        @Override
+        String nextOperation() {
+            return "providerQuery";
+        }
+
+        @Override
+        void execute(String operation) {
+            Writer writer = randomWriter();
+            int last = (int) writer.mAttempted.get();
+            checkAll(mProvider.query(mUri, null, "c0 = ? AND number > ?",
+                    new String[]{writer.mName, String.valueOf(last - RECENT_ROWS)}, null));
+        }
+    }
+
+    public static class StressProvider extends BaseContentProvider {
+        @Override
+        public String getDatabaseName() {
+            return DATABASE_NAME;
+        }
+
+        @Override
+        public String getDatabaseSpecId() {
+            return PersistenceConfig.DEFAULT_SPEC_ID;
+        }
+
+        @Override
+        protected String getAuthority() {
+            return AUTHORITY;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence.benchmarks;
+
+import com.codeslap.persistence.LatencyHistogram;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Results of a {@link StressHarness} run.
+ */
+public class StressReport {
+    private static final int MAX_MESSAGES = 20;
+
+    private final StressConfig mConfig;
+    private final Map<String, LatencyHistogram> mOperations = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final AtomicLong mBusyErrors = new AtomicLong();
+    private final AtomicLong mErrors = new AtomicLong();
+    private final AtomicLong mViolations = new AtomicLong();
+    private final List<String> mMessages = new ArrayList<String>();
+    private long mBlockedCount;
+    private long mBlockedMillis;
+    private long mWaitedCount;
+    private long mWaitedMillis;
+    private long mDurationNanos;
+
+    StressReport(StressConfig config) {
+        mConfig = config;
+    }
+
+    /**
+     * @param operation     name of the operation
+     * @param durationNanos how long it took
+     */
+    void record(String operation, long durationNanos) {
+        LatencyHistogram histogram = mOperations.get(operation);
+        if (histogram == null) {
+            synchronized (mOperations) {
+                histogram = mOperations.get(operation);
+                if (histogram == null) {
+                    histogram = new LatencyHistogram();
+                    mOperations.put(operation, histogram);
+                }
+            }
+        }
+        histogram.record(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+    }
+
+    void busyError() {
+        mBusyErrors.incrementAndGet();
+    }
+
+    void error(String operation, Exception e) {
+        mErrors.incrementAndGet();
+        addMessage("Error in " + operation + ": " + e);
+    }
+
+    void violation(String description) {
+        mViolations.incrementAndGet();
+        addMessage("Integrity violation: " + description);
+    }
+
+    synchronized void addLockStats(long blockedCount, long blockedMillis, long waitedCount, long waitedMillis) {
+        mBlockedCount += blockedCount;
+        mBlockedMillis += blockedMillis;
+        mWaitedCount += waitedCount;
+        mWaitedMillis += waitedMillis;
+    }
+
+    void setDuration(long durationNanos) {
+        mDurationNanos = durationNanos;
+    }
+
+    private synchronized void addMessage(String message) {
+        if (mMessages.size() < MAX_MESSAGES) {
+            mMessages.add(message);
+        }
+    }
+
+    public long getViolations() {
+        return mViolations.get();
+    }
+
+    public long getBusyErrors() {
+        return mBusyErrors.get();
+    }
+
+    public long getErrors() {
+        return mErrors.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        double seconds = mDurationNanos / 1e9;
+        StringBuilder builder = new StringBuilder();
+        builder.append("Stress run: ").append(mConfig).append('\n');
+        builder.append(String.format("%-20s %10s %10s %10s %10s %10s%n", "operation", "count", "ops/s", "p50 us",
+                "p99 us", "max us"));
+        long total = 0;
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(mOperations).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            total += histogram.getCount();
+            builder.append(String.format("%-20s %10d %10.1f %10d %10d %10d%n", entry.getKey(), histogram.getCount(),
+                    histogram.getCount() / seconds, histogram.getValueAtPercentile(50),
+                    histogram.getValueAtPercentile(99), histogram.getMax()));
+        }
+        builder.append(String.format("total: %d operations, %.1f ops/s%n", total, total / seconds));
+        builder.append(String.format("lock waits: %d blocked (%d ms), %d waited (%d ms)%n", mBlockedCount,
+                mBlockedMillis, mWaitedCount, mWaitedMillis));
+        builder.append(String.format("busy errors: %d, other errors: %d, integrity violations: %d%n",
+                mBusyErrors.get(), mErrors.get(), mViolations.get()));
+        for (String message : mMessages) {
+            builder.append("  ").append(message).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence.benchmarks;
+
+import com.codeslap.robolectric.RobolectricSimpleRunner;
+import com.xtremelabs.robolectric.Robolectric;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the {@link StressHarness} with the command line configuration and fails if data integrity was violated.
+ */
+@RunWith(RobolectricSimpleRunner.class)
+public class StressSuite {
+
+    @Test
+    public void run() throws Exception {
+        Robolectric.bindShadowClass(ShadowContentProvider.class);
+        Robolectric.bindShadowClass(ShadowUriMatcher.class);
+        StressConfig config = StressConfig.parse(BenchmarkMain.getArgs());
+        StressReport report = new StressHarness(config).run();
+        System.out.println(report);
+        assertEquals("Integrity violations", 0, report.getViolations());
+    }
+}
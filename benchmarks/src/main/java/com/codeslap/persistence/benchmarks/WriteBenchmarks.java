@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence.benchmarks;
+
+import com.codeslap.persistence.SqlAdapter;
+import com.codeslap.persistence.benchmarks.Entities.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the write paths: single and graph stores, both storeCollection paths and updates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class WriteBenchmarks {
+
+    @State(Scope.Thread)
+    public static class Single extends BenchmarkDatabase {
+        List<Entry> records;
+        Parent[] parents;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            open();
+            records = generator.records(rows);
+            parents = generator.parents(rows).toArray(new Parent[rows]);
+        }
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            truncate();
+        }
+
+        Entry nextRecord() {
+            Entry record = records.get(next++ % rows);
+            record.id = 0;
+            return record;
+        }
+
+        Parent nextParent() {
+            Parent parent = parents[next++ % rows];
+            resetIds(parent);
+            return parent;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Batch extends BenchmarkDatabase {
+        List<Entry> records;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            open();
+            records = generator.records(rows);
+        }
+
+        @Setup(Level.Invocation)
+        public void clean() {
+            truncate();
+            resetIds(records);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Stored extends BenchmarkDatabase {
+        List<Entry> records;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            open();
+            records = generator.records(rows);
+            adapter.storeCollection(records, null);
+            records = adapter.findAll(Entry.class);
+        }
+    }
+
+    @Benchmark
+    public Object store(Single state) {
+        return state.adapter.store(state.nextRecord());
+    }
+
+    @Benchmark
+    public Object storeGraph(Single state) {
+        return state.adapter.store(state.nextParent());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void storeCollectionFast(Batch state) {
+        state.adapter.storeCollection(state.records, null);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void storeCollectionSlow(Batch state) {
+        // a progress listener forces one statement per bean
+        state.adapter.storeCollection(state.records, new SqlAdapter.ProgressListener() {
+            @Override
+            public void onProgressChange(int percentage) {
+            }
+        });
+    }
+
+    @Benchmark
+    public int update(Stored state) {
+        Entry record = state.records.get(state.next++ % state.rows);
+        record.number++;
+        return state.adapter.update(record, "id = ?", new String[]{String.valueOf(record.id)});
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link MetricsSink} that aggregates the operations per type and entity using lock-free counters and latency
+ * histograms. Take a {@link #snapshot()} from time to time and ship it to your own telemetry.
+ */
+public class AggregatingMetricsSink implements MetricsSink {
+    private final Map<String, Stats> mStats = new ConcurrentHashMap<String, Stats>();
+
+    @Override
+    public void onOperation(Operation operation, String entity, long rows, int statements, long durationNanos) {
+        String key = operation.name() + ':' + entity;
+        Stats stats = mStats.get(key);
+        if (stats == null) {
+            synchronized (mStats) {
+                stats = mStats.get(key);
+                if (stats == null) {
+                    stats = new Stats(operation, entity);
+                    mStats.put(key, stats);
+                }
+            }
+        }
+        stats.mRows.addAndGet(rows);
+        stats.mStatements.addAndGet(statements);
+        stats.mTotalNanos.addAndGet(durationNanos);
+        stats.mHistogram.record(durationNanos / 1000);
+    }
+
+    /**
+     * @return the current value of the metrics of every operation and entity seen so far
+     */
+    public List<Snapshot> snapshot() {
+        List<Snapshot> snapshots = new ArrayList<Snapshot>();
+        for (Stats stats : mStats.values()) {
+            snapshots.add(new Snapshot(stats));
+        }
+        return snapshots;
+    }
+
+    /**
+     * @return a human readable version of the current snapshot, one line per operation and entity
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        for (Snapshot snapshot : snapshot()) {
+            builder.append(snapshot).append('\n');
+        }
+        return builder.toString();
+    }
+
+    public void reset() {
+        mStats.clear();
+    }
+
+    private static class Stats {
+        private final Operation mOperation;
+        private final String mEntity;
+        private final AtomicLong mRows = new AtomicLong();
+        private final AtomicLong mStatements = new AtomicLong();
+        private final AtomicLong mTotalNanos = new AtomicLong();
+        private final LatencyHistogram mHistogram = new LatencyHistogram();
+
+        Stats(Operation operation, String entity) {
+            mOperation = operation;
+            mEntity = entity;
+        }
+    }
+
+    /**
+     * Metrics of one operation type on one entity. Latencies are in microseconds
+     */
+    public static class Snapshot {
+        private final Operation mOperation;
+        private final String mEntity;
+        private final long mCount;
+        private final long mRows;
+        private final long mStatements;
+        private final long mTotalMicros;
+        private final long mP50;
+        private final long mP90;
+        private final long mP99;
+        private final long mMax;
+
+        Snapshot(Stats stats) {
+            mOperation = stats.mOperation;
+            mEntity = stats.mEntity;
+            mCount = stats.mHistogram.getCount();
+            mRows = stats.mRows.get();
+            mStatements = stats.mStatements.get();
+            mTotalMicros = stats.mTotalNanos.get() / 1000;
+            mP50 = stats.mHistogram.getValueAtPercentile(50);
+            mP90 = stats.mHistogram.getValueAtPercentile(90);
+            mP99 = stats.mHistogram.getValueAtPercentile(99);
+            mMax = stats.mHistogram.getMax();
+        }
+
+        public Operation getOperation() {
+            return mOperation;
+        }
+
+        public String getEntity() {
+            return mEntity;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getRows() {
+            return mRows;
+        }
+
+        public long getStatements() {
+            return mStatements;
+        }
+
+        public long getTotalMicros() {
+            return mTotalMicros;
+        }
+
+        public long getP50() {
+            return mP50;
+        }
+
+        public long getP90() {
+            return mP90;
+        }
+
+        public long getP99() {
+            return mP99;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s count=%d rows=%d statements=%d total=%dus p50=%dus p90=%dus p99=%dus max=%dus",
+                    mOperation, mEntity, mCount, mRows, mStatements, mTotalMicros, mP50, mP90, mP99, mMax);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.database.Cursor;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class defines an aggregation (sum, min, max, avg, count distinct) to be computed by sqlite. Fields
+ * are referenced by their java name; they will be translated to the corresponding column names.
+ */
+public class Aggregation {
+    private final List<String> mFunctions = new ArrayList<String>();
+    private final List<String> mFields = new ArrayList<String>();
+    private final List<String> mGroupBy = new ArrayList<String>();
+    private String mWhere;
+    private String[] mWhereArgs;
+    private String mHaving;
+
+    public Aggregation() {
+    }
+
+    public Aggregation sum(String field) {
+        return add("SUM(%s)", field);
+    }
+
+    public Aggregation min(String field) {
+        return add("MIN(%s)", field);
+    }
+
+    public Aggregation max(String field) {
+        return add("MAX(%s)", field);
+    }
+
+    public Aggregation avg(String field) {
+        return add("AVG(%s)", field);
+    }
+
+    public Aggregation countDistinct(String field) {
+        return add("COUNT(DISTINCT %s)", field);
+    }
+
+    /**
+     * @param fields fields used to group the rows. Each resulting {@link Row} will contain the values of these fields
+     * @return instance of current {@link Aggregation} object
+     */
+    public Aggregation groupBy(String... fields) {
+        for (String field : fields) {
+            mGroupBy.add(field);
+        }
+        return this;
+    }
+
+    /**
+     * @param where     a SQL query. It is recommended to use wildcards like: <code>something = ? AND another = ?</code>
+     * @param whereArgs the list of values used in the wildcards
+     * @return instance of current {@link Aggregation} object
+     */
+    public Aggregation where(String where, String[] whereArgs) {
+        mWhere = where;
+        mWhereArgs = whereArgs;
+        return this;
+    }
+
+    /**
+     * @param having a filter for the groups, formatted as an SQL HAVING clause (excluding the HAVING itself).
+     *               It must use column names, for instance: <code>SUM(power) > 10</code>
+     * @return instance of current {@link Aggregation} object
+     */
+    public Aggregation having(String having) {
+        mHaving = having;
+        return this;
+    }
+
+    /**
+     * @param function format of the aggregate function, where %s is replaced by the column name
+     * @param field    the field the function is applied to
+     * @return instance of current {@link Aggregation} object
+     */
+    Aggregation add(String function, String field) {
+        mFunctions.add(function);
+        mFields.add(field);
+        return this;
+    }
+
+    List<String> getFunctions() {
+        return mFunctions;
+    }
+
+    List<String> getFields() {
+        return mFields;
+    }
+
+    List<String> getGroupByFields() {
+        return mGroupBy;
+    }
+
+    String getWhere() {
+        return mWhere;
+    }
+
+    String[] getWhereArgs() {
+        return mWhereArgs;
+    }
+
+    String getHaving() {
+        return mHaving;
+    }
+
+    /**
+     * @param theClass the class being aggregated
+     * @return the projection to use: group columns first, then aggregate functions
+     */
+    String[] getProjection(Class<?> theClass) {
+        if (mFunctions.isEmpty()) {
+            throw new IllegalStateException("You must specify at least one aggregate function");
+        }
+        String[] projection = new String[mGroupBy.size() + mFunctions.size()];
+        int index = 0;
+        for (String field : mGroupBy) {
+            projection[index++] = getColumnName(theClass, field);
+        }
+        for (int i = 0, size = mFunctions.size(); i < size; i++) {
+            projection[index++] = String.format(mFunctions.get(i), getColumnName(theClass, mFields.get(i)));
+        }
+        return projection;
+    }
+
+    /**
+     * @param theClass the class being aggregated
+     * @return the group by clause or null if there is no grouping
+     */
+    String getGroupBy(Class<?> theClass) {
+        if (mGroupBy.isEmpty()) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (String field : mGroupBy) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(getColumnName(theClass, field));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param query cursor pointing to the row to read
+     * @return a row containing the group values and the aggregated values of the current cursor position
+     */
+    Row readRow(Cursor query) {
+        int groups = mGroupBy.size();
+        int aggregates = mFunctions.size();
+        Row row = new Row(mGroupBy, aggregates);
+        for (int i = 0; i < groups; i++) {
+            row.mGroups[i] = query.getString(i);
+        }
+        for (int i = 0; i < aggregates; i++) {
+            int column = groups + i;
+            row.mNulls[i] = query.isNull(column);
+            row.mLongs[i] = query.getLong(column);
+            row.mDoubles[i] = query.getDouble(column);
+        }
+        return row;
+    }
+
+    private static String getColumnName(Class<?> theClass, String fieldName) {
+        for (Field field : SQLHelper.getDeclaredFields(theClass)) {
+            if (field.getName().equals(fieldName)) {
+                return SQLHelper.getColumnName(field);
+            }
+        }
+        String msg = String.format("Class %s does not have a field called '%s'", theClass.getSimpleName(), fieldName);
+        throw new IllegalArgumentException(msg);
+    }
+
+    /**
+     * Result of an aggregation. Aggregated values are accessed by the order in which they were added
+     * to the {@link Aggregation}; group values are accessed by field name.
+     */
+    public static class Row {
+        private final List<String> mGroupBy;
+        private final String[] mGroups;
+        private final long[] mLongs;
+        private final double[] mDoubles;
+        private final boolean[] mNulls;
+
+        Row(List<String> groupBy, int aggregates) {
+            // the aggregation can still get more groups after the row is returned
+            mGroupBy = new ArrayList<String>(groupBy);
+            mGroups = new String[groupBy.size()];
+            mLongs = new long[aggregates];
+            mDoubles = new double[aggregates];
+            mNulls = new boolean[aggregates];
+        }
+
+        /**
+         * @param field the name of one of the fields used to group
+         * @return the value of that field for this group
+         */
+        public String getGroup(String field) {
+            int index = mGroupBy.indexOf(field);
+            if (index == -1) {
+                throw new IllegalArgumentException("Aggregation was not grouped by " + field);
+            }
+            return mGroups[index];
+        }
+
+        public long getLong(int index) {
+            return mLongs[index];
+        }
+
+        public double getDouble(int index) {
+            return mDoubles[index];
+        }
+
+        /**
+         * @param index the aggregated value index
+         * @return true if the aggregated value is null (e.g. the sum of no rows)
+         */
+        public boolean isNull(int index) {
+            return mNulls[index];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("Row{");
+            for (int i = 0; i < mGroups.length; i++) {
+                builder.append(mGroupBy.get(i)).append("=").append(mGroups[i]).append(", ");
+            }
+            for (int i = 0; i < mDoubles.length; i++) {
+                builder.append(i).append("=").append(mNulls[i] ? null : mDoubles[i]);
+                if (i < mDoubles.length - 1) {
+                    builder.append(", ");
+                }
+            }
+            return builder.append('}').toString();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link Storage} on top of an Android {@link SQLiteDatabase}. The database is created and upgraded by a
+ * {@link DbOpenHelper}.
+ * <p/>
+ * Statements run with bind arguments are kept compiled: before Honeycomb {@link SQLiteDatabase} compiles them on
+ * every call.
+ */
+class AndroidStorage implements Storage {
+    private static final int STATEMENT_CACHE_SIZE = 16;
+
+    private final DbOpenHelper mOpenHelper;
+    private final SQLiteDatabase mDatabase;
+    private final Map<String, SQLiteStatement> mStatements =
+            new LinkedHashMap<String, SQLiteStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                    if (size() > STATEMENT_CACHE_SIZE) {
+                        eldest.getValue().close();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+    // the database the cached statements were compiled against, the open helper can reopen it
+    private SQLiteDatabase mStatementsDatabase;
+
+    AndroidStorage(DbOpenHelper openHelper) {
+        mOpenHelper = openHelper;
+        mDatabase = null;
+    }
+
+    /**
+     * @param database an already opened database, for instance the one being created by a {@link DbOpenHelper}
+     */
+    AndroidStorage(SQLiteDatabase database) {
+        mOpenHelper = null;
+        mDatabase = database;
+    }
+
+    SQLiteDatabase getDatabase() {
+        return mDatabase != null ? mDatabase : mOpenHelper.getWritableDatabase();
+    }
+
+    @Override
+    public Cursor rawQuery(String sql, String[] args) {
+        return getDatabase().rawQuery(sql, args);
+    }
+
+    @Override
+    public void execSQL(String sql) {
+        getDatabase().execSQL(sql);
+    }
+
+    @Override
+    public synchronized void execSQL(String sql, Object[] bindArgs) {
+        SQLiteStatement statement = compile(sql);
+        statement.clearBindings();
+        if (bindArgs != null) {
+            for (int i = 0; i < bindArgs.length; i++) {
+                bind(statement, i + 1, bindArgs[i]);
+            }
+        }
+        statement.execute();
+    }
+
+    @Override
+    public synchronized CompiledStatement compileStatement(String sql) {
+        compile(sql);
+        return new CachedStatement(this, sql);
+    }
+
+    @Override
+    public long insert(String table, Map<String, Object> values) {
+        return getDatabase().insert(table, null, toContentValues(values));
+    }
+
+    @Override
+    public int update(String table, Map<String, Object> values, String where, String[] whereArgs) {
+        return getDatabase().update(table, toContentValues(values), where, whereArgs);
+    }
+
+    @Override
+    public int delete(String table, String where, String[] whereArgs) {
+        return getDatabase().delete(table, where, whereArgs);
+    }
+
+    @Override
+    public int getVersion() {
+        return getDatabase().getVersion();
+    }
+
+    @Override
+    public void setVersion(int version) {
+        getDatabase().setVersion(version);
+    }
+
+    @Override
+    public synchronized void close() {
+        closeStatements();
+        if (mOpenHelper != null) {
+            mOpenHelper.close();
+        } else {
+            mDatabase.close();
+        }
+    }
+
+    /**
+     * Closes the compiled statements without closing the database, for storages that wrap a database they do not
+     * own
+     */
+    synchronized void releaseStatements() {
+        closeStatements();
+    }
+
+    private SQLiteStatement compile(String sql) {
+        SQLiteDatabase database = getDatabase();
+        if (database != mStatementsDatabase) {
+            closeStatements();
+            mStatementsDatabase = database;
+        }
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = database.compileStatement(sql);
+            mStatements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    private void closeStatements() {
+        for (SQLiteStatement statement : mStatements.values()) {
+            statement.close();
+        }
+        mStatements.clear();
+        mStatementsDatabase = null;
+    }
+
+    private static ContentValues toContentValues(Map<String, Object> values) {
+        ContentValues contentValues = new ContentValues();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (value == null) {
+                contentValues.putNull(key);
+            } else if (value instanceof byte[]) {
+                contentValues.put(key, (byte[]) value);
+            } else if (value instanceof Float || value instanceof Double) {
+                contentValues.put(key, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                contentValues.put(key, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                contentValues.put(key, (Boolean) value);
+            } else {
+                contentValues.put(key, value.toString());
+            }
+        }
+        return contentValues;
+    }
+
+    private static void bind(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else if (value instanceof Float || value instanceof Double) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+}
@@ -17,7 +17,6 @@
 package com.codeslap.persistence;
 
 import android.content.Context;
-import android.database.sqlite.SQLiteDatabase;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -39,11 +38,22 @@ class AssetsImporter implements Importer {
     }
 
     @Override
-    public void execute(SQLiteDatabase database) {
+    public void execute(Storage database, StatementTracer tracer) {
         long init = System.currentTimeMillis();
         PersistenceLogManager.d(TAG, String.format("Importing '%s'...", mPath));
 
-        new StreamImporter(getInputStream()).execute(database);
+        InputStream inputStream = getInputStream();
+        try {
+            new StreamImporter(inputStream).execute(database, tracer);
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
 
         long end = System.currentTimeMillis();
         PersistenceLogManager.d(TAG, String.format("Took %dms to import '%s'", end - init, mPath));
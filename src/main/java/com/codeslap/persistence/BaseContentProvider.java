@@ -19,10 +19,10 @@ package com.codeslap.persistence;
 import android.content.*;
 import android.database.Cursor;
 import android.database.SQLException;
-import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -70,9 +70,14 @@ public abstract class BaseContentProvider extends ContentProvider {
             throw new IllegalArgumentException("Unknown URI " + uri);
         }
         String tableName = TABLE_NAME_IDS.get(id);
-        Cursor cursor = getDatabase().query(tableName, projection, selection, selectionArgs, null, null, sortOrder, null);
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
-        return cursor;
+        long start = Metrics.begin(MetricsSink.Operation.PROVIDER_QUERY);
+        try {
+            Cursor cursor = getDbHelper().query(tableName, projection, selection, selectionArgs, null, null, sortOrder, null);
+            cursor.setNotificationUri(getContext().getContentResolver(), uri);
+            return Metrics.fill(cursor, start);
+        } finally {
+            Metrics.end(MetricsSink.Operation.PROVIDER_QUERY, tableName, start);
+        }
     }
 
     @Override
@@ -94,10 +99,20 @@ public abstract class BaseContentProvider extends ContentProvider {
         }
 
         String tableName = TABLE_NAME_IDS.get(id);
-        long rowId = getDatabase().insert(tableName, null, initialValues);
+        long start = Metrics.begin(MetricsSink.Operation.PROVIDER_INSERT);
+        long rowId;
+        try {
+            rowId = getDbHelper().insert(tableName, toMap(initialValues));
+            if (rowId > 0) {
+                Metrics.rows(1);
+            }
+        } finally {
+            Metrics.end(MetricsSink.Operation.PROVIDER_INSERT, tableName, start);
+        }
         if (rowId > 0) {
             Uri CONTENT_URI = Uri.parse(String.format("content://%s/%s", getAuthority(), tableName));
             Uri beanUri = ContentUris.withAppendedId(CONTENT_URI, rowId);
+            onTableChanged(tableName);
             getContext().getContentResolver().notifyChange(beanUri, null);
             return beanUri;
         }
@@ -113,7 +128,15 @@ public abstract class BaseContentProvider extends ContentProvider {
         }
 
         String tableName = TABLE_NAME_IDS.get(id);
-        int count = getDatabase().delete(tableName, where, whereArgs);
+        long start = Metrics.begin(MetricsSink.Operation.PROVIDER_DELETE);
+        int count;
+        try {
+            count = getDbHelper().delete(tableName, where, whereArgs);
+            Metrics.rows(count);
+        } finally {
+            Metrics.end(MetricsSink.Operation.PROVIDER_DELETE, tableName, start);
+        }
+        onTableChanged(tableName);
 
         getContext().getContentResolver().notifyChange(uri, null);
         return count;
@@ -127,14 +150,35 @@ public abstract class BaseContentProvider extends ContentProvider {
         }
 
         String tableName = TABLE_NAME_IDS.get(id);
-        int count = getDatabase().update(tableName, values, where, whereArgs);
+        long start = Metrics.begin(MetricsSink.Operation.PROVIDER_UPDATE);
+        int count;
+        try {
+            count = getDbHelper().update(tableName, toMap(values), where, whereArgs);
+            Metrics.rows(count);
+        } finally {
+            Metrics.end(MetricsSink.Operation.PROVIDER_UPDATE, tableName, start);
+        }
+        onTableChanged(tableName);
         getContext().getContentResolver().notifyChange(uri, null);
         return count;
     }
 
-    private SQLiteDatabase getDatabase() {
-        SqliteDb helper = SqliteDb.getInstance(getContext(), getDatabaseName(), mDatabaseSpec);
-        return helper.getDatabase();
+    private static Map<String, Object> toMap(ContentValues values) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Object> value : values.valueSet()) {
+            map.put(value.getKey(), value.getValue());
+        }
+        return map;
+    }
+
+    private void onTableChanged(String tableName) {
+        SqliteDb helper = getDbHelper();
+        helper.getEntityCache().remove(tableName);
+        helper.getQueryCache().bump(tableName);
+    }
+
+    private SqliteDb getDbHelper() {
+        return SqliteDb.getInstance(getContext(), getDatabaseName(), mDatabaseSpec);
     }
 
     public static Uri buildBaseUri(String authority, Class<?> theClass) {
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+/**
+ * {@link Storage.CompiledStatement} that runs its SQL through {@link Storage#execSQL(String, Object[])}, which
+ * finds the compiled statement in the cache of the storage (or compiles it again if it was evicted)
+ */
+class CachedStatement implements Storage.CompiledStatement {
+    private final Storage mStorage;
+    private final String mSql;
+
+    CachedStatement(Storage storage, String sql) {
+        mStorage = storage;
+        mSql = sql;
+    }
+
+    @Override
+    public void execute(Object[] bindArgs) {
+        mStorage.execSQL(mSql, bindArgs);
+    }
+
+    @Override
+    public String toString() {
+        return mSql;
+    }
+}
@@ -49,4 +49,10 @@ public @interface Column {
      * @return true if the name of this column must be forced. Useful when handling primary keys whose name is not _id
      */
     boolean forceName() default false;
+
+    /**
+     * @return how this field is compared when it is populated in a query-by-example sample. Only applies to
+     *         String fields
+     */
+    StringMatch match() default StringMatch.LIKE;
 }
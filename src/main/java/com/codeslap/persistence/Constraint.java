@@ -23,6 +23,7 @@ public class Constraint {
     private String mOrderBy;
     private Integer mLimit;
     private String mGroupBy;
+    private StringMatch mStringMatch;
 
     public Constraint() {
     }
@@ -42,6 +43,16 @@ public class Constraint {
         return this;
     }
 
+    /**
+     * @param stringMatch how the String fields of the sample are compared. It overrides the mode
+     *                    specified with {@link Column#match()}
+     * @return instance of current {@link Constraint} object
+     */
+    public Constraint stringMatch(StringMatch stringMatch) {
+        mStringMatch = stringMatch;
+        return this;
+    }
+
     String getOrderBy() {
         return mOrderBy;
     }
@@ -53,4 +64,8 @@ public class Constraint {
     String getGroupBy() {
         return mGroupBy;
     }
+
+    StringMatch getStringMatch() {
+        return mStringMatch;
+    }
 }
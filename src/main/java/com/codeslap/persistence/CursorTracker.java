@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the cursors opened by the library, including the ones handed to the caller by {@link RawQuery}
+ * and content providers. It counts the cursors that are still open and the memory reserved by their windows, and
+ * reports the cursors that are garbage collected without having been closed.
+ * <p/>
+ * Allocation stacks are only recorded when enabled with {@link PersistenceConfig#setCursorDebugMode(boolean)},
+ * since taking them is expensive.
+ */
+public final class CursorTracker {
+    private static final String TAG = CursorTracker.class.getSimpleName();
+    // size of the cursor windows; they are allocated entirely when the cursor is filled
+    static final long WINDOW_BYTES = 1024 * 1024;
+
+    private static final Map<Tracked, Boolean> OPEN_CURSORS =
+            Collections.synchronizedMap(new WeakHashMap<Tracked, Boolean>());
+    private static final AtomicInteger sOpenCount = new AtomicInteger();
+    private static final AtomicLong sLeakCount = new AtomicLong();
+    private static volatile boolean sDebug;
+
+    private CursorTracker() {
+    }
+
+    /**
+     * A cursor known by the tracker: either a {@link TrackedCursor} wrapping a cursor of Android, or a
+     * {@link JdbcCursor}, which reports by itself so that it does not need the Android framework
+     */
+    interface Tracked {
+        /**
+         * @return where the cursor was allocated, or null if the debug mode was disabled
+         */
+        Throwable getAllocation();
+
+        /**
+         * @return the generation of the entity cache when the query started, or -1 if it is unknown
+         */
+        long getCacheGeneration();
+
+        void setCacheGeneration(long cacheGeneration);
+    }
+
+    static void setDebug(boolean debug) {
+        sDebug = debug;
+    }
+
+    /**
+     * Wraps a cursor so that it is tracked
+     *
+     * @param cursor the cursor to track
+     * @return the tracked cursor
+     */
+    static Cursor track(Cursor cursor) {
+        if (cursor == null || cursor instanceof TrackedCursor) {
+            return cursor;
+        }
+        Throwable allocation = sDebug ? new Throwable("Cursor allocated here") : null;
+        Cursor tracked;
+        if (cursor instanceof JdbcCursor) {
+            if (!((JdbcCursor) cursor).track(allocation)) {
+                return cursor;
+            }
+            tracked = cursor;
+        } else {
+            tracked = new TrackedCursor(cursor, allocation);
+        }
+        sOpenCount.incrementAndGet();
+        OPEN_CURSORS.put((Tracked) tracked, Boolean.TRUE);
+        return tracked;
+    }
+
+    static void onClosed(Tracked cursor) {
+        sOpenCount.decrementAndGet();
+        OPEN_CURSORS.remove(cursor);
+    }
+
+    static void onLeaked(Tracked cursor) {
+        sOpenCount.decrementAndGet();
+        sLeakCount.incrementAndGet();
+        Throwable allocation = cursor.getAllocation();
+        if (allocation == null) {
+            PersistenceLogManager.e(TAG, "A cursor was finalized without being closed. Enable the cursor debug " +
+                    "mode to know where it was opened");
+        } else {
+            PersistenceLogManager.e(TAG, "A cursor was finalized without being closed", allocation);
+        }
+    }
+
+    /**
+     * @return number of cursors opened by the library that have not been closed yet
+     */
+    public static int getOpenCursorCount() {
+        return sOpenCount.get();
+    }
+
+    /**
+     * @return estimated bytes reserved by the windows of the open cursors
+     */
+    public static long getOpenWindowBytes() {
+        long bytes = 0;
+        for (Tracked cursor : getOpenCursors()) {
+            Cursor wrapped = cursor instanceof TrackedCursor ? ((TrackedCursor) cursor).getCursor() : null;
+            if (wrapped instanceof AbstractWindowedCursor && ((AbstractWindowedCursor) wrapped).hasWindow()) {
+                bytes += WINDOW_BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return number of cursors that were garbage collected without being closed
+     */
+    public static long getLeakCount() {
+        return sLeakCount.get();
+    }
+
+    /**
+     * @return where the open cursors were allocated. Only the cursors opened while the debug mode was enabled
+     *         are included
+     */
+    public static List<Throwable> getOpenCursorAllocations() {
+        List<Throwable> allocations = new ArrayList<Throwable>();
+        for (Tracked cursor : getOpenCursors()) {
+            if (cursor.getAllocation() != null) {
+                allocations.add(cursor.getAllocation());
+            }
+        }
+        return allocations;
+    }
+
+    private static List<Tracked> getOpenCursors() {
+        synchronized (OPEN_CURSORS) {
+            return new ArrayList<Tracked>(OPEN_CURSORS.keySet());
+        }
+    }
+}
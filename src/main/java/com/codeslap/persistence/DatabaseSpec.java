@@ -18,10 +18,13 @@ package com.codeslap.persistence;
 
 import android.content.Context;
 
+import java.io.File;
 import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 /**
  * Class that defines a database (what tables it has, what are they relationships and how it is created/upgraded)
@@ -33,11 +36,30 @@ public class DatabaseSpec {
     private final List<Class<?>> mAutoIncrementList = new ArrayList<Class<?>>();
     private final List<ManyToMany> mManyToManyList = new ArrayList<ManyToMany>();
     private final List<HasMany> mHasManyList = new ArrayList<HasMany>();
+    private final List<Class<?>> mCachedList = new ArrayList<Class<?>>();
+    private int mCacheMaxEntries = 1000;
+    private long mCacheMaxBytes = 1024 * 1024;
+    private int mQueryCacheSize;
+    private QueryPlanGuard.Mode mQueryPlanGuardMode = QueryPlanGuard.Mode.OFF;
+    private long mQueryPlanGuardMinRows;
+    private boolean mRecordQueryShapes;
+    private int mAutoIndexMinExecutions;
+    private final List<StatementListener> mStatementListeners = new ArrayList<StatementListener>();
+    private long mSlowStatementThreshold = -1;
+    private int mSlowStatementMaxEntries;
 
     private final int mVersion;
     private final List<Importer> mBeforeImporters = new ArrayList<Importer>();
     private final List<Importer> mAfterImporters = new ArrayList<Importer>();
     DbOpenHelperBuilder mDbOpenHelperBuilder;
+    private StorageBuilder mStorageBuilder;
+    private boolean mInMemory;
+    private PrebuiltDatabase mPrebuiltDatabase;
+    private TuningProfile mTuningProfile;
+    private boolean mMaintenanceScheduled;
+    private final SortedMap<Integer, List<Migration>> mMigrations = new TreeMap<Integer, List<Migration>>();
+    private long mMaintenanceWriteThreshold;
+    private long mMaintenanceMaxDuration;
 
     DatabaseSpec(int version) {
         mVersion = version;
@@ -70,6 +92,179 @@ public class DatabaseSpec {
         DbOpenHelper buildOpenHelper(Context context, String name, int version);
     }
 
+    /**
+     * Sets the builder of the {@link Storage} used by the databases of this spec. By default they are stored in
+     * Android's {@link android.database.sqlite.SQLiteDatabase}s, created and upgraded by a {@link DbOpenHelper}.
+     * Other storages are created and upgraded by the library: upgrades drop all the tables and create them again.
+     *
+     * @param storageBuilder the {@link StorageBuilder} implementation, or null to use Android's databases
+     * @return instance of current {@link DatabaseSpec} object
+     * @see JdbcStorage#builder(java.io.File)
+     */
+    public DatabaseSpec setStorageBuilder(StorageBuilder storageBuilder) {
+        mStorageBuilder = storageBuilder;
+        return this;
+    }
+
+    StorageBuilder getStorageBuilder() {
+        return mStorageBuilder;
+    }
+
+    /**
+     * Keeps the databases of this spec in memory instead of a file. This is meant for data that can be rebuilt,
+     * like caches, since it is lost when the process dies; use {@link SqlAdapter#snapshotTo(java.io.File)} and
+     * {@link SqlAdapter#restoreFrom(java.io.File)} to keep it across restarts.
+     *
+     * @param inMemory true to keep the databases in memory
+     * @return instance of current {@link DatabaseSpec} object
+     */
+    public DatabaseSpec setInMemory(boolean inMemory) {
+        mInMemory = inMemory;
+        return this;
+    }
+
+    boolean isInMemory() {
+        return mInMemory;
+    }
+
+    /**
+     * Installs a prebuilt SQLite file from the assets as the database, the first time it is opened. This is much
+     * faster than populating it with SQL importers: the file is copied (using a direct channel transfer when the
+     * asset is not compressed) and then checked against the spec. If the copy fails or the file does not have the
+     * tables and columns of the spec, the database is created as usual and the importers are run instead. The
+     * indexes of the spec are added to the prebuilt file if it does not have them.
+     * <p/>
+     * It is only supported by Android databases and {@link JdbcStorage#builder(java.io.File)} storages.
+     *
+     * @param context used to read the assets
+     * @param path    path of the database file relative to the assets folder
+     * @return instance of current {@link DatabaseSpec} object
+     */
+    public DatabaseSpec prepopulateFromAssetDatabase(Context context, String path) {
+        mPrebuiltDatabase = PrebuiltDatabase.fromAsset(context, path);
+        return this;
+    }
+
+    /**
+     * Same as {@link #prepopulateFromAssetDatabase(Context, String)} but reading a database file, for instance one
+     * that was downloaded
+     *
+     * @param file the prebuilt database file
+     * @return instance of current {@link DatabaseSpec} object
+     */
+    public DatabaseSpec prepopulateFromDatabase(File file) {
+        mPrebuiltDatabase = PrebuiltDatabase.fromFile(file);
+        return this;
+    }
+
+    PrebuiltDatabase getPrebuiltDatabase() {
+        return mPrebuiltDatabase;
+    }
+
+    /**
+     * Sets the storage settings applied every time a database of this spec is opened
+     *
+     * @param tuningProfile the settings to use, or null to keep the SQLite defaults
+     * @return instance of current {@link DatabaseSpec} object
+     * @see TuningProfile#durable()
+     * @see TuningProfile#bulkLoad()
+     * @see TuningProfile#readMostlyCache()
+     */
+    public DatabaseSpec setTuningProfile(TuningProfile tuningProfile) {
+        mTuningProfile = tuningProfile;
+        return this;
+    }
+
+    TuningProfile getTuningProfile() {
+        return mTuningProfile;
+    }
+
+    /**
+     * Makes the databases of this spec track how many rows are written to each table, and run their
+     * {@link Maintenance} in a background thread once enough rows have been written
+     *
+     * @param writeThreshold    number of written rows that starts a run, or 0 to only run it on demand
+     * @param maxDurationMillis time box of each run
+     * @return instance of current {@link DatabaseSpec} object
+     */
+    public DatabaseSpec scheduleMaintenance(long writeThreshold, long maxDurationMillis) {
+        mMaintenanceScheduled = true;
+        mMaintenanceWriteThreshold = writeThreshold;
+        mMaintenanceMaxDuration = maxDurationMillis;
+        return this;
+    }
+
+    boolean isMaintenanceScheduled() {
+        return mMaintenanceScheduled;
+    }
+
+    long getMaintenanceWriteThreshold() {
+        return mMaintenanceWriteThreshold;
+    }
+
+    long getMaintenanceMaxDuration() {
+        return mMaintenanceMaxDuration;
+    }
+
+    /**
+     * Registers a data transformation to run when a database is upgraded to the specified version (or past it).
+     * Migrations run in version order, once the tables, columns and indexes of the current spec exist.
+     *
+     * @param version   the version that introduced the change
+     * @param migration the migration to run
+     * @return instance of current {@link DatabaseSpec} object
+     */
+    public DatabaseSpec addMigration(int version, Migration migration) {
+        if (version <= 1 || version > mVersion) {
+            throw new IllegalArgumentException("Migrations must target a version between 2 and " + mVersion);
+        }
+        List<Migration> migrations = mMigrations.get(version);
+        if (migrations == null) {
+            migrations = new ArrayList<Migration>();
+            mMigrations.put(version, migrations);
+        }
+        migrations.add(migration);
+        return this;
+    }
+
+    /**
+     * @param oldVersion the version of the database
+     * @param newVersion the version it is upgraded to
+     * @return the migrations to run, in order
+     */
+    List<Migration> getMigrations(int oldVersion, int newVersion) {
+        List<Migration> migrations = new ArrayList<Migration>();
+        if (oldVersion >= newVersion) {
+            return migrations;
+        }
+        for (List<Migration> version : mMigrations.subMap(oldVersion + 1, newVersion + 1).values()) {
+            migrations.addAll(version);
+        }
+        return migrations;
+    }
+
+    /**
+     * A data transformation run while upgrading a database
+     */
+    public static interface Migration {
+        /**
+         * @param storage the database being upgraded. It already has the tables and columns of the current spec
+         */
+        void migrate(Storage storage);
+    }
+
+    /**
+     * Use this to open the {@link Storage} of a database
+     */
+    public static interface StorageBuilder {
+        /**
+         * @param context the context passed to {@link Persistence}, which is null outside Android
+         * @param name    the database name, or null if the database must be kept in memory
+         * @return the opened storage. It is kept open as long as the process lives
+         */
+        Storage buildStorage(Context context, String name);
+    }
+
     public int getVersion() {
         return mVersion;
     }
@@ -218,6 +413,178 @@ public class DatabaseSpec {
         }
     }
 
+    /**
+     * Enables the second-level entity cache for the specified classes. Cached entities are looked up by primary
+     * key, so this is useful for lookup tables that are read very often and rarely written. Classes that are part
+     * of a relation are never cached.
+     *
+     * @param classes the classes to cache. They must be registered too.
+     * @return instance of current {@link DatabaseSpec} object
+     */
+    public DatabaseSpec cache(Class<?>... classes) {
+        for (Class<?> theClass : classes) {
+            if (!mCachedList.contains(theClass)) {
+                mCachedList.add(theClass);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Sets the limits of the second-level entity cache. Least recently used entities are evicted when either of
+     * them is exceeded. By default it holds 1000 entities or 1MB.
+     *
+     * @param maxEntries maximum number of cached entities
+     * @param maxBytes   maximum estimated size of the cached entities
+     * @return instance of current {@link DatabaseSpec} object
+     */
+    public DatabaseSpec setEntityCacheSize(int maxEntries, long maxBytes) {
+        mCacheMaxEntries = maxEntries;
+        mCacheMaxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Enables the query cache, which keeps the results of findAll and count until any of the tables they were
+     * read from is written. It is disabled by default.
+     * <p/>
+     * Beans are copied when they get in and out of the cache, so modifying a returned bean never modifies the
+     * cached result.
+     *
+     * @param maxEntries maximum number of cached results. Zero disables the cache
+     * @return instance of current {@link DatabaseSpec} object
+     */
+    public DatabaseSpec setQueryCacheSize(int maxEntries) {
+        mQueryCacheSize = maxEntries;
+        return this;
+    }
+
+    int getQueryCacheSize() {
+        return mQueryCacheSize;
+    }
+
+    /**
+     * Makes the library run EXPLAIN QUERY PLAN for every distinct query that filters rows, and report the ones
+     * that scan a whole table. Use it in development and test builds to find missing indexes.
+     *
+     * @param mode        whether to warn or fail when a full table scan is found
+     * @param minRowCount scans of tables with fewer rows than this are ignored
+     * @return instance of current {@link DatabaseSpec} object
+     * @see QueryPlanGuard
+     */
+    public DatabaseSpec guardQueryPlans(QueryPlanGuard.Mode mode, long minRowCount) {
+        mQueryPlanGuardMode = mode;
+        mQueryPlanGuardMinRows = minRowCount;
+        return this;
+    }
+
+    QueryPlanGuard.Mode getQueryPlanGuardMode() {
+        return mQueryPlanGuardMode;
+    }
+
+    long getQueryPlanGuardMinRows() {
+        return mQueryPlanGuardMinRows;
+    }
+
+    /**
+     * Makes the library record the shape, frequency and latency of the queries it runs. Recorded shapes can be
+     * inspected and turned into index suggestions using {@link QueryRecorder}.
+     *
+     * @param enabled true to record the queries
+     * @return instance of current {@link DatabaseSpec} object
+     */
+    public DatabaseSpec recordQueryShapes(boolean enabled) {
+        mRecordQueryShapes = enabled;
+        return this;
+    }
+
+    /**
+     * Creates, when the database is opened, the indexes advised for the query shapes saved in previous runs
+     * with {@link QueryRecorder#save()}. It also enables the recording of query shapes.
+     *
+     * @param minExecutions shapes executed fewer times than this are ignored
+     * @return instance of current {@link DatabaseSpec} object
+     */
+    public DatabaseSpec autoCreateIndexes(int minExecutions) {
+        mAutoIndexMinExecutions = minExecutions;
+        mRecordQueryShapes = true;
+        return this;
+    }
+
+    boolean isRecordingQueryShapes() {
+        return mRecordQueryShapes;
+    }
+
+    int getAutoIndexMinExecutions() {
+        return mAutoIndexMinExecutions;
+    }
+
+    /**
+     * Registers a listener that receives every SQL statement run by the library on this database
+     *
+     * @param listener the listener to add
+     * @return instance of current {@link DatabaseSpec} object
+     */
+    public DatabaseSpec addStatementListener(StatementListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Statement listener cannot be null");
+        }
+        mStatementListeners.add(listener);
+        return this;
+    }
+
+    /**
+     * @param listener the listener to remove
+     * @return instance of current {@link DatabaseSpec} object
+     */
+    public DatabaseSpec removeStatementListener(StatementListener listener) {
+        mStatementListeners.remove(listener);
+        return this;
+    }
+
+    /**
+     * Keeps the statements that take longer than a threshold in the {@link SlowQueryLog} of the database, along
+     * with a sample of their query plan.
+     *
+     * @param thresholdMillis statements slower than this are logged. Use a negative value to disable the log
+     * @param maxEntries      number of slow statements to keep
+     * @return instance of current {@link DatabaseSpec} object
+     */
+    public DatabaseSpec logSlowStatements(long thresholdMillis, int maxEntries) {
+        mSlowStatementThreshold = thresholdMillis;
+        mSlowStatementMaxEntries = maxEntries;
+        return this;
+    }
+
+    List<StatementListener> getStatementListeners() {
+        return mStatementListeners;
+    }
+
+    long getSlowStatementThreshold() {
+        return mSlowStatementThreshold;
+    }
+
+    int getSlowStatementMaxEntries() {
+        return mSlowStatementMaxEntries;
+    }
+
+    /**
+     * @param theClass the class to check
+     * @return true if the class uses the second-level entity cache
+     */
+    boolean isCached(Class<?> theClass) {
+        return mCachedList.contains(theClass) && getRelationship(theClass) == Relationship.UNKNOWN
+                && belongsTo(theClass) == null;
+    }
+
+    int getCacheMaxEntries() {
+        return mCacheMaxEntries;
+    }
+
+    long getCacheMaxBytes() {
+        return mCacheMaxBytes;
+    }
+
     /**
      * Returns the relationship of the specified classes
      *
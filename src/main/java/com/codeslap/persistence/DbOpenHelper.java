@@ -20,8 +20,6 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
-import java.util.List;
-
 /**
  * This class will allow you to customize the database creation and, more important,
  * the upgrades you may want to perform.
@@ -30,6 +28,9 @@ import java.util.List;
  */
 public abstract class DbOpenHelper extends SQLiteOpenHelper {
     private DatabaseSpec mDatabaseSpec;
+    private StatementTracer mStatementTracer;
+    // the connection the tuning profile was applied to
+    private SQLiteDatabase mTunedDatabase;
 
     public DbOpenHelper(Context context, String name, int version) {
         super(context, name, null, version);
@@ -39,25 +40,40 @@ public abstract class DbOpenHelper extends SQLiteOpenHelper {
         mDatabaseSpec = databaseSpec;
     }
 
+    void setStatementTracer(StatementTracer statementTracer) {
+        mStatementTracer = statementTracer;
+    }
+
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
-        if (mDatabaseSpec == null) {
-            throw new IllegalStateException("Database specification cannot be null at this point. Let's cry.");
+        TuningProfile tuningProfile = mDatabaseSpec == null ? null : mDatabaseSpec.getTuningProfile();
+        if (tuningProfile != null) {
+            // the page size and the auto vacuum mode are ignored once the first table exists. The other settings
+            // cannot change inside the transaction onCreate runs in; they are applied by onOpen
+            tuningProfile.getCreationSettings().apply(new AndroidStorage(sqLiteDatabase));
         }
-
-        // if there is something to import before creation, let's do it
-        List<Importer> importers = mDatabaseSpec.getBeforeImporters();
-        for (Importer importer : importers) {
-            importer.execute(sqLiteDatabase);
+        AndroidStorage storage = new AndroidStorage(sqLiteDatabase);
+        try {
+            Schema.create(storage, mDatabaseSpec, mStatementTracer);
+        } finally {
+            // the database stays open, only the statements compiled by the importers are released
+            storage.releaseStatements();
         }
+    }
 
-        // create all tables for the current database spec
-        createTables(sqLiteDatabase);
-
-        // if there is something to import after creation, let's do it
-        importers = mDatabaseSpec.getAfterImporters();
-        for (Importer importer : importers) {
-            importer.execute(sqLiteDatabase);
+    /**
+     * Applies the {@link TuningProfile} of the spec every time the database is opened. Subclasses that override
+     * it must call the super implementation.
+     *
+     * @param sqLiteDatabase the database that was opened
+     */
+    @Override
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        super.onOpen(sqLiteDatabase);
+        TuningProfile tuningProfile = mDatabaseSpec == null ? null : mDatabaseSpec.getTuningProfile();
+        if (tuningProfile != null && sqLiteDatabase != mTunedDatabase) {
+            tuningProfile.apply(new AndroidStorage(sqLiteDatabase));
+            mTunedDatabase = sqLiteDatabase;
         }
     }
 
@@ -68,17 +84,47 @@ public abstract class DbOpenHelper extends SQLiteOpenHelper {
     }
 
     protected void createTables(SQLiteDatabase sqLiteDatabase) {
-        List<Class<?>> objects = mDatabaseSpec.getSqliteClasses();
-        for (Class<?> clazz : objects) {
-            sqLiteDatabase.execSQL(SQLHelper.getCreateTableSentence(clazz, mDatabaseSpec));
-        }
-        // create all extra table for many to many relations
-        List<ManyToMany> sqliteManyToMany = mDatabaseSpec.getSqliteManyToMany();
-        for (ManyToMany manyToMany : sqliteManyToMany) {
-            sqLiteDatabase.execSQL(manyToMany.getCreateTableStatement());
+        Schema.createTables(new AndroidStorage(sqLiteDatabase), mDatabaseSpec, mStatementTracer);
+    }
+
+    /**
+     * Creates the indexes declared with {@link Index} and {@link Unique}, and the ones of the relations. It is
+     * also called after upgrading, so new indexes are added to existing tables.
+     *
+     * @param sqLiteDatabase the current sqlite database instance
+     */
+    protected void createIndexes(SQLiteDatabase sqLiteDatabase) {
+        Schema.createIndexes(new AndroidStorage(sqLiteDatabase), mDatabaseSpec, mStatementTracer);
+    }
+
+    /**
+     * Upgrades the tables and indexes to the ones of the current spec keeping the existing rows, and runs the
+     * migrations registered with {@link DatabaseSpec#addMigration(int, DatabaseSpec.Migration)}. This is what the
+     * default helper does on upgrades.
+     *
+     * @param sqLiteDatabase the current sqlite database instance
+     * @param oldVersion     the previous database version
+     * @param newVersion     the next database version
+     */
+    protected void migrateSchema(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        AndroidStorage storage = new AndroidStorage(sqLiteDatabase);
+        try {
+            SchemaUpgrade.upgrade(storage, mDatabaseSpec, oldVersion, newVersion, mStatementTracer);
+        } finally {
+            storage.releaseStatements();
         }
     }
 
+    /**
+     * Drops all the tables and creates them again, losing all the data
+     *
+     * @param sqLiteDatabase the current sqlite database instance
+     */
+    protected void recreateSchema(SQLiteDatabase sqLiteDatabase) {
+        Schema.dropTables(new AndroidStorage(sqLiteDatabase));
+        onCreate(sqLiteDatabase);
+    }
+
     /**
      * Use this when a change to the database schema is needed.
      *
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide LRU cache of entities keyed by class and primary key. There is one per database and it only holds
+ * the classes registered using {@link DatabaseSpec#cache(Class[])}. Entities are copied when they get in and out
+ * of the cache, so modifying a returned bean never modifies the cached one.
+ */
+public class EntityCache {
+    // these are the values of the android.content.ComponentCallbacks2 constants, also used by the QueryCache
+    static final int TRIM_MEMORY_MODERATE = 60;
+    static final int TRIM_MEMORY_RUNNING_LOW = 10;
+
+    private final Map<Key, Entry> mEntries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private final int mMaxEntries;
+    private final long mMaxBytes;
+    private long mBytes;
+    // bumped every time entities are invalidated, so that readers that started before do not cache stale rows
+    private long mGeneration;
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    EntityCache(int maxEntries, long maxBytes) {
+        mMaxEntries = maxEntries;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @param theClass the class of the entity
+     * @param id       the primary key of the entity
+     * @return a copy of the cached entity or null if it is not cached
+     */
+    synchronized <T> T get(Class<T> theClass, Object id) {
+        Entry entry = mEntries.get(new Key(theClass, id));
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return (T) copy(entry.mBean);
+    }
+
+    /**
+     * @return the current invalidation generation. It must be taken before running the query whose beans will be
+     *         cached
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Caches an entity, unless any entity was invalidated since the query it was read from started
+     *
+     * @param id         the primary key of the entity
+     * @param bean       the entity
+     * @param generation the generation taken before running the query
+     */
+    synchronized void put(Object id, Object bean, long generation) {
+        if (generation != mGeneration) {
+            // a concurrent write may have changed this row after it was read
+            return;
+        }
+        Key key = new Key(bean.getClass(), id);
+        Entry entry = new Entry(copy(bean));
+        Entry previous = mEntries.put(key, entry);
+        if (previous != null) {
+            mBytes -= previous.mBytes;
+        }
+        mBytes += entry.mBytes;
+        trimTo(mMaxEntries, mMaxBytes);
+    }
+
+    synchronized void remove(Class<?> theClass, Object id) {
+        mGeneration++;
+        Entry entry = mEntries.remove(new Key(theClass, id));
+        if (entry != null) {
+            mBytes -= entry.mBytes;
+        }
+    }
+
+    /**
+     * Removes all the entities of the specified class
+     *
+     * @param theClass the class to remove
+     */
+    synchronized void remove(Class<?> theClass) {
+        mGeneration++;
+        for (Iterator<Map.Entry<Key, Entry>> iterator = mEntries.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<Key, Entry> entry = iterator.next();
+            if (entry.getKey().mClass == theClass) {
+                mBytes -= entry.getValue().mBytes;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all the entities stored in the specified table
+     *
+     * @param tableName the table name
+     */
+    synchronized void remove(String tableName) {
+        mGeneration++;
+        for (Iterator<Map.Entry<Key, Entry>> iterator = mEntries.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<Key, Entry> entry = iterator.next();
+            if (SQLHelper.getTableName(entry.getKey().mClass).equals(tableName)) {
+                mBytes -= entry.getValue().mBytes;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Releases memory depending on how critical the situation is
+     *
+     * @param level one of the android.content.ComponentCallbacks2 TRIM_MEMORY_* constants
+     */
+    public synchronized void trimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) {
+            trimTo(0, 0);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trimTo(mEntries.size() / 2, mBytes / 2);
+        }
+    }
+
+    public synchronized void clear() {
+        mGeneration++;
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return estimated amount of memory used by the cached entities
+     */
+    public synchronized long getEstimatedBytes() {
+        return mBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    private void trimTo(int maxEntries, long maxBytes) {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext() && (mEntries.size() > maxEntries || mBytes > maxBytes)) {
+            Entry eldest = iterator.next();
+            mBytes -= eldest.mBytes;
+            iterator.remove();
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Copies a bean, including the beans of its relations
+     *
+     * @param bean the bean to copy
+     * @return the copy
+     */
+    static Object copy(Object bean) {
+        return copy(bean, new IdentityHashMap<Object, Object>());
+    }
+
+    private static Object copy(Object bean, Map<Object, Object> copies) {
+        Object copy = copies.get(bean);
+        if (copy != null) {
+            // relations can point back to a bean that is already being copied
+            return copy;
+        }
+        try {
+            copy = bean.getClass().getConstructor().newInstance();
+            copies.put(bean, copy);
+            for (Field field : SQLHelper.getDeclaredFields(bean.getClass())) {
+                field.setAccessible(true);
+                Object value = field.get(bean);
+                if (value instanceof byte[]) {
+                    value = ((byte[]) value).clone();
+                } else if (value instanceof List) {
+                    List<Object> list = new ArrayList<Object>();
+                    for (Object item : (List<?>) value) {
+                        list.add(item == null ? null : copy(item, copies));
+                    }
+                    value = list;
+                }
+                field.set(copy, value);
+            }
+            return copy;
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not copy object of type " + bean.getClass(), e);
+        }
+    }
+
+    private static long estimateSize(Object bean) {
+        long size = 16;
+        for (Field field : SQLHelper.getDeclaredFields(bean.getClass())) {
+            Object value;
+            try {
+                field.setAccessible(true);
+                value = field.get(bean);
+            } catch (IllegalAccessException e) {
+                continue;
+            }
+            if (value instanceof String) {
+                size += 40 + 2 * ((String) value).length();
+            } else if (value instanceof byte[]) {
+                size += 16 + ((byte[]) value).length;
+            } else {
+                size += 8;
+            }
+        }
+        return size;
+    }
+
+    private static class Entry {
+        private final Object mBean;
+        private final long mBytes;
+
+        Entry(Object bean) {
+            mBean = bean;
+            mBytes = estimateSize(bean);
+        }
+    }
+
+    private static class Key {
+        private final Class<?> mClass;
+        private final String mId;
+
+        Key(Class<?> theClass, Object id) {
+            mClass = theClass;
+            // ids are compared the same way sqlite does it when they are used as arguments
+            mId = String.valueOf(id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key key = (Key) o;
+
+            return mClass.equals(key.mClass) && mId.equals(key.mId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mClass.hashCode() + mId.hashCode();
+        }
+    }
+}
@@ -16,8 +16,6 @@
 
 package com.codeslap.persistence;
 
-import android.database.sqlite.SQLiteDatabase;
-
 /**
  * When creating a database, an importer can be used to populate the database.
  * Different type of importing can be represented by implementing this interface.
@@ -25,5 +23,9 @@ import android.database.sqlite.SQLiteDatabase;
  * @author cristian
  */
 interface Importer {
-    void execute(SQLiteDatabase database);
+    /**
+     * @param database the database being created
+     * @param tracer   used to run the statements so that they are traced. Can be null
+     */
+    void execute(Storage database, StatementTracer tracer);
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Creates an index when the table is created or upgraded. When used on a field, the index contains that column
+ * only; when used on a class, {@link #value()} must contain the names of the fields of a composite index. Use
+ * {@link Indexes} to declare more than one composite index.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.TYPE})
+public @interface Index {
+    /**
+     * @return the fields of the index, in order. Only used when the annotation is placed on a class
+     */
+    String[] value() default {};
+
+    /**
+     * @return the index name. By default it is built from the table and column names
+     */
+    String name() default "";
+
+    /**
+     * @return true if the index must reject duplicated values
+     */
+    boolean unique() default false;
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.content.ContentResolver;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cursor holding the rows read by {@link JdbcStorage}. Values are converted the same way SQLite converts them
+ * when they are read with a different type.
+ * <p/>
+ * It implements {@link Cursor} directly instead of extending the cursors of the framework, so that it works on a
+ * plain JVM. For the same reason it reports to the {@link CursorTracker} by itself instead of being wrapped.
+ */
+class JdbcCursor implements Cursor, CursorTracker.Tracked {
+    private final String[] mColumns;
+    private final List<Object[]> mRows;
+    private final List<DataSetObserver> mDataSetObservers = new ArrayList<DataSetObserver>();
+    private int mPosition = -1;
+    private boolean mClosed;
+    private boolean mTracked;
+    private Throwable mAllocation;
+    private long mCacheGeneration = -1;
+
+    JdbcCursor(String[] columns, List<Object[]> rows) {
+        mColumns = columns;
+        mRows = rows;
+    }
+
+    /**
+     * Starts reporting to the {@link CursorTracker}
+     *
+     * @param allocation where the cursor was allocated, or null
+     * @return false if the cursor was already tracked
+     */
+    synchronized boolean track(Throwable allocation) {
+        if (mTracked) {
+            return false;
+        }
+        mTracked = true;
+        mAllocation = allocation;
+        return true;
+    }
+
+    @Override
+    public Throwable getAllocation() {
+        return mAllocation;
+    }
+
+    @Override
+    public long getCacheGeneration() {
+        return mCacheGeneration;
+    }
+
+    @Override
+    public void setCacheGeneration(long cacheGeneration) {
+        mCacheGeneration = cacheGeneration;
+    }
+
+    @Override
+    public int getCount() {
+        return mRows.size();
+    }
+
+    @Override
+    public int getPosition() {
+        return mPosition;
+    }
+
+    @Override
+    public boolean move(int offset) {
+        return moveToPosition(mPosition + offset);
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        int count = mRows.size();
+        if (position >= count) {
+            mPosition = count;
+            return false;
+        }
+        if (position < 0) {
+            mPosition = -1;
+            return false;
+        }
+        mPosition = position;
+        return true;
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(mRows.size() - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(mPosition + 1);
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        return moveToPosition(mPosition - 1);
+    }
+
+    @Override
+    public boolean isFirst() {
+        return mPosition == 0 && !mRows.isEmpty();
+    }
+
+    @Override
+    public boolean isLast() {
+        return mPosition == mRows.size() - 1 && !mRows.isEmpty();
+    }
+
+    @Override
+    public boolean isBeforeFirst() {
+        return mRows.isEmpty() || mPosition == -1;
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        return mRows.isEmpty() || mPosition == mRows.size();
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        // qualified names like table.column are looked up by the column name, the way AbstractCursor does it
+        int dot = columnName.lastIndexOf('.');
+        if (dot != -1) {
+            columnName = columnName.substring(dot + 1);
+        }
+        for (int i = 0; i < mColumns.length; i++) {
+            if (mColumns[i].equalsIgnoreCase(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) {
+        int index = getColumnIndex(columnName);
+        if (index < 0) {
+            throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+        }
+        return index;
+    }
+
+    @Override
+    public String getColumnName(int columnIndex) {
+        return mColumns[columnIndex];
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return mColumns.length;
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = get(column);
+        if (value instanceof byte[]) {
+            return new String((byte[]) value);
+        }
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public void copyStringToBuffer(int column, CharArrayBuffer buffer) {
+        String value = getString(column);
+        if (value == null) {
+            buffer.sizeCopied = 0;
+            return;
+        }
+        if (buffer.data == null || buffer.data.length < value.length()) {
+            buffer.data = value.toCharArray();
+        } else {
+            value.getChars(0, value.length(), buffer.data, 0);
+        }
+        buffer.sizeCopied = value.length();
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = get(column);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Long.parseLong(((String) value).trim());
+            } catch (NumberFormatException e) {
+                return (long) getDouble(column);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = get(column);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble(((String) value).trim());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        Object value = get(column);
+        if (value == null || value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        return value.toString().getBytes();
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return get(column) == null;
+    }
+
+    /**
+     * Same as Cursor#getType, which was added in Honeycomb
+     *
+     * @param column the column index
+     * @return the type of the value, one of the Cursor.FIELD_TYPE_* constants
+     */
+    public int getType(int column) {
+        Object value = get(column);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Float || value instanceof Double) {
+            return 2;
+        }
+        if (value instanceof Number) {
+            return 1;
+        }
+        return value instanceof byte[] ? 4 : 3;
+    }
+
+    @Override
+    public void deactivate() {
+        for (DataSetObserver observer : new ArrayList<DataSetObserver>(mDataSetObservers)) {
+            observer.onInvalidated();
+        }
+    }
+
+    /**
+     * The rows were read when the query ran, so they are not read again
+     *
+     * @return true unless the cursor is closed
+     */
+    @Override
+    public boolean requery() {
+        if (mClosed) {
+            return false;
+        }
+        for (DataSetObserver observer : new ArrayList<DataSetObserver>(mDataSetObservers)) {
+            observer.onChanged();
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        boolean report;
+        synchronized (this) {
+            report = mTracked && !mClosed;
+            mClosed = true;
+        }
+        if (report) {
+            CursorTracker.onClosed(this);
+        }
+        deactivate();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    @Override
+    public void registerContentObserver(ContentObserver observer) {
+        // JDBC databases do not notify changes
+    }
+
+    @Override
+    public void unregisterContentObserver(ContentObserver observer) {
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+        mDataSetObservers.add(observer);
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+        mDataSetObservers.remove(observer);
+    }
+
+    @Override
+    public void setNotificationUri(ContentResolver contentResolver, Uri uri) {
+    }
+
+    @Override
+    public boolean getWantsAllOnMoveCalls() {
+        return false;
+    }
+
+    @Override
+    public Bundle getExtras() {
+        return Bundle.EMPTY;
+    }
+
+    @Override
+    public Bundle respond(Bundle extras) {
+        return Bundle.EMPTY;
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        try {
+            boolean leaked;
+            synchronized (this) {
+                leaked = mTracked && !mClosed;
+                mClosed = true;
+            }
+            if (leaked) {
+                CursorTracker.onLeaked(this);
+            }
+        } finally {
+            super.finalize();
+        }
+    }
+
+    private Object get(int column) {
+        if (mPosition < 0 || mPosition >= mRows.size()) {
+            throw new IndexOutOfBoundsException("Index " + mPosition + " requested, with a size of " + mRows.size());
+        }
+        return mRows.get(mPosition)[column];
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import java.io.File;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Storage} on top of a JDBC connection to a SQLite database, for instance using the
+ * <a href="https://github.com/xerial/sqlite-jdbc">sqlite-jdbc</a> driver, which must be in the classpath. It
+ * runs the native SQLite of the JVM instead of the one of the Android framework, which makes it suitable for
+ * tests, benchmarks and servers that share the entity model of an application:
+ * <pre>
+ * PersistenceConfig.registerSpec(1).setStorageBuilder(JdbcStorage.builder(new File("data")));
+ * </pre>
+ * Query results are read completely when the query runs, so the returned cursors hold no database resources.
+ * Statements are serialized using a single connection, the same way Android does it.
+ * <p/>
+ * It does not need the Android framework: it only uses the Android interfaces, so the library can run with it on
+ * a plain JVM with the stub android.jar in the classpath (for instance in a server, or in benchmarks that do not
+ * use Robolectric). The context passed to {@link Persistence} can be null then. Failing statements throw a
+ * {@link StorageException}.
+ */
+public class JdbcStorage implements Storage {
+    private static final String TAG = JdbcStorage.class.getSimpleName();
+
+    // statements run with bind arguments are kept compiled, the way android reuses them
+    private static final int STATEMENT_CACHE_SIZE = 16;
+
+    private final Connection mConnection;
+    private final Map<String, PreparedStatement> mStatements =
+            new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > STATEMENT_CACHE_SIZE) {
+                        close(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    /**
+     * @param url the JDBC url of the database, for instance <code>jdbc:sqlite:/path/to/file.db</code>
+     */
+    public JdbcStorage(String url) {
+        try {
+            mConnection = DriverManager.getConnection(url);
+        } catch (SQLException e) {
+            throw translate("Could not open " + url, e);
+        }
+    }
+
+    /**
+     * @param directory where the database files are created. Each database is stored in a file named after it
+     * @return a builder of storages that use the sqlite-jdbc driver
+     */
+    public static DatabaseSpec.StorageBuilder builder(File directory) {
+        return new FileBuilder(directory);
+    }
+
+    @Override
+    public synchronized Cursor rawQuery(String sql, String[] args) {
+        PreparedStatement statement = null;
+        try {
+            statement = mConnection.prepareStatement(sql);
+            if (args != null) {
+                for (int i = 0; i < args.length; i++) {
+                    statement.setString(i + 1, args[i]);
+                }
+            }
+            if (!statement.execute()) {
+                return new JdbcCursor(new String[0], new ArrayList<Object[]>());
+            }
+            ResultSet resultSet = statement.getResultSet();
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            String[] columns = new String[metaData.getColumnCount()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = metaData.getColumnLabel(i + 1);
+            }
+            List<Object[]> rows = new ArrayList<Object[]>();
+            while (resultSet.next()) {
+                Object[] row = new Object[columns.length];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = resultSet.getObject(i + 1);
+                }
+                rows.add(row);
+            }
+            return new JdbcCursor(columns, rows);
+        } catch (SQLException e) {
+            throw translate(sql, e);
+        } finally {
+            close(statement);
+        }
+    }
+
+    @Override
+    public synchronized void execSQL(String sql) {
+        Statement statement = null;
+        try {
+            statement = mConnection.createStatement();
+            statement.execute(sql);
+        } catch (SQLException e) {
+            throw translate(sql, e);
+        } finally {
+            close(statement);
+        }
+    }
+
+    @Override
+    public synchronized void execSQL(String sql, Object[] bindArgs) {
+        PreparedStatement statement = null;
+        try {
+            statement = prepare(sql);
+            statement.clearParameters();
+            if (bindArgs != null) {
+                for (int i = 0; i < bindArgs.length; i++) {
+                    bind(statement, i + 1, bindArgs[i]);
+                }
+            }
+            statement.execute();
+        } catch (SQLException e) {
+            if (statement != null) {
+                mStatements.remove(sql);
+                close(statement);
+            }
+            throw translate(sql, e);
+        }
+    }
+
+    @Override
+    public synchronized CompiledStatement compileStatement(String sql) {
+        try {
+            prepare(sql);
+        } catch (SQLException e) {
+            throw translate(sql, e);
+        }
+        return new CachedStatement(this, sql);
+    }
+
+    @Override
+    public synchronized long insert(String table, Map<String, Object> values) {
+        List<Object> args = new ArrayList<Object>();
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table);
+        if (values == null || values.size() == 0) {
+            sql.append(" DEFAULT VALUES");
+        } else {
+            StringBuilder placeholders = new StringBuilder();
+            sql.append(" (");
+            for (Map.Entry<String, Object> value : values.entrySet()) {
+                if (!args.isEmpty()) {
+                    sql.append(", ");
+                    placeholders.append(", ");
+                }
+                sql.append(value.getKey());
+                placeholders.append('?');
+                args.add(value.getValue());
+            }
+            sql.append(") VALUES (").append(placeholders).append(')');
+        }
+        try {
+            executeUpdate(sql.toString(), args, null);
+            return queryLong("SELECT last_insert_rowid()");
+        } catch (SQLException e) {
+            // same behavior as SQLiteDatabase#insert
+            PersistenceLogManager.e(TAG, "Error inserting into " + table, e);
+            return -1;
+        }
+    }
+
+    @Override
+    public synchronized int update(String table, Map<String, Object> values, String where, String[] whereArgs) {
+        List<Object> args = new ArrayList<Object>();
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            if (!args.isEmpty()) {
+                sql.append(", ");
+            }
+            sql.append(value.getKey()).append(" = ?");
+            args.add(value.getValue());
+        }
+        appendWhere(sql, where);
+        try {
+            return executeUpdate(sql.toString(), args, whereArgs);
+        } catch (SQLException e) {
+            throw translate(sql.toString(), e);
+        }
+    }
+
+    @Override
+    public synchronized int delete(String table, String where, String[] whereArgs) {
+        StringBuilder sql = new StringBuilder("DELETE FROM ").append(table);
+        appendWhere(sql, where);
+        try {
+            return executeUpdate(sql.toString(), new ArrayList<Object>(), whereArgs);
+        } catch (SQLException e) {
+            throw translate(sql.toString(), e);
+        }
+    }
+
+    @Override
+    public synchronized int getVersion() {
+        try {
+            return (int) queryLong("PRAGMA user_version");
+        } catch (SQLException e) {
+            throw translate("PRAGMA user_version", e);
+        }
+    }
+
+    @Override
+    public void setVersion(int version) {
+        execSQL("PRAGMA user_version = " + version);
+    }
+
+    @Override
+    public synchronized void close() {
+        for (PreparedStatement statement : mStatements.values()) {
+            close(statement);
+        }
+        mStatements.clear();
+        try {
+            mConnection.close();
+        } catch (SQLException e) {
+            PersistenceLogManager.e(TAG, "Error closing the connection", e);
+        }
+    }
+
+    private PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = mConnection.prepareStatement(sql);
+            mStatements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    private int executeUpdate(String sql, List<Object> args, String[] whereArgs) throws SQLException {
+        PreparedStatement statement = mConnection.prepareStatement(sql);
+        try {
+            int index = 1;
+            for (Object arg : args) {
+                bind(statement, index++, arg);
+            }
+            if (whereArgs != null) {
+                for (String arg : whereArgs) {
+                    statement.setString(index++, arg);
+                }
+            }
+            return statement.executeUpdate();
+        } finally {
+            close(statement);
+        }
+    }
+
+    private long queryLong(String sql) throws SQLException {
+        Statement statement = mConnection.createStatement();
+        try {
+            ResultSet resultSet = statement.executeQuery(sql);
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        } finally {
+            close(statement);
+        }
+    }
+
+    private static void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.NULL);
+        } else if (value instanceof byte[]) {
+            statement.setBytes(index, (byte[]) value);
+        } else if (value instanceof Float || value instanceof Double) {
+            statement.setDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.setLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.setLong(index, (Boolean) value ? 1 : 0);
+        } else {
+            statement.setString(index, value.toString());
+        }
+    }
+
+    private static void appendWhere(StringBuilder sql, String where) {
+        if (where != null && where.length() > 0) {
+            sql.append(" WHERE ").append(where);
+        }
+    }
+
+    private static void close(Statement statement) {
+        if (statement == null) {
+            return;
+        }
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            PersistenceLogManager.e(TAG, "Error closing statement", e);
+        }
+    }
+
+    private static StorageException translate(String sql, SQLException e) {
+        return new StorageException(e.getMessage() + ": " + sql, e);
+    }
+
+    /**
+     * Builds storages stored in files of a directory
+     */
+    static class FileBuilder implements DatabaseSpec.StorageBuilder {
+        private final File mDirectory;
+
+        FileBuilder(File directory) {
+            mDirectory = directory;
+        }
+
+        /**
+         * @param name the database name
+         * @return the file where the database is stored
+         */
+        File getDatabaseFile(String name) {
+            return new File(mDirectory, name);
+        }
+
+        @Override
+        public Storage buildStorage(Context context, String name) {
+            if (name == null) {
+                return new JdbcStorage("jdbc:sqlite::memory:");
+            }
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IllegalStateException("Could not create " + mDirectory);
+            }
+            return new JdbcStorage("jdbc:sqlite:" + getDatabaseFile(name).getPath());
+        }
+    }
+}
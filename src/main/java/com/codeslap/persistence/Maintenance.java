@@ -0,0 +1,511 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.database.Cursor;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps a database in shape: refreshes the planner statistics (ANALYZE) of the tables that have been written,
+ * releases free pages when the database uses incremental auto vacuum, and checkpoints the write-ahead log when it
+ * is enabled. Runs are time-boxed, so they can be triggered from idle moments of the application using
+ * {@link #run()} or {@link #runInBackground()}; they also start automatically in a background thread when the
+ * threshold set using {@link DatabaseSpec#scheduleMaintenance(long, long)} is crossed. Writes are only tracked,
+ * and tables analyzed, once it has been scheduled that way.
+ * <p/>
+ * Runs never work inside a transaction opened through the library: automatic runs wait for it to finish, and a
+ * run stops when one is opened. Converting the database to incremental auto vacuum needs a full VACUUM that
+ * cannot be time-boxed, so only the runs started explicitly do it.
+ */
+public class Maintenance {
+    private static final String TAG = Maintenance.class.getSimpleName();
+    private static final long DEFAULT_MAX_DURATION = 500;
+    private static final int VACUUM_STEP_PAGES = 128;
+    private static final Pattern WRITE = Pattern.compile(
+            "^\\s*(?:INSERT(?:\\s+OR\\s+\\w+)?\\s+INTO|REPLACE\\s+INTO|UPDATE(?:\\s+OR\\s+\\w+)?|DELETE\\s+FROM)\\s+" +
+                    "[\"'`\\[]?(\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern BEGIN = Pattern.compile("^\\s*BEGIN\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern END = Pattern.compile(
+            "^\\s*(?:COMMIT|END|ROLLBACK(?!\\s+(?:TRANSACTION\\s+)?TO\\b))\\b", Pattern.CASE_INSENSITIVE);
+
+    private final Storage mStorage;
+    /** Held by a run while it works on the database and while a transaction starts, so that they never overlap */
+    private final Object mStepLock = new Object();
+    private final Map<String, Long> mWrites = new HashMap<String, Long>();
+    private boolean mEnabled;
+    private long mPendingWrites;
+    private long mWriteThreshold;
+    private long mMaxDuration = DEFAULT_MAX_DURATION;
+    private TuningProfile.AutoVacuum mAutoVacuum;
+    private boolean mRunning;
+    private boolean mInTransaction;
+    private Report mLastReport;
+
+    Maintenance(Storage storage) {
+        mStorage = storage;
+    }
+
+    /**
+     * @param enabled           whether writes are tracked
+     * @param writeThreshold    number of written rows that starts a background run, or 0 to only run on demand
+     * @param maxDurationMillis time box of the runs started without an explicit one
+     * @param autoVacuum        the auto vacuum mode requested by the tuning profile of the database, or null
+     */
+    synchronized void configure(boolean enabled, long writeThreshold, long maxDurationMillis,
+                                TuningProfile.AutoVacuum autoVacuum) {
+        mEnabled = enabled;
+        mWriteThreshold = writeThreshold;
+        mMaxDuration = maxDurationMillis > 0 ? maxDurationMillis : DEFAULT_MAX_DURATION;
+        mAutoVacuum = autoVacuum;
+    }
+
+    /**
+     * Counts the rows written to a table
+     *
+     * @param table the table name
+     * @param rows  number of rows inserted, updated or deleted
+     */
+    void onWrite(String table, long rows) {
+        if (rows <= 0) {
+            return;
+        }
+        boolean start;
+        synchronized (this) {
+            if (!mEnabled) {
+                return;
+            }
+            Long writes = mWrites.get(table);
+            mWrites.put(table, writes == null ? rows : writes + rows);
+            mPendingWrites += rows;
+            start = shouldStart();
+        }
+        if (start) {
+            start(false);
+        }
+    }
+
+    /**
+     * @return whether an automatic run must start now. Must be called holding the lock
+     */
+    private boolean shouldStart() {
+        return mEnabled && mWriteThreshold > 0 && mPendingWrites >= mWriteThreshold && !mRunning && !mInTransaction;
+    }
+
+    /**
+     * @param sql a raw statement
+     * @return whether the statement opens a transaction
+     */
+    static boolean opensTransaction(String sql) {
+        // cheap check, since this sees every statement
+        char first = sql.length() > 0 ? Character.toUpperCase(sql.charAt(0)) : ' ';
+        return (first == 'B' || Character.isWhitespace(first)) && BEGIN.matcher(sql).find();
+    }
+
+    /**
+     * Runs a statement that opens a transaction. The connection is shared, so the transaction is marked as open
+     * before the statement runs, holding the same lock as the steps of a run: a step in progress finishes first, and
+     * the run stops before its next one
+     *
+     * @param tracer the tracer of the database, or null if the caller traces the statement itself
+     * @param sql    the statement that opens the transaction
+     */
+    void beginTransaction(StatementTracer tracer, String sql) {
+        synchronized (mStepLock) {
+            synchronized (this) {
+                mInTransaction = true;
+            }
+            boolean started = false;
+            try {
+                StatementTracer.execSQL(mStorage, tracer, sql);
+                started = true;
+            } finally {
+                if (!started) {
+                    synchronized (this) {
+                        mInTransaction = false;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs work that opens its own transactions directly on the storage, such as restoring a snapshot. Runs are
+     * kept out of the database until it finishes, the same way they are during a transaction
+     *
+     * @param work the work to run in the current thread
+     */
+    void runExclusively(Runnable work) {
+        boolean start;
+        synchronized (mStepLock) {
+            boolean inTransaction;
+            synchronized (this) {
+                inTransaction = mInTransaction;
+                mInTransaction = true;
+            }
+            try {
+                work.run();
+            } finally {
+                synchronized (this) {
+                    mInTransaction = inTransaction;
+                    start = shouldStart();
+                }
+            }
+        }
+        if (start) {
+            start(false);
+        }
+    }
+
+    /**
+     * Keeps track of the transactions finished by a statement that just ran. Automatic runs that were due start
+     * once the transaction finishes
+     *
+     * @param sql the statement
+     */
+    void onStatement(String sql) {
+        // cheap check, since this sees every statement
+        char first = sql.length() > 0 ? Character.toUpperCase(sql.charAt(0)) : ' ';
+        if (first != 'C' && first != 'E' && first != 'R' && !Character.isWhitespace(first)) {
+            return;
+        }
+        boolean start = false;
+        if (END.matcher(sql).find()) {
+            synchronized (this) {
+                mInTransaction = false;
+                start = shouldStart();
+            }
+        }
+        if (start) {
+            start(false);
+        }
+    }
+
+    /**
+     * Counts the rows written by a raw INSERT, UPDATE or DELETE statement that just ran
+     *
+     * @param sql the statement
+     */
+    void onWrite(String sql) {
+        if (!isEnabled()) {
+            return;
+        }
+        String table = getWrittenTable(sql);
+        if (table != null) {
+            onWrite(table, changes(mStorage));
+        }
+    }
+
+    /**
+     * @param sql a raw statement
+     * @return the table written by an INSERT, UPDATE or DELETE statement, or null if it is not one of them
+     */
+    static String getWrittenTable(String sql) {
+        Matcher matcher = WRITE.matcher(sql);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * @param storage the database
+     * @return number of rows written by the last INSERT, UPDATE or DELETE statement that ran on the database
+     */
+    static long changes(Storage storage) {
+        Cursor cursor = storage.rawQuery("SELECT changes()", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    synchronized boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * @return number of rows written since the last run
+     */
+    public synchronized long getPendingWrites() {
+        return mPendingWrites;
+    }
+
+    /**
+     * @return the report of the last finished run, or null if it never ran
+     */
+    public synchronized Report getLastReport() {
+        return mLastReport;
+    }
+
+    /**
+     * Starts a run in a background thread, unless one is already running
+     */
+    public void runInBackground() {
+        start(true);
+    }
+
+    /**
+     * @param explicit whether the run was requested by the application, rather than by the write threshold
+     */
+    private void start(final boolean explicit) {
+        synchronized (this) {
+            if (mRunning) {
+                return;
+            }
+            mRunning = true;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    doRun(getMaxDuration(), explicit);
+                } catch (RuntimeException e) {
+                    PersistenceLogManager.e(TAG, "Maintenance failed", e);
+                } finally {
+                    finish();
+                }
+            }
+        }, "persistence-maintenance");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Runs the maintenance in the current thread, using the time box configured in the spec
+     *
+     * @return the report of the run, or null if another run is in progress
+     */
+    public Report run() {
+        return run(getMaxDuration());
+    }
+
+    /**
+     * Runs the maintenance in the current thread. Converting a database to incremental auto vacuum needs a full
+     * VACUUM, so the first run after enabling it may take longer than the time box. Do not call it inside a
+     * transaction
+     *
+     * @param maxDurationMillis work is not started after this time has passed
+     * @return the report of the run, or null if another run is in progress
+     */
+    public Report run(long maxDurationMillis) {
+        synchronized (this) {
+            if (mRunning) {
+                return null;
+            }
+            mRunning = true;
+        }
+        try {
+            return doRun(maxDurationMillis, true);
+        } finally {
+            finish();
+        }
+    }
+
+    private synchronized long getMaxDuration() {
+        return mMaxDuration;
+    }
+
+    private synchronized void finish() {
+        mRunning = false;
+    }
+
+    /**
+     * @return whether the run must stop, because its time is over or a transaction was opened. Steps check it
+     *         holding the step lock, so that no transaction starts until they finish
+     */
+    private synchronized boolean mustStop(long deadline) {
+        return mInTransaction || System.currentTimeMillis() >= deadline;
+    }
+
+    /**
+     * @param explicit whether the run may convert the database to incremental auto vacuum
+     */
+    private Report doRun(long maxDurationMillis, boolean explicit) {
+        long start = System.currentTimeMillis();
+        long deadline = start + maxDurationMillis;
+        Map<String, Long> writes;
+        TuningProfile.AutoVacuum autoVacuum;
+        synchronized (this) {
+            writes = new HashMap<String, Long>(mWrites);
+            mWrites.clear();
+            mPendingWrites = 0;
+            autoVacuum = mAutoVacuum;
+        }
+        Report report = new Report();
+        long sizeBefore = getSize();
+
+        if ("wal".equalsIgnoreCase(queryString("PRAGMA journal_mode"))) {
+            synchronized (mStepLock) {
+                if (!mustStop(deadline)) {
+                    Cursor cursor = mStorage.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+                    try {
+                        report.mCheckpointedFrames = cursor.moveToFirst() ? cursor.getInt(2) : 0;
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            }
+        }
+
+        // most written tables first, since their statistics are the most likely to be stale
+        List<Map.Entry<String, Long>> tables = new ArrayList<Map.Entry<String, Long>>(writes.entrySet());
+        Collections.sort(tables, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+        for (Iterator<Map.Entry<String, Long>> iterator = tables.iterator(); iterator.hasNext(); ) {
+            synchronized (mStepLock) {
+                if (mustStop(deadline)) {
+                    break;
+                }
+                String table = iterator.next().getKey();
+                try {
+                    mStorage.execSQL("ANALYZE " + table);
+                    report.mAnalyzedTables.add(table);
+                } catch (RuntimeException e) {
+                    // the table may have been dropped since it was written
+                    PersistenceLogManager.d(TAG, "Could not analyze " + table + ": " + e.getMessage());
+                }
+                iterator.remove();
+            }
+        }
+        if (!tables.isEmpty()) {
+            // keep the tables that could not be analyzed for the next run
+            synchronized (this) {
+                for (Map.Entry<String, Long> table : tables) {
+                    Long pending = mWrites.get(table.getKey());
+                    mWrites.put(table.getKey(), pending == null ? table.getValue() : pending + table.getValue());
+                    mPendingWrites += table.getValue();
+                }
+            }
+            report.mCompleted = false;
+        }
+
+        int mode = queryInt("PRAGMA auto_vacuum");
+        if (explicit && autoVacuum == TuningProfile.AutoVacuum.INCREMENTAL
+                && mode != TuningProfile.AutoVacuum.INCREMENTAL.ordinal()) {
+            synchronized (mStepLock) {
+                if (!mustStop(deadline)) {
+                    try {
+                        mStorage.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                        mStorage.execSQL("VACUUM");
+                        mode = queryInt("PRAGMA auto_vacuum");
+                    } catch (RuntimeException e) {
+                        // VACUUM fails if a transaction is open; the next run will try again
+                        PersistenceLogManager.d(TAG, "Could not vacuum the database: " + e.getMessage());
+                        report.mCompleted = false;
+                    }
+                }
+            }
+        }
+        if (mode == TuningProfile.AutoVacuum.INCREMENTAL.ordinal()) {
+            while (queryInt("PRAGMA freelist_count") > 0) {
+                synchronized (mStepLock) {
+                    if (mustStop(deadline)) {
+                        report.mCompleted = false;
+                        break;
+                    }
+                    queryString("PRAGMA incremental_vacuum(" + VACUUM_STEP_PAGES + ")");
+                }
+            }
+        }
+
+        report.mReclaimedBytes = Math.max(0, sizeBefore - getSize());
+        report.mDuration = System.currentTimeMillis() - start;
+        synchronized (this) {
+            mLastReport = report;
+        }
+        PersistenceLogManager.d(TAG, report.toString());
+        return report;
+    }
+
+    private long getSize() {
+        return (long) queryInt("PRAGMA page_count") * queryInt("PRAGMA page_size");
+    }
+
+    private int queryInt(String sql) {
+        String value = queryString(sql);
+        return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    private String queryString(String sql) {
+        Cursor cursor = mStorage.rawQuery(sql, null);
+        try {
+            return cursor.moveToFirst() && cursor.getColumnCount() > 0 ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Result of a maintenance run
+     */
+    public static class Report {
+        private final List<String> mAnalyzedTables = new ArrayList<String>();
+        private long mReclaimedBytes;
+        private int mCheckpointedFrames;
+        private long mDuration;
+        private boolean mCompleted = true;
+
+        /**
+         * @return the tables whose statistics were refreshed
+         */
+        public List<String> getAnalyzedTables() {
+            return mAnalyzedTables;
+        }
+
+        /**
+         * @return how much the database file shrank
+         */
+        public long getReclaimedBytes() {
+            return mReclaimedBytes;
+        }
+
+        /**
+         * @return number of write-ahead log frames copied to the database, or 0 if it does not use WAL
+         */
+        public int getCheckpointedFrames() {
+            return mCheckpointedFrames;
+        }
+
+        public long getDuration() {
+            return mDuration;
+        }
+
+        /**
+         * @return false if the time box expired before all the work was done. The rest is done by the next run
+         */
+        public boolean isCompleted() {
+            return mCompleted;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{" +
+                    "analyzedTables=" + mAnalyzedTables +
+                    ", reclaimedBytes=" + mReclaimedBytes +
+                    ", checkpointedFrames=" + mCheckpointedFrames +
+                    ", duration=" + mDuration +
+                    ", completed=" + mCompleted +
+                    '}';
+        }
+    }
+}
@@ -60,6 +60,17 @@ public class ManyToMany {
         return builder.toString();
     }
 
+    /**
+     * @return the statements that create the indexes used to load each side of the relation
+     */
+    String[] getCreateIndexStatements() {
+        String tableName = buildTableName(mClassA, mClassB);
+        return new String[]{
+                SQLHelper.getCreateIndexSentence(tableName, "", false, getMainKey()),
+                SQLHelper.getCreateIndexSentence(tableName, "", false, getSecondaryKey())
+        };
+    }
+
     String getMainKey() {
         return joinTableNames(SQLHelper.getTableName(mClassA), mClassAPrimaryKey);
     }
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.database.Cursor;
+
+/**
+ * Hooks used by the library to measure its operations. When there is no {@link MetricsSink} registered and no
+ * database traces its statements they cost two volatile reads.
+ */
+final class Metrics {
+    private static volatile MetricsSink sSink;
+    private static volatile boolean sTracing;
+
+    private static final ThreadLocal<State> STATE = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+    private Metrics() {
+    }
+
+    static void setSink(MetricsSink sink) {
+        sSink = sink;
+    }
+
+    static boolean isEnabled() {
+        return sSink != null;
+    }
+
+    /**
+     * Keeps track of the current operation even if there is no sink, so that it can be reported to the
+     * {@link StatementListener}s
+     *
+     * @param tracing whether any database traces its statements
+     */
+    static void setTracing(boolean tracing) {
+        sTracing = tracing;
+    }
+
+    /**
+     * Marks the beginning of an operation. Must always be paired with a call to one of the end methods
+     *
+     * @param operation the operation that begins
+     * @return the start timestamp, or -1 if metrics are disabled
+     */
+    static long begin(MetricsSink.Operation operation) {
+        if (sSink == null && !sTracing) {
+            return -1;
+        }
+        State state = STATE.get();
+        if (state.mDepth++ == 0) {
+            state.mOperation = operation;
+            state.mRows = 0;
+            state.mStatements = 0;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * @return the outermost operation running in this thread, or null if there is none or it is not being tracked
+     */
+    static MetricsSink.Operation currentOperation() {
+        if (sSink == null && !sTracing) {
+            return null;
+        }
+        State state = STATE.get();
+        return state.mDepth > 0 ? state.mOperation : null;
+    }
+
+    static void end(MetricsSink.Operation operation, Class<?> theClass, long start) {
+        if (start < 0) {
+            return;
+        }
+        String entity = null;
+        if (theClass != null) {
+            switch (operation) {
+                case PREFS_STORE:
+                case PREFS_RETRIEVE:
+                case PREFS_DELETE:
+                    entity = theClass.getSimpleName();
+                    break;
+                default:
+                    entity = SQLHelper.getTableName(theClass);
+            }
+        }
+        end(operation, entity, start);
+    }
+
+    static void end(MetricsSink.Operation operation, String entity, long start) {
+        if (start < 0) {
+            return;
+        }
+        State state = STATE.get();
+        if (--state.mDepth > 0) {
+            return;
+        }
+        MetricsSink sink = sSink;
+        if (sink != null) {
+            sink.onOperation(operation, entity, state.mRows, state.mStatements, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Cursors run their query when they are first filled, not when they are created. If the current operation is
+     * measured, fills the cursor now so that its latency includes running the query and not only compiling it.
+     *
+     * @param cursor the cursor handed to the caller
+     * @param start  the value returned by {@link #begin(MetricsSink.Operation)}
+     * @return the same cursor
+     */
+    static Cursor fill(Cursor cursor, long start) {
+        if (start >= 0 && cursor != null) {
+            rows(cursor.getCount());
+        }
+        return cursor;
+    }
+
+    /**
+     * Adds rows read or written by the current operation
+     *
+     * @param rows number of rows
+     */
+    static void rows(long rows) {
+        if (sSink != null) {
+            STATE.get().mRows += rows;
+        }
+    }
+
+    /**
+     * Counts a statement executed by the current operation
+     */
+    static void statement() {
+        if (sSink != null) {
+            STATE.get().mStatements++;
+        }
+    }
+
+    private static class State {
+        int mDepth;
+        MetricsSink.Operation mOperation;
+        long mRows;
+        int mStatements;
+    }
+}
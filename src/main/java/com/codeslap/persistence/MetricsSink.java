@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+/**
+ * Receives one event per operation performed by the library. Register an implementation using
+ * {@link PersistenceConfig#setMetricsSink(MetricsSink)}; {@link AggregatingMetricsSink} is a ready to use one.
+ * <p/>
+ * Events are delivered synchronously on the thread that performed the operation, so implementations must be
+ * thread-safe and fast. Nested operations (for instance the relations stored by a store call) are reported as
+ * part of the outermost one.
+ */
+public interface MetricsSink {
+
+    enum Operation {
+        FIND, FIND_BY_ID, COUNT, EXISTS, AGGREGATE,
+        STORE, STORE_COLLECTION, UPDATE, DELETE, TRUNCATE,
+        RAW_QUERY,
+        PROVIDER_QUERY, PROVIDER_INSERT, PROVIDER_UPDATE, PROVIDER_DELETE,
+        PREFS_STORE, PREFS_RETRIEVE, PREFS_DELETE
+    }
+
+    /**
+     * @param operation     the operation performed
+     * @param entity        the table (or the preferences class) the operation worked on
+     * @param rows          rows read or written. For the operations that return a cursor ({@link Operation#RAW_QUERY}
+     *                      and {@link Operation#PROVIDER_QUERY}) it is the number of rows of the cursor, which is
+     *                      filled before the operation ends so that the duration includes running the query
+     * @param statements    number of SQL statements executed
+     * @param durationNanos how long the operation took
+     */
+    void onOperation(Operation operation, String entity, long rows, int statements, long durationNanos);
+}
@@ -49,14 +49,17 @@ public class Persistence {
     }
 
     /**
-     * @param context used to open/create the database
+     * @param context used to open/create the database. It can be null when the spec uses a storage that does not
+     *                need it, like {@link JdbcStorage}
      * @param dbName  database name identifier
      * @param specId  database specification
      * @return implementation of the {@link SqlAdapter} using passed parameters
      */
     public static SqlAdapter getAdapter(Context context, String dbName, String specId) {
         d(TAG, String.format("Getting database adapter for \"%s\" database with \"" + specId + "\" spec", dbName));
-        return new SqliteAdapterImpl(context, dbName, specId);
+        SqlAdapter adapter = new SqliteAdapterImpl(context, dbName, specId);
+        WorkloadRecorder recorder = PersistenceConfig.getWorkloadRecorder();
+        return recorder == null ? adapter : recorder.wrap(adapter);
     }
 
     /**
@@ -65,7 +68,7 @@ public class Persistence {
      *         ({@link #DEFAULT_DATABASE_NAME}) and specification ({@link PersistenceConfig#DEFAULT_SPEC_ID})
      */
     public static RawQuery getRawQuery(Context context) {
-        return new RawQueryImpl(context, DEFAULT_DATABASE_NAME, PersistenceConfig.DEFAULT_SPEC_ID);
+        return getRawQuery(context, DEFAULT_DATABASE_NAME, PersistenceConfig.DEFAULT_SPEC_ID);
     }
 
     /**
@@ -75,17 +78,20 @@ public class Persistence {
      *         ({@link PersistenceConfig#DEFAULT_SPEC_ID})
      */
     public static RawQuery getRawQuery(Context context, String name) {
-        return new RawQueryImpl(context, name, PersistenceConfig.DEFAULT_SPEC_ID);
+        return getRawQuery(context, name, PersistenceConfig.DEFAULT_SPEC_ID);
     }
 
     /**
-     * @param context used to open/create the database
+     * @param context used to open/create the database. It can be null when the spec uses a storage that does not
+     *                need it, like {@link JdbcStorage}
      * @param name    database name identifier
      * @param specId  database specification
      * @return an implementation of the {@link RawQuery} interface
      */
     public static RawQuery getRawQuery(Context context, String name, String specId) {
-        return new RawQueryImpl(context, name, specId);
+        RawQuery rawQuery = new RawQueryImpl(context, name, specId);
+        WorkloadRecorder recorder = PersistenceConfig.getWorkloadRecorder();
+        return recorder == null ? rawQuery : recorder.wrap(rawQuery);
     }
 
     /**
@@ -28,6 +28,7 @@ public class PersistenceConfig {
 
     private static final Map<String, DatabaseSpec> DB_SPECS = new HashMap<String, DatabaseSpec>();
     private static final Map<String, PrefsPersistence> PREFS = new HashMap<String, PrefsPersistence>();
+    private static volatile WorkloadRecorder sWorkloadRecorder;
 
     /**
      * This is the spec id used by default when registering using this method {@link PersistenceConfig#registerSpec(int)}
@@ -61,6 +62,24 @@ public class PersistenceConfig {
         PREFS.clear();
     }
 
+    /**
+     * Releases memory held by the second-level entity caches. Call it from the onTrimMemory method of
+     * your Application (or any other ComponentCallbacks2).
+     *
+     * @param level the level passed to onTrimMemory
+     */
+    public static void onTrimMemory(int level) {
+        SqliteDb.trimMemory(level);
+    }
+
+    /**
+     * Releases all the memory held by the second-level entity caches. Call it from the onLowMemory method
+     * of your Application.
+     */
+    public static void onLowMemory() {
+        SqliteDb.trimMemory(Integer.MAX_VALUE);
+    }
+
     /**
      * Creates and registers a database specification
      *
@@ -107,4 +126,38 @@ public class PersistenceConfig {
         }
         throw new IllegalStateException("There is no database specification for " + specId + ". Remeber: you must have already register it with registerDatabaseSpec method.");
     }
+
+    /**
+     * Registers the object that will receive the metrics of every operation performed by the library
+     *
+     * @param sink the metrics receiver, or null to disable metrics
+     */
+    public static void setMetricsSink(MetricsSink sink) {
+        Metrics.setSink(sink);
+    }
+
+    /**
+     * Makes the library record where each cursor is opened, so that leaked cursors can be traced back to the
+     * code that opened them. It is expensive, so use it only in debug builds.
+     *
+     * @param enabled true to record the allocation stack of the cursors
+     * @see CursorTracker
+     */
+    public static void setCursorDebugMode(boolean enabled) {
+        CursorTracker.setDebug(enabled);
+    }
+
+    /**
+     * Makes every {@link SqlAdapter} and {@link RawQuery} returned by {@link Persistence} record its calls. Adapters
+     * created before calling this method are not recorded.
+     *
+     * @param recorder the recorder to use, or null to stop recording new adapters
+     */
+    public static void setWorkloadRecorder(WorkloadRecorder recorder) {
+        sWorkloadRecorder = recorder;
+    }
+
+    static WorkloadRecorder getWorkloadRecorder() {
+        return sWorkloadRecorder;
+    }
 }
@@ -20,9 +20,12 @@ import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
 
 public class PersistenceLogManager {
     private static final List<Logger> loggers = new ArrayList<Logger>();
+    // false once android.util.Log turned out to be the stub of a plain JVM (see JdbcStorage)
+    private static volatile boolean sAndroidLog = true;
 
     public static void register(final String tag) {
         register(new PersistenceLogManager.Logger() {
@@ -59,11 +62,17 @@ public class PersistenceLogManager {
      * @param msg Message to send
      */
     static void d(String tag, String msg) {
-        for (Logger logger : loggers) {
-            if (logger.active()) {
-                Log.d(String.format("%s:persistence:%s", logger.getTag(), tag), msg);
-            }
-        }
+        log(Level.FINE, tag, msg, null);
+    }
+
+    /**
+     * Sends a warning message to the log
+     *
+     * @param tag Tag to use
+     * @param msg Message to send
+     */
+    static void w(String tag, String msg) {
+        log(Level.WARNING, tag, msg, null);
     }
 
     /**
@@ -73,11 +82,7 @@ public class PersistenceLogManager {
      * @param msg Message to send
      */
     static void e(String tag, String msg) {
-        for (Logger logger : loggers) {
-            if (logger.active()) {
-                Log.e(String.format("%s:persistence:%s", logger.getTag(), tag), msg);
-            }
-        }
+        log(Level.SEVERE, tag, msg, null);
     }
 
     /**
@@ -88,10 +93,36 @@ public class PersistenceLogManager {
      * @param t   a throwable to show in the log
      */
     static void e(String tag, String msg, Throwable t) {
+        log(Level.SEVERE, tag, msg, t);
+    }
+
+    private static void log(Level level, String tag, String msg, Throwable t) {
         for (Logger logger : loggers) {
             if (logger.active()) {
-                Log.e(String.format("%s:persistence:%s", logger.getTag(), tag), msg, t);
+                String fullTag = String.format("%s:persistence:%s", logger.getTag(), tag);
+                if (sAndroidLog) {
+                    try {
+                        logToAndroid(level, fullTag, msg, t);
+                        continue;
+                    } catch (RuntimeException e) {
+                        // the methods of the stub android.jar throw
+                        sAndroidLog = false;
+                    }
+                }
+                java.util.logging.Logger.getLogger(fullTag).log(level, msg, t);
             }
         }
     }
+
+    private static void logToAndroid(Level level, String tag, String msg, Throwable t) {
+        if (level == Level.FINE) {
+            Log.d(tag, msg);
+        } else if (level == Level.WARNING) {
+            Log.w(tag, msg);
+        } else if (t == null) {
+            Log.e(tag, msg);
+        } else {
+            Log.e(tag, msg, t);
+        }
+    }
 }
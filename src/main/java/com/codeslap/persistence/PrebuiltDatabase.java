@@ -0,0 +1,206 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+
+/**
+ * Installs a prebuilt SQLite file as the database of a spec before it is opened for the first time, so that it
+ * does not have to be created and populated statement by statement. The file is copied next to the database,
+ * checked against the spec and then renamed; if anything fails the database is created as usual, running the
+ * importers of the spec.
+ */
+abstract class PrebuiltDatabase {
+    private static final String TAG = PrebuiltDatabase.class.getSimpleName();
+    private static final String SUFFIX = ".prebuilt";
+    private static final long CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * @param context used to read the assets
+     * @param path    path of the database file relative to the assets folder
+     * @return a prebuilt database read from the assets
+     */
+    static PrebuiltDatabase fromAsset(final Context context, final String path) {
+        return new PrebuiltDatabase() {
+            @Override
+            void copyTo(FileChannel target) throws IOException {
+                AssetFileDescriptor descriptor;
+                try {
+                    descriptor = context.getAssets().openFd(path);
+                } catch (FileNotFoundException e) {
+                    // compressed assets can only be streamed
+                    copy(Channels.newChannel(context.getAssets().open(path)), target);
+                    return;
+                }
+                FileInputStream input = descriptor.createInputStream();
+                try {
+                    // the descriptor points into the apk, the asset starts at an offset of it
+                    transfer(input.getChannel(), descriptor.getStartOffset(), descriptor.getLength(), target);
+                } finally {
+                    input.close();
+                    descriptor.close();
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "asset " + path;
+            }
+        };
+    }
+
+    /**
+     * @param file a database file
+     * @return a prebuilt database read from the file
+     */
+    static PrebuiltDatabase fromFile(final File file) {
+        return new PrebuiltDatabase() {
+            @Override
+            void copyTo(FileChannel target) throws IOException {
+                FileInputStream input = new FileInputStream(file);
+                try {
+                    transfer(input.getChannel(), 0, file.length(), target);
+                } finally {
+                    input.close();
+                }
+            }
+
+            @Override
+            public String toString() {
+                return file.getPath();
+            }
+        };
+    }
+
+    /**
+     * Writes the whole prebuilt database to a channel
+     *
+     * @param target the channel of the file being installed
+     * @throws IOException if the prebuilt database cannot be read or written
+     */
+    abstract void copyTo(FileChannel target) throws IOException;
+
+    /**
+     * Installs the prebuilt database, unless the database already exists
+     *
+     * @param context the context passed to {@link Persistence}
+     * @param name    the database name
+     * @param target  the file where the database is stored
+     * @param spec    the database specification
+     * @return true if the database was installed
+     */
+    boolean install(Context context, String name, File target, DatabaseSpec spec) {
+        if (target.exists()) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        File temp = new File(target.getPath() + SUFFIX);
+        File parent = temp.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            PersistenceLogManager.d(TAG, "Could not create " + parent);
+            return false;
+        }
+        boolean installed = false;
+        try {
+            FileOutputStream output = new FileOutputStream(temp);
+            try {
+                copyTo(output.getChannel());
+                output.getFD().sync();
+            } finally {
+                output.close();
+            }
+            if (prepare(context, name + SUFFIX, temp, spec) && temp.renameTo(target)) {
+                installed = true;
+                PersistenceLogManager.d(TAG, String.format("Installed %s as \"%s\" in %dms", this, name,
+                        System.currentTimeMillis() - start));
+            }
+        } catch (IOException e) {
+            PersistenceLogManager.e(TAG, "Could not copy " + this, e);
+        } catch (RuntimeException e) {
+            PersistenceLogManager.e(TAG, "Could not open " + this, e);
+        } finally {
+            if (!installed) {
+                delete(temp);
+            }
+            delete(new File(temp.getPath() + "-journal"));
+        }
+        return installed;
+    }
+
+    /**
+     * Checks the copied database against the spec and marks it as created with the version of the spec
+     *
+     * @return true if the database can be used
+     */
+    private boolean prepare(Context context, String name, File file, DatabaseSpec spec) {
+        Storage storage = spec.getStorageBuilder() != null
+                ? spec.getStorageBuilder().buildStorage(context, name)
+                : new AndroidStorage(SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READWRITE));
+        try {
+            List<String> problems = SchemaUpgrade.validate(storage, spec);
+            if (!problems.isEmpty()) {
+                PersistenceLogManager.d(TAG, String.format("Ignoring %s, it does not match the spec: %s", this,
+                        problems));
+                return false;
+            }
+            // the database is not created again, so the indexes of the spec must be added here
+            Schema.createIndexes(storage, spec, null);
+            storage.setVersion(spec.getVersion());
+            return true;
+        } finally {
+            storage.close();
+        }
+    }
+
+    private static void transfer(FileChannel source, long position, long length, FileChannel target)
+            throws IOException {
+        long copied = 0;
+        while (copied < length) {
+            long count = source.transferTo(position + copied, Math.min(CHUNK_SIZE, length - copied), target);
+            if (count <= 0) {
+                throw new EOFException("Unexpected end of file after " + copied + " bytes");
+            }
+            copied += count;
+        }
+    }
+
+    private static void copy(ReadableByteChannel source, FileChannel target) throws IOException {
+        try {
+            long position = 0;
+            long count;
+            while ((count = target.transferFrom(source, position, CHUNK_SIZE)) > 0) {
+                position += count;
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            PersistenceLogManager.d(TAG, "Could not delete " + file);
+        }
+    }
+}
@@ -48,81 +48,96 @@ class PrefsAdapterImpl implements PreferencesAdapter {
 
     @Override
     public <T> void store(T bean) {
-        Class<?> theClass = bean.getClass();
-        if (!PersistenceConfig.getPreference(mName).belongsToPreferences(theClass)) {
-            throw new IllegalStateException("This object is not associated with a preference persister");
+        long start = Metrics.begin(MetricsSink.Operation.PREFS_STORE);
+        try {
+            Class<?> theClass = bean.getClass();
+            if (!PersistenceConfig.getPreference(mName).belongsToPreferences(theClass)) {
+                throw new IllegalStateException("This object is not associated with a preference persister");
+            }
+            SharedPreferences.Editor editor = getSharedPreferences(theClass).edit();
+            fillEditor(editor, bean);
+            editor.commit();
+        } finally {
+            Metrics.end(MetricsSink.Operation.PREFS_STORE, bean.getClass(), start);
         }
-        SharedPreferences.Editor editor = getSharedPreferences(theClass).edit();
-        fillEditor(editor, bean);
-        editor.commit();
     }
 
     @Override
     public <T> T retrieve(Class<T> theClass) {
-        T bean;
-        try {
-            bean = theClass.newInstance();
-        } catch (Exception e) {
-            return null;
-        }
+        long start = Metrics.begin(MetricsSink.Operation.PREFS_RETRIEVE);
         try {
-            for (Field field : theClass.getDeclaredFields()) {
-                // ignore static and final fields
-                if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())) {
-                    continue;
-                }
-                field.setAccessible(true);
-                Preference annotation = field.getAnnotation(Preference.class);
-                String keyName;
-                if (annotation == null) {
-                    keyName = field.getName();
-                } else {
-                    keyName = annotation.value();
-                }
-                boolean defaultEnabled = annotation != null && !annotation.defaultValue().equals("");
-                Object value = null;
-                Class<?> type = field.getType();
-                if (type == boolean.class || type == Boolean.class) {
-                    boolean def = defaultEnabled && "true".equals(annotation.defaultValue());
-                    value = getSharedPreferences(theClass).getBoolean(keyName, def);
-                } else if (type == float.class || type == Float.class
-                        || type == double.class || type == Double.class) {
-                    float def = defaultEnabled ? Float.parseFloat(annotation.defaultValue()) : 0.0f;
-                    value = getSharedPreferences(theClass).getFloat(keyName, def);
-                } else if (type == Integer.class || type == int.class) {
-                    int def = defaultEnabled ? Integer.parseInt(annotation.defaultValue()) : 0;
-                    value = getSharedPreferences(theClass).getInt(keyName, def);
-                } else if (type == Long.class || type == long.class) {
-                    long def = defaultEnabled ? Long.parseLong(annotation.defaultValue()) : 0L;
-                    value = getSharedPreferences(theClass).getLong(keyName, def);
-                } else if (type == String.class) {
-                    String def = defaultEnabled ? annotation.defaultValue() : null;
-                    value = getSharedPreferences(theClass).getString(keyName, def);
-                } else {
-                    String msg = String.format("Current object (%s) has incompatible fields (%s of type %s)", bean, field, type);
-                    PersistenceLogManager.e("pref", msg);
+            T bean;
+            try {
+                bean = theClass.newInstance();
+            } catch (Exception e) {
+                return null;
+            }
+            try {
+                for (Field field : theClass.getDeclaredFields()) {
+                    // ignore static and final fields
+                    if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    Preference annotation = field.getAnnotation(Preference.class);
+                    String keyName;
+                    if (annotation == null) {
+                        keyName = field.getName();
+                    } else {
+                        keyName = annotation.value();
+                    }
+                    boolean defaultEnabled = annotation != null && !annotation.defaultValue().equals("");
+                    Object value = null;
+                    Class<?> type = field.getType();
+                    if (type == boolean.class || type == Boolean.class) {
+                        boolean def = defaultEnabled && "true".equals(annotation.defaultValue());
+                        value = getSharedPreferences(theClass).getBoolean(keyName, def);
+                    } else if (type == float.class || type == Float.class
+                            || type == double.class || type == Double.class) {
+                        float def = defaultEnabled ? Float.parseFloat(annotation.defaultValue()) : 0.0f;
+                        value = getSharedPreferences(theClass).getFloat(keyName, def);
+                    } else if (type == Integer.class || type == int.class) {
+                        int def = defaultEnabled ? Integer.parseInt(annotation.defaultValue()) : 0;
+                        value = getSharedPreferences(theClass).getInt(keyName, def);
+                    } else if (type == Long.class || type == long.class) {
+                        long def = defaultEnabled ? Long.parseLong(annotation.defaultValue()) : 0L;
+                        value = getSharedPreferences(theClass).getLong(keyName, def);
+                    } else if (type == String.class) {
+                        String def = defaultEnabled ? annotation.defaultValue() : null;
+                        value = getSharedPreferences(theClass).getString(keyName, def);
+                    } else {
+                        String msg = String.format("Current object (%s) has incompatible fields (%s of type %s)", bean, field, type);
+                        PersistenceLogManager.e("pref", msg);
+                    }
+                    field.set(bean, value);
                 }
-                field.set(bean, value);
+            } catch (Exception ignored) {
             }
-        } catch (Exception ignored) {
+            return bean;
+        } finally {
+            Metrics.end(MetricsSink.Operation.PREFS_RETRIEVE, theClass, start);
         }
-        return bean;
     }
 
     @Override
     public <T> boolean delete(Class<T> theClass) {
-        SharedPreferences.Editor editor = getSharedPreferences(theClass).edit();
-        for (Field field : theClass.getDeclaredFields()) {
-            Preference preferenceAnnotation = field.getAnnotation(Preference.class);
-            String keyName;
-            if (preferenceAnnotation == null) {
-                keyName = field.getName();
-            } else {
-                keyName = preferenceAnnotation.value();
+        long start = Metrics.begin(MetricsSink.Operation.PREFS_DELETE);
+        try {
+            SharedPreferences.Editor editor = getSharedPreferences(theClass).edit();
+            for (Field field : theClass.getDeclaredFields()) {
+                Preference preferenceAnnotation = field.getAnnotation(Preference.class);
+                String keyName;
+                if (preferenceAnnotation == null) {
+                    keyName = field.getName();
+                } else {
+                    keyName = preferenceAnnotation.value();
+                }
+                editor.remove(keyName);
             }
-            editor.remove(keyName);
+            return editor.commit();
+        } finally {
+            Metrics.end(MetricsSink.Operation.PREFS_DELETE, theClass, start);
         }
-        return editor.commit();
     }
 
     private <T> void fillEditor(SharedPreferences.Editor editor, T bean) {
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import java.util.*;
+
+/**
+ * Caches the results of queries (lists of beans or counts). Each table has a monotonic write version that is
+ * bumped every time the table is written; a cached result stays valid until any of the tables it was read from
+ * changes. There is one per database and it is enabled using {@link DatabaseSpec#setQueryCacheSize(int)}.
+ */
+public class QueryCache {
+    // pseudo table whose version changes when we cannot tell which tables were written
+    private static final String ALL_TABLES = "*";
+
+    private final Map<String, Long> mVersions = new HashMap<String, Long>();
+    private final Map<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private int mMaxEntries;
+    private long mHitCount;
+    private long mMissCount;
+
+    QueryCache(int maxEntries) {
+        mMaxEntries = maxEntries;
+    }
+
+    synchronized boolean isEnabled() {
+        return mMaxEntries > 0;
+    }
+
+    /**
+     * @param maxEntries new maximum number of cached results. Zero disables the cache
+     */
+    synchronized void resize(int maxEntries) {
+        mMaxEntries = maxEntries;
+        trimTo(maxEntries);
+    }
+
+    /**
+     * @param key the query key
+     * @return the cached result or null if it is not cached or any of its tables changed
+     */
+    synchronized Object get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry != null && !entry.isValid()) {
+            mEntries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return entry.mResult;
+    }
+
+    /**
+     * @param tables the tables a query is about to read
+     * @return the current versions of those tables. It must be taken before running the query, so that writes
+     *         done while querying invalidate the result
+     */
+    synchronized Map<String, Long> snapshot(Collection<String> tables) {
+        Map<String, Long> versions = new HashMap<String, Long>();
+        versions.put(ALL_TABLES, getVersion(ALL_TABLES));
+        for (String table : tables) {
+            versions.put(table, getVersion(table));
+        }
+        return versions;
+    }
+
+    synchronized void put(String key, Object result, Map<String, Long> versions) {
+        mEntries.put(key, new Entry(result, versions));
+        trimTo(mMaxEntries);
+    }
+
+    /**
+     * Marks a table as written
+     *
+     * @param table the table name
+     */
+    synchronized void bump(String table) {
+        mVersions.put(table, getVersion(table) + 1);
+    }
+
+    /**
+     * Marks all tables as written
+     */
+    synchronized void bumpAll() {
+        bump(ALL_TABLES);
+        mEntries.clear();
+    }
+
+    /**
+     * Releases memory depending on how critical the situation is, the same way the {@link EntityCache} does
+     *
+     * @param level one of the android.content.ComponentCallbacks2 TRIM_MEMORY_* constants
+     */
+    public synchronized void trimMemory(int level) {
+        if (level >= EntityCache.TRIM_MEMORY_MODERATE) {
+            trimTo(0);
+        } else if (level >= EntityCache.TRIM_MEMORY_RUNNING_LOW) {
+            trimTo(mEntries.size() / 2);
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    private void trimTo(int maxEntries) {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mEntries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private long getVersion(String table) {
+        Long version = mVersions.get(table);
+        return version == null ? 0 : version;
+    }
+
+    private class Entry {
+        private final Object mResult;
+        private final Map<String, Long> mTableVersions;
+
+        Entry(Object result, Map<String, Long> tableVersions) {
+            mResult = result;
+            mTableVersions = tableVersions;
+        }
+
+        boolean isValid() {
+            for (Map.Entry<String, Long> entry : mTableVersions.entrySet()) {
+                if (getVersion(entry.getKey()) != entry.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.database.Cursor;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Diagnostic tool that runs EXPLAIN QUERY PLAN once for each distinct query shape and reports the filtered
+ * queries that scan a whole table. It is configured using {@link DatabaseSpec#guardQueryPlans(QueryPlanGuard.Mode, long)}
+ * and it is meant for development and test builds only, since explaining queries is not free.
+ */
+public class QueryPlanGuard {
+    private static final String TAG = QueryPlanGuard.class.getSimpleName();
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(\\.\\d+)?\\b");
+
+    public enum Mode {
+        /**
+         * Queries are not checked. This is the default
+         */
+        OFF,
+        /**
+         * Full table scans are logged as warnings through the registered loggers
+         */
+        WARN,
+        /**
+         * Full table scans make the query throw an {@link IllegalStateException}
+         */
+        FAIL
+    }
+
+    private final Set<String> mCheckedShapes = new HashSet<String>();
+    private final List<String> mFlaggedQueries = new ArrayList<String>();
+    private Mode mMode = Mode.OFF;
+    private long mMinRowCount;
+
+    synchronized void configure(Mode mode, long minRowCount) {
+        if (mode != mMode || minRowCount != mMinRowCount) {
+            mCheckedShapes.clear();
+        }
+        mMode = mode;
+        mMinRowCount = minRowCount;
+    }
+
+    synchronized boolean isEnabled() {
+        return mMode != Mode.OFF;
+    }
+
+    /**
+     * Checks the plan of a query, unless a query with the same shape was already checked
+     *
+     * @param db   the database the query will run on
+     * @param sql  the query
+     * @param args the query arguments
+     */
+    void check(Storage db, String sql, String[] args) {
+        String shape = getShape(sql);
+        Mode mode;
+        long minRowCount;
+        synchronized (this) {
+            if (mMode == Mode.OFF || mCheckedShapes.contains(shape)) {
+                return;
+            }
+            mode = mMode;
+            minRowCount = mMinRowCount;
+        }
+        if (!shape.toUpperCase().contains(" WHERE ")) {
+            // reading a whole table is expected to scan it
+            markChecked(shape);
+            return;
+        }
+        boolean recheck = false;
+        String scannedTable = null;
+        for (String table : getScannedTables(db, sql, args)) {
+            if (countRows(db, table) >= minRowCount) {
+                scannedTable = table;
+                break;
+            }
+            // the table is still small; look again when it has grown
+            recheck = true;
+        }
+        if (scannedTable == null && recheck) {
+            return;
+        }
+        markChecked(shape);
+        if (scannedTable == null) {
+            return;
+        }
+        String msg = String.format("Query scans the whole '%s' table; consider adding an index: %s", scannedTable, shape);
+        synchronized (this) {
+            mFlaggedQueries.add(msg);
+        }
+        if (mode == Mode.FAIL) {
+            throw new IllegalStateException(msg);
+        }
+        PersistenceLogManager.w(TAG, msg);
+    }
+
+    /**
+     * @return the descriptions of the queries that were found to scan whole tables
+     */
+    public synchronized List<String> getFlaggedQueries() {
+        return new ArrayList<String>(mFlaggedQueries);
+    }
+
+    /**
+     * Forgets the checked shapes and the flagged queries
+     */
+    public synchronized void clear() {
+        mCheckedShapes.clear();
+        mFlaggedQueries.clear();
+    }
+
+    private synchronized void markChecked(String shape) {
+        mCheckedShapes.add(shape);
+    }
+
+    /**
+     * @param sql a query
+     * @return the query with its literals replaced by wildcards, so that queries that only differ in their
+     *         values share the same shape
+     */
+    static String getShape(String sql) {
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        return NUMBER_LITERAL.matcher(shape).replaceAll("?");
+    }
+
+    private static List<String> getScannedTables(Storage db, String sql, String[] args) {
+        List<String> tables = new ArrayList<String>();
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detailIndex = plan.getColumnIndex("detail");
+            if (detailIndex == -1) {
+                detailIndex = plan.getColumnCount() - 1;
+            }
+            while (plan.moveToNext()) {
+                String table = getScannedTable(plan.getString(detailIndex));
+                if (table != null && !tables.contains(table)) {
+                    tables.add(table);
+                }
+            }
+        } finally {
+            plan.close();
+        }
+        return tables;
+    }
+
+    /**
+     * @param detail the detail column of an EXPLAIN QUERY PLAN row
+     * @return the name of the table that is fully scanned or null if the row does not describe a table scan
+     */
+    static String getScannedTable(String detail) {
+        if (detail == null) {
+            return null;
+        }
+        String[] tokens = detail.trim().split("\\s+");
+        if (tokens.length >= 2 && tokens[0].equals("SCAN")) {
+            // "SCAN TABLE name ..." or, since sqlite 3.36, "SCAN name ..."
+            int index = tokens[1].equals("TABLE") ? 2 : 1;
+            if (index >= tokens.length || tokens[index].equals("SUBQUERY") || tokens[index].equals("CONSTANT")) {
+                return null;
+            }
+            return tokens[index];
+        }
+        if (tokens.length >= 2 && tokens[0].equals("TABLE")) {
+            // old sqlite versions: "TABLE name [WITH INDEX index | USING PRIMARY KEY]"
+            if (detail.contains("WITH INDEX") || detail.contains("PRIMARY KEY")) {
+                return null;
+            }
+            return tokens[1];
+        }
+        return null;
+    }
+
+    private static long countRows(Storage db, String table) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,647 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.database.Cursor;
+
+import java.io.File;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Aggregates the shapes of the queries run by the library (table, equality columns, range columns and sort
+ * columns) with their frequency and latency, and suggests the indexes that would cover the hottest ones. It is
+ * enabled using {@link DatabaseSpec#recordQueryShapes(boolean)}.
+ * <p/>
+ * Statistics live in memory until {@link #save()} is called, which stores them in a file next to the database
+ * (so they are never part of its schema or its snapshots) and {@link DatabaseSpec#autoCreateIndexes(int)} can use
+ * them the next time the application starts.
+ */
+public class QueryRecorder {
+    private static final String TAG = QueryRecorder.class.getSimpleName();
+    // the file with the statistics is only attached while they are saved or loaded
+    private static final String STATS_SCHEMA = "persistence_stats";
+    private static final String STATS_TABLE = STATS_SCHEMA + ".query_shapes";
+    private static final int MAX_PARSED_QUERIES = 500;
+    private static final Pattern PREDICATE = Pattern.compile(
+            "^(?:\\w+\\.)?(\\w+)\\s*(==|=|<=|>=|<>|!=|<|>|IS NOT|IS|NOT LIKE|LIKE|GLOB|NOT IN|IN|BETWEEN).*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern BETWEEN = Pattern.compile("BETWEEN\\s+\\?\\s+AND\\s+\\?", Pattern.CASE_INSENSITIVE);
+    private static final String[] CLAUSES = {" WHERE ", " GROUP BY ", " HAVING ", " ORDER BY ", " LIMIT "};
+
+    private final SqliteDb mDb;
+    private final Map<String, List<QueryShape>> mParsed = new HashMap<String, List<QueryShape>>();
+    private final Map<String, QueryShape> mShapes = new HashMap<String, QueryShape>();
+    private Set<String> mForeignKeyIndexes = Collections.emptySet();
+    private boolean mEnabled;
+
+    QueryRecorder(SqliteDb db) {
+        mDb = db;
+    }
+
+    synchronized void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * @param foreignKeyIndexes the indexes of the relations, which are never reported as unused
+     */
+    synchronized void setForeignKeyIndexes(Set<String> foreignKeyIndexes) {
+        mForeignKeyIndexes = foreignKeyIndexes;
+    }
+
+    synchronized boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Records the execution of a query
+     *
+     * @param sql   the query
+     * @param nanos how long it took
+     */
+    synchronized void record(String sql, long nanos) {
+        String normalized = QueryPlanGuard.getShape(sql);
+        List<QueryShape> parsed = mParsed.get(normalized);
+        if (parsed == null) {
+            parsed = new ArrayList<QueryShape>();
+            parse(normalized, parsed);
+            if (mParsed.size() < MAX_PARSED_QUERIES) {
+                mParsed.put(normalized, parsed);
+            }
+        }
+        for (QueryShape template : parsed) {
+            QueryShape shape = mShapes.get(template.getKey());
+            if (shape == null) {
+                shape = template.copy();
+                mShapes.put(shape.getKey(), shape);
+            }
+            shape.mExecutions++;
+            shape.mTotalNanos += nanos;
+            shape.mMaxNanos = Math.max(shape.mMaxNanos, nanos);
+        }
+    }
+
+    /**
+     * @return the recorded shapes, sorted by the total time spent running them
+     */
+    public synchronized List<QueryShape> getShapes() {
+        List<QueryShape> shapes = new ArrayList<QueryShape>();
+        for (QueryShape shape : mShapes.values()) {
+            shapes.add(shape.copy());
+        }
+        Collections.sort(shapes, new Comparator<QueryShape>() {
+            @Override
+            public int compare(QueryShape a, QueryShape b) {
+                return a.mTotalNanos < b.mTotalNanos ? 1 : (a.mTotalNanos == b.mTotalNanos ? 0 : -1);
+            }
+        });
+        return shapes;
+    }
+
+    /**
+     * @param minExecutions shapes executed fewer times than this are ignored
+     * @return the indexes that would cover the recorded shapes and do not exist yet, hottest shapes first
+     */
+    public List<IndexAdvice> advise(int minExecutions) {
+        Storage db = mDb.getStorage();
+        Map<String, List<List<String>>> existing = new HashMap<String, List<List<String>>>();
+        List<IndexAdvice> advices = new ArrayList<IndexAdvice>();
+        for (QueryShape shape : getShapes()) {
+            if (shape.mExecutions < minExecutions) {
+                continue;
+            }
+            List<String> columns = shape.getIndexColumns();
+            if (columns.isEmpty()) {
+                continue;
+            }
+            List<List<String>> indexes = existing.get(shape.mTable);
+            if (indexes == null) {
+                indexes = getIndexes(db, shape.mTable);
+                existing.put(shape.mTable, indexes);
+            }
+            if (indexes.isEmpty() && !tableExists(db, shape.mTable)) {
+                continue;
+            }
+            boolean covered = false;
+            for (List<String> index : indexes) {
+                if (covers(index, shape.mEqualityColumns, columns)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                advices.add(new IndexAdvice(shape, columns));
+                // do not suggest the same index twice
+                indexes.add(columns);
+            }
+        }
+        return advices;
+    }
+
+    /**
+     * @return the names of the indexes created by the user whose leading column is not used by any of the
+     *         recorded shapes. They only slow down writes. Unique indexes (which are constraints) and the indexes
+     *         of the relation foreign keys are never reported
+     */
+    public List<String> getUnusedIndexes() {
+        Storage db = mDb.getStorage();
+        List<String> unused = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("SELECT name, tbl_name FROM sqlite_master WHERE type = 'index' AND sql IS NOT NULL", null);
+        try {
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(0);
+                String table = cursor.getString(1);
+                // relations are loaded by their foreign keys, and unique indexes are constraints
+                if (isForeignKeyIndex(name) || isUnique(db, table, name)) {
+                    continue;
+                }
+                List<String> columns = getIndexColumns(db, name);
+                if (columns.isEmpty() || !isUsed(table, columns.get(0))) {
+                    unused.add(name);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return unused;
+    }
+
+    /**
+     * Creates the advised indexes
+     *
+     * @param minExecutions shapes executed fewer times than this are ignored
+     * @return the advices that were applied
+     */
+    public List<IndexAdvice> createAdvisedIndexes(int minExecutions) {
+        List<IndexAdvice> advices = advise(minExecutions);
+        for (IndexAdvice advice : advices) {
+            PersistenceLogManager.d(TAG, "Creating advised index: " + advice.getCreateStatement());
+            mDb.execSQL(advice.getCreateStatement());
+        }
+        return advices;
+    }
+
+    /**
+     * Stores the statistics in a file next to the database, so that they survive restarts. Statistics of
+     * in-memory databases are not stored
+     */
+    public synchronized void save() {
+        final Storage db = mDb.getStorage();
+        mDb.getMaintenance().runExclusively(new Runnable() {
+            @Override
+            public void run() {
+                File file = getStatsFile(db);
+                if (file == null) {
+                    PersistenceLogManager.d(TAG, "Statistics of in-memory databases are not saved");
+                    return;
+                }
+                attachStats(db, file);
+                try {
+                    createStatsTable(db);
+                    db.execSQL("BEGIN TRANSACTION;");
+                    boolean committed = false;
+                    try {
+                        for (QueryShape shape : mShapes.values()) {
+                            db.execSQL("INSERT OR REPLACE INTO " + STATS_TABLE + " (shape, table_name, " +
+                                    "equality_columns, range_columns, sort_columns, executions, total_nanos, " +
+                                    "max_nanos) VALUES (?, ?, ?, ?, ?, ?, ?, ?)", new Object[]{shape.getKey(),
+                                    shape.mTable, join(shape.mEqualityColumns), join(shape.mRangeColumns),
+                                    join(shape.mSortColumns), shape.mExecutions, shape.mTotalNanos, shape.mMaxNanos});
+                        }
+                        db.execSQL("COMMIT;");
+                        committed = true;
+                    } finally {
+                        if (!committed) {
+                            db.execSQL("ROLLBACK;");
+                        }
+                    }
+                } finally {
+                    db.execSQL("DETACH DATABASE " + STATS_SCHEMA);
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the statistics stored by {@link #save()}. Loaded statistics replace the ones in memory
+     */
+    synchronized void load() {
+        Storage db = mDb.getStorage();
+        File file = getStatsFile(db);
+        if (file == null || !file.isFile()) {
+            return;
+        }
+        attachStats(db, file);
+        try {
+            createStatsTable(db);
+            Cursor cursor = db.rawQuery("SELECT table_name, equality_columns, range_columns, sort_columns, " +
+                    "executions, total_nanos, max_nanos FROM " + STATS_TABLE, null);
+            try {
+                while (cursor.moveToNext()) {
+                    QueryShape shape = new QueryShape(cursor.getString(0), split(cursor.getString(1)),
+                            split(cursor.getString(2)), split(cursor.getString(3)));
+                    shape.mExecutions = cursor.getLong(4);
+                    shape.mTotalNanos = cursor.getLong(5);
+                    shape.mMaxNanos = cursor.getLong(6);
+                    mShapes.put(shape.getKey(), shape);
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.execSQL("DETACH DATABASE " + STATS_SCHEMA);
+        }
+    }
+
+    /**
+     * @return the file where the statistics of the database are stored, or null if the database is in memory
+     */
+    private static File getStatsFile(Storage db) {
+        Cursor cursor = db.rawQuery("PRAGMA database_list", null);
+        try {
+            int name = cursor.getColumnIndex("name");
+            int file = cursor.getColumnIndex("file");
+            while (cursor.moveToNext()) {
+                if ("main".equals(cursor.getString(name))) {
+                    String path = cursor.getString(file);
+                    return path == null || path.length() == 0 ? null : new File(path + "-shapes");
+                }
+            }
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void attachStats(Storage db, File file) {
+        // ATTACH cannot run inside a transaction, and not all the storages can bind its arguments
+        db.execSQL("ATTACH DATABASE '" + file.getAbsolutePath().replace("'", "''") + "' AS " + STATS_SCHEMA);
+    }
+
+    /**
+     * Forgets the statistics kept in memory
+     */
+    public synchronized void clear() {
+        mShapes.clear();
+    }
+
+    private synchronized boolean isUsed(String table, String column) {
+        for (QueryShape shape : mShapes.values()) {
+            if (shape.mTable.equals(table) && (shape.mEqualityColumns.contains(column)
+                    || shape.mRangeColumns.contains(column) || shape.mSortColumns.contains(column))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a query (whose literals were already replaced by wildcards) and its sub-queries
+     *
+     * @param sql    the query
+     * @param shapes list where the shapes found will be added
+     */
+    static void parse(String sql, List<QueryShape> shapes) {
+        // extract the sub-queries first
+        String upper = sql.toUpperCase();
+        int start;
+        while ((start = upper.indexOf("(SELECT ")) != -1) {
+            int depth = 0;
+            int end = start;
+            for (; end < sql.length(); end++) {
+                char c = sql.charAt(end);
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')' && --depth == 0) {
+                    break;
+                }
+            }
+            if (end == sql.length()) {
+                return;
+            }
+            parse(sql.substring(start + 1, end), shapes);
+            sql = sql.substring(0, start) + "(?)" + sql.substring(end + 1);
+            upper = sql.toUpperCase();
+        }
+        sql = sql.trim();
+        if (sql.endsWith(";")) {
+            sql = sql.substring(0, sql.length() - 1);
+        }
+        upper = sql.toUpperCase();
+        if (!upper.startsWith("SELECT ")) {
+            return;
+        }
+        int from = upper.indexOf(" FROM ");
+        if (from == -1) {
+            return;
+        }
+        String rest = sql.substring(from + 6).trim() + " ";
+        int tableEnd = 0;
+        while (tableEnd < rest.length() && (Character.isLetterOrDigit(rest.charAt(tableEnd)) || rest.charAt(tableEnd) == '_')) {
+            tableEnd++;
+        }
+        String table = rest.substring(0, tableEnd);
+        rest = " " + rest.substring(tableEnd).trim() + " ";
+        String upperRest = rest.toUpperCase();
+        if (table.length() == 0 || table.startsWith("sqlite_")
+                || (rest.trim().length() > 0 && !startsWithClause(upperRest))) {
+            // joins and such are not analyzed
+            return;
+        }
+        String where = getClause(rest, upperRest, " WHERE ");
+        String orderBy = getClause(rest, upperRest, " ORDER BY ");
+        List<String> equality = new ArrayList<String>();
+        List<String> ranges = new ArrayList<String>();
+        List<String> sorting = new ArrayList<String>();
+        if (where != null && !where.toUpperCase().contains(" OR ")) {
+            where = BETWEEN.matcher(where).replaceAll("BETWEEN ?");
+            for (String predicate : where.split("(?i)\\s+AND\\s+")) {
+                Matcher matcher = PREDICATE.matcher(predicate.replace("(", " ").trim());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                String column = matcher.group(1);
+                String operator = matcher.group(2).toUpperCase();
+                if (operator.equals("=") || operator.equals("==") || operator.equals("IS") || operator.equals("IN")) {
+                    addOnce(equality, column);
+                } else if (operator.startsWith("<") && !operator.equals("<>") || operator.startsWith(">")
+                        || operator.equals("BETWEEN") || operator.equals("LIKE") || operator.equals("GLOB")) {
+                    addOnce(ranges, column);
+                }
+            }
+        }
+        if (orderBy != null) {
+            for (String term : orderBy.split(",")) {
+                String[] tokens = term.trim().split("\\s+");
+                String column = tokens[0];
+                int dot = column.lastIndexOf('.');
+                addOnce(sorting, dot == -1 ? column : column.substring(dot + 1));
+            }
+        }
+        shapes.add(new QueryShape(table, equality, ranges, sorting));
+    }
+
+    private static boolean startsWithClause(String upperRest) {
+        for (String clause : CLAUSES) {
+            if (upperRest.startsWith(clause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getClause(String rest, String upperRest, String clause) {
+        int start = upperRest.indexOf(clause);
+        if (start == -1) {
+            return null;
+        }
+        start += clause.length();
+        int end = rest.length();
+        for (String other : CLAUSES) {
+            int index = upperRest.indexOf(other, start);
+            if (index != -1 && index < end) {
+                end = index;
+            }
+        }
+        return rest.substring(start, end).trim();
+    }
+
+    private static boolean covers(List<String> index, List<String> equality, List<String> columns) {
+        if (index.size() < columns.size()) {
+            return false;
+        }
+        // equality columns can be in any order, as long as they are the leading ones
+        Set<String> leading = new HashSet<String>(index.subList(0, equality.size()));
+        if (!leading.equals(new HashSet<String>(equality))) {
+            return false;
+        }
+        return index.subList(equality.size(), columns.size()).equals(columns.subList(equality.size(), columns.size()));
+    }
+
+    private static List<List<String>> getIndexes(Storage db, String table) {
+        List<List<String>> indexes = new ArrayList<List<String>>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int name = cursor.getColumnIndex("name");
+            int pk = cursor.getColumnIndex("pk");
+            while (cursor.moveToNext()) {
+                if (cursor.getInt(pk) > 0) {
+                    indexes.add(new ArrayList<String>(Collections.singletonList(cursor.getString(name))));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        cursor = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+        try {
+            int name = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                indexes.add(getIndexColumns(db, cursor.getString(name)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return indexes;
+    }
+
+    private synchronized boolean isForeignKeyIndex(String index) {
+        return mForeignKeyIndexes.contains(index);
+    }
+
+    private static boolean isUnique(Storage db, String table, String index) {
+        Cursor cursor = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+        try {
+            int name = cursor.getColumnIndex("name");
+            int unique = cursor.getColumnIndex("unique");
+            while (cursor.moveToNext()) {
+                if (index.equals(cursor.getString(name))) {
+                    return cursor.getInt(unique) != 0;
+                }
+            }
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static List<String> getIndexColumns(Storage db, String index) {
+        List<String> columns = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+        try {
+            int name = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(name));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    private static boolean tableExists(Storage db, String table) {
+        Cursor cursor = db.rawQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?", new String[]{table});
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void createStatsTable(Storage db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + STATS_TABLE + " (shape TEXT PRIMARY KEY, table_name TEXT, " +
+                "equality_columns TEXT, range_columns TEXT, sort_columns TEXT, executions INTEGER, " +
+                "total_nanos INTEGER, max_nanos INTEGER);");
+    }
+
+    private static void addOnce(List<String> list, String value) {
+        if (!list.contains(value)) {
+            list.add(value);
+        }
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder builder = new StringBuilder();
+        for (String value : values) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    private static List<String> split(String values) {
+        List<String> list = new ArrayList<String>();
+        if (values != null && values.length() > 0) {
+            list.addAll(Arrays.asList(values.split(",")));
+        }
+        return list;
+    }
+
+    /**
+     * Shape of a query on a single table
+     */
+    public static class QueryShape {
+        private final String mTable;
+        private final List<String> mEqualityColumns;
+        private final List<String> mRangeColumns;
+        private final List<String> mSortColumns;
+        private long mExecutions;
+        private long mTotalNanos;
+        private long mMaxNanos;
+
+        QueryShape(String table, List<String> equalityColumns, List<String> rangeColumns, List<String> sortColumns) {
+            mTable = table;
+            mEqualityColumns = equalityColumns;
+            mRangeColumns = rangeColumns;
+            mSortColumns = sortColumns;
+        }
+
+        String getKey() {
+            return mTable + "|" + join(mEqualityColumns) + "|" + join(mRangeColumns) + "|" + join(mSortColumns);
+        }
+
+        QueryShape copy() {
+            QueryShape copy = new QueryShape(mTable, mEqualityColumns, mRangeColumns, mSortColumns);
+            copy.mExecutions = mExecutions;
+            copy.mTotalNanos = mTotalNanos;
+            copy.mMaxNanos = mMaxNanos;
+            return copy;
+        }
+
+        /**
+         * @return the columns of the index that would cover this shape: equality columns first, then the first
+         *         range column or, if there is none, the sort columns
+         */
+        List<String> getIndexColumns() {
+            List<String> columns = new ArrayList<String>(mEqualityColumns);
+            if (!mRangeColumns.isEmpty()) {
+                addOnce(columns, mRangeColumns.get(0));
+            } else {
+                for (String column : mSortColumns) {
+                    addOnce(columns, column);
+                }
+            }
+            return columns;
+        }
+
+        public String getTable() {
+            return mTable;
+        }
+
+        public List<String> getEqualityColumns() {
+            return Collections.unmodifiableList(mEqualityColumns);
+        }
+
+        public List<String> getRangeColumns() {
+            return Collections.unmodifiableList(mRangeColumns);
+        }
+
+        public List<String> getSortColumns() {
+            return Collections.unmodifiableList(mSortColumns);
+        }
+
+        public long getExecutions() {
+            return mExecutions;
+        }
+
+        public long getTotalNanos() {
+            return mTotalNanos;
+        }
+
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "QueryShape{" + getKey() + ", executions=" + mExecutions + ", totalNanos=" + mTotalNanos + '}';
+        }
+    }
+
+    /**
+     * An index that would cover one of the recorded shapes
+     */
+    public static class IndexAdvice {
+        private final QueryShape mShape;
+        private final List<String> mColumns;
+
+        IndexAdvice(QueryShape shape, List<String> columns) {
+            mShape = shape;
+            mColumns = columns;
+        }
+
+        public QueryShape getShape() {
+            return mShape;
+        }
+
+        public List<String> getColumns() {
+            return Collections.unmodifiableList(mColumns);
+        }
+
+        public String getCreateStatement() {
+            return SQLHelper.getCreateIndexSentence(mShape.getTable(), "", false, mColumns.toArray(new String[mColumns.size()]));
+        }
+
+        @Override
+        public String toString() {
+            return getCreateStatement();
+        }
+    }
+}
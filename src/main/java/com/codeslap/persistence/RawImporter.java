@@ -16,7 +16,8 @@
 
 package com.codeslap.persistence;
 
-import android.database.sqlite.SQLiteDatabase;
+import java.io.IOException;
+import java.io.StringReader;
 
 /**
  * {@link Importer} implementation that takes the SQL statements directly from a String.
@@ -30,18 +31,12 @@ class RawImporter implements Importer {
     }
 
     @Override
-    public void execute(SQLiteDatabase database) {
-        String[] lines = mSqlStatement.split("\n");
-        StringBuilder toExecute = new StringBuilder();
-        for (String line : lines) {
-            if ("BEGIN TRANSACTION;".equalsIgnoreCase(line) || "COMMIT;".equalsIgnoreCase(line)) {
-                continue;
-            }
-            toExecute.append(line);
-            if (line.trim().endsWith(";")) {
-                database.execSQL(toExecute.toString());
-                toExecute = new StringBuilder();
-            }
+    public void execute(Storage database, StatementTracer tracer) {
+        try {
+            StreamImporter.importStatements(database, tracer, new StringReader(mSqlStatement));
+        } catch (IOException e) {
+            // a StringReader does not fail
+            throw new IllegalStateException(e);
         }
     }
 }
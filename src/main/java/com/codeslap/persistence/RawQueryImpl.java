@@ -18,24 +18,28 @@ package com.codeslap.persistence;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 
 /**
  * @author cristian
  */
 class RawQueryImpl implements RawQuery {
-    private final SQLiteDatabase mDb;
+    private final SqliteDb mDbHelper;
     private final DatabaseSpec mDatabaseSpec;
 
     RawQueryImpl(Context context, String name, String specId) {
         mDatabaseSpec = PersistenceConfig.getDatabaseSpec(specId);
-        SqliteDb helper = SqliteDb.getInstance(context, name, mDatabaseSpec);
-        mDb = helper.getDatabase();
+        mDbHelper = SqliteDb.getInstance(context, name, mDatabaseSpec);
     }
 
     @Override
     public Cursor findAll(Class<?> theClass) {
-        return mDb.query(SQLHelper.getTableName(theClass), null, null, null, null, null, null, null);
+        long start = Metrics.begin(MetricsSink.Operation.RAW_QUERY);
+        try {
+            Cursor cursor = mDbHelper.query(SQLHelper.getTableName(theClass), null, null, null, null, null, null, null);
+            return Metrics.fill(cursor, start);
+        } finally {
+            Metrics.end(MetricsSink.Operation.RAW_QUERY, theClass, start);
+        }
     }
 
     @Override
@@ -45,26 +49,73 @@ class RawQueryImpl implements RawQuery {
 
     @Override
     public Cursor findAll(Object where, Constraint constraint) {
-        return SQLHelper.getCursorFindAllWhere(mDb, where.getClass(), where, null, constraint, mDatabaseSpec);
+        long start = Metrics.begin(MetricsSink.Operation.RAW_QUERY);
+        try {
+            Cursor cursor = SQLHelper.getCursorFindAllWhere(mDbHelper, where.getClass(), where, null, constraint,
+                    mDatabaseSpec);
+            return Metrics.fill(cursor, start);
+        } finally {
+            Metrics.end(MetricsSink.Operation.RAW_QUERY, where.getClass(), start);
+        }
     }
 
     @Override
     public Cursor findAll(Object where, Object attachedTo) {
-        return SQLHelper.getCursorFindAllWhere(mDb, where.getClass(), where, attachedTo, null, mDatabaseSpec);
+        long start = Metrics.begin(MetricsSink.Operation.RAW_QUERY);
+        try {
+            Cursor cursor = SQLHelper.getCursorFindAllWhere(mDbHelper, where.getClass(), where, attachedTo, null,
+                    mDatabaseSpec);
+            return Metrics.fill(cursor, start);
+        } finally {
+            Metrics.end(MetricsSink.Operation.RAW_QUERY, where.getClass(), start);
+        }
     }
 
     @Override
     public Cursor findAll(Class<?> theClass, String where, String[] whereArgs) {
-        return mDb.query(SQLHelper.getTableName(theClass), null, where, whereArgs, null, null, null, null);
+        long start = Metrics.begin(MetricsSink.Operation.RAW_QUERY);
+        try {
+            Cursor cursor = mDbHelper.query(SQLHelper.getTableName(theClass), null, where, whereArgs, null, null, null,
+                    null);
+            return Metrics.fill(cursor, start);
+        } finally {
+            Metrics.end(MetricsSink.Operation.RAW_QUERY, theClass, start);
+        }
     }
 
     @Override
     public Cursor rawQuery(String rawQuery) {
-        return mDb.rawQuery(rawQuery, null);
+        long start = Metrics.begin(MetricsSink.Operation.RAW_QUERY);
+        try {
+            Cursor cursor = mDbHelper.rawQuery(rawQuery, null);
+            if (!isReadOnly(rawQuery)) {
+                // cursors run lazily; make sure the write happened before invalidating, or a concurrent
+                // read could cache the old rows under the new version
+                cursor.getCount();
+                // we cannot tell which tables were written, so invalidate everything
+                mDbHelper.getEntityCache().clear();
+                mDbHelper.getQueryCache().bumpAll();
+            }
+            return Metrics.fill(cursor, start);
+        } finally {
+            Metrics.end(MetricsSink.Operation.RAW_QUERY, "raw", start);
+        }
+    }
+
+    private static boolean isReadOnly(String sql) {
+        String statement = sql.trim().toUpperCase();
+        return statement.startsWith("SELECT") || statement.startsWith("EXPLAIN");
     }
 
     @Override
     public Cursor findAll(String table, String[] projection, String selection, String[] selectionArgs, String groupBy, String having, String sortOrder, String limit) {
-        return mDb.query(table, projection, selection, selectionArgs, groupBy, having, sortOrder, limit);
+        long start = Metrics.begin(MetricsSink.Operation.RAW_QUERY);
+        try {
+            Cursor cursor = mDbHelper.query(table, projection, selection, selectionArgs, groupBy, having, sortOrder,
+                    limit);
+            return Metrics.fill(cursor, start);
+        } finally {
+            Metrics.end(MetricsSink.Operation.RAW_QUERY, table, start);
+        }
     }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.database.Cursor;
+import com.codeslap.persistence.WorkloadTrace.Call;
+
+/**
+ * {@link RawQuery} that records its calls using a {@link WorkloadRecorder}. The size of the cursors is not
+ * recorded, since counting their rows would change the way they are read.
+ */
+class RecordingRawQuery implements RawQuery {
+    private final RawQuery mRawQuery;
+    private final WorkloadRecorder mRecorder;
+
+    RecordingRawQuery(RawQuery rawQuery, WorkloadRecorder recorder) {
+        mRawQuery = rawQuery;
+        mRecorder = recorder;
+    }
+
+    @Override
+    public Cursor findAll(Class<?> theClass) {
+        Object[] args = mRecorder.begin(theClass);
+        long start = System.nanoTime();
+        Cursor cursor = mRawQuery.findAll(theClass);
+        mRecorder.end(Call.RAW_FIND_ALL_CLASS, args, start, -1);
+        return cursor;
+    }
+
+    @Override
+    public Cursor findAll(Object where) {
+        Object[] args = mRecorder.begin(where);
+        long start = System.nanoTime();
+        Cursor cursor = mRawQuery.findAll(where);
+        mRecorder.end(Call.RAW_FIND_ALL_SAMPLE, args, start, -1);
+        return cursor;
+    }
+
+    @Override
+    public Cursor findAll(Object where, Constraint constraint) {
+        Object[] args = mRecorder.begin(where, constraint);
+        long start = System.nanoTime();
+        Cursor cursor = mRawQuery.findAll(where, constraint);
+        mRecorder.end(Call.RAW_FIND_ALL_CONSTRAINT, args, start, -1);
+        return cursor;
+    }
+
+    @Override
+    public Cursor findAll(Object where, Object attachedTo) {
+        Object[] args = mRecorder.begin(where, attachedTo);
+        long start = System.nanoTime();
+        Cursor cursor = mRawQuery.findAll(where, attachedTo);
+        mRecorder.end(Call.RAW_FIND_ALL_ATTACHED, args, start, -1);
+        return cursor;
+    }
+
+    @Override
+    public Cursor findAll(Class<?> theClass, String where, String[] whereArgs) {
+        Object[] args = mRecorder.begin(theClass, where, whereArgs);
+        long start = System.nanoTime();
+        Cursor cursor = mRawQuery.findAll(theClass, where, whereArgs);
+        mRecorder.end(Call.RAW_FIND_ALL_WHERE, args, start, -1);
+        return cursor;
+    }
+
+    @Override
+    public Cursor rawQuery(String rawQuery) {
+        Object[] args = mRecorder.begin(rawQuery);
+        long start = System.nanoTime();
+        Cursor cursor = mRawQuery.rawQuery(rawQuery);
+        mRecorder.end(Call.RAW_QUERY, args, start, -1);
+        return cursor;
+    }
+
+    @Override
+    public Cursor findAll(String table, String[] projection, String selection, String[] selectionArgs,
+                          String groupBy, String having, String sortOrder, String limit) {
+        Object[] args = mRecorder.begin(table, projection, selection, selectionArgs, groupBy, having, sortOrder,
+                limit);
+        long start = System.nanoTime();
+        Cursor cursor = mRawQuery.findAll(table, projection, selection, selectionArgs, groupBy, having, sortOrder,
+                limit);
+        mRecorder.end(Call.RAW_FIND_ALL_TABLE, args, start, -1);
+        return cursor;
+    }
+}
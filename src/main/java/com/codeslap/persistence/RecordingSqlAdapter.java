@@ -0,0 +1,333 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import com.codeslap.persistence.WorkloadTrace.Call;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link SqlAdapter} that records its calls using a {@link WorkloadRecorder}
+ */
+class RecordingSqlAdapter implements SqlAdapter {
+    private final SqlAdapter mAdapter;
+    private final WorkloadRecorder mRecorder;
+
+    RecordingSqlAdapter(SqlAdapter adapter, WorkloadRecorder recorder) {
+        mAdapter = adapter;
+        mRecorder = recorder;
+    }
+
+    @Override
+    public <T> Object store(T object) {
+        Object[] args = mRecorder.begin(object);
+        long start = System.nanoTime();
+        Object id = mAdapter.store(object);
+        mRecorder.end(Call.STORE, args, start, 1);
+        return id;
+    }
+
+    @Override
+    public <T, G> Object store(T bean, G attachedTo) {
+        Object[] args = mRecorder.begin(bean, attachedTo);
+        long start = System.nanoTime();
+        Object id = mAdapter.store(bean, attachedTo);
+        mRecorder.end(Call.STORE_ATTACHED, args, start, 1);
+        return id;
+    }
+
+    @Override
+    public <T> void storeCollection(List<T> collection, ProgressListener listener) {
+        Object[] args = mRecorder.begin(collection);
+        long start = System.nanoTime();
+        mAdapter.storeCollection(collection, listener);
+        mRecorder.end(Call.STORE_COLLECTION, args, start, collection.size());
+    }
+
+    @Override
+    public <T, G> void storeCollection(List<T> collection, G attachedTo, ProgressListener listener) {
+        Object[] args = mRecorder.begin(collection, attachedTo);
+        long start = System.nanoTime();
+        mAdapter.storeCollection(collection, attachedTo, listener);
+        mRecorder.end(Call.STORE_COLLECTION_ATTACHED, args, start, collection.size());
+    }
+
+    @Override
+    public <T> void storeUniqueCollection(List<T> collection, ProgressListener listener) {
+        Object[] args = mRecorder.begin(collection);
+        long start = System.nanoTime();
+        mAdapter.storeUniqueCollection(collection, listener);
+        mRecorder.end(Call.STORE_UNIQUE_COLLECTION, args, start, collection.size());
+    }
+
+    @Override
+    public <T> int update(T object, T where) {
+        Object[] args = mRecorder.begin(object, where);
+        long start = System.nanoTime();
+        int updated = mAdapter.update(object, where);
+        mRecorder.end(Call.UPDATE_SAMPLE, args, start, updated);
+        return updated;
+    }
+
+    @Override
+    public <T> int update(T object, String where, String[] whereArgs) {
+        Object[] args = mRecorder.begin(object, where, whereArgs);
+        long start = System.nanoTime();
+        int updated = mAdapter.update(object, where, whereArgs);
+        mRecorder.end(Call.UPDATE_WHERE, args, start, updated);
+        return updated;
+    }
+
+    @Override
+    public <T> T findFirst(T where) {
+        Object[] args = mRecorder.begin(where);
+        long start = System.nanoTime();
+        T result = mAdapter.findFirst(where);
+        mRecorder.end(Call.FIND_FIRST_SAMPLE, args, start, result == null ? 0 : 1);
+        return result;
+    }
+
+    @Override
+    public <T> T findFirst(Class<T> theClass, String where, String[] whereArgs) {
+        Object[] args = mRecorder.begin(theClass, where, whereArgs);
+        long start = System.nanoTime();
+        T result = mAdapter.findFirst(theClass, where, whereArgs);
+        mRecorder.end(Call.FIND_FIRST_WHERE, args, start, result == null ? 0 : 1);
+        return result;
+    }
+
+    @Override
+    public <T> T findById(Class<T> theClass, Object id) {
+        Object[] args = mRecorder.begin(theClass, id);
+        long start = System.nanoTime();
+        T result = mAdapter.findById(theClass, id);
+        mRecorder.end(Call.FIND_BY_ID, args, start, result == null ? 0 : 1);
+        return result;
+    }
+
+    @Override
+    public <T> Map<Object, T> findByIds(Class<T> theClass, Collection<?> ids) {
+        Object[] args = mRecorder.begin(theClass, ids);
+        long start = System.nanoTime();
+        Map<Object, T> result = mAdapter.findByIds(theClass, ids);
+        mRecorder.end(Call.FIND_BY_IDS, args, start, result.size());
+        return result;
+    }
+
+    @Override
+    public <T> List<T> findAll(Class<T> theClass) {
+        Object[] args = mRecorder.begin(theClass);
+        long start = System.nanoTime();
+        List<T> result = mAdapter.findAll(theClass);
+        mRecorder.end(Call.FIND_ALL_CLASS, args, start, result.size());
+        return result;
+    }
+
+    @Override
+    public <T> List<T> findAll(T where) {
+        Object[] args = mRecorder.begin(where);
+        long start = System.nanoTime();
+        List<T> result = mAdapter.findAll(where);
+        mRecorder.end(Call.FIND_ALL_SAMPLE, args, start, result.size());
+        return result;
+    }
+
+    @Override
+    public <T> List<T> findAll(T where, Constraint constraint) {
+        Object[] args = mRecorder.begin(where, constraint);
+        long start = System.nanoTime();
+        List<T> result = mAdapter.findAll(where, constraint);
+        mRecorder.end(Call.FIND_ALL_CONSTRAINT, args, start, result.size());
+        return result;
+    }
+
+    @Override
+    public <T, G> List<T> findAll(T where, G attachedTo) {
+        Object[] args = mRecorder.begin(where, attachedTo);
+        long start = System.nanoTime();
+        List<T> result = mAdapter.findAll(where, attachedTo);
+        mRecorder.end(Call.FIND_ALL_ATTACHED, args, start, result.size());
+        return result;
+    }
+
+    @Override
+    public <T> List<T> findAll(Class<T> theClass, String where, String[] whereArgs) {
+        Object[] args = mRecorder.begin(theClass, where, whereArgs);
+        long start = System.nanoTime();
+        List<T> result = mAdapter.findAll(theClass, where, whereArgs);
+        mRecorder.end(Call.FIND_ALL_WHERE, args, start, result.size());
+        return result;
+    }
+
+    @Override
+    public <T> int delete(T where) {
+        return delete(where, false);
+    }
+
+    @Override
+    public <T> int delete(T where, boolean onCascade) {
+        Object[] args = mRecorder.begin(where, onCascade);
+        long start = System.nanoTime();
+        int deleted = mAdapter.delete(where, onCascade);
+        mRecorder.end(Call.DELETE_SAMPLE, args, start, deleted);
+        return deleted;
+    }
+
+    @Override
+    public <T> int delete(Class<T> theClass, String where, String[] whereArgs) {
+        return delete(theClass, where, whereArgs, false);
+    }
+
+    @Override
+    public <T> int delete(Class<T> theClass, String where, String[] whereArgs, boolean onCascade) {
+        Object[] args = mRecorder.begin(theClass, where, whereArgs, onCascade);
+        long start = System.nanoTime();
+        int deleted = mAdapter.delete(theClass, where, whereArgs, onCascade);
+        mRecorder.end(Call.DELETE_WHERE, args, start, deleted);
+        return deleted;
+    }
+
+    @Override
+    public void truncate(Class<?>... classes) {
+        Object[] args = mRecorder.begin(new Object[]{classes});
+        long start = System.nanoTime();
+        mAdapter.truncate(classes);
+        mRecorder.end(Call.TRUNCATE, args, start, -1);
+    }
+
+    @Override
+    public <T> int count(T where) {
+        Object[] args = mRecorder.begin(where);
+        long start = System.nanoTime();
+        int count = mAdapter.count(where);
+        mRecorder.end(Call.COUNT_SAMPLE, args, start, count);
+        return count;
+    }
+
+    @Override
+    public <T> int count(Class<T> theClass, String where, String[] whereArgs) {
+        Object[] args = mRecorder.begin(theClass, where, whereArgs);
+        long start = System.nanoTime();
+        int count = mAdapter.count(theClass, where, whereArgs);
+        mRecorder.end(Call.COUNT_WHERE, args, start, count);
+        return count;
+    }
+
+    @Override
+    public <T> int count(Class<T> theClass) {
+        Object[] args = mRecorder.begin(theClass);
+        long start = System.nanoTime();
+        int count = mAdapter.count(theClass);
+        mRecorder.end(Call.COUNT_CLASS, args, start, count);
+        return count;
+    }
+
+    @Override
+    public <T> boolean exists(T where) {
+        Object[] args = mRecorder.begin(where);
+        long start = System.nanoTime();
+        boolean exists = mAdapter.exists(where);
+        mRecorder.end(Call.EXISTS_SAMPLE, args, start, exists ? 1 : 0);
+        return exists;
+    }
+
+    @Override
+    public <T> boolean exists(Class<T> theClass, String where, String[] whereArgs) {
+        Object[] args = mRecorder.begin(theClass, where, whereArgs);
+        long start = System.nanoTime();
+        boolean exists = mAdapter.exists(theClass, where, whereArgs);
+        mRecorder.end(Call.EXISTS_WHERE, args, start, exists ? 1 : 0);
+        return exists;
+    }
+
+    @Override
+    public <T> boolean exists(Class<T> theClass) {
+        Object[] args = mRecorder.begin(theClass);
+        long start = System.nanoTime();
+        boolean exists = mAdapter.exists(theClass);
+        mRecorder.end(Call.EXISTS_CLASS, args, start, exists ? 1 : 0);
+        return exists;
+    }
+
+    @Override
+    public <T> List<Aggregation.Row> aggregate(Class<T> theClass, Aggregation aggregation) {
+        Object[] args = mRecorder.begin(theClass, aggregation);
+        long start = System.nanoTime();
+        List<Aggregation.Row> rows = mAdapter.aggregate(theClass, aggregation);
+        mRecorder.end(Call.AGGREGATE, args, start, rows.size());
+        return rows;
+    }
+
+    @Override
+    public Session openSession() {
+        return mAdapter.openSession();
+    }
+
+    @Override
+    public EntityCache getEntityCache() {
+        return mAdapter.getEntityCache();
+    }
+
+    @Override
+    public QueryCache getQueryCache() {
+        return mAdapter.getQueryCache();
+    }
+
+    @Override
+    public QueryPlanGuard getQueryPlanGuard() {
+        return mAdapter.getQueryPlanGuard();
+    }
+
+    @Override
+    public QueryRecorder getQueryRecorder() {
+        return mAdapter.getQueryRecorder();
+    }
+
+    @Override
+    public SlowQueryLog getSlowQueryLog() {
+        return mAdapter.getSlowQueryLog();
+    }
+
+    @Override
+    public Maintenance getMaintenance() {
+        return mAdapter.getMaintenance();
+    }
+
+    @Override
+    public void snapshotTo(File file) {
+        mAdapter.snapshotTo(file);
+    }
+
+    @Override
+    public void restoreFrom(File file) {
+        mAdapter.restoreFrom(file);
+    }
+
+    @Override
+    public int importSql(InputStream input, ProgressListener listener) {
+        return mAdapter.importSql(input, listener);
+    }
+
+    @Override
+    public TuningProfile setTuningProfile(TuningProfile tuningProfile) {
+        return mAdapter.setTuningProfile(tuningProfile);
+    }
+}
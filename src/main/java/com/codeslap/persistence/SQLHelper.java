@@ -17,8 +17,6 @@
 package com.codeslap.persistence;
 
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.text.TextUtils;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
@@ -35,9 +33,12 @@ public class SQLHelper {
     private static final Map<Class<?>, String> TABLE_NAMES_CACHE = new HashMap<Class<?>, String>();
     private static final Map<Field, String> COLUMN_NAMES_CACHE = new HashMap<Field, String>();
     private static final Map<Class<?>, Field[]> FIELDS_CACHE = new HashMap<Class<?>, Field[]>();
+    private static final Map<Class<?>, String> FIND_BY_ID_CACHE = new HashMap<Class<?>, String>();
     static final String SELECT_AUTOINCREMENT_FORMAT = "(SELECT seq FROM sqlite_sequence WHERE name = '%s')";
 
     static final String STATEMENT_SEPARATOR = "b05f72bb_STATEMENT_SEPARATOR";
+    // sqlite does not accept more than 999 host parameters per statement
+    static final int MAX_IN_ARGUMENTS = 500;
 
     public static String getCreateTableSentence(Class clazz, DatabaseSpec databaseSpec) {
         List<String> fieldSentences = new ArrayList<String>();
@@ -65,7 +66,12 @@ public class SQLHelper {
                     if (columnAnnotation != null) {
                         notNull = columnAnnotation.notNull();
                     }
-                    fieldSentences.add(getFieldSentence(columnName, field.getType(), notNull));
+                    String fieldSentence = getFieldSentence(columnName, field.getType(), notNull);
+                    if (field.getType() == String.class && columnAnnotation != null
+                            && columnAnnotation.match().isCaseInsensitiveColumn()) {
+                        fieldSentence += " COLLATE NOCASE";
+                    }
+                    fieldSentences.add(fieldSentence);
                 }
             }
         }
@@ -112,6 +118,84 @@ public class SQLHelper {
         return builder.toString();
     }
 
+    /**
+     * @param clazz        the class whose indexes will be created
+     * @param databaseSpec the database specification
+     * @return the CREATE INDEX statements for the {@link Index} and {@link Unique} annotations of the class, plus
+     *         the index of the foreign key if the class belongs to a has-many relation
+     */
+    static List<String> getCreateIndexSentences(Class<?> clazz, DatabaseSpec databaseSpec) {
+        List<String> sentences = new ArrayList<String>();
+        String tableName = getTableName(clazz);
+        Index index = clazz.getAnnotation(Index.class);
+        if (index != null) {
+            sentences.add(getCreateIndexSentence(tableName, index.name(), index.unique(), getColumnNames(clazz, index.value())));
+        }
+        Indexes indexes = clazz.getAnnotation(Indexes.class);
+        if (indexes != null) {
+            for (Index composite : indexes.value()) {
+                sentences.add(getCreateIndexSentence(tableName, composite.name(), composite.unique(), getColumnNames(clazz, composite.value())));
+            }
+        }
+        Unique unique = clazz.getAnnotation(Unique.class);
+        if (unique != null) {
+            sentences.add(getCreateIndexSentence(tableName, unique.name(), true, getColumnNames(clazz, unique.value())));
+        }
+        for (Field field : getDeclaredFields(clazz)) {
+            index = field.getAnnotation(Index.class);
+            if (index != null) {
+                sentences.add(getCreateIndexSentence(tableName, index.name(), index.unique(), getColumnName(field)));
+            }
+            unique = field.getAnnotation(Unique.class);
+            if (unique != null) {
+                sentences.add(getCreateIndexSentence(tableName, unique.name(), true, getColumnName(field)));
+            }
+        }
+        // relations are always loaded filtering by the foreign key
+        HasMany belongsTo = databaseSpec.belongsTo(clazz);
+        if (belongsTo != null) {
+            sentences.add(getCreateIndexSentence(tableName, "", false, belongsTo.getForeignKey()));
+        }
+        return sentences;
+    }
+
+    static String getCreateIndexSentence(String tableName, String name, boolean unique, String... columns) {
+        if (columns.length == 0) {
+            throw new IllegalArgumentException("Indexes must contain at least one column (table " + tableName + ")");
+        }
+        String columnList = join(Arrays.asList(columns), ", ");
+        if (isEmpty(name)) {
+            name = getIndexName(tableName, unique, columns);
+        }
+        return String.format("CREATE %sINDEX IF NOT EXISTS %s ON %s (%s);", unique ? "UNIQUE " : "", name, tableName, columnList);
+    }
+
+    /**
+     * @return the default name of an index
+     */
+    static String getIndexName(String tableName, boolean unique, String... columns) {
+        return String.format("%s_%s_%s", unique ? "uq" : "idx", tableName, join(Arrays.asList(columns), "_"));
+    }
+
+    private static String[] getColumnNames(Class<?> clazz, String[] fieldNames) {
+        String[] columns = new String[fieldNames.length];
+        for (int i = 0; i < fieldNames.length; i++) {
+            Field field = null;
+            for (Field candidate : getDeclaredFields(clazz)) {
+                if (candidate.getName().equals(fieldNames[i])) {
+                    field = candidate;
+                    break;
+                }
+            }
+            if (field == null) {
+                String msg = String.format("Class %s does not have a field called '%s'", clazz.getSimpleName(), fieldNames[i]);
+                throw new IllegalArgumentException(msg);
+            }
+            columns[i] = getColumnName(field);
+        }
+        return columns;
+    }
+
     static Field[] getDeclaredFields(Class theClass) {
         if (!FIELDS_CACHE.containsKey(theClass)) {
             List<Field> list = new ArrayList<Field>();
@@ -158,7 +242,12 @@ public class SQLHelper {
 
     static <T, G> String getWhere(Class<?> theClass, T bean, List<String> args, G attachedTo, DatabaseSpec databaseSpec) {
         List<String> conditions = new ArrayList<String>();
-        if (bean != null) {
+        if (bean != null && args != null) {
+            String where = SamplePlan.get(bean, args).getWhere();
+            if (where != null) {
+                conditions.add(where);
+            }
+        } else if (bean != null) {
             Class<?> clazz = bean.getClass();
             Field[] fields = getDeclaredFields(clazz);
             for (Field field : fields) {
@@ -176,26 +265,14 @@ public class SQLHelper {
                         continue;
                     }
                     String columnName = getColumnName(field);
-                    if (args == null) {
-                        if (field.getType() == String.class) {
-                            conditions.add(String.format("%s LIKE '%s'", columnName,
-                                    String.valueOf(value).replace("'", "''")));
-                        } else if (field.getType() == Boolean.class || field.getType() == boolean.class) {
-                            int intValue = (Boolean) value ? 1 : 0;
-                            conditions.add(String.format("%s = '%d'", columnName, intValue));
-                        } else {
-                            conditions.add(String.format("%s = '%s'", columnName, value));
-                        }
+                    if (field.getType() == String.class) {
+                        StringMatch stringMatch = SamplePlan.getStringMatch(field, null);
+                        conditions.add(stringMatch.getInlineCondition(columnName, (String) value));
+                    } else if (field.getType() == Boolean.class || field.getType() == boolean.class) {
+                        int intValue = (Boolean) value ? 1 : 0;
+                        conditions.add(String.format("%s = '%d'", columnName, intValue));
                     } else {
-                        if (field.getType() == String.class) {
-                            conditions.add(String.format("%s LIKE ?", columnName));
-                        } else {
-                            conditions.add(String.format("%s = ?", columnName));
-                        }
-                        if (field.getType() == Boolean.class || field.getType() == boolean.class) {
-                            value = (Boolean) value ? 1 : 0;
-                        }
-                        args.add(String.valueOf(value));
+                        conditions.add(String.format("%s = '%s'", columnName, value));
                     }
                 } catch (IllegalAccessException ignored) {
                 }
@@ -259,6 +336,52 @@ public class SQLHelper {
         return join(sets, ", ");
     }
 
+    /**
+     * Same as TextUtils#isEmpty, which needs the Android framework
+     */
+    static boolean isEmpty(String text) {
+        return text == null || text.length() == 0;
+    }
+
+    /**
+     * Builds a SELECT statement the same way SQLiteQueryBuilder#buildQueryString does, without needing the Android
+     * framework
+     *
+     * @param table   the table or tables to query
+     * @param columns the columns to return, or null to return all of them
+     * @param where   the WHERE clause (excluding the WHERE itself), or null
+     * @param groupBy the GROUP BY clause (excluding the GROUP BY itself), or null
+     * @param having  the HAVING clause (excluding the HAVING itself), or null
+     * @param orderBy the ORDER BY clause (excluding the ORDER BY itself), or null
+     * @param limit   the LIMIT clause (excluding the LIMIT itself), or null
+     * @return the SELECT statement
+     */
+    static String buildQuery(String table, String[] columns, String where, String groupBy, String having,
+                             String orderBy, String limit) {
+        if (isEmpty(groupBy) && !isEmpty(having)) {
+            throw new IllegalArgumentException("HAVING clauses are only permitted when using a GROUP BY clause");
+        }
+        StringBuilder query = new StringBuilder("SELECT ");
+        if (columns == null || columns.length == 0) {
+            query.append('*');
+        } else {
+            query.append(join(Arrays.asList(columns), ", "));
+        }
+        query.append(" FROM ").append(table);
+        appendClause(query, " WHERE ", where);
+        appendClause(query, " GROUP BY ", groupBy);
+        appendClause(query, " HAVING ", having);
+        appendClause(query, " ORDER BY ", orderBy);
+        appendClause(query, " LIMIT ", limit);
+        return query.toString();
+    }
+
+    private static void appendClause(StringBuilder query, String name, String clause) {
+        if (!isEmpty(clause)) {
+            query.append(name).append(clause);
+        }
+    }
+
     private static String join(List<String> sets, String glue) {
         StringBuilder builder = new StringBuilder();
         boolean glued = false;
@@ -479,7 +602,7 @@ public class SQLHelper {
         String tableName;
         if (table != null) {
             tableName = table.value();
-            if (TextUtils.isEmpty(tableName)) {
+            if (isEmpty(tableName)) {
                 String msg = String.format("You cannot leave a table name empty (class %s)", theClass.getSimpleName());
                 throw new IllegalArgumentException(msg);
             }
@@ -543,6 +666,20 @@ public class SQLHelper {
         throw new IllegalStateException("Class " + theClass + " does not have a primary key");
     }
 
+    /**
+     * @param bean the bean to get the primary key value from
+     * @return the value of the primary key or null if it could not be read
+     */
+    static Object getPrimaryKeyValue(Object bean) {
+        Field idField = getPrimaryKeyField(bean.getClass());
+        idField.setAccessible(true);
+        try {
+            return idField.get(bean);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
     /**
      * @param theClass the class to inspect
      * @return the primary key column name
@@ -563,19 +700,55 @@ public class SQLHelper {
         return String.format(PRIMARY_KEY, getIdColumn(field));
     }
 
-    static <T, G> Cursor getCursorFindAllWhere(SQLiteDatabase db, Class<? extends T> clazz, T sample, G attachedTo,
+    /**
+     * @param theClass the class to query
+     * @return a query that selects one row of the specified class by its primary key. The SQL is cached so that
+     *         sqlite can reuse the already compiled statement
+     */
+    static String getFindByIdSql(Class<?> theClass) {
+        if (!FIND_BY_ID_CACHE.containsKey(theClass)) {
+            String sql = new StringBuilder().append("SELECT * FROM ").append(getTableName(theClass))
+                    .append(" WHERE ").append(getPrimaryKeyColumnName(theClass)).append(" = ? LIMIT 1").toString();
+            FIND_BY_ID_CACHE.put(theClass, sql);
+        }
+        return FIND_BY_ID_CACHE.get(theClass);
+    }
+
+    /**
+     * @param theClass the class to query
+     * @param count    how many ids will be passed. Must not be bigger than {@link #MAX_IN_ARGUMENTS}
+     * @return a query that selects all the rows of the specified class whose primary key is in the list
+     */
+    static String getFindByIdsSql(Class<?> theClass, int count) {
+        StringBuilder builder = new StringBuilder().append("SELECT * FROM ").append(getTableName(theClass))
+                .append(" WHERE ").append(getPrimaryKeyColumnName(theClass)).append(" IN (");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append("?");
+        }
+        return builder.append(")").toString();
+    }
+
+    static <T, G> Cursor getCursorFindAllWhere(SqliteDb db, Class<? extends T> clazz, T sample, G attachedTo,
                                                Constraint constraint, DatabaseSpec databaseSpec) {
         String[] selectionArgs = null;
         String where = null;
         if (sample != null || attachedTo != null) {
             ArrayList<String> args = new ArrayList<String>();
             where = getWhere(clazz, sample, args, attachedTo, databaseSpec);
-            if (TextUtils.isEmpty(where)) {
+            if (isEmpty(where)) {
                 where = null;
             } else {
                 selectionArgs = args.toArray(new String[args.size()]);
             }
         }
+        return getCursorFindAllWhere(db, clazz, where, selectionArgs, constraint);
+    }
+
+    static Cursor getCursorFindAllWhere(SqliteDb db, Class<?> clazz, String where, String[] selectionArgs,
+                                        Constraint constraint) {
         String orderBy = null;
         String limit = null;
         String groupBy = null;
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * Compiled form of a query-by-example. Samples of the same class that have the same populated fields (and are
+ * compared using the same {@link StringMatch}) share the same plan, so the SQL is built only once and each call
+ * just extracts the values to bind.
+ */
+class SamplePlan {
+    private static final Map<Class<?>, Field[]> QUERYABLE_FIELDS = new HashMap<Class<?>, Field[]>();
+    private static final Map<Class<?>, Map<Key, SamplePlan>> PLANS = new HashMap<Class<?>, Map<Key, SamplePlan>>();
+
+    private final String mWhere;
+    private final String mSelectSql;
+    private final String mSelectFirstSql;
+
+    private SamplePlan(Class<?> theClass, Field[] fields, BitSet populated, StringMatch stringMatch) {
+        List<String> conditions = new ArrayList<String>();
+        for (int i = populated.nextSetBit(0); i >= 0; i = populated.nextSetBit(i + 1)) {
+            Field field = fields[i];
+            if (field.getType() == String.class) {
+                conditions.add(getStringMatch(field, stringMatch).getCondition(SQLHelper.getColumnName(field)));
+            } else {
+                conditions.add(SQLHelper.getColumnName(field) + " = ?");
+            }
+        }
+        StringBuilder select = new StringBuilder("SELECT * FROM ").append(SQLHelper.getTableName(theClass));
+        if (conditions.isEmpty()) {
+            mWhere = null;
+        } else {
+            StringBuilder where = new StringBuilder();
+            for (String condition : conditions) {
+                if (where.length() > 0) {
+                    where.append(" AND ");
+                }
+                where.append(condition);
+            }
+            mWhere = where.toString();
+            select.append(" WHERE ").append(mWhere);
+        }
+        mSelectSql = select.toString();
+        mSelectFirstSql = mSelectSql + " LIMIT 1";
+    }
+
+    /**
+     * Gets the plan for the specified sample and extracts the values of its populated fields
+     *
+     * @param sample the sample bean
+     * @param args   list where the values of the populated fields will be added, in the same order they are used
+     *               in the plan
+     * @return the plan to use for the sample
+     */
+    static SamplePlan get(Object sample, List<String> args) {
+        return get(sample, args, null);
+    }
+
+    /**
+     * Gets the plan for the specified sample and extracts the values of its populated fields
+     *
+     * @param sample      the sample bean
+     * @param args        list where the values of the populated fields will be added, in the same order they are
+     *                    used in the plan
+     * @param stringMatch how String fields are compared, or null to use the mode of each field
+     * @return the plan to use for the sample
+     */
+    static SamplePlan get(Object sample, List<String> args, StringMatch stringMatch) {
+        Class<?> theClass = sample.getClass();
+        Field[] fields = getQueryableFields(theClass);
+        BitSet populated = new BitSet(fields.length);
+        for (int i = 0; i < fields.length; i++) {
+            Field field = fields[i];
+            Object value;
+            try {
+                value = field.get(sample);
+            } catch (IllegalAccessException e) {
+                continue;
+            }
+            if (!SQLHelper.hasData(field.getType(), value)) {
+                continue;
+            }
+            populated.set(i);
+            if (value instanceof String) {
+                getStringMatch(field, stringMatch).addArguments((String) value, args);
+                continue;
+            }
+            if (value instanceof Boolean) {
+                value = (Boolean) value ? 1 : 0;
+            }
+            args.add(String.valueOf(value));
+        }
+        Key key = new Key(populated, stringMatch);
+        synchronized (PLANS) {
+            Map<Key, SamplePlan> plans = PLANS.get(theClass);
+            if (plans == null) {
+                plans = new HashMap<Key, SamplePlan>();
+                PLANS.put(theClass, plans);
+            }
+            SamplePlan plan = plans.get(key);
+            if (plan == null) {
+                plan = new SamplePlan(theClass, fields, populated, stringMatch);
+                plans.put(key, plan);
+            }
+            return plan;
+        }
+    }
+
+    /**
+     * @param field     a String field
+     * @param forceMode the mode requested for the query or null
+     * @return the mode to use to compare the field
+     */
+    static StringMatch getStringMatch(Field field, StringMatch forceMode) {
+        if (forceMode != null) {
+            return forceMode;
+        }
+        Column column = field.getAnnotation(Column.class);
+        return column == null ? StringMatch.LIKE : column.match();
+    }
+
+    /**
+     * @return the where clause of this plan (excluding the WHERE itself) or null if the sample had no data
+     */
+    String getWhere() {
+        return mWhere;
+    }
+
+    /**
+     * @return a SELECT statement returning all the rows matched by this plan
+     */
+    String getSelectSql() {
+        return mSelectSql;
+    }
+
+    /**
+     * @return a SELECT statement returning the first row matched by this plan
+     */
+    String getSelectFirstSql() {
+        return mSelectFirstSql;
+    }
+
+    private static Field[] getQueryableFields(Class<?> theClass) {
+        synchronized (QUERYABLE_FIELDS) {
+            Field[] fields = QUERYABLE_FIELDS.get(theClass);
+            if (fields == null) {
+                List<Field> queryable = new ArrayList<Field>();
+                for (Field field : SQLHelper.getDeclaredFields(theClass)) {
+                    Class<?> type = field.getType();
+                    if (type == List.class || type == byte[].class || type == Byte[].class) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    queryable.add(field);
+                }
+                fields = queryable.toArray(new Field[queryable.size()]);
+                QUERYABLE_FIELDS.put(theClass, fields);
+            }
+            return fields;
+        }
+    }
+
+    private static class Key {
+        private final BitSet mPopulated;
+        private final StringMatch mStringMatch;
+
+        Key(BitSet populated, StringMatch stringMatch) {
+            mPopulated = populated;
+            mStringMatch = stringMatch;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key key = (Key) o;
+
+            return mPopulated.equals(key.mPopulated) && mStringMatch == key.mStringMatch;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mPopulated.hashCode() + (mStringMatch != null ? mStringMatch.hashCode() : 0);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Creates and upgrades the schema defined by a {@link DatabaseSpec}. {@link DbOpenHelper} uses it for Android
+ * databases; other {@link Storage}s are migrated using {@link #migrate}.
+ */
+final class Schema {
+    private Schema() {
+    }
+
+    /**
+     * Creates or upgrades the schema of a storage that does not manage its version itself. Upgrades keep the
+     * existing rows, the same way the default {@link DbOpenHelper} does (see {@link SchemaUpgrade}).
+     *
+     * @param storage the storage
+     * @param spec    the database specification
+     * @param tracer  used to trace the statements. Can be null
+     */
+    static void migrate(Storage storage, DatabaseSpec spec, StatementTracer tracer) {
+        int version = storage.getVersion();
+        if (version == spec.getVersion()) {
+            return;
+        }
+        storage.execSQL("BEGIN TRANSACTION;");
+        boolean committed = false;
+        try {
+            if (version == 0) {
+                create(storage, spec, tracer);
+            } else {
+                SchemaUpgrade.upgrade(storage, spec, version, spec.getVersion(), tracer);
+            }
+            storage.setVersion(spec.getVersion());
+            storage.execSQL("COMMIT;");
+            committed = true;
+        } finally {
+            if (!committed) {
+                storage.execSQL("ROLLBACK;");
+            }
+        }
+    }
+
+    /**
+     * Runs the importers and creates the tables and indexes
+     */
+    static void create(Storage storage, DatabaseSpec spec, StatementTracer tracer) {
+        if (spec == null) {
+            throw new IllegalStateException("Database specification cannot be null at this point. Let's cry.");
+        }
+
+        // if there is something to import before creation, let's do it
+        for (Importer importer : spec.getBeforeImporters()) {
+            importer.execute(storage, tracer);
+        }
+
+        // create all tables for the current database spec
+        createTables(storage, spec, tracer);
+
+        // if there is something to import after creation, let's do it
+        for (Importer importer : spec.getAfterImporters()) {
+            importer.execute(storage, tracer);
+        }
+    }
+
+    static void createTables(Storage storage, DatabaseSpec spec, StatementTracer tracer) {
+        for (Class<?> clazz : spec.getSqliteClasses()) {
+            StatementTracer.execSQL(storage, tracer, SQLHelper.getCreateTableSentence(clazz, spec));
+        }
+        // create all extra table for many to many relations
+        for (ManyToMany manyToMany : spec.getSqliteManyToMany()) {
+            StatementTracer.execSQL(storage, tracer, manyToMany.getCreateTableStatement());
+        }
+        createIndexes(storage, spec, tracer);
+    }
+
+    /**
+     * Creates the indexes declared with {@link Index} and {@link Unique}, and the ones of the relations
+     */
+    static void createIndexes(Storage storage, DatabaseSpec spec, StatementTracer tracer) {
+        for (String sentence : getCreateIndexSentences(spec)) {
+            StatementTracer.execSQL(storage, tracer, sentence);
+        }
+    }
+
+    /**
+     * @return the CREATE INDEX statements of all the classes and relations of the spec
+     */
+    static List<String> getCreateIndexSentences(DatabaseSpec spec) {
+        List<String> sentences = new ArrayList<String>();
+        for (Class<?> clazz : spec.getSqliteClasses()) {
+            sentences.addAll(SQLHelper.getCreateIndexSentences(clazz, spec));
+        }
+        for (ManyToMany manyToMany : spec.getSqliteManyToMany()) {
+            Collections.addAll(sentences, manyToMany.getCreateIndexStatements());
+        }
+        return sentences;
+    }
+
+    /**
+     * @return the names of the indexes created for the foreign keys of the relations of the spec
+     */
+    static Set<String> getForeignKeyIndexNames(DatabaseSpec spec) {
+        Set<String> names = new HashSet<String>();
+        for (Class<?> clazz : spec.getSqliteClasses()) {
+            HasMany belongsTo = spec.belongsTo(clazz);
+            if (belongsTo != null) {
+                names.add(SQLHelper.getIndexName(SQLHelper.getTableName(clazz), false, belongsTo.getForeignKey()));
+            }
+        }
+        for (ManyToMany manyToMany : spec.getSqliteManyToMany()) {
+            String tableName = manyToMany.getTableName();
+            names.add(SQLHelper.getIndexName(tableName, false, manyToMany.getMainKey()));
+            names.add(SQLHelper.getIndexName(tableName, false, manyToMany.getSecondaryKey()));
+        }
+        return names;
+    }
+
+    /**
+     * Drops all the tables and resets the autoincrement sequences
+     */
+    static void dropTables(Storage storage) {
+        List<String> statements = new ArrayList<String>();
+        Cursor cursor = storage.rawQuery("SELECT 'DROP TABLE ' || name || ';' FROM sqlite_master WHERE type = 'table' " +
+                "AND name != 'sqlite_sequence';", null);
+        try {
+            while (cursor.moveToNext()) {
+                statements.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        for (String statement : statements) {
+            try {
+                storage.execSQL(statement);
+            } catch (RuntimeException e) {
+                // lets ignore errors while purging the database, whatever the storage throws
+            }
+        }
+        try {
+            storage.execSQL("DELETE FROM sqlite_sequence");
+        } catch (RuntimeException e) {
+            // sometimes the sqlite_sequence has not been created yet
+        }
+    }
+}
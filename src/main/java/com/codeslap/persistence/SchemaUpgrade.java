@@ -0,0 +1,391 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.database.Cursor;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Upgrades the schema of an existing database to the one defined by a {@link DatabaseSpec} keeping its rows: the
+ * tables and columns found in the database are compared with the ones the spec would create. New tables are
+ * created, new columns are added, and tables are only rebuilt (copying their rows) when the type, nullability,
+ * collation or primary key of a column changes. Indexes whose definition changed are created again. Tables, columns
+ * and indexes that are no longer declared are kept.
+ * <p/>
+ * A unique index cannot be created while the table has duplicate values. In that case a non unique index is
+ * created instead and the problem is logged; it is tried again after the migrations run, so that a migration can
+ * remove the duplicates, and on every later upgrade.
+ */
+final class SchemaUpgrade {
+    private static final String TAG = SchemaUpgrade.class.getSimpleName();
+    private static final Pattern CREATE_TABLE = Pattern.compile("CREATE TABLE IF NOT EXISTS (\\w+) \\((.*)\\);");
+    private static final Pattern CREATE_INDEX =
+            Pattern.compile("CREATE (UNIQUE )?INDEX IF NOT EXISTS (\\w+) ON (\\w+) \\((.*)\\);");
+    private static final Pattern COLLATE = Pattern.compile("\\sCOLLATE\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final String REBUILD_SUFFIX = "_upgrade_old";
+
+    private SchemaUpgrade() {
+    }
+
+    /**
+     * @param storage    the storage to upgrade
+     * @param spec       the database specification
+     * @param oldVersion the version of the database
+     * @param newVersion the version of the spec
+     * @param tracer     used to trace the statements. Can be null
+     */
+    static void upgrade(Storage storage, DatabaseSpec spec, int oldVersion, int newVersion, StatementTracer tracer) {
+        if (spec == null) {
+            throw new IllegalStateException("Database specification cannot be null at this point. Let's cry.");
+        }
+        for (Class<?> clazz : spec.getSqliteClasses()) {
+            upgradeTable(storage, SQLHelper.getCreateTableSentence(clazz, spec), tracer);
+        }
+        for (ManyToMany manyToMany : spec.getSqliteManyToMany()) {
+            upgradeTable(storage, manyToMany.getCreateTableStatement(), tracer);
+        }
+        List<String> notUnique = new ArrayList<String>();
+        for (String sentence : Schema.getCreateIndexSentences(spec)) {
+            if (!upgradeIndex(storage, sentence, tracer)) {
+                notUnique.add(sentence);
+            }
+        }
+        for (DatabaseSpec.Migration migration : spec.getMigrations(oldVersion, newVersion)) {
+            migration.migrate(storage);
+        }
+        for (String sentence : notUnique) {
+            upgradeIndex(storage, sentence, tracer);
+        }
+    }
+
+    /**
+     * Checks that a database has the tables and columns of a spec
+     *
+     * @param storage the database to check
+     * @param spec    the database specification
+     * @return a description of each difference found. It is empty if the database matches the spec
+     */
+    static List<String> validate(Storage storage, DatabaseSpec spec) {
+        List<String> sentences = new ArrayList<String>();
+        for (Class<?> clazz : spec.getSqliteClasses()) {
+            sentences.add(SQLHelper.getCreateTableSentence(clazz, spec));
+        }
+        for (ManyToMany manyToMany : spec.getSqliteManyToMany()) {
+            sentences.add(manyToMany.getCreateTableStatement());
+        }
+        List<String> problems = new ArrayList<String>();
+        for (String sentence : sentences) {
+            Matcher matcher = CREATE_TABLE.matcher(sentence);
+            if (!matcher.matches()) {
+                throw new IllegalStateException("Unexpected table definition: " + sentence);
+            }
+            String table = matcher.group(1);
+            Map<String, ColumnInfo> existing = getColumns(storage, table);
+            if (existing.isEmpty()) {
+                problems.add("Missing table " + table);
+                continue;
+            }
+            for (String definition : matcher.group(2).split(", ")) {
+                ColumnInfo column = new ColumnInfo(definition);
+                ColumnInfo current = existing.get(column.mName.toLowerCase());
+                if (current == null) {
+                    problems.add(String.format("Missing column %s.%s", table, column.mName));
+                } else if (!current.mType.equalsIgnoreCase(column.mType) || current.mPrimaryKey != column.mPrimaryKey) {
+                    problems.add(String.format("Column %s.%s is %s%s instead of %s", table, column.mName,
+                            current.mType, current.mPrimaryKey ? " PRIMARY KEY" : "", definition));
+                }
+            }
+        }
+        return problems;
+    }
+
+    private static void upgradeTable(Storage storage, String createSentence, StatementTracer tracer) {
+        Matcher matcher = CREATE_TABLE.matcher(createSentence);
+        if (!matcher.matches()) {
+            throw new IllegalStateException("Unexpected table definition: " + createSentence);
+        }
+        String table = matcher.group(1);
+        Map<String, ColumnInfo> existing = getColumns(storage, table);
+        if (existing.isEmpty()) {
+            StatementTracer.execSQL(storage, tracer, createSentence);
+            return;
+        }
+        Map<String, String> collations = getCollations(storage, table);
+        List<ColumnInfo> expected = new ArrayList<ColumnInfo>();
+        for (String definition : matcher.group(2).split(", ")) {
+            expected.add(new ColumnInfo(definition));
+        }
+
+        boolean rebuild = false;
+        List<ColumnInfo> added = new ArrayList<ColumnInfo>();
+        for (ColumnInfo column : expected) {
+            ColumnInfo current = existing.get(column.mName.toLowerCase());
+            String collation = collations.get(column.mName.toLowerCase());
+            if (current == null) {
+                if (column.mPrimaryKey) {
+                    rebuild = true;
+                }
+                added.add(column);
+            } else if (!current.mType.equalsIgnoreCase(column.mType) || current.mPrimaryKey != column.mPrimaryKey
+                    || (!column.mPrimaryKey && current.mNotNull != column.mNotNull)
+                    || !column.mCollation.equalsIgnoreCase(collation == null ? "BINARY" : collation)) {
+                rebuild = true;
+            }
+        }
+        for (ColumnInfo current : existing.values()) {
+            // columns that are no longer mapped would make inserts fail
+            if (current.mNotNull && current.mDefaultValue == null && !current.mPrimaryKey
+                    && !contains(expected, current.mName)) {
+                rebuild = true;
+            }
+        }
+
+        if (rebuild) {
+            rebuildTable(storage, table, createSentence, expected, existing, tracer);
+        } else {
+            for (ColumnInfo column : added) {
+                String definition = column.mDefinition;
+                if (column.mNotNull) {
+                    // existing rows need a value
+                    definition += " DEFAULT " + column.getZero();
+                }
+                String sql = String.format("ALTER TABLE %s ADD COLUMN %s;", table, definition);
+                StatementTracer.execSQL(storage, tracer, sql);
+            }
+        }
+    }
+
+    private static void rebuildTable(Storage storage, String table, String createSentence, List<ColumnInfo> expected,
+                                     Map<String, ColumnInfo> existing, StatementTracer tracer) {
+        PersistenceLogManager.d(TAG, "Rebuilding table " + table);
+        String old = table + REBUILD_SUFFIX;
+        StatementTracer.execSQL(storage, tracer, String.format("DROP TABLE IF EXISTS %s;", old));
+        StatementTracer.execSQL(storage, tracer, String.format("ALTER TABLE %s RENAME TO %s;", table, old));
+        StatementTracer.execSQL(storage, tracer, createSentence);
+        StringBuilder columns = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (ColumnInfo column : expected) {
+            String value;
+            if (existing.containsKey(column.mName.toLowerCase())) {
+                value = column.mNotNull && !column.mPrimaryKey
+                        ? String.format("COALESCE(%s, %s)", column.mName, column.getZero()) : column.mName;
+            } else if (column.mNotNull) {
+                value = column.getZero();
+            } else {
+                continue;
+            }
+            if (columns.length() > 0) {
+                columns.append(", ");
+                values.append(", ");
+            }
+            columns.append(column.mName);
+            values.append(value);
+        }
+        if (columns.length() > 0) {
+            StatementTracer.execSQL(storage, tracer, String.format("INSERT INTO %s (%s) SELECT %s FROM %s;", table,
+                    columns, values, old));
+        }
+        StatementTracer.execSQL(storage, tracer, String.format("DROP TABLE %s;", old));
+    }
+
+    /**
+     * @return false if the index is unique but was created as a non unique one, because there are duplicate rows
+     */
+    private static boolean upgradeIndex(Storage storage, String createSentence, StatementTracer tracer) {
+        boolean created = true;
+        Matcher matcher = CREATE_INDEX.matcher(createSentence);
+        if (matcher.matches()) {
+            boolean unique = matcher.group(1) != null;
+            String name = matcher.group(2);
+            String table = matcher.group(3);
+            List<String> columns = Arrays.asList(matcher.group(4).split(", "));
+            if (unique && hasDuplicates(storage, table, columns)) {
+                PersistenceLogManager.w(TAG, String.format("%s has duplicate values of %s, so %s is created as a " +
+                        "non unique index until they are removed", table, columns, name));
+                createSentence = createSentence.replaceFirst("CREATE UNIQUE INDEX", "CREATE INDEX");
+                unique = false;
+                created = false;
+            }
+            Boolean currentUnique = null;
+            Cursor cursor = storage.rawQuery(String.format("PRAGMA index_list(%s)", table), null);
+            try {
+                while (cursor.moveToNext()) {
+                    if (name.equalsIgnoreCase(cursor.getString(cursor.getColumnIndex("name")))) {
+                        currentUnique = cursor.getInt(cursor.getColumnIndex("unique")) != 0;
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            if (currentUnique != null && (currentUnique != unique || !columns.equals(getIndexColumns(storage, name)))) {
+                StatementTracer.execSQL(storage, tracer, String.format("DROP INDEX %s;", name));
+            }
+        }
+        StatementTracer.execSQL(storage, tracer, createSentence);
+        return created;
+    }
+
+    private static boolean hasDuplicates(Storage storage, String table, List<String> columns) {
+        StringBuilder notNull = new StringBuilder();
+        StringBuilder list = new StringBuilder();
+        for (String column : columns) {
+            if (list.length() > 0) {
+                notNull.append(" AND ");
+                list.append(", ");
+            }
+            // rows with nulls never collide in a unique index
+            notNull.append(column).append(" IS NOT NULL");
+            list.append(column);
+        }
+        Cursor cursor = storage.rawQuery(String.format("SELECT 1 FROM %s WHERE %s GROUP BY %s HAVING COUNT(*) > 1 " +
+                "LIMIT 1", table, notNull, list), null);
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * PRAGMA table_info does not report collations, so they are read from the statement that created the table
+     *
+     * @return the collation of each column with an explicit one, by lower case column name
+     */
+    private static Map<String, String> getCollations(Storage storage, String table) {
+        Map<String, String> collations = new HashMap<String, String>();
+        String sql = null;
+        Cursor cursor = storage.rawQuery("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{table});
+        try {
+            if (cursor.moveToFirst()) {
+                sql = cursor.getString(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        int open = sql == null ? -1 : sql.indexOf('(');
+        int close = sql == null ? -1 : sql.lastIndexOf(')');
+        if (open < 0 || close < open) {
+            return collations;
+        }
+        for (String definition : sql.substring(open + 1, close).split(",")) {
+            Matcher matcher = COLLATE.matcher(definition);
+            if (matcher.find()) {
+                String name = definition.trim().split("\\s+")[0].replaceAll("[\"'`\\[\\]]", "");
+                collations.put(name.toLowerCase(), matcher.group(1).toUpperCase());
+            }
+        }
+        return collations;
+    }
+
+    private static List<String> getIndexColumns(Storage storage, String index) {
+        List<String> columns = new ArrayList<String>();
+        Cursor cursor = storage.rawQuery(String.format("PRAGMA index_info(%s)", index), null);
+        try {
+            int name = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(name));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    private static Map<String, ColumnInfo> getColumns(Storage storage, String table) {
+        Map<String, ColumnInfo> columns = new LinkedHashMap<String, ColumnInfo>();
+        Cursor cursor = storage.rawQuery(String.format("PRAGMA table_info(%s)", table), null);
+        try {
+            int name = cursor.getColumnIndex("name");
+            int type = cursor.getColumnIndex("type");
+            int notNull = cursor.getColumnIndex("notnull");
+            int defaultValue = cursor.getColumnIndex("dflt_value");
+            int primaryKey = cursor.getColumnIndex("pk");
+            while (cursor.moveToNext()) {
+                ColumnInfo column = new ColumnInfo(cursor.getString(name), cursor.getString(type),
+                        cursor.getInt(notNull) != 0, cursor.getString(defaultValue), cursor.getInt(primaryKey) != 0);
+                columns.put(column.mName.toLowerCase(), column);
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    private static boolean contains(List<ColumnInfo> columns, String name) {
+        for (ColumnInfo column : columns) {
+            if (column.mName.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class ColumnInfo {
+        private final String mName;
+        private final String mType;
+        private final boolean mNotNull;
+        private final String mDefaultValue;
+        private final boolean mPrimaryKey;
+        // only known for the expected columns
+        private final String mCollation;
+        private final String mDefinition;
+
+        /**
+         * @param definition a column definition as written by {@link SQLHelper#getCreateTableSentence}
+         */
+        ColumnInfo(String definition) {
+            String[] tokens = definition.trim().split("\\s+");
+            String upper = definition.toUpperCase();
+            mName = tokens[0];
+            mType = tokens.length > 1 ? tokens[1] : "";
+            mNotNull = upper.contains(" NOT NULL");
+            mDefaultValue = null;
+            mPrimaryKey = upper.contains(" PRIMARY KEY");
+            Matcher collate = COLLATE.matcher(definition);
+            mCollation = collate.find() ? collate.group(1).toUpperCase() : "BINARY";
+            mDefinition = definition;
+        }
+
+        ColumnInfo(String name, String type, boolean notNull, String defaultValue, boolean primaryKey) {
+            mName = name;
+            mType = type == null ? "" : type;
+            mNotNull = notNull;
+            mDefaultValue = defaultValue;
+            mPrimaryKey = primaryKey;
+            mCollation = null;
+            mDefinition = null;
+        }
+
+        /**
+         * @return the literal used for rows that have no value for a NOT NULL column
+         */
+        String getZero() {
+            String type = mType.toUpperCase();
+            if (type.equals("INTEGER") || type.equals("BOOLEAN") || type.equals("REAL")) {
+                return "0";
+            }
+            if (type.equals("BLOB")) {
+                return "X''";
+            }
+            return "''";
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+/**
+ * A unit of work on top of a {@link SqlAdapter}. It keeps an identity map keyed by class and primary key, so
+ * that rows that are loaded more than once (e.g. through many-to-many relations) are mapped only once and
+ * share the same instance. Any write done through the session clears the identity map.
+ * <p/>
+ * <b>Note:</b> an instance is kept exactly as it was first loaded. If it was first reached through a relation,
+ * the relations leading back to the classes already visited are not populated (as usual), and it will be returned
+ * that way until the session is cleared.
+ */
+public interface Session extends SqlAdapter {
+    /**
+     * Forgets all the instances loaded so far
+     */
+    void clear();
+
+    /**
+     * Closes the session and releases all the instances loaded by it. Using it afterwards throws an
+     * {@link IllegalStateException}; closing it again does nothing
+     */
+    void close();
+}
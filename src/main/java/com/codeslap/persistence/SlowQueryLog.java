@@ -0,0 +1,203 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.database.Cursor;
+
+import java.util.*;
+
+/**
+ * Keeps the most recent statements that took longer than a threshold. The first time a slow query with a given
+ * shape is seen, its query plan is sampled and attached to it and to the following entries of the same shape.
+ * There is one per database and it is enabled using {@link DatabaseSpec#logSlowStatements(long, int)}.
+ */
+public class SlowQueryLog {
+    private static final String TAG = SlowQueryLog.class.getSimpleName();
+    private static final int MAX_PLANS = 64;
+
+    private final LinkedList<Entry> mEntries = new LinkedList<Entry>();
+    private final Map<String, String> mPlans = new LinkedHashMap<String, String>(16, 0.75f, true);
+    private volatile long mThresholdNanos = -1;
+    private int mMaxEntries;
+
+    SlowQueryLog() {
+    }
+
+    /**
+     * @param thresholdMillis statements that take longer than this are logged. A negative value disables the log
+     * @param maxEntries      maximum number of entries to keep
+     */
+    synchronized void configure(long thresholdMillis, int maxEntries) {
+        mThresholdNanos = thresholdMillis < 0 ? -1 : thresholdMillis * 1000000L;
+        mMaxEntries = maxEntries;
+        while (mEntries.size() > mMaxEntries) {
+            mEntries.removeFirst();
+        }
+    }
+
+    boolean isEnabled() {
+        return mThresholdNanos >= 0;
+    }
+
+    /**
+     * Logs the statement if it is slow
+     *
+     * @param db            the database where the statement ran, used to sample the query plan
+     * @param sql           the statement
+     * @param args          the arguments of the statement, if it is a query
+     * @param rows          rows returned or affected
+     * @param durationNanos how long the statement took
+     * @param caller        the operation that ran the statement
+     */
+    void record(Storage db, String sql, String[] args, long rows, long durationNanos,
+                MetricsSink.Operation caller) {
+        long threshold = mThresholdNanos;
+        if (threshold < 0 || durationNanos < threshold) {
+            return;
+        }
+        String plan = getPlan(db, sql, args);
+        Entry entry = new Entry(sql, rows, durationNanos, caller, plan);
+        synchronized (this) {
+            mEntries.addLast(entry);
+            while (mEntries.size() > mMaxEntries) {
+                mEntries.removeFirst();
+            }
+        }
+        PersistenceLogManager.w(TAG, entry.toString());
+    }
+
+    /**
+     * @return the logged statements, oldest first
+     */
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<Entry>(mEntries);
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mPlans.clear();
+    }
+
+    private String getPlan(Storage db, String sql, String[] args) {
+        if (db == null || !isQuery(sql)) {
+            return null;
+        }
+        String shape = QueryPlanGuard.getShape(sql);
+        synchronized (this) {
+            if (mPlans.containsKey(shape)) {
+                return mPlans.get(shape);
+            }
+        }
+        String plan;
+        try {
+            plan = explain(db, sql, args);
+        } catch (Exception e) {
+            plan = null;
+        }
+        synchronized (this) {
+            mPlans.put(shape, plan);
+            Iterator<String> iterator = mPlans.keySet().iterator();
+            while (mPlans.size() > MAX_PLANS && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        return plan;
+    }
+
+    private static String explain(Storage db, String sql, String[] args) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detailIndex = cursor.getColumnIndex("detail");
+            if (detailIndex == -1) {
+                detailIndex = cursor.getColumnCount() - 1;
+            }
+            StringBuilder plan = new StringBuilder();
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                plan.append(cursor.getString(detailIndex));
+            }
+            return plan.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean isQuery(String sql) {
+        String trimmed = sql.trim();
+        return trimmed.regionMatches(true, 0, "SELECT", 0, 6);
+    }
+
+    /**
+     * A statement that was slower than the threshold
+     */
+    public static class Entry {
+        private final String mSql;
+        private final long mRows;
+        private final long mDurationNanos;
+        private final MetricsSink.Operation mCaller;
+        private final String mPlan;
+
+        Entry(String sql, long rows, long durationNanos, MetricsSink.Operation caller, String plan) {
+            mSql = sql;
+            mRows = rows;
+            mDurationNanos = durationNanos;
+            mCaller = caller;
+            mPlan = plan;
+        }
+
+        /**
+         * @return the statement. Values are never part of it: they are either bound or replaced by placeholders
+         */
+        public String getSql() {
+            return mSql;
+        }
+
+        /**
+         * @return rows returned or affected by the statement, or -1 if it is unknown
+         */
+        public long getRows() {
+            return mRows;
+        }
+
+        public long getDurationNanos() {
+            return mDurationNanos;
+        }
+
+        /**
+         * @return the operation that ran the statement, or null if it is unknown
+         */
+        public MetricsSink.Operation getCaller() {
+            return mCaller;
+        }
+
+        /**
+         * @return the details of the query plan, one step per line, or null if the statement is not a query
+         */
+        public String getPlan() {
+            return mPlan;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Slow statement (%d ms, %d rows, %s): %s%s", mDurationNanos / 1000000, mRows,
+                    mCaller, mSql, mPlan == null ? "" : "\n" + mPlan);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.database.Cursor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Copies the content of a database to a file and back. The file is a regular SQLite database that holds a copy of
+ * each table (without indexes or constraints); it is attached to the database while it is written or read, so it
+ * works the same way for file and in-memory databases.
+ */
+final class Snapshot {
+    private static final String SCHEMA = "snapshot";
+    private static final String TABLES = "SELECT name FROM %s.sqlite_master WHERE type = 'table' " +
+            "AND name NOT LIKE 'sqlite_%%' AND name != 'android_metadata'";
+
+    private Snapshot() {
+    }
+
+    /**
+     * Writes the snapshot to a temporary file next to the target, and only replaces the target once the new
+     * snapshot is complete, so a failed save keeps the previous one
+     *
+     * @param storage the database to copy
+     * @param file    where the snapshot is written. It is replaced if it already exists
+     */
+    static void save(final Storage storage, File file) {
+        File temp = new File(file.getPath() + ".tmp");
+        if (temp.exists() && !temp.delete()) {
+            throw new IllegalStateException("Could not delete " + temp);
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IllegalStateException("Could not create " + parent);
+        }
+        final List<String> tables = getTables(storage, "main");
+        boolean saved = false;
+        attach(storage, temp);
+        try {
+            try {
+                runInTransaction(storage, new Runnable() {
+                    @Override
+                    public void run() {
+                        for (String table : tables) {
+                            storage.execSQL(String.format("CREATE TABLE %s.%s AS SELECT * FROM main.%s", SCHEMA,
+                                    table, table));
+                        }
+                    }
+                });
+            } finally {
+                storage.execSQL("DETACH DATABASE " + SCHEMA);
+            }
+            // renameTo does not replace existing files everywhere
+            if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+                throw new IllegalStateException("Could not replace snapshot " + file);
+            }
+            saved = true;
+        } finally {
+            if (!saved) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Replaces the rows of every table with the ones in the snapshot. Tables that are not in the snapshot are
+     * emptied, and only the columns that exist in both the table and the snapshot are restored, so snapshots
+     * written by older versions of the schema can still be used.
+     *
+     * @param storage the database to restore
+     * @param file    a file written by {@link #save(Storage, File)}
+     */
+    static void restore(final Storage storage, File file) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("Snapshot " + file + " does not exist");
+        }
+        final List<String> tables = getTables(storage, "main");
+        attach(storage, file);
+        try {
+            final List<String> saved = getTables(storage, SCHEMA);
+            runInTransaction(storage, new Runnable() {
+                @Override
+                public void run() {
+                    for (String table : tables) {
+                        storage.execSQL("DELETE FROM main." + table);
+                        if (!saved.contains(table)) {
+                            continue;
+                        }
+                        Set<String> columns = getColumns(storage, "main", table);
+                        columns.retainAll(getColumns(storage, SCHEMA, table));
+                        if (columns.isEmpty()) {
+                            continue;
+                        }
+                        String list = join(columns);
+                        storage.execSQL(String.format("INSERT INTO main.%s (%s) SELECT %s FROM %s.%s", table, list,
+                                list, SCHEMA, table));
+                    }
+                }
+            });
+        } finally {
+            storage.execSQL("DETACH DATABASE " + SCHEMA);
+        }
+    }
+
+    private static void attach(Storage storage, File file) {
+        // ATTACH cannot run inside a transaction, and not all the storages can bind its arguments
+        storage.execSQL("ATTACH DATABASE '" + file.getAbsolutePath().replace("'", "''") + "' AS " + SCHEMA);
+    }
+
+    private static void runInTransaction(Storage storage, Runnable runnable) {
+        storage.execSQL("BEGIN TRANSACTION;");
+        boolean committed = false;
+        try {
+            runnable.run();
+            storage.execSQL("COMMIT;");
+            committed = true;
+        } finally {
+            if (!committed) {
+                storage.execSQL("ROLLBACK;");
+            }
+        }
+    }
+
+    private static List<String> getTables(Storage storage, String schema) {
+        List<String> tables = new ArrayList<String>();
+        Cursor cursor = storage.rawQuery(String.format(TABLES, schema), null);
+        try {
+            while (cursor.moveToNext()) {
+                tables.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return tables;
+    }
+
+    private static Set<String> getColumns(Storage storage, String schema, String table) {
+        Set<String> columns = new LinkedHashSet<String>();
+        Cursor cursor = storage.rawQuery(String.format("PRAGMA %s.table_info(%s)", schema, table), null);
+        try {
+            int name = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(name));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    private static String join(Set<String> columns) {
+        StringBuilder builder = new StringBuilder();
+        for (String column : columns) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(column);
+        }
+        return builder.toString();
+    }
+}
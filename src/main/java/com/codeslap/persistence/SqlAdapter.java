@@ -16,7 +16,11 @@
 
 package com.codeslap.persistence;
 
+import java.io.File;
+import java.io.InputStream;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface SqlAdapter {
     /**
@@ -114,6 +118,28 @@ public interface SqlAdapter {
      */
     <T> T findFirst(Class<T> theClass, String where, String[] whereArgs);
 
+    /**
+     * Retrieves an object from the database using its primary key
+     *
+     * @param theClass the type of the object to retrieve
+     * @param id       the primary key value
+     * @param <T>      object type. Must be already registered using {@link DatabaseSpec#match(Class[])}
+     * @return the element with the specified primary key or null if there is not such element
+     */
+    <T> T findById(Class<T> theClass, Object id);
+
+    /**
+     * Retrieves several objects from the database using their primary keys. Big collections of ids are
+     * queried in chunks, so it is safe to pass thousands of them.
+     *
+     * @param theClass the type of the objects to retrieve
+     * @param ids      the primary key values
+     * @param <T>      object type. Must be already registered using {@link DatabaseSpec#match(Class[])}
+     * @return a map from the ids, as they were passed, to the found element. Ids that were not found are not part
+     *         of the map
+     */
+    <T> Map<Object, T> findByIds(Class<T> theClass, Collection<?> ids);
+
     /**
      * Retrieves all elements from the database of the specified type
      *
@@ -262,6 +288,133 @@ public interface SqlAdapter {
      */
     <T> int count(Class<T> theClass);
 
+    /**
+     * Checks whether there is at least one item in the database that matches the specified condition
+     * <p/>
+     * <b>Note:</b> You must clean the variables <code>where</code>, for instance: <code>entry = 'don't'</code> should be <code>'dont''t'</code>
+     *
+     * @param where the sample object
+     * @param <T>   object  type. Must be already registered using {@link DatabaseSpec#match(Class[])}
+     * @return true if there is at least one element matching the specified sample
+     */
+    <T> boolean exists(T where);
+
+    /**
+     * Checks whether there is at least one item in the database that matches the specified condition
+     * <p/>
+     * <b>Note:</b> You must clean the variables <code>where</code> and <code>whereArgs</code>, for instance: <code>entry = 'don't'</code> should be <code>'dont''t'</code>
+     *
+     * @param theClass  the class of the object that we want to check
+     * @param where     a SQL query. It is recommended to use wildcards like: <code>something = ? AND another = ?</code>
+     * @param whereArgs the list of values used in the wildcards
+     * @param <T>       object  type. Must be already registered using {@link DatabaseSpec#match(Class[])}
+     * @return true if there is at least one element matching the specified condition
+     */
+    <T> boolean exists(Class<T> theClass, String where, String[] whereArgs);
+
+    /**
+     * Checks whether there is at least one item of the specified type in the database
+     *
+     * @param theClass the class of the object that we want to check
+     * @param <T>      object  type. Must be already registered using {@link DatabaseSpec#match(Class[])}
+     * @return true if the table of the specified object is not empty
+     */
+    <T> boolean exists(Class<T> theClass);
+
+    /**
+     * Computes an aggregation (sum, min, max, avg, count distinct) inside sqlite
+     *
+     * @param theClass    the class of the objects to aggregate
+     * @param aggregation the aggregate functions, groups and conditions to use
+     * @param <T>         object  type. Must be already registered using {@link DatabaseSpec#match(Class[])}
+     * @return a list with one row per group, or a single row if there is no grouping
+     */
+    <T> List<Aggregation.Row> aggregate(Class<T> theClass, Aggregation aggregation);
+
+    /**
+     * Opens a session that shares the database of this adapter. While the session is open, loading the same row
+     * more than once (directly or through relations) returns the same instance.
+     *
+     * @return a new {@link Session}. It must be closed when it is no longer used
+     */
+    Session openSession();
+
+    /**
+     * @return the second-level cache used for the classes registered with {@link DatabaseSpec#cache(Class[])}.
+     *         It is shared by all the adapters of the same database.
+     */
+    EntityCache getEntityCache();
+
+    /**
+     * @return the cache used for the results of findAll and count when it is enabled with
+     *         {@link DatabaseSpec#setQueryCacheSize(int)}. It is shared by all the adapters of the same database.
+     */
+    QueryCache getQueryCache();
+
+    /**
+     * @return the guard that reports full table scans when it is enabled with
+     *         {@link DatabaseSpec#guardQueryPlans(QueryPlanGuard.Mode, long)}
+     */
+    QueryPlanGuard getQueryPlanGuard();
+
+    /**
+     * @return the recorder of query shapes, enabled with {@link DatabaseSpec#recordQueryShapes(boolean)}
+     */
+    QueryRecorder getQueryRecorder();
+
+    /**
+     * @return the log of slow statements, enabled with {@link DatabaseSpec#logSlowStatements(long, int)}
+     */
+    SlowQueryLog getSlowQueryLog();
+
+    /**
+     * @return the maintenance of the database, scheduled with {@link DatabaseSpec#scheduleMaintenance(long, long)}
+     */
+    Maintenance getMaintenance();
+
+    /**
+     * Copies the content of the database to a file, for instance to keep an in-memory database (see
+     * {@link DatabaseSpec#setInMemory(boolean)}) across restarts. It must not run while other threads write.
+     *
+     * @param file where the snapshot is written. It is replaced if it already exists
+     */
+    void snapshotTo(File file);
+
+    /**
+     * Replaces the content of the database with a snapshot written by {@link #snapshotTo(File)}. Only the
+     * columns that still exist are restored, and the caches of the database are cleared.
+     *
+     * @param file the snapshot file
+     */
+    void restoreFrom(File file);
+
+    /**
+     * Runs a SQL script, which can be gzip or zlib compressed. The statements are committed in chunks, so a failing
+     * statement only rolls back its own chunk and the exception is thrown. The BEGIN and COMMIT statements of the
+     * script are ignored, scripts with ROLLBACK statements are rejected, and the caches of the database are cleared.
+     *
+     * @param input    the script. It is not closed
+     * @param listener notified as the script is consumed, or null
+     * @return number of statements executed
+     */
+    int importSql(InputStream input, ProgressListener listener);
+
+    /**
+     * Changes the storage settings of the database until it is closed or they are changed again. For instance:
+     * <pre>
+     * TuningProfile previous = adapter.setTuningProfile(TuningProfile.bulkLoad());
+     * try {
+     *     adapter.storeCollection(rows, null);
+     * } finally {
+     *     adapter.setTuningProfile(previous);
+     * }
+     * </pre>
+     *
+     * @param tuningProfile the settings to apply
+     * @return a profile with the values the changed settings had before, which can be used to revert them
+     */
+    TuningProfile setTuningProfile(TuningProfile tuningProfile);
+
     /**
      * Callback used when storing a collection to notify the progress.
      * Note: when doing a bulk insert, we use the BEGIN TRANSACTION; ...; COMMIT; technique. So, if you are inserting
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Splits SQL text into statements. Semicolons inside string literals, quoted identifiers, comments and trigger
+ * bodies do not end a statement, and comments are removed. The text is read in chunks, so big scripts are never
+ * loaded in memory.
+ */
+final class SqlTokenizer {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_BIND_ARGS = 999;
+    private static final Pattern TRIGGER = Pattern.compile("^CREATE\\s+(TEMP\\s+|TEMPORARY\\s+)?TRIGGER\\b.*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern CASE = Pattern.compile("\\bCASE\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern END = Pattern.compile("\\bEND\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern INSERT = Pattern.compile("^(INSERT|REPLACE)\\b.*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final Reader mReader;
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private final StringBuilder mStatement = new StringBuilder();
+    private int mPosition;
+    private int mLimit;
+
+    SqlTokenizer(Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Opens a reader of SQL text, decompressing it if it is gzip or zlib (deflate) data
+     *
+     * @param input the SQL text, compressed or not
+     * @return an UTF-8 reader of the text
+     * @throws IOException if the input cannot be read
+     */
+    static Reader open(InputStream input) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(input, BUFFER_SIZE);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        InputStream decoded = buffered;
+        if (first == 0x1f && second == 0x8b) {
+            decoded = new GZIPInputStream(buffered, BUFFER_SIZE);
+        } else if (first == 0x78 && second != -1 && (first * 256 + second) % 31 == 0) {
+            decoded = new InflaterInputStream(buffered, new Inflater(), BUFFER_SIZE);
+        }
+        return Channels.newReader(Channels.newChannel(decoded), "UTF-8");
+    }
+
+    /**
+     * @return the next statement, without the semicolon that ends it, or null if there are no more statements
+     * @throws IOException if the text cannot be read
+     */
+    String next() throws IOException {
+        mStatement.setLength(0);
+        int c;
+        while ((c = read()) != -1) {
+            switch (c) {
+                case '\'':
+                case '"':
+                case '`':
+                    appendQuoted((char) c, (char) c);
+                    break;
+                case '[':
+                    appendQuoted('[', ']');
+                    break;
+                case '-':
+                    if (peek() == '-') {
+                        skipLineComment();
+                        mStatement.append(' ');
+                    } else {
+                        mStatement.append('-');
+                    }
+                    break;
+                case '/':
+                    if (peek() == '*') {
+                        skipBlockComment();
+                        mStatement.append(' ');
+                    } else {
+                        mStatement.append('/');
+                    }
+                    break;
+                case ';':
+                    String statement = mStatement.toString().trim();
+                    if (statement.length() == 0) {
+                        mStatement.setLength(0);
+                    } else if (TRIGGER.matcher(statement).matches() && !endsWithEnd(statement)) {
+                        // statements of the trigger body
+                        mStatement.append(';');
+                    } else {
+                        return statement;
+                    }
+                    break;
+                default:
+                    mStatement.append((char) c);
+            }
+        }
+        String statement = mStatement.toString().trim();
+        return statement.length() == 0 ? null : statement;
+    }
+
+    /**
+     * Replaces the literal values of an INSERT statement with bind arguments, so that inserts of the same shape
+     * share the same SQL and can reuse the compiled statement
+     *
+     * @param sql  the statement
+     * @param args where the values of the replaced literals are added
+     * @return the statement with placeholders, or the same statement if it is not an INSERT with literal values
+     */
+    static String parameterize(String sql, List<Object> args) {
+        if (!INSERT.matcher(sql).matches()) {
+            return sql;
+        }
+        int values = indexOfValues(sql);
+        if (values == -1) {
+            return sql;
+        }
+        int start = args.size();
+        StringBuilder builder = new StringBuilder(sql.length()).append(sql, 0, values);
+        int length = sql.length();
+        int i = values;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'' || ((c == 'x' || c == 'X') && i + 1 < length && sql.charAt(i + 1) == '\''
+                    && !isIdentifier(sql, i - 1))) {
+                boolean blob = c != '\'';
+                int end = findClosingQuote(sql, blob ? i + 1 : i, '\'');
+                if (end == -1) {
+                    return restore(sql, args, start);
+                }
+                String literal = sql.substring(blob ? i + 2 : i + 1, end).replace("''", "'");
+                Object value = blob ? parseHex(literal) : literal;
+                if (value == null) {
+                    // let sqlite report the invalid blob
+                    return restore(sql, args, start);
+                }
+                args.add(value);
+                builder.append('?');
+                i = end + 1;
+            } else if (c == '"' || c == '`' || c == '[') {
+                int end = findClosingQuote(sql, i, c == '[' ? ']' : c);
+                if (end == -1) {
+                    return restore(sql, args, start);
+                }
+                builder.append(sql, i, end + 1);
+                i = end + 1;
+            } else if (Character.isDigit(c) && !isIdentifier(sql, i - 1) && (i == 0 || sql.charAt(i - 1) != '.')) {
+                int end = i;
+                while (end < length && (Character.isDigit(sql.charAt(end)) || sql.charAt(end) == '.')) {
+                    end++;
+                }
+                if (end < length && (sql.charAt(end) == 'e' || sql.charAt(end) == 'E')) {
+                    end++;
+                    if (end < length && (sql.charAt(end) == '+' || sql.charAt(end) == '-')) {
+                        end++;
+                    }
+                    while (end < length && Character.isDigit(sql.charAt(end))) {
+                        end++;
+                    }
+                }
+                Object number = isIdentifier(sql, end) ? null : parseNumber(sql.substring(i, end));
+                if (number == null) {
+                    builder.append(sql, i, end);
+                } else {
+                    args.add(number);
+                    builder.append('?');
+                }
+                i = end;
+            } else {
+                builder.append(c);
+                i++;
+            }
+        }
+        if (args.size() - start > MAX_BIND_ARGS) {
+            return restore(sql, args, start);
+        }
+        return args.size() == start ? sql : builder.toString();
+    }
+
+    private static String restore(String sql, List<Object> args, int size) {
+        while (args.size() > size) {
+            args.remove(args.size() - 1);
+        }
+        return sql;
+    }
+
+    private static int indexOfValues(String sql) {
+        String upper = sql.toUpperCase();
+        int index = 0;
+        while ((index = upper.indexOf("VALUES", index)) != -1) {
+            // it must be the keyword and not part of an identifier or a literal
+            if (!isIdentifier(sql, index - 1) && !isIdentifier(sql, index + 6) && !isQuoted(sql, index)) {
+                return index + 6;
+            }
+            index += 6;
+        }
+        return -1;
+    }
+
+    private static boolean isQuoted(String sql, int index) {
+        int i = 0;
+        while (i < index) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`' || c == '[') {
+                int end = findClosingQuote(sql, i, c == '[' ? ']' : c);
+                if (end == -1 || end > index) {
+                    return true;
+                }
+                i = end + 1;
+            } else {
+                i++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the index of the quote that closes the one at start, skipping doubled quotes, or -1
+     */
+    private static int findClosingQuote(String sql, int start, char quote) {
+        int i = start + 1;
+        while (i < sql.length()) {
+            if (sql.charAt(i) == quote) {
+                if (quote != ']' && i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private static boolean isIdentifier(String sql, int index) {
+        if (index < 0 || index >= sql.length()) {
+            return false;
+        }
+        char c = sql.charAt(index);
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    private static Object parseNumber(String literal) {
+        try {
+            if (literal.indexOf('.') == -1 && literal.indexOf('e') == -1 && literal.indexOf('E') == -1) {
+                return Long.parseLong(literal);
+            }
+            return Double.parseDouble(literal);
+        } catch (NumberFormatException e) {
+            // too big for a long, or not really a number; sqlite will deal with it
+            return null;
+        }
+    }
+
+    /**
+     * @return the bytes of a blob literal, or null if it has an odd number of digits or a character that is not one
+     */
+    private static byte[] parseHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            return null;
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high == -1 || low == -1) {
+                return null;
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return true if the statement ends with the END of a trigger, and not with the one of a CASE expression
+     */
+    private static boolean endsWithEnd(String statement) {
+        int length = statement.length();
+        if (length < 3 || !statement.regionMatches(true, length - 3, "END", 0, 3)
+                || isIdentifier(statement, length - 4)) {
+            return false;
+        }
+        return count(END, statement) > count(CASE, statement);
+    }
+
+    private static int count(Pattern pattern, String statement) {
+        Matcher matcher = pattern.matcher(statement);
+        int count = 0;
+        while (matcher.find()) {
+            count++;
+        }
+        return count;
+    }
+
+    private void appendQuoted(char open, char close) throws IOException {
+        mStatement.append(open);
+        int c;
+        while ((c = read()) != -1) {
+            mStatement.append((char) c);
+            if (c == close) {
+                if (close != ']' && peek() == close) {
+                    // escaped quote
+                    mStatement.append((char) read());
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void skipLineComment() throws IOException {
+        int c;
+        while ((c = read()) != -1 && c != '\n') {
+            // skip
+        }
+    }
+
+    private void skipBlockComment() throws IOException {
+        read(); // the '*'
+        int previous = 0;
+        int c;
+        while ((c = read()) != -1) {
+            if (previous == '*' && c == '/') {
+                return;
+            }
+            previous = c;
+        }
+    }
+
+    private int read() throws IOException {
+        if (mPosition == mLimit && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPosition++];
+    }
+
+    private int peek() throws IOException {
+        if (mPosition == mLimit && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPosition];
+    }
+
+    private boolean fill() throws IOException {
+        int count = mReader.read(mBuffer, 0, mBuffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        mPosition = 0;
+        mLimit = count;
+        return true;
+    }
+}
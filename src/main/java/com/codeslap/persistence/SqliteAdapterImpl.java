@@ -18,16 +18,21 @@ package com.codeslap.persistence;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.text.TextUtils;
 
+import java.io.File;
+import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This is a persistence adapter that uses sqlite database as persistence engine.
@@ -41,28 +46,122 @@ public class SqliteAdapterImpl implements SqlAdapter {
     // prevent a row from being inserted when the values already exist.
     private static final String HACK_INSERT_FORMAT = "CASE WHEN (SELECT COUNT(*) FROM %s WHERE %s = %s AND %s = %s) == 0 THEN %s ELSE NULL END";
     private static final String TAG = "sqliteImpl";
+    // projections used to push counting down to sqlite instead of walking the whole result set
+    private static final String[] COUNT_PROJECTION = new String[]{"COUNT(*)"};
+    private static final String[] EXISTS_PROJECTION = new String[]{"1"};
 
     private final DatabaseSpec mDatabaseSpec;
     private final SqliteDb mDbHelper;
+    private final Map<Class<?>, Set<String>> mTablesCache = new HashMap<Class<?>, Set<String>>();
 
     SqliteAdapterImpl(Context context, String name, String specId) {
         mDatabaseSpec = PersistenceConfig.getDatabaseSpec(specId);
         mDbHelper = SqliteDb.getInstance(context, name, mDatabaseSpec);
     }
 
+    SqliteAdapterImpl(DatabaseSpec databaseSpec, SqliteDb dbHelper) {
+        mDatabaseSpec = databaseSpec;
+        mDbHelper = dbHelper;
+    }
+
+    @Override
+    public Session openSession() {
+        return new SqliteSession(mDatabaseSpec, mDbHelper);
+    }
+
     @Override
     public <T> T findFirst(T sample) {
-        Class<T> clazz = (Class<T>) sample.getClass();
-        ArrayList<String> args = new ArrayList<String>();
-        String where = SQLHelper.getWhere(clazz, sample, args, null, mDatabaseSpec);
-        Cursor query = mDbHelper.getDatabase().query(SQLHelper.getTableName(clazz), null, where, args.toArray(new String[args.size()]), null, null, null, "1");
-        return findFirstFromCursor(clazz, query);
+        long start = begin(MetricsSink.Operation.FIND);
+        try {
+            Class<T> clazz = (Class<T>) sample.getClass();
+            // String keys are compared using their match mode, which findById does not do
+            if (mDatabaseSpec.isCached(clazz) && SQLHelper.getPrimaryKeyField(clazz).getType() != String.class) {
+                Object id = getPrimaryKeyIfOnlyData(sample);
+                if (id != null) {
+                    return findById(clazz, id);
+                }
+            }
+            ArrayList<String> args = new ArrayList<String>();
+            SamplePlan plan = SamplePlan.get(sample, args);
+            Cursor query = mDbHelper.rawQuery(plan.getSelectFirstSql(), args.toArray(new String[args.size()]));
+            return findFirstFromCursor(clazz, query);
+        } finally {
+            Metrics.end(MetricsSink.Operation.FIND, sample.getClass(), start);
+        }
     }
 
     @Override
     public <T> T findFirst(Class<T> clazz, String where, String[] whereArgs) {
-        Cursor query = mDbHelper.getDatabase().query(SQLHelper.getTableName(clazz), null, where, whereArgs, null, null, null, "1");
-        return findFirstFromCursor(clazz, query);
+        long start = begin(MetricsSink.Operation.FIND);
+        try {
+            Cursor query = mDbHelper.query(SQLHelper.getTableName(clazz), null, where, whereArgs, null, null, null, "1");
+            return findFirstFromCursor(clazz, query);
+        } finally {
+            Metrics.end(MetricsSink.Operation.FIND, clazz, start);
+        }
+    }
+
+    @Override
+    public <T> T findById(Class<T> clazz, Object id) {
+        long start = begin(MetricsSink.Operation.FIND_BY_ID);
+        try {
+            if (id == null) {
+                return null;
+            }
+            if (mDatabaseSpec.isCached(clazz)) {
+                T cached = mDbHelper.getEntityCache().get(clazz, id);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            Cursor query = mDbHelper.rawQuery(SQLHelper.getFindByIdSql(clazz), new String[]{String.valueOf(id)});
+            return findFirstFromCursor(clazz, query);
+        } finally {
+            Metrics.end(MetricsSink.Operation.FIND_BY_ID, clazz, start);
+        }
+    }
+
+    @Override
+    public <T> Map<Object, T> findByIds(Class<T> clazz, Collection<?> ids) {
+        long start = begin(MetricsSink.Operation.FIND_BY_ID);
+        try {
+            Map<Object, T> result = new HashMap<Object, T>();
+            if (ids == null || ids.isEmpty()) {
+                return result;
+            }
+            Field idField = SQLHelper.getPrimaryKeyField(clazz);
+            idField.setAccessible(true);
+            // the ids passed by the caller, by their string value, so that the result is keyed by them even if
+            // their type is not the one of the primary key field (e.g. an Integer for a long)
+            Map<String, List<Object>> requested = new HashMap<String, List<Object>>();
+            // use chunks so that we never exceed the maximum number of arguments per statement
+            List<String> chunk = new ArrayList<String>();
+            for (Object id : ids) {
+                if (id == null) {
+                    continue;
+                }
+                List<Object> keys = requested.get(String.valueOf(id));
+                if (keys != null) {
+                    // already queried
+                    keys.add(id);
+                    continue;
+                }
+                keys = new ArrayList<Object>(1);
+                keys.add(id);
+                requested.put(String.valueOf(id), keys);
+                chunk.add(String.valueOf(id));
+                if (chunk.size() == SQLHelper.MAX_IN_ARGUMENTS) {
+                    findByIds(clazz, idField, chunk, requested, result);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                findByIds(clazz, idField, chunk, requested, result);
+            }
+            return result;
+        } finally {
+            Metrics.end(MetricsSink.Operation.FIND_BY_ID, clazz, start);
+        }
     }
 
     @Override
@@ -88,8 +187,7 @@ public class SqliteAdapterImpl implements SqlAdapter {
 
     @Override
     public <T> List<T> findAll(Class<T> clazz, String where, String[] whereArgs) {
-        Cursor query = getCursorFindAllWhere(clazz, where, whereArgs);
-        return findAllFromCursor(clazz, query);
+        return findAllWhere(clazz, where, whereArgs, null, null);
     }
 
     @Override
@@ -105,16 +203,31 @@ public class SqliteAdapterImpl implements SqlAdapter {
 
     @Override
     public <T, G> Object store(T bean, G attachedTo) {
-        if (bean == null) {
-            return null;
+        long start = begin(MetricsSink.Operation.STORE);
+        try {
+            if (bean == null) {
+                return null;
+            }
+            Object id = storeBean(bean, attachedTo);
+            if (mDatabaseSpec.isCached(bean.getClass()) && id != null) {
+                mDbHelper.getEntityCache().remove(bean.getClass(), id);
+            }
+            bumpTables(bean.getClass());
+            Metrics.rows(1);
+            return id;
+        } finally {
+            Metrics.end(MetricsSink.Operation.STORE, bean == null ? null : bean.getClass(), start);
         }
+    }
+
+    private <T, G> Object storeBean(T bean, G attachedTo) {
         Class<?> theClass = bean.getClass();
         List<String> transactions = new ArrayList<String>();
         String sqlStatement = getSqlStatement(bean, new Node(theClass), attachedTo);
         if (sqlStatement != null) {
             String[] statements = sqlStatement.split(SQLHelper.STATEMENT_SEPARATOR);
             for (String statement : statements) {
-                if (TextUtils.isEmpty(statement)) {
+                if (SQLHelper.isEmpty(statement)) {
                     continue;
                 }
                 transactions.add(statement);
@@ -127,11 +240,19 @@ public class SqliteAdapterImpl implements SqlAdapter {
             if(idField.getType() != Long.class && idField.getType() != long.class){
                 throw new IllegalStateException("Your primary key is currently '" + idField.getType() + "' but 'long' was expected");
             }
-            Cursor lastId = mDbHelper.getDatabase().query("sqlite_sequence", new String[]{"seq"}, "name = ?",
-                    new String[]{SQLHelper.getTableName(theClass)}, null, null, null);
-            if (lastId != null && lastId.moveToFirst()) {
-                long id = lastId.getLong(0);
-                lastId.close();
+            Cursor lastId = mDbHelper.query("sqlite_sequence", new String[]{"seq"}, "name = ?",
+                    new String[]{SQLHelper.getTableName(theClass)}, null, null, null, null);
+            Long id = null;
+            if (lastId != null) {
+                try {
+                    if (lastId.moveToFirst()) {
+                        id = lastId.getLong(0);
+                    }
+                } finally {
+                    lastId.close();
+                }
+            }
+            if (id != null) {
                 if (idField != null) {
                     idField.setAccessible(true);
                     try {
@@ -143,8 +264,6 @@ public class SqliteAdapterImpl implements SqlAdapter {
                     }
                 }
                 return id;
-            } else if (lastId != null) {
-                lastId.close();
             }
         } else {
             try {
@@ -164,68 +283,74 @@ public class SqliteAdapterImpl implements SqlAdapter {
 
     @Override
     public <T, G> void storeCollection(List<T> collection, G attachedTo, ProgressListener listener) {
-        if (listener != null) {
-            listener.onProgressChange(0);
-        }
-        if (collection.isEmpty()) {
-            return;
-        }
-        List<String> transactions = new ArrayList<String>();
-        DatabaseSpec.Relationship relationship = mDatabaseSpec.getRelationship(collection.get(0).getClass());
-        // if there is no listener, attached object, collection is too small or objects in the list have inner
-        // relationships: insert them in a normal way, in which there will be a sql execution per object
-        if (listener != null || attachedTo != null || collection.size() <= 1 || relationship != DatabaseSpec.Relationship.UNKNOWN) {
-            int progress;
-            int all = collection.size() + 1; // 1 == commit phase
-            for (int i = 0, collectionSize = collection.size(); i < collectionSize; i++) {
-                T object = collection.get(i);
-                String sqlStatement = getSqlStatement(object, new Node(object.getClass()), attachedTo);
-                if (sqlStatement == null) {
-                    continue;
-                }
-                String[] statements = sqlStatement.split(SQLHelper.STATEMENT_SEPARATOR);
-                Collections.addAll(transactions, statements);
-                if (listener != null) {
-                    progress = i * 100 / all;
-                    listener.onProgressChange(progress);
-                }
+        long start = begin(MetricsSink.Operation.STORE_COLLECTION);
+        try {
+            if (listener != null) {
+                listener.onProgressChange(0);
             }
-        } else {
-            // get current table size
-            int count = count(collection.get(0).getClass());
-            boolean tryToUpdate = count > 0;
-
-            // if it reaches here, we can insert collection in a faster way by creating few sql statements
-            StringBuilder builder = new StringBuilder();
-            for (int i = 0, collectionSize = collection.size(), newItems = 0; i < collectionSize; i++) {
-                T bean = collection.get(i);
-                if (tryToUpdate) {
-                    String updateStatement = getUpdateStatementIfPossible(bean);
-                    if (!TextUtils.isEmpty(updateStatement)) {
-                        String[] statements = updateStatement.split(SQLHelper.STATEMENT_SEPARATOR);
-                        Collections.addAll(transactions, statements);
+            if (collection.isEmpty()) {
+                return;
+            }
+            List<String> transactions = new ArrayList<String>();
+            DatabaseSpec.Relationship relationship = mDatabaseSpec.getRelationship(collection.get(0).getClass());
+            // if there is no listener, attached object, collection is too small or objects in the list have inner
+            // relationships: insert them in a normal way, in which there will be a sql execution per object
+            if (listener != null || attachedTo != null || collection.size() <= 1 || relationship != DatabaseSpec.Relationship.UNKNOWN) {
+                int progress;
+                int all = collection.size() + 1; // 1 == commit phase
+                for (int i = 0, collectionSize = collection.size(); i < collectionSize; i++) {
+                    T object = collection.get(i);
+                    String sqlStatement = getSqlStatement(object, new Node(object.getClass()), attachedTo);
+                    if (sqlStatement == null) {
                         continue;
                     }
+                    String[] statements = sqlStatement.split(SQLHelper.STATEMENT_SEPARATOR);
+                    Collections.addAll(transactions, statements);
+                    if (listener != null) {
+                        progress = i * 100 / all;
+                        listener.onProgressChange(progress);
+                    }
                 }
-                if (newItems % 400 == 0) {
-                    if (newItems > 0) {
-                        transactions.add(builder.append(";").toString());
-                        builder = new StringBuilder();
+            } else {
+                // if the table is empty there is nothing to update
+                boolean tryToUpdate = exists(collection.get(0).getClass());
+
+                // if it reaches here, we can insert collection in a faster way by creating few sql statements
+                StringBuilder builder = new StringBuilder();
+                for (int i = 0, collectionSize = collection.size(), newItems = 0; i < collectionSize; i++) {
+                    T bean = collection.get(i);
+                    if (tryToUpdate) {
+                        String updateStatement = getUpdateStatementIfPossible(bean);
+                        if (!SQLHelper.isEmpty(updateStatement)) {
+                            String[] statements = updateStatement.split(SQLHelper.STATEMENT_SEPARATOR);
+                            Collections.addAll(transactions, statements);
+                            continue;
+                        }
+                    }
+                    if (newItems % 400 == 0) {
+                        if (newItems > 0) {
+                            transactions.add(builder.append(";").toString());
+                            builder = new StringBuilder();
+                        }
+                        builder.append(SQLHelper.getFastInsertSqlHeader(bean, mDatabaseSpec));
+                    } else {
+                        builder.append(SQLHelper.getUnionInsertSql(bean, mDatabaseSpec));
                     }
-                    builder.append(SQLHelper.getFastInsertSqlHeader(bean, mDatabaseSpec));
-                } else {
-                    builder.append(SQLHelper.getUnionInsertSql(bean, mDatabaseSpec));
+                    newItems++;
+                }
+                if (builder.length() > 0) {
+                    String sql = builder.append(";").toString();
+                    transactions.add(sql);
                 }
-                newItems++;
             }
-            if (builder.length() > 0) {
-                String sql = builder.append(";").toString();
-                transactions.add(sql);
+            executeTransactions(transactions);
+            onWrite(collection.get(0).getClass());
+            Metrics.rows(collection.size());
+            if (listener != null) {
+                listener.onProgressChange(100);
             }
-        }
-        executeTransactions(transactions);
-        if (listener != null) {
-            listener.onProgressChange(100);
+        } finally {
+            Metrics.end(MetricsSink.Operation.STORE_COLLECTION, collection.isEmpty() ? null : collection.get(0).getClass(), start);
         }
     }
 
@@ -270,19 +395,26 @@ public class SqliteAdapterImpl implements SqlAdapter {
 
     @Override
     public <T> int update(T bean, String where, String[] whereArgs) {
-        if (bean == null) {
-            return 0;
-        }
-        int count = count(bean.getClass(), where, whereArgs);
-        if (whereArgs != null) {
-            for (String arg : whereArgs) {
-                where = where.replaceFirst("\\?", String.format("'%s'", arg));
+        long start = begin(MetricsSink.Operation.UPDATE);
+        try {
+            if (bean == null) {
+                return 0;
+            }
+            int count = count(bean.getClass(), where, whereArgs);
+            if (whereArgs != null) {
+                for (String arg : whereArgs) {
+                    where = where.replaceFirst("\\?", String.format("'%s'", arg));
+                }
             }
+            String sqlStatement = SQLHelper.buildUpdateStatement(bean, where);
+            String[] statements = sqlStatement.split(SQLHelper.STATEMENT_SEPARATOR);
+            executeTransactions(Arrays.asList(statements));
+            onWrite(bean.getClass());
+            Metrics.rows(count);
+            return count;
+        } finally {
+            Metrics.end(MetricsSink.Operation.UPDATE, bean == null ? null : bean.getClass(), start);
         }
-        String sqlStatement = SQLHelper.buildUpdateStatement(bean, where);
-        String[] statements = sqlStatement.split(SQLHelper.STATEMENT_SEPARATOR);
-        executeTransactions(Arrays.asList(statements));
-        return count;
     }
 
     @Override
@@ -308,118 +440,387 @@ public class SqliteAdapterImpl implements SqlAdapter {
 
     @Override
     public <T> int delete(Class<T> theClass, String where, String[] whereArgs, boolean onCascade) {
-        DatabaseSpec.Relationship relationship = mDatabaseSpec.getRelationship(theClass);
-        if (!relationship.equals(DatabaseSpec.Relationship.UNKNOWN)) {
-            Field idField = SQLHelper.getPrimaryKeyField(theClass);
-            idField.setAccessible(true);
-            switch (relationship) {
-                case HAS_MANY:
-                    if (onCascade) {
-                        HasMany hasMany = mDatabaseSpec.has(theClass);
-                        List<T> toDelete = findAll(theClass, where, whereArgs);
-                        for (T object : toDelete) {
-                            try {
-                                Object objectId = idField.get(object);
-                                Class<?> containedClass = hasMany.getContainedClass();
-                                String whereForeign = String.format("%s = '%s'", hasMany.getForeignKey(), String.valueOf(objectId));
-                                delete(containedClass, whereForeign, null);
-                            } catch (IllegalAccessException ignored) {
+        long start = begin(MetricsSink.Operation.DELETE);
+        try {
+            DatabaseSpec.Relationship relationship = mDatabaseSpec.getRelationship(theClass);
+            if (!relationship.equals(DatabaseSpec.Relationship.UNKNOWN)) {
+                Field idField = SQLHelper.getPrimaryKeyField(theClass);
+                idField.setAccessible(true);
+                switch (relationship) {
+                    case HAS_MANY:
+                        if (onCascade) {
+                            HasMany hasMany = mDatabaseSpec.has(theClass);
+                            List<T> toDelete = findAll(theClass, where, whereArgs);
+                            for (T object : toDelete) {
+                                try {
+                                    Object objectId = idField.get(object);
+                                    Class<?> containedClass = hasMany.getContainedClass();
+                                    String whereForeign = String.format("%s = '%s'", hasMany.getForeignKey(), String.valueOf(objectId));
+                                    delete(containedClass, whereForeign, null);
+                                } catch (IllegalAccessException ignored) {
+                                }
                             }
                         }
-                    }
-                    break;
-                case MANY_TO_MANY:
-                    List<ManyToMany> manyToManyList = mDatabaseSpec.getManyToMany(theClass);
-                    for (ManyToMany manyToMany : manyToManyList) {
-                        String foreignKey;
-                        String foreignCurrentKey;
-                        Class<?> relationTable;
-                        if (manyToMany.getFirstRelation() == theClass) {
-                            foreignKey = manyToMany.getMainKey();
-                            foreignCurrentKey = manyToMany.getSecondaryKey();
-                            relationTable = manyToMany.getSecondRelation();
-                        } else {
-                            foreignKey = manyToMany.getSecondaryKey();
-                            foreignCurrentKey = manyToMany.getMainKey();
-                            relationTable = manyToMany.getFirstRelation();
-                        }
-                        List<T> toRemove = findAll(theClass, where, whereArgs);
-                        for (T object : toRemove) {
-                            try {
-                                Object objectId = idField.get(object);
-                                String whereForeign = String.format("%s = '%s'", foreignKey, String.valueOf(objectId));
+                        break;
+                    case MANY_TO_MANY:
+                        List<ManyToMany> manyToManyList = mDatabaseSpec.getManyToMany(theClass);
+                        for (ManyToMany manyToMany : manyToManyList) {
+                            String foreignKey;
+                            String foreignCurrentKey;
+                            Class<?> relationTable;
+                            if (manyToMany.getFirstRelation() == theClass) {
+                                foreignKey = manyToMany.getMainKey();
+                                foreignCurrentKey = manyToMany.getSecondaryKey();
+                                relationTable = manyToMany.getSecondRelation();
+                            } else {
+                                foreignKey = manyToMany.getSecondaryKey();
+                                foreignCurrentKey = manyToMany.getMainKey();
+                                relationTable = manyToMany.getFirstRelation();
+                            }
+                            List<T> toRemove = findAll(theClass, where, whereArgs);
+                            for (T object : toRemove) {
+                                try {
+                                    Object objectId = idField.get(object);
+                                    String whereForeign = String.format("%s = '%s'", foreignKey, String.valueOf(objectId));
 
-                                List<String> ids = new ArrayList<String>();
-                                if (onCascade) {
-                                    Cursor deletionCursor = mDbHelper.getDatabase().query(manyToMany.getTableName(), null, whereForeign, null, null, null, null);
-                                    if (deletionCursor.moveToFirst()) {
-                                        do {
-                                            int index = deletionCursor.getColumnIndex(foreignCurrentKey);
-                                            ids.add(deletionCursor.getString(index));
-                                        } while (deletionCursor.moveToNext());
+                                    List<String> ids = new ArrayList<String>();
+                                    if (onCascade) {
+                                        Cursor deletionCursor = mDbHelper.query(manyToMany.getTableName(), null, whereForeign, null, null, null, null, null);
+                                        try {
+                                            if (deletionCursor.moveToFirst()) {
+                                                do {
+                                                    int index = deletionCursor.getColumnIndex(foreignCurrentKey);
+                                                    ids.add(deletionCursor.getString(index));
+                                                } while (deletionCursor.moveToNext());
+                                            }
+                                        } finally {
+                                            deletionCursor.close();
+                                        }
                                     }
-                                    deletionCursor.close();
-                                }
 
-                                mDbHelper.getDatabase().delete(manyToMany.getTableName(), whereForeign, null);
+                                    mDbHelper.delete(manyToMany.getTableName(), whereForeign, null);
 
-                                for (String id : ids) {
-                                    String whereRest = String.format("%s = '%s'", foreignCurrentKey, id);
-                                    Cursor cursorRest = mDbHelper.getDatabase().query(manyToMany.getTableName(), null, whereRest, null, null, null, null);
-                                    // this means there is no other relation with this object, so we can delete it on cascade :)
-                                    if (cursorRest.getCount() == 0) {
-                                        mDbHelper.getDatabase().delete(SQLHelper.getTableName(relationTable), SQLHelper._ID + " = ?", new String[]{id});
+                                    for (String id : ids) {
+                                        String whereRest = String.format("%s = '%s'", foreignCurrentKey, id);
+                                        Cursor cursorRest = mDbHelper.query(manyToMany.getTableName(), null, whereRest, null, null, null, null, null);
+                                        int relations;
+                                        try {
+                                            relations = cursorRest.getCount();
+                                        } finally {
+                                            cursorRest.close();
+                                        }
+                                        // this means there is no other relation with this object, so we can delete it on cascade :)
+                                        if (relations == 0) {
+                                            mDbHelper.delete(SQLHelper.getTableName(relationTable), SQLHelper._ID + " = ?", new String[]{id});
+                                        }
                                     }
+                                } catch (IllegalAccessException ignored) {
                                 }
-                            } catch (IllegalAccessException ignored) {
                             }
                         }
-                    }
-                    break;
+                        break;
+                }
             }
-        }
 
-        return mDbHelper.getDatabase().delete(SQLHelper.getTableName(theClass), where, whereArgs);
+            int deleted = mDbHelper.delete(SQLHelper.getTableName(theClass), where, whereArgs);
+            Metrics.rows(deleted);
+            onWrite(theClass);
+            return deleted;
+        } finally {
+            Metrics.end(MetricsSink.Operation.DELETE, theClass, start);
+        }
     }
 
     @Override
     public void truncate(Class<?>... classes) {
         for (Class<?> theClass : classes) {
-            String tableName = SQLHelper.getTableName(theClass);
-            mDbHelper.getDatabase().delete(tableName, null, null);
-            mDbHelper.getDatabase().delete("sqlite_sequence", "name LIKE ?", new String[]{tableName});
+            long start = begin(MetricsSink.Operation.TRUNCATE);
+            try {
+                String tableName = SQLHelper.getTableName(theClass);
+                Metrics.rows(mDbHelper.delete(tableName, "1", null));
+                mDbHelper.delete("sqlite_sequence", "name LIKE ?", new String[]{tableName});
+                onWrite(theClass);
+            } finally {
+                Metrics.end(MetricsSink.Operation.TRUNCATE, theClass, start);
+            }
         }
     }
 
     @Override
     public <T> int count(T bean) {
-        Cursor query = SQLHelper.getCursorFindAllWhere(mDbHelper.getDatabase(), bean.getClass(), bean, null, null, mDatabaseSpec);
-        int count = query.getCount();
-        query.close();
-        return count;
+        ArrayList<String> args = new ArrayList<String>();
+        String where = getSampleWhere(bean, args);
+        return count(bean.getClass(), where, where == null ? null : args.toArray(new String[args.size()]));
     }
 
     @Override
     public <T> int count(Class<T> clazz, String where, String[] whereArgs) {
-        Cursor query = mDbHelper.getDatabase().query(SQLHelper.getTableName(clazz), null, where, whereArgs, null, null, null);
-        int count = query.getCount();
-        query.close();
-        return count;
+        long start = begin(MetricsSink.Operation.COUNT);
+        try {
+            QueryCache queryCache = mDbHelper.getQueryCache();
+            String key = null;
+            Map<String, Long> versions = null;
+            if (queryCache.isEnabled() && useQueryCache()) {
+                key = getQueryKey("count", clazz, where, whereArgs, null);
+                Integer cached = (Integer) queryCache.get(key);
+                if (cached != null) {
+                    return cached;
+                }
+                versions = queryCache.snapshot(Collections.singleton(SQLHelper.getTableName(clazz)));
+            }
+            Cursor query = mDbHelper.query(SQLHelper.getTableName(clazz), COUNT_PROJECTION, where, whereArgs, null, null, null, null);
+            int count = 0;
+            try {
+                if (query.moveToFirst()) {
+                    count = query.getInt(0);
+                }
+            } finally {
+                query.close();
+            }
+            if (key != null) {
+                queryCache.put(key, count, versions);
+            }
+            return count;
+        } finally {
+            Metrics.end(MetricsSink.Operation.COUNT, clazz, start);
+        }
     }
 
     @Override
     public <T> int count(Class<T> clazz) {
-        Cursor query = SQLHelper.getCursorFindAllWhere(mDbHelper.getDatabase(), clazz, null, null, null, mDatabaseSpec);
-        int count = query.getCount();
-        query.close();
-        return count;
+        return count(clazz, null, null);
+    }
+
+    @Override
+    public <T> boolean exists(T bean) {
+        ArrayList<String> args = new ArrayList<String>();
+        String where = getSampleWhere(bean, args);
+        return exists(bean.getClass(), where, where == null ? null : args.toArray(new String[args.size()]));
+    }
+
+    @Override
+    public <T> boolean exists(Class<T> clazz, String where, String[] whereArgs) {
+        long start = begin(MetricsSink.Operation.EXISTS);
+        try {
+            Cursor query = mDbHelper.query(SQLHelper.getTableName(clazz), EXISTS_PROJECTION, where, whereArgs, null, null, null, "1");
+            try {
+                return query.moveToFirst();
+            } finally {
+                query.close();
+            }
+        } finally {
+            Metrics.end(MetricsSink.Operation.EXISTS, clazz, start);
+        }
+    }
+
+    @Override
+    public <T> boolean exists(Class<T> clazz) {
+        return exists(clazz, null, null);
+    }
+
+    @Override
+    public <T> List<Aggregation.Row> aggregate(Class<T> theClass, Aggregation aggregation) {
+        long start = begin(MetricsSink.Operation.AGGREGATE);
+        try {
+            String[] projection = aggregation.getProjection(theClass);
+            String groupBy = aggregation.getGroupBy(theClass);
+            Cursor query = mDbHelper.query(SQLHelper.getTableName(theClass), projection, aggregation.getWhere(),
+                    aggregation.getWhereArgs(), groupBy, aggregation.getHaving(), null, null);
+            List<Aggregation.Row> rows = new ArrayList<Aggregation.Row>();
+            try {
+                if (query.moveToFirst()) {
+                    do {
+                        rows.add(aggregation.readRow(query));
+                    } while (query.moveToNext());
+                }
+            } finally {
+                query.close();
+            }
+            return rows;
+        } finally {
+            Metrics.end(MetricsSink.Operation.AGGREGATE, theClass, start);
+        }
+    }
+
+    @Override
+    public EntityCache getEntityCache() {
+        return mDbHelper.getEntityCache();
+    }
+
+    @Override
+    public QueryCache getQueryCache() {
+        return mDbHelper.getQueryCache();
+    }
+
+    @Override
+    public QueryPlanGuard getQueryPlanGuard() {
+        return mDbHelper.getQueryPlanGuard();
+    }
+
+    @Override
+    public QueryRecorder getQueryRecorder() {
+        return mDbHelper.getQueryRecorder();
+    }
+
+    @Override
+    public SlowQueryLog getSlowQueryLog() {
+        return mDbHelper.getSlowQueryLog();
+    }
+
+    @Override
+    public Maintenance getMaintenance() {
+        return mDbHelper.getMaintenance();
+    }
+
+    @Override
+    public void snapshotTo(File file) {
+        mDbHelper.snapshotTo(file);
+    }
+
+    @Override
+    public void restoreFrom(File file) {
+        mDbHelper.restoreFrom(file);
+    }
+
+    @Override
+    public synchronized int importSql(InputStream input, ProgressListener listener) {
+        return mDbHelper.importSql(input, listener);
+    }
+
+    @Override
+    public TuningProfile setTuningProfile(TuningProfile tuningProfile) {
+        return mDbHelper.setTuningProfile(tuningProfile);
+    }
+
+    /**
+     * Starts measuring a public operation. Every operation that touches the database starts here
+     *
+     * @param operation the operation
+     * @return the start time to pass to {@link Metrics#end}
+     */
+    long begin(MetricsSink.Operation operation) {
+        return Metrics.begin(operation);
+    }
+
+    /**
+     * Invalidates cached data after writing the table of the specified class
+     *
+     * @param theClass the class whose table was written
+     */
+    private void onWrite(Class<?> theClass) {
+        if (mDatabaseSpec.isCached(theClass)) {
+            mDbHelper.getEntityCache().remove(theClass);
+        }
+        bumpTables(theClass);
+    }
+
+    private void bumpTables(Class<?> theClass) {
+        QueryCache queryCache = mDbHelper.getQueryCache();
+        if (queryCache.isEnabled()) {
+            for (String table : getTables(theClass)) {
+                queryCache.bump(table);
+            }
+        }
+    }
+
+    /**
+     * @param theClass the class to inspect
+     * @return the tables read when loading (or written when storing) a bean of the specified class, including
+     *         the ones of its relations
+     */
+    private Set<String> getTables(Class<?> theClass) {
+        Set<String> tables = mTablesCache.get(theClass);
+        if (tables == null) {
+            tables = new HashSet<String>();
+            collectTables(theClass, tables, new HashSet<Class<?>>());
+            mTablesCache.put(theClass, tables);
+        }
+        return tables;
+    }
+
+    private void collectTables(Class<?> theClass, Set<String> tables, Set<Class<?>> visited) {
+        if (!visited.add(theClass)) {
+            return;
+        }
+        tables.add(SQLHelper.getTableName(theClass));
+        for (Field field : SQLHelper.getDeclaredFields(theClass)) {
+            if (field.getType() != List.class) {
+                continue;
+            }
+            ParameterizedType listType = (ParameterizedType) field.getGenericType();
+            Class<?> collectionClass = (Class<?>) listType.getActualTypeArguments()[0];
+            switch (mDatabaseSpec.getRelationship(theClass, collectionClass)) {
+                case MANY_TO_MANY:
+                    tables.add(ManyToMany.buildTableName(theClass, collectionClass));
+                    collectTables(collectionClass, tables, visited);
+                    break;
+                case HAS_MANY:
+                    collectTables(collectionClass, tables, visited);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return true if the results of this adapter can be served from the {@link QueryCache}
+     */
+    boolean useQueryCache() {
+        return true;
+    }
+
+    private static String getQueryKey(String operation, Class<?> theClass, String where, String[] whereArgs,
+                                      Constraint constraint) {
+        StringBuilder key = new StringBuilder().append(operation).append('\u0001').append(theClass.getName())
+                .append('\u0001').append(where);
+        if (whereArgs != null) {
+            for (String arg : whereArgs) {
+                key.append('\u0001').append(arg);
+            }
+        }
+        if (constraint != null) {
+            key.append('\u0002').append(constraint.getOrderBy())
+                    .append('\u0001').append(constraint.getLimit())
+                    .append('\u0001').append(constraint.getGroupBy());
+        }
+        return key.toString();
+    }
+
+    /**
+     * @param sample the sample to inspect
+     * @return the primary key of the sample if it is the only field with data; null otherwise
+     */
+    private Object getPrimaryKeyIfOnlyData(Object sample) {
+        Field idField = SQLHelper.getPrimaryKeyField(sample.getClass());
+        Object id = null;
+        try {
+            for (Field field : SQLHelper.getDeclaredFields(sample.getClass())) {
+                if (field.getType() == List.class) {
+                    continue;
+                }
+                field.setAccessible(true);
+                Object value = field.get(sample);
+                if (!SQLHelper.hasData(field.getType(), value)) {
+                    continue;
+                }
+                if (!field.equals(idField)) {
+                    return null;
+                }
+                id = value;
+            }
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+        return id;
+    }
+
+    private <T> String getSampleWhere(T sample, List<String> args) {
+        return SamplePlan.get(sample, args).getWhere();
     }
 
     private synchronized void executeTransactions(List<String> transactions) {
-        SQLiteDatabase database = mDbHelper.getDatabase();
         boolean activeTransaction = false;
         try {
-            database.execSQL("BEGIN TRANSACTION;");
+            mDbHelper.execSQL("BEGIN TRANSACTION;");
             activeTransaction = true;
         } catch (Exception e) {
             PersistenceLogManager.e(TAG, "Could not initiate transaction", e);
@@ -430,13 +831,13 @@ public class SqliteAdapterImpl implements SqlAdapter {
         if (activeTransaction) {
             for (String transaction : transactions) {
                 try {
-                    database.execSQL(transaction);
+                    mDbHelper.execSQL(transaction);
                 } catch (Exception e) {
                     PersistenceLogManager.e(TAG, "Error executing transaction: " + transaction, e);
                 }
             }
             try {
-                database.execSQL("COMMIT;");
+                mDbHelper.execSQL("COMMIT;");
             } catch (Exception e) {
                 // we are doomed; yes, we are. there was an active transaction and yet
                 // transaction could not be committed.
@@ -446,29 +847,111 @@ public class SqliteAdapterImpl implements SqlAdapter {
     }
 
     private <T, G> List<T> findAll(Class<T> clazz, T where, G attachedTo, Constraint constraint) {
-        Cursor query = SQLHelper.getCursorFindAllWhere(mDbHelper.getDatabase(), clazz, where, attachedTo, constraint, mDatabaseSpec);
-        return findAllFromCursor(clazz, query);
+        long start = begin(MetricsSink.Operation.FIND);
+        try {
+            if (attachedTo == null) {
+                if (where == null) {
+                    return findAllWhere(clazz, null, null, constraint, null);
+                }
+                ArrayList<String> args = new ArrayList<String>();
+                SamplePlan plan = SamplePlan.get(where, args, constraint == null ? null : constraint.getStringMatch());
+                String[] argsArray = plan.getWhere() == null ? null : args.toArray(new String[args.size()]);
+                return findAllWhere(clazz, plan.getWhere(), argsArray, constraint, plan);
+            }
+            Cursor query = SQLHelper.getCursorFindAllWhere(mDbHelper, clazz, where, attachedTo, constraint, mDatabaseSpec);
+            return findAllFromCursor(clazz, query);
+        } finally {
+            Metrics.end(MetricsSink.Operation.FIND, clazz, start);
+        }
+    }
+
+    /**
+     * @param plan the plan the where clause comes from, if any. When there is no constraint its SQL is used as is
+     */
+    private <T> List<T> findAllWhere(Class<T> clazz, String where, String[] whereArgs, Constraint constraint,
+                                     SamplePlan plan) {
+        long start = begin(MetricsSink.Operation.FIND);
+        try {
+            QueryCache queryCache = mDbHelper.getQueryCache();
+            String key = null;
+            Map<String, Long> versions = null;
+            if (queryCache.isEnabled() && useQueryCache()) {
+                key = getQueryKey("findAll", clazz, where, whereArgs, constraint);
+                List<T> cached = (List<T>) queryCache.get(key);
+                if (cached != null) {
+                    return copyAll(cached);
+                }
+                versions = queryCache.snapshot(getTables(clazz));
+            }
+            Cursor query;
+            if (plan != null && constraint == null) {
+                query = mDbHelper.rawQuery(plan.getSelectSql(), whereArgs);
+            } else {
+                query = SQLHelper.getCursorFindAllWhere(mDbHelper, clazz, where, whereArgs, constraint);
+            }
+            List<T> beans = findAllFromCursor(clazz, query);
+            if (key != null) {
+                queryCache.put(key, copyAll(beans), versions);
+            }
+            return beans;
+        } finally {
+            Metrics.end(MetricsSink.Operation.FIND, clazz, start);
+        }
+    }
+
+    /**
+     * Copies the beans that go in and out of the query cache, so that callers never share instances
+     */
+    private static <T> List<T> copyAll(List<T> beans) {
+        List<T> copies = new ArrayList<T>(beans.size());
+        for (T bean : beans) {
+            copies.add((T) EntityCache.copy(bean));
+        }
+        return copies;
+    }
+
+    private <T> void findByIds(Class<T> clazz, Field idField, List<String> ids, Map<String, List<Object>> requested,
+                               Map<Object, T> result) {
+        String sql = SQLHelper.getFindByIdsSql(clazz, ids.size());
+        Cursor query = mDbHelper.rawQuery(sql, ids.toArray(new String[ids.size()]));
+        for (T bean : findAllFromCursor(clazz, query)) {
+            Object id;
+            try {
+                id = idField.get(bean);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+            List<Object> keys = requested.get(String.valueOf(id));
+            if (keys == null) {
+                // a string key may match a different case, depending on the collation of the column
+                result.put(id, bean);
+                continue;
+            }
+            for (Object key : keys) {
+                result.put(key, bean);
+            }
+        }
     }
 
     private <T> List<T> findAllFromCursor(Class<T> clazz, Cursor query) {
         List<T> beans = new ArrayList<T>();
-        if (query.moveToFirst()) {
-            do {
-                T bean = getBeanFromCursor(clazz, query, new Node(clazz));
-                beans.add(bean);
-            } while (query.moveToNext());
+        try {
+            if (query.moveToFirst()) {
+                do {
+                    T bean = getBeanFromCursor(clazz, query, new Node(clazz));
+                    beans.add(bean);
+                } while (query.moveToNext());
+            }
+        } finally {
+            query.close();
         }
-        query.close();
+        Metrics.rows(beans.size());
         return beans;
     }
 
-    private <T> Cursor getCursorFindAllWhere(Class<? extends T> clazz, String where, String[] args) {
-        return mDbHelper.getDatabase().query(SQLHelper.getTableName(clazz), null, where, args, null, null, null, null);
-    }
-
     private <T, G> String getSqlStatement(T bean, Node tree, G attachedTo) {
         String updateStatement = getUpdateStatementIfPossible(bean);
-        if (!TextUtils.isEmpty(updateStatement)) {
+        if (!SQLHelper.isEmpty(updateStatement)) {
             return updateStatement;
         }
         String mainInsertStatement = SQLHelper.getInsertStatement(bean, attachedTo, mDatabaseSpec);
@@ -501,12 +984,7 @@ public class SqliteAdapterImpl implements SqlAdapter {
         try {
             Object beanId = theId.get(bean);
             if (SQLHelper.hasData(theId.getType(), beanId)) {
-                // create an object of the same type of the bean with the same id to search of it
-                Constructor<?> constructor = theClass.getConstructor();
-                Object sample = constructor.newInstance();
-                theId.set(sample, beanId);
-
-                Object match = findFirst((T) sample);
+                Object match = findById(theClass, beanId);
                 if (match != null) {
                     // if they are the same, do nothing...
                     if (bean.equals(match)) {
@@ -610,17 +1088,23 @@ public class SqliteAdapterImpl implements SqlAdapter {
     }
 
     private <T> T findFirstFromCursor(Class<T> clazz, Cursor query) {
-        if (query.moveToFirst()) {
-            T bean = getBeanFromCursor(clazz, query, new Node(clazz));
+        try {
+            if (query.moveToFirst()) {
+                T bean = getBeanFromCursor(clazz, query, new Node(clazz));
+                Metrics.rows(1);
+                return bean;
+            }
+            return null;
+        } finally {
             query.close();
-            return bean;
         }
-        query.close();
-        return null;
     }
 
     private <T> T getBeanFromCursor(Class<? extends T> theClass, Cursor query, Node tree) {
-        T bean;
+        T bean = getLoadedBean(theClass, query);
+        if (bean != null) {
+            return bean;
+        }
         try {
             Constructor<? extends T> constructor = theClass.getConstructor();
             bean = constructor.newInstance();
@@ -664,16 +1148,19 @@ public class SqliteAdapterImpl implements SqlAdapter {
                             String[] selectionArgs = new String[1];
                             long id = query.getLong(query.getColumnIndex(SQLHelper._ID));
                             selectionArgs[0] = String.valueOf(id);
-                            Cursor join = mDbHelper.getDatabase().rawQuery(sql, selectionArgs);
+                            Cursor join = mDbHelper.rawQuery(sql, selectionArgs);
                             // set the result to the current field
                             List listValue = new ArrayList();
-                            if (join.moveToFirst()) {
-                                do {
-                                    Object beanFromCursor = getBeanFromCursor(collectionClass, join, tree);
-                                    listValue.add(beanFromCursor);
-                                } while (join.moveToNext());
+                            try {
+                                if (join.moveToFirst()) {
+                                    do {
+                                        Object beanFromCursor = getBeanFromCursor(collectionClass, join, tree);
+                                        listValue.add(beanFromCursor);
+                                    } while (join.moveToNext());
+                                }
+                            } finally {
+                                join.close();
                             }
-                            join.close();
                             value = listValue;
                         }
                         break;
@@ -691,15 +1178,18 @@ public class SqliteAdapterImpl implements SqlAdapter {
                                         .append(foreignValue)
                                         .append("'").toString();
                                 // execute the query and set the result to the current field
-                                Cursor join = mDbHelper.getDatabase().rawQuery(sql, null);
+                                Cursor join = mDbHelper.rawQuery(sql, null);
                                 List listValue = new ArrayList();
-                                if (join.moveToFirst()) {
-                                    do {
-                                        Object beanFromCursor = getBeanFromCursor(collectionClass, join, tree);
-                                        listValue.add(beanFromCursor);
-                                    } while (join.moveToNext());
+                                try {
+                                    if (join.moveToFirst()) {
+                                        do {
+                                            Object beanFromCursor = getBeanFromCursor(collectionClass, join, tree);
+                                            listValue.add(beanFromCursor);
+                                        } while (join.moveToNext());
+                                    }
+                                } finally {
+                                    join.close();
                                 }
-                                join.close();
                                 value = listValue;
                             }
                             break;
@@ -718,10 +1208,39 @@ public class SqliteAdapterImpl implements SqlAdapter {
                 throw new RuntimeException(String.format("An error occurred setting value to \"%s\", (%s): %s%n", field, value, e.getMessage()));
             }
         }
+        onBeanLoaded(bean, query);
         return bean;
     }
 
-    private Object getValueFromCursor(Class<?> type, String name, Cursor query) {
+    /**
+     * Called before mapping a row into a bean. Sub-classes can return an already loaded instance to skip the mapping.
+     *
+     * @param theClass the class of the bean to map
+     * @param query    cursor pointing to the row to map
+     * @return an already loaded bean or null if the row must be mapped
+     */
+    <T> T getLoadedBean(Class<? extends T> theClass, Cursor query) {
+        return null;
+    }
+
+    /**
+     * Called each time a bean has been mapped from a cursor row
+     *
+     * @param bean  the loaded bean
+     * @param query the cursor the bean was mapped from
+     */
+    void onBeanLoaded(Object bean, Cursor query) {
+        Class<?> theClass = bean.getClass();
+        if (mDatabaseSpec.isCached(theClass) && query instanceof CursorTracker.Tracked) {
+            Object id = SQLHelper.getPrimaryKeyValue(bean);
+            long generation = ((CursorTracker.Tracked) query).getCacheGeneration();
+            if (id != null && generation != -1) {
+                mDbHelper.getEntityCache().put(id, bean, generation);
+            }
+        }
+    }
+
+    Object getValueFromCursor(Class<?> type, String name, Cursor query) {
         try {
             // get the column index
             int columnIndex = query.getColumnIndex(name);
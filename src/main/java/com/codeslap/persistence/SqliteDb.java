@@ -18,42 +18,362 @@ package com.codeslap.persistence;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Class that will hold and manage the SQLiteDatabase object, needed to
+ * Class that will hold and manage the {@link Storage} object, needed to
  * persist and retrieve data. This will also create the database if it's not
  * created yet, or update it in case the version number changes.
  */
 class SqliteDb {
     private static final String TAG = SqliteDb.class.getSimpleName();
     private static final Map<String, SqliteDb> instances = new HashMap<String, SqliteDb>();
-    private final DbOpenHelper mDbHelper;
+    // statements committed together by importSql
+    private static final int IMPORT_CHUNK_SIZE = 500;
+    private final Storage mStorage;
+    private final EntityCache mEntityCache;
+    private final QueryCache mQueryCache;
+    private final QueryPlanGuard mQueryPlanGuard = new QueryPlanGuard();
+    private final QueryRecorder mQueryRecorder = new QueryRecorder(this);
+    private final StatementTracer mTracer = new StatementTracer();
+    private final Maintenance mMaintenance;
 
     private SqliteDb(Context context, String name, DatabaseSpec databaseSpec) {
-        if (databaseSpec.mDbOpenHelperBuilder != null) {
-            mDbHelper = databaseSpec.mDbOpenHelperBuilder.buildOpenHelper(context, name, databaseSpec.getVersion());
+        // android and the storages use a null name for in-memory databases
+        String fileName = databaseSpec.isInMemory() ? null : name;
+        if (fileName != null && databaseSpec.getPrebuiltDatabase() != null) {
+            File file = getDatabaseFile(context, name, databaseSpec);
+            if (file != null) {
+                databaseSpec.getPrebuiltDatabase().install(context, name, file, databaseSpec);
+            }
+        }
+        if (databaseSpec.getStorageBuilder() != null) {
+            mStorage = databaseSpec.getStorageBuilder().buildStorage(context, fileName);
         } else {
-            mDbHelper = new DefaultOpenHelper(context, name, databaseSpec.getVersion());
+            DbOpenHelper dbHelper;
+            if (databaseSpec.mDbOpenHelperBuilder != null) {
+                dbHelper = databaseSpec.mDbOpenHelperBuilder.buildOpenHelper(context, fileName,
+                        databaseSpec.getVersion());
+            } else {
+                dbHelper = new DefaultOpenHelper(context, fileName, databaseSpec.getVersion());
+            }
+            dbHelper.setDatabaseSpec(databaseSpec);
+            dbHelper.setStatementTracer(mTracer);
+            mStorage = new AndroidStorage(dbHelper);
+        }
+        mEntityCache = new EntityCache(databaseSpec.getCacheMaxEntries(), databaseSpec.getCacheMaxBytes());
+        mQueryCache = new QueryCache(databaseSpec.getQueryCacheSize());
+        mMaintenance = new Maintenance(mStorage);
+        PersistenceLogManager.d(TAG, String.format(databaseSpec.isInMemory() ? "Opening \"%s\" in-memory database..."
+                : "Opening \"%s\" database...", name));
+    }
+
+    /**
+     * @return the file where a database is stored, or null if its storage does not use a known file
+     */
+    private static File getDatabaseFile(Context context, String name, DatabaseSpec databaseSpec) {
+        DatabaseSpec.StorageBuilder storageBuilder = databaseSpec.getStorageBuilder();
+        if (storageBuilder == null) {
+            return context.getDatabasePath(name);
+        }
+        if (storageBuilder instanceof JdbcStorage.FileBuilder) {
+            return ((JdbcStorage.FileBuilder) storageBuilder).getDatabaseFile(name);
         }
-        mDbHelper.setDatabaseSpec(databaseSpec);
-        PersistenceLogManager.d(TAG, String.format("Opening \"%s\" database...", name));
+        return null;
     }
 
     static synchronized SqliteDb getInstance(Context context, String name, DatabaseSpec databaseSpec) {
         String key = name + databaseSpec.getVersion();
-        if (!instances.containsKey(key)) {
-            instances.put(key, new SqliteDb(context, name, databaseSpec));
+        SqliteDb instance = instances.get(key);
+        boolean created = instance == null;
+        if (created) {
+            instance = new SqliteDb(context, name, databaseSpec);
+            instances.put(key, instance);
+        }
+        // the spec may have been reconfigured since the database was opened
+        instance.mQueryCache.resize(databaseSpec.getQueryCacheSize());
+        instance.mQueryPlanGuard.configure(databaseSpec.getQueryPlanGuardMode(), databaseSpec.getQueryPlanGuardMinRows());
+        instance.mQueryRecorder.setEnabled(databaseSpec.isRecordingQueryShapes());
+        instance.mQueryRecorder.setForeignKeyIndexes(Schema.getForeignKeyIndexNames(databaseSpec));
+        instance.mTracer.configure(databaseSpec.getStatementListeners(), databaseSpec.getSlowStatementThreshold(),
+                databaseSpec.getSlowStatementMaxEntries());
+        TuningProfile tuningProfile = databaseSpec.getTuningProfile();
+        instance.mMaintenance.configure(databaseSpec.isMaintenanceScheduled(),
+                databaseSpec.getMaintenanceWriteThreshold(), databaseSpec.getMaintenanceMaxDuration(),
+                tuningProfile == null ? null : tuningProfile.getAutoVacuum());
+        if (created && tuningProfile != null && databaseSpec.getStorageBuilder() != null) {
+            // before migrating, so that the page size applies to new databases. Android databases are tuned by
+            // their DbOpenHelper every time they are opened
+            tuningProfile.apply(instance.mStorage);
+        }
+        if (created && databaseSpec.getStorageBuilder() != null) {
+            // android databases are created and upgraded by their DbOpenHelper
+            Schema.migrate(instance.mStorage, databaseSpec, instance.mTracer);
+        }
+        if (created && databaseSpec.getAutoIndexMinExecutions() > 0) {
+            instance.mQueryRecorder.load();
+            instance.mQueryRecorder.createAdvisedIndexes(databaseSpec.getAutoIndexMinExecutions());
+        }
+        return instance;
+    }
+
+    Storage getStorage() {
+        return mStorage;
+    }
+
+    /**
+     * Runs a query. All the queries of the library go through here (or {@link #query}) so that they can be
+     * inspected, and the returned cursors are tracked by the {@link CursorTracker}.
+     *
+     * @param sql  the SQL query
+     * @param args the query arguments
+     * @return a cursor with the result
+     */
+    Cursor rawQuery(String sql, String[] args) {
+        Metrics.statement();
+        if (mQueryPlanGuard.isEnabled()) {
+            mQueryPlanGuard.check(mStorage, sql, args);
+        }
+        long generation = mEntityCache.getGeneration();
+        boolean tracing = mTracer.isEnabled();
+        if (!mQueryRecorder.isEnabled() && !tracing) {
+            return track(mStorage.rawQuery(sql, args), generation);
+        }
+        long start = System.nanoTime();
+        Cursor cursor = mStorage.rawQuery(sql, args);
+        // make sure the query is actually executed before measuring
+        int count = cursor.getCount();
+        long duration = System.nanoTime() - start;
+        if (mQueryRecorder.isEnabled()) {
+            mQueryRecorder.record(sql, duration);
+        }
+        if (tracing) {
+            mTracer.trace(mStorage, sql, args, args == null ? 0 : args.length, count, duration);
+        }
+        return track(cursor, generation);
+    }
+
+    private static Cursor track(Cursor cursor, long cacheGeneration) {
+        Cursor tracked = CursorTracker.track(cursor);
+        if (tracked instanceof CursorTracker.Tracked) {
+            ((CursorTracker.Tracked) tracked).setCacheGeneration(cacheGeneration);
+        }
+        return tracked;
+    }
+
+    /**
+     * Same as {@link SQLiteDatabase#query(String, String[], String, String[], String, String, String, String)}
+     */
+    Cursor query(String table, String[] columns, String selection, String[] selectionArgs, String groupBy,
+                 String having, String orderBy, String limit) {
+        String sql = SQLHelper.buildQuery(table, columns, selection, groupBy, having, orderBy, limit);
+        return rawQuery(sql, selectionArgs);
+    }
+
+    void execSQL(String sql) {
+        Metrics.statement();
+        if (!mTracer.isEnabled()) {
+            execute(sql);
+            mMaintenance.onStatement(sql);
+            mMaintenance.onWrite(sql);
+            return;
+        }
+        String table = Maintenance.getWrittenTable(sql);
+        long start = System.nanoTime();
+        execute(sql);
+        long duration = System.nanoTime() - start;
+        long rows = table == null ? -1 : Maintenance.changes(mStorage);
+        mTracer.traceStatement(mStorage, sql, rows, duration);
+        mMaintenance.onStatement(sql);
+        if (table != null) {
+            mMaintenance.onWrite(table, rows);
+        }
+    }
+
+    private void execute(String sql) {
+        if (Maintenance.opensTransaction(sql)) {
+            mMaintenance.beginTransaction(null, sql);
+        } else {
+            mStorage.execSQL(sql);
+        }
+    }
+
+    long insert(String table, Map<String, Object> values) {
+        Metrics.statement();
+        if (!mTracer.isEnabled()) {
+            long id = mStorage.insert(table, values);
+            mMaintenance.onWrite(table, id == -1 ? 0 : 1);
+            return id;
+        }
+        long start = System.nanoTime();
+        long id = mStorage.insert(table, values);
+        long duration = System.nanoTime() - start;
+        mMaintenance.onWrite(table, id == -1 ? 0 : 1);
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        StringBuilder placeholders = new StringBuilder();
+        for (String column : values.keySet()) {
+            if (placeholders.length() > 0) {
+                sql.append(", ");
+                placeholders.append(", ");
+            }
+            sql.append(column);
+            placeholders.append('?');
+        }
+        sql.append(") VALUES (").append(placeholders).append(')');
+        mTracer.trace(mStorage, sql.toString(), null, values.size(), id == -1 ? 0 : 1, duration);
+        return id;
+    }
+
+    int update(String table, Map<String, Object> values, String where, String[] whereArgs) {
+        Metrics.statement();
+        if (!mTracer.isEnabled()) {
+            int rows = mStorage.update(table, values, where, whereArgs);
+            mMaintenance.onWrite(table, rows);
+            return rows;
+        }
+        long start = System.nanoTime();
+        int rows = mStorage.update(table, values, where, whereArgs);
+        long duration = System.nanoTime() - start;
+        mMaintenance.onWrite(table, rows);
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        boolean first = true;
+        for (String column : values.keySet()) {
+            if (!first) {
+                sql.append(", ");
+            }
+            sql.append(column).append(" = ?");
+            first = false;
+        }
+        appendWhere(sql, where);
+        int bindCount = values.size() + (whereArgs == null ? 0 : whereArgs.length);
+        mTracer.trace(mStorage, sql.toString(), null, bindCount, rows, duration);
+        return rows;
+    }
+
+    int delete(String table, String where, String[] whereArgs) {
+        Metrics.statement();
+        if (!mTracer.isEnabled()) {
+            int rows = mStorage.delete(table, where, whereArgs);
+            mMaintenance.onWrite(table, rows);
+            return rows;
+        }
+        long start = System.nanoTime();
+        int rows = mStorage.delete(table, where, whereArgs);
+        long duration = System.nanoTime() - start;
+        mMaintenance.onWrite(table, rows);
+        StringBuilder sql = new StringBuilder("DELETE FROM ").append(table);
+        appendWhere(sql, where);
+        mTracer.trace(mStorage, sql.toString(), null, whereArgs == null ? 0 : whereArgs.length, rows, duration);
+        return rows;
+    }
+
+    private static void appendWhere(StringBuilder sql, String where) {
+        if (where != null && where.length() > 0) {
+            sql.append(" WHERE ").append(where);
+        }
+    }
+
+    /**
+     * Copies the content of the database to a file
+     *
+     * @param file where the snapshot is written. It is replaced if it already exists
+     */
+    void snapshotTo(final File file) {
+        mMaintenance.runExclusively(new Runnable() {
+            @Override
+            public void run() {
+                Snapshot.save(mStorage, file);
+            }
+        });
+    }
+
+    /**
+     * Replaces the content of the database with the one of a snapshot
+     *
+     * @param file a file written by {@link #snapshotTo(File)}
+     */
+    void restoreFrom(final File file) {
+        try {
+            mMaintenance.runExclusively(new Runnable() {
+                @Override
+                public void run() {
+                    Snapshot.restore(mStorage, file);
+                }
+            });
+        } finally {
+            mEntityCache.clear();
+            mQueryCache.bumpAll();
+        }
+    }
+
+    /**
+     * Runs a SQL script in chunked transactions
+     *
+     * @param input    the script, compressed or not
+     * @param listener notified as the script is consumed, or null
+     * @return number of statements executed
+     */
+    int importSql(InputStream input, SqlAdapter.ProgressListener listener) {
+        try {
+            return StreamImporter.importStatements(mStorage, mTracer, mMaintenance, input, IMPORT_CHUNK_SIZE, listener);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the SQL script", e);
+        } finally {
+            mEntityCache.clear();
+            mQueryCache.bumpAll();
         }
-        return instances.get(key);
     }
 
-    public SQLiteDatabase getDatabase() {
-        return mDbHelper.getWritableDatabase();
+    /**
+     * Applies storage settings to the database
+     *
+     * @param tuningProfile the settings to apply
+     * @return the previous values of the changed settings
+     */
+    synchronized TuningProfile setTuningProfile(TuningProfile tuningProfile) {
+        return tuningProfile.apply(mStorage);
+    }
+
+    Maintenance getMaintenance() {
+        return mMaintenance;
+    }
+
+    SlowQueryLog getSlowQueryLog() {
+        return mTracer.getSlowQueryLog();
+    }
+
+    QueryRecorder getQueryRecorder() {
+        return mQueryRecorder;
+    }
+
+    QueryPlanGuard getQueryPlanGuard() {
+        return mQueryPlanGuard;
+    }
+
+    EntityCache getEntityCache() {
+        return mEntityCache;
+    }
+
+    QueryCache getQueryCache() {
+        return mQueryCache;
+    }
+
+    /**
+     * Releases memory used by the entity caches of all the opened databases
+     *
+     * @param level one of the android.content.ComponentCallbacks2 TRIM_MEMORY_* constants
+     */
+    static synchronized void trimMemory(int level) {
+        for (SqliteDb db : instances.values()) {
+            db.mEntityCache.trimMemory(level);
+            db.mQueryCache.trimMemory(level);
+        }
     }
 
     private static class DefaultOpenHelper extends DbOpenHelper {
@@ -63,27 +383,7 @@ class SqliteDb {
 
         @Override
         public void onUpgradeDatabase(SQLiteDatabase db, int oldVersion, int newVersion) {
-            // Here we will delete the whole database and recreate it
-            Cursor cursor = db.rawQuery("SELECT 'DROP TABLE ' || name || ';' FROM sqlite_master WHERE type = 'table' " +
-                    "AND name != 'sqlite_sequence';", null);
-            if (cursor != null && cursor.moveToFirst()) {
-                do {
-                    try {
-                        db.execSQL(cursor.getString(0));
-                    } catch (SQLException e) {
-                        // lets ignore errors while purging the database
-                    }
-                } while (cursor.moveToNext());
-            }
-            try {
-                db.execSQL("DELETE FROM sqlite_sequence");
-            } catch (SQLException e) {
-                // sometimes the sqlite_sequence has not been created yet
-            }
-            onCreate(db);
-            if (cursor != null) {
-                cursor.close();
-            }
+            migrateSchema(db, oldVersion, newVersion);
         }
     }
 }
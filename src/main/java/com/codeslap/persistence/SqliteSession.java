@@ -0,0 +1,214 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.database.Cursor;
+
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Session} implementation that keeps the identity map in memory. Writes clear the identity map before
+ * and after running, so that they never compare against (or leave behind) stale instances.
+ */
+class SqliteSession extends SqliteAdapterImpl implements Session {
+    private final Map<Class<?>, Map<String, Object>> mIdentityMap = new HashMap<Class<?>, Map<String, Object>>();
+    private boolean mClosed;
+
+    SqliteSession(DatabaseSpec databaseSpec, SqliteDb dbHelper) {
+        super(databaseSpec, dbHelper);
+    }
+
+    @Override
+    long begin(MetricsSink.Operation operation) {
+        checkOpen();
+        return super.begin(operation);
+    }
+
+    @Override
+    <T> T getLoadedBean(Class<? extends T> theClass, Cursor query) {
+        if (!mIdentityMap.containsKey(theClass)) {
+            return null;
+        }
+        Object id = getPrimaryKey(theClass, query);
+        if (id == null) {
+            return null;
+        }
+        return (T) getFromIdentityMap(theClass, id);
+    }
+
+    @Override
+    void onBeanLoaded(Object bean, Cursor query) {
+        super.onBeanLoaded(bean, query);
+        remember(bean);
+    }
+
+    @Override
+    public <T> T findById(Class<T> theClass, Object id) {
+        checkOpen();
+        if (id == null) {
+            return null;
+        }
+        T loaded = (T) getFromIdentityMap(theClass, id);
+        if (loaded != null) {
+            return loaded;
+        }
+        // beans coming from the second-level cache are not mapped from a cursor, so remember them here
+        T bean = super.findById(theClass, id);
+        if (bean != null && getFromIdentityMap(theClass, id) == null) {
+            remember(bean);
+        }
+        return bean;
+    }
+
+    @Override
+    public <T, G> Object store(T bean, G attachedTo) {
+        clear();
+        try {
+            return super.store(bean, attachedTo);
+        } finally {
+            clear();
+        }
+    }
+
+    @Override
+    public <T, G> void storeCollection(List<T> collection, G attachedTo, ProgressListener listener) {
+        clear();
+        try {
+            super.storeCollection(collection, attachedTo, listener);
+        } finally {
+            clear();
+        }
+    }
+
+    @Override
+    public <T> int update(T bean, String where, String[] whereArgs) {
+        clear();
+        try {
+            return super.update(bean, where, whereArgs);
+        } finally {
+            clear();
+        }
+    }
+
+    @Override
+    public <T> int delete(Class<T> theClass, String where, String[] whereArgs, boolean onCascade) {
+        clear();
+        try {
+            return super.delete(theClass, where, whereArgs, onCascade);
+        } finally {
+            clear();
+        }
+    }
+
+    @Override
+    public void truncate(Class<?>... classes) {
+        super.truncate(classes);
+        clear();
+    }
+
+    @Override
+    boolean useQueryCache() {
+        // cached results would bypass the identity map
+        return false;
+    }
+
+    @Override
+    public Session openSession() {
+        checkOpen();
+        return this;
+    }
+
+    @Override
+    public void snapshotTo(File file) {
+        checkOpen();
+        super.snapshotTo(file);
+    }
+
+    @Override
+    public void restoreFrom(File file) {
+        checkOpen();
+        clear();
+        super.restoreFrom(file);
+    }
+
+    @Override
+    public int importSql(InputStream input, ProgressListener listener) {
+        checkOpen();
+        clear();
+        return super.importSql(input, listener);
+    }
+
+    @Override
+    public TuningProfile setTuningProfile(TuningProfile tuningProfile) {
+        checkOpen();
+        return super.setTuningProfile(tuningProfile);
+    }
+
+    @Override
+    public void clear() {
+        mIdentityMap.clear();
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+        clear();
+    }
+
+    private void checkOpen() {
+        if (mClosed) {
+            throw new IllegalStateException("The session is closed");
+        }
+    }
+
+    private Object getFromIdentityMap(Class<?> theClass, Object id) {
+        Map<String, Object> loaded = mIdentityMap.get(theClass);
+        if (loaded == null) {
+            return null;
+        }
+        return loaded.get(String.valueOf(id));
+    }
+
+    private void remember(Object bean) {
+        Object id = SQLHelper.getPrimaryKeyValue(bean);
+        if (id == null) {
+            return;
+        }
+        Class<?> theClass = bean.getClass();
+        Map<String, Object> loaded = mIdentityMap.get(theClass);
+        if (loaded == null) {
+            loaded = new HashMap<String, Object>();
+            mIdentityMap.put(theClass, loaded);
+        }
+        // ids are kept as strings so that, for instance, an Integer and a Long with the same value match
+        loaded.put(String.valueOf(id), bean);
+    }
+
+    private Object getPrimaryKey(Class<?> theClass, Cursor query) {
+        Field idField = SQLHelper.getPrimaryKeyField(theClass);
+        String idColumn = SQLHelper.getColumnName(idField);
+        if (query.getColumnIndex(idColumn) == -1) {
+            return null;
+        }
+        return getValueFromCursor(idField.getType(), idColumn, query);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+/**
+ * Receives every SQL statement executed by the library: queries, inserts, updates, deletes, the statements of
+ * transactions, importers and schema creation. Register it using
+ * {@link DatabaseSpec#addStatementListener(StatementListener)}.
+ * <p/>
+ * It is called synchronously in the thread that ran the statement, so implementations must be fast and
+ * thread safe.
+ */
+public interface StatementListener {
+    /**
+     * @param sql           the SQL statement. Inserts, updates and deletes built from values are reported with
+     *                      placeholders instead of the values, and statements run without bound arguments are
+     *                      reported with their literals replaced by placeholders
+     * @param bindCount     number of bound arguments, or of replaced literals
+     * @param rows          rows returned by a query or affected by a write, or -1 if it is unknown
+     * @param durationNanos how long the statement took to run
+     * @param caller        the public operation that ran the statement, or null if it was run outside of one
+     *                      (e.g. while creating the database)
+     */
+    void onStatement(String sql, int bindCount, long rows, long durationNanos, MetricsSink.Operation caller);
+}
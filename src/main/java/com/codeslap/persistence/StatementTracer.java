@@ -0,0 +1,160 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import java.util.List;
+
+/**
+ * Reports the statements run by the library to the {@link StatementListener}s of a database and to its
+ * {@link SlowQueryLog}. When neither is configured it costs a volatile read per statement.
+ */
+class StatementTracer {
+    private static final StatementListener[] NO_LISTENERS = new StatementListener[0];
+    /** Number of tracers that are enabled. Guarded by the class lock */
+    private static int sEnabledTracers;
+
+    private final SlowQueryLog mSlowQueryLog = new SlowQueryLog();
+    private volatile StatementListener[] mListeners = NO_LISTENERS;
+    private volatile boolean mEnabled;
+
+    /**
+     * @param listeners       the listeners to notify
+     * @param thresholdMillis threshold of the slow query log, or a negative value to disable it
+     * @param maxEntries      number of entries kept by the slow query log
+     */
+    void configure(List<StatementListener> listeners, long thresholdMillis, int maxEntries) {
+        mListeners = listeners.toArray(new StatementListener[listeners.size()]);
+        mSlowQueryLog.configure(thresholdMillis, maxEntries);
+        boolean enabled = mListeners.length > 0 || mSlowQueryLog.isEnabled();
+        synchronized (StatementTracer.class) {
+            if (enabled != mEnabled) {
+                sEnabledTracers += enabled ? 1 : -1;
+            }
+            mEnabled = enabled;
+            Metrics.setTracing(sEnabledTracers > 0);
+        }
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    SlowQueryLog getSlowQueryLog() {
+        return mSlowQueryLog;
+    }
+
+    /**
+     * @param db            the database where the statement ran
+     * @param sql           the statement
+     * @param args          the arguments of a query, used to sample its plan. Can be null
+     * @param bindCount     number of bound arguments
+     * @param rows          rows returned or affected, or -1 if it is unknown
+     * @param durationNanos how long the statement took
+     */
+    void trace(Storage db, String sql, String[] args, int bindCount, long rows, long durationNanos) {
+        MetricsSink.Operation caller = Metrics.currentOperation();
+        for (StatementListener listener : mListeners) {
+            listener.onStatement(sql, bindCount, rows, durationNanos, caller);
+        }
+        mSlowQueryLog.record(db, sql, args, rows, durationNanos, caller);
+    }
+
+    /**
+     * Traces a statement that ran without bound arguments. Its values may be inlined, so it is reported by its
+     * shape, with one bound argument per literal, to keep them out of the listeners and the log.
+     *
+     * @param db            the database where the statement ran
+     * @param sql           the statement
+     * @param rows          rows affected, or -1 if it is unknown
+     * @param durationNanos how long the statement took
+     */
+    void traceStatement(Storage db, String sql, long rows, long durationNanos) {
+        String shape = QueryPlanGuard.getShape(sql);
+        int literals = 0;
+        for (int i = 0; i < shape.length(); i++) {
+            if (shape.charAt(i) == '?') {
+                literals++;
+            }
+        }
+        trace(db, shape, null, literals, rows, durationNanos);
+    }
+
+    /**
+     * Runs and traces a statement that does not return data
+     *
+     * @param db  the database
+     * @param sql the statement
+     */
+    void execSQL(Storage db, String sql) {
+        if (!mEnabled) {
+            db.execSQL(sql);
+            return;
+        }
+        long start = System.nanoTime();
+        db.execSQL(sql);
+        long duration = System.nanoTime() - start;
+        traceStatement(db, sql, Maintenance.getWrittenTable(sql) == null ? -1 : Maintenance.changes(db), duration);
+    }
+
+    /**
+     * Runs and traces a statement that does not return data
+     *
+     * @param db       the database
+     * @param sql      the statement
+     * @param bindArgs the values of the statement placeholders
+     */
+    void execSQL(Storage db, String sql, Object[] bindArgs) {
+        if (!mEnabled) {
+            db.execSQL(sql, bindArgs);
+            return;
+        }
+        long start = System.nanoTime();
+        db.execSQL(sql, bindArgs);
+        trace(db, sql, null, bindArgs.length, -1, System.nanoTime() - start);
+    }
+
+    /**
+     * Runs a statement that does not return data, tracing it if there is a tracer
+     *
+     * @param db     the database
+     * @param tracer the tracer of the database or null
+     * @param sql    the statement
+     */
+    static void execSQL(Storage db, StatementTracer tracer, String sql) {
+        if (tracer == null) {
+            db.execSQL(sql);
+        } else {
+            tracer.execSQL(db, sql);
+        }
+    }
+
+    /**
+     * Runs a statement that does not return data, tracing it if there is a tracer
+     *
+     * @param db       the database
+     * @param tracer   the tracer of the database or null
+     * @param sql      the statement
+     * @param bindArgs the values of the statement placeholders
+     */
+    static void execSQL(Storage db, StatementTracer tracer, String sql, Object[] bindArgs) {
+        if (tracer == null) {
+            db.execSQL(sql, bindArgs);
+        } else {
+            tracer.execSQL(db, sql, bindArgs);
+        }
+    }
+}
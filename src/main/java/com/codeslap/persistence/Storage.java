@@ -0,0 +1,106 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.database.Cursor;
+
+import java.util.Map;
+
+/**
+ * The SQLite database the library works on. All the statements run by the library go through this interface,
+ * so the same entity model can be used on top of Android's {@link android.database.sqlite.SQLiteDatabase} (the
+ * default) or a JDBC connection ({@link JdbcStorage}). Use {@link DatabaseSpec#setStorageBuilder} to choose it.
+ * <p/>
+ * The interface only uses Android types that are interfaces, so that storages which do not use the Android
+ * framework can run on a plain JVM.
+ * <p/>
+ * Implementations must be safe to use from several threads.
+ */
+public interface Storage {
+    /**
+     * @param sql  the SQL query
+     * @param args the values of the query placeholders. Can be null
+     * @return a cursor positioned before the first row
+     */
+    Cursor rawQuery(String sql, String[] args);
+
+    /**
+     * @param sql a single SQL statement that does not return data
+     */
+    void execSQL(String sql);
+
+    /**
+     * @param sql      a single SQL statement that does not return data
+     * @param bindArgs the values of the statement placeholders (String, numbers, byte[] or null)
+     */
+    void execSQL(String sql, Object[] bindArgs);
+
+    /**
+     * Compiles a statement that is run many times with different arguments. The storage keeps the statements it
+     * compiled, so {@link #execSQL(String, Object[])} reuses them too.
+     *
+     * @param sql a single SQL statement that does not return data
+     * @return the compiled statement. It can be used from several threads until the storage is closed
+     */
+    CompiledStatement compileStatement(String sql);
+
+    /**
+     * @param table  the table
+     * @param values the values of the row by column (String, numbers, Boolean, byte[] or null)
+     * @return the id of the inserted row, or -1 if it could not be inserted
+     */
+    long insert(String table, Map<String, Object> values);
+
+    /**
+     * @param table     the table
+     * @param values    the new values by column (String, numbers, Boolean, byte[] or null)
+     * @param where     the where clause (excluding the WHERE itself). Null updates all the rows
+     * @param whereArgs the values of the where clause placeholders
+     * @return the number of updated rows
+     */
+    int update(String table, Map<String, Object> values, String where, String[] whereArgs);
+
+    /**
+     * @param table     the table
+     * @param where     the where clause (excluding the WHERE itself). Null deletes all the rows
+     * @param whereArgs the values of the where clause placeholders
+     * @return the number of deleted rows
+     */
+    int delete(String table, String where, String[] whereArgs);
+
+    /**
+     * @return the version of the schema stored in the database, or 0 if it has not been created
+     */
+    int getVersion();
+
+    /**
+     * @param version the version of the schema that was created
+     */
+    void setVersion(int version);
+
+    void close();
+
+    /**
+     * A statement compiled by {@link Storage#compileStatement(String)}
+     */
+    interface CompiledStatement {
+        /**
+         * @param bindArgs the values of the statement placeholders (String, numbers, byte[] or null)
+         */
+        void execute(Object[] bindArgs);
+    }
+}
@@ -16,17 +16,28 @@
 
 package com.codeslap.persistence;
 
-import android.database.sqlite.SQLiteDatabase;
-
-import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
 
 /**
+ * {@link Importer} implementation that takes the SQL statements from a stream, which can be gzip or zlib
+ * compressed. Statements are read one by one, so the whole script is never held in memory.
+ *
  * @author cristian
  */
 class StreamImporter implements Importer {
+    private static final String TAG = StreamImporter.class.getSimpleName();
+    // the importer decides how statements are grouped in transactions, so the ones of the script are ignored
+    private static final Pattern TRANSACTION = Pattern.compile(
+            "^(BEGIN(\\s+(DEFERRED|IMMEDIATE|EXCLUSIVE))?|COMMIT|END)(\\s+TRANSACTION)?$", Pattern.CASE_INSENSITIVE);
+    // ignoring a rollback would commit what the script meant to discard
+    private static final Pattern ROLLBACK = Pattern.compile("^ROLLBACK(\\s+TRANSACTION)?$", Pattern.CASE_INSENSITIVE);
+
     private final InputStream mInputStream;
 
     public StreamImporter(InputStream inputStream) {
@@ -34,27 +45,169 @@ class StreamImporter implements Importer {
     }
 
     @Override
-    public void execute(SQLiteDatabase database) {
+    public void execute(Storage database, StatementTracer tracer) {
         if (mInputStream == null) {
             return;
         }
-        // now read the input line by line
-        BufferedReader reader = new BufferedReader(new InputStreamReader(mInputStream));
         try {
-            String line;
-            StringBuilder toExecute = new StringBuilder();
-            while ((line = reader.readLine()) != null) {
-                if ("BEGIN TRANSACTION;".equalsIgnoreCase(line) || "COMMIT;".equalsIgnoreCase(line)) {
+            // importers run while creating the database, which is already a transaction
+            importStatements(database, tracer, null, mInputStream, 0, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs all the statements of a SQL script. Inserts with literal values are run using bind arguments, so that
+     * the ones with the same shape share the same compiled statement.
+     *
+     * @param database    the database
+     * @param tracer      the tracer of the database or null
+     * @param maintenance notified of the transactions and the written rows, or null while the database is created
+     * @param input       the script, compressed or not
+     * @param chunkSize   number of statements committed together, or 0 to run them in the current transaction
+     * @param listener    notified as the input is consumed, or null. The percentage is based on the bytes
+     *                    available in the input when the import starts
+     * @return number of statements executed
+     * @throws IOException if the input cannot be read
+     */
+    static int importStatements(Storage database, StatementTracer tracer, Maintenance maintenance, InputStream input,
+                                int chunkSize, SqlAdapter.ProgressListener listener) throws IOException {
+        CountingInputStream counter = new CountingInputStream(input);
+        long total = input.available();
+        return importStatements(database, tracer, maintenance, new SqlTokenizer(SqlTokenizer.open(counter)),
+                chunkSize, listener, counter, total);
+    }
+
+    /**
+     * Runs all the statements of a SQL script in the current transaction
+     *
+     * @param database the database
+     * @param tracer   the tracer of the database or null
+     * @param reader   the script
+     * @return number of statements executed
+     * @throws IOException if the script cannot be read
+     */
+    static int importStatements(Storage database, StatementTracer tracer, Reader reader) throws IOException {
+        return importStatements(database, tracer, null, new SqlTokenizer(reader), 0, null, null, 0);
+    }
+
+    private static int importStatements(Storage database, StatementTracer tracer, Maintenance maintenance,
+                                        SqlTokenizer tokenizer, int chunkSize, SqlAdapter.ProgressListener listener,
+                                        CountingInputStream counter, long total) throws IOException {
+        List<Object> args = new ArrayList<Object>();
+        int count = 0;
+        int pending = 0;
+        int progress = 0;
+        if (listener != null) {
+            listener.onProgressChange(progress);
+        }
+        try {
+            String statement;
+            while ((statement = tokenizer.next()) != null) {
+                if (TRANSACTION.matcher(statement).matches()) {
                     continue;
                 }
-                toExecute.append(line);
-                if (line.trim().endsWith(";")) {
-                    database.execSQL(toExecute.toString());
-                    toExecute = new StringBuilder();
+                if (ROLLBACK.matcher(statement).matches()) {
+                    throw new IllegalArgumentException("SQL scripts cannot roll back, the importer decides how " +
+                            "statements are committed: " + statement);
+                }
+                if (chunkSize > 0 && pending == 0) {
+                    if (maintenance == null) {
+                        StatementTracer.execSQL(database, tracer, "BEGIN TRANSACTION;");
+                    } else {
+                        maintenance.beginTransaction(tracer, "BEGIN TRANSACTION;");
+                    }
+                }
+                args.clear();
+                String sql = SqlTokenizer.parameterize(statement, args);
+                if (args.isEmpty()) {
+                    StatementTracer.execSQL(database, tracer, sql);
+                } else {
+                    StatementTracer.execSQL(database, tracer, sql, args.toArray());
+                }
+                if (maintenance != null) {
+                    maintenance.onWrite(sql);
+                }
+                count++;
+                if (chunkSize > 0 && ++pending == chunkSize) {
+                    commit(database, tracer, maintenance);
+                    pending = 0;
+                }
+                if (listener != null && counter != null && total > 0) {
+                    int current = (int) Math.min(99, counter.getCount() * 100 / total);
+                    if (current != progress) {
+                        progress = current;
+                        listener.onProgressChange(progress);
+                    }
                 }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            if (pending > 0) {
+                commit(database, tracer, maintenance);
+                pending = 0;
+            }
+        } finally {
+            if (pending > 0) {
+                // only the current chunk is lost; the previous ones are already committed
+                try {
+                    database.execSQL("ROLLBACK;");
+                } catch (RuntimeException e) {
+                    PersistenceLogManager.e(TAG, "Could not rollback the import", e);
+                } finally {
+                    if (maintenance != null) {
+                        maintenance.onStatement("ROLLBACK;");
+                    }
+                }
+            }
+        }
+        if (listener != null) {
+            listener.onProgressChange(100);
+        }
+        return count;
+    }
+
+    private static void commit(Storage database, StatementTracer tracer, Maintenance maintenance) {
+        StatementTracer.execSQL(database, tracer, "COMMIT;");
+        if (maintenance != null) {
+            // automatic runs that became due during the chunk start now
+            maintenance.onStatement("COMMIT;");
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1) {
+                mCount++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            mCount += skipped;
+            return skipped;
+        }
+
+        long getCount() {
+            return mCount;
         }
     }
 }
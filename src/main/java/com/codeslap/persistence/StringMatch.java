@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Defines how the String fields of a sample are compared when querying by example. It can be set per field
+ * using {@link Column#match()} or per query using {@link Constraint#stringMatch(StringMatch)}.
+ */
+public enum StringMatch {
+    /**
+     * <code>column LIKE ?</code>. Case-insensitive and wildcards in the value are honored, but it cannot use
+     * indexes. This is the default
+     */
+    LIKE,
+    /**
+     * <code>column = ?</code>. Case-sensitive; it can use a normal index on the column
+     */
+    EXACT,
+    /**
+     * <code>column = ? COLLATE NOCASE</code>. Case-insensitive; columns using this mode are created with the
+     * NOCASE collation so that indexes on them can be used
+     */
+    NOCASE,
+    /**
+     * <code>column &gt;= 'value' AND column &lt; 'valuf'</code>, compared using NOCASE. It matches the values that
+     * start with the sample value, ignoring case, and wildcards in the value are not special. Columns using this
+     * mode are created with the NOCASE collation so that sqlite can seek an index on them; LIKE cannot use indexes
+     * on the sqlite versions shipped with old Android releases
+     */
+    PREFIX;
+
+    // the greatest code point; it can only be the upper bound of an empty prefix
+    private static final String MAX_TEXT = new String(Character.toChars(Character.MAX_CODE_POINT));
+
+    /**
+     * @param column the column name
+     * @return the condition used to compare the column with the bound values
+     */
+    String getCondition(String column) {
+        switch (this) {
+            case EXACT:
+                return column + " = ?";
+            case NOCASE:
+                return column + " = ? COLLATE NOCASE";
+            case PREFIX:
+                return "(" + column + " >= ? COLLATE NOCASE AND " + column + " < ? COLLATE NOCASE)";
+            default:
+                return column + " LIKE ?";
+        }
+    }
+
+    /**
+     * Adds the values to bind to the condition
+     *
+     * @param value the value of the sample field
+     * @param args  list where the values are added, in the order the condition uses them
+     */
+    void addArguments(String value, List<String> args) {
+        args.add(value);
+        if (this == PREFIX) {
+            args.add(getUpperBound(value));
+        }
+    }
+
+    /**
+     * @param column the column name
+     * @param value  the value of the sample field
+     * @return the condition with the values inlined as literals
+     */
+    String getInlineCondition(String column, String value) {
+        List<String> args = new ArrayList<String>();
+        addArguments(value, args);
+        String condition = getCondition(column);
+        StringBuilder builder = new StringBuilder();
+        int arg = 0;
+        for (int i = 0; i < condition.length(); i++) {
+            char c = condition.charAt(i);
+            if (c == '?') {
+                builder.append('\'').append(args.get(arg++).replace("'", "''")).append('\'');
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return true if the columns compared using this mode should be created with the NOCASE collation
+     */
+    boolean isCaseInsensitiveColumn() {
+        return this == NOCASE || this == PREFIX;
+    }
+
+    /**
+     * @param prefix the prefix
+     * @return the smallest value, under NOCASE, that is greater than all the values starting with the prefix
+     */
+    static String getUpperBound(String prefix) {
+        // NOCASE compares ASCII letters as lower case, so the bound is computed on the folded prefix
+        StringBuilder folded = new StringBuilder(prefix.length());
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            folded.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+        }
+        while (folded.length() > 0) {
+            int last = folded.codePointBefore(folded.length());
+            folded.setLength(folded.length() - Character.charCount(last));
+            if (last == Character.MAX_CODE_POINT) {
+                continue;
+            }
+            int next = last + 1;
+            if (next == Character.MIN_SURROGATE) {
+                next = Character.MAX_SURROGATE + 1;
+            } else if (next == 'A') {
+                // folded values never contain upper case letters
+                next = 'Z' + 1;
+            }
+            return folded.appendCodePoint(next).toString();
+        }
+        return MAX_TEXT;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.database.CrossProcessCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.CursorWrapper;
+
+/**
+ * Cursor that notifies the {@link CursorTracker} when it is closed, or when it is finalized without having
+ * been closed. It is a {@link CrossProcessCursor}, since content providers hand it to other processes.
+ */
+class TrackedCursor extends CursorWrapper implements CrossProcessCursor, CursorTracker.Tracked {
+    private final Cursor mCursor;
+    private final Throwable mAllocation;
+    private long mCacheGeneration = -1;
+    private volatile boolean mClosed;
+
+    TrackedCursor(Cursor cursor, Throwable allocation) {
+        super(cursor);
+        mCursor = cursor;
+        mAllocation = allocation;
+    }
+
+    Cursor getCursor() {
+        return mCursor;
+    }
+
+    @Override
+    public Throwable getAllocation() {
+        return mAllocation;
+    }
+
+    @Override
+    public long getCacheGeneration() {
+        return mCacheGeneration;
+    }
+
+    @Override
+    public void setCacheGeneration(long cacheGeneration) {
+        mCacheGeneration = cacheGeneration;
+    }
+
+    @Override
+    public CursorWindow getWindow() {
+        if (mCursor instanceof CrossProcessCursor) {
+            return ((CrossProcessCursor) mCursor).getWindow();
+        }
+        return null;
+    }
+
+    @Override
+    public void fillWindow(int position, CursorWindow window) {
+        if (mCursor instanceof CrossProcessCursor) {
+            ((CrossProcessCursor) mCursor).fillWindow(position, window);
+            return;
+        }
+        // copy the rows by hand, the same way AbstractCursor does
+        if (position < 0 || position >= getCount()) {
+            return;
+        }
+        int oldPosition = getPosition();
+        int columns = getColumnCount();
+        window.clear();
+        window.setStartPosition(position);
+        window.setNumColumns(columns);
+        if (moveToPosition(position)) {
+            do {
+                if (!window.allocRow() || !fillRow(window, position, columns)) {
+                    break;
+                }
+                position++;
+            } while (moveToNext());
+        }
+        moveToPosition(oldPosition);
+    }
+
+    private boolean fillRow(CursorWindow window, int row, int columns) {
+        for (int i = 0; i < columns; i++) {
+            String value = getString(i);
+            if (!(value == null ? window.putNull(row, i) : window.putString(value, row, i))) {
+                // the window is full
+                window.freeLastRow();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        if (mCursor instanceof CrossProcessCursor) {
+            return ((CrossProcessCursor) mCursor).onMove(oldPosition, newPosition);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (!mClosed) {
+            mClosed = true;
+            CursorTracker.onClosed(this);
+        }
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        try {
+            if (!mClosed) {
+                mClosed = true;
+                CursorTracker.onLeaked(this);
+                super.close();
+            }
+        } finally {
+            super.finalize();
+        }
+    }
+}
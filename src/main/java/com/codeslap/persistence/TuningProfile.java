@@ -0,0 +1,257 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.database.Cursor;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Storage settings (SQLite PRAGMAs) applied every time a database is opened. Settings that are not set keep the
+ * SQLite defaults. A profile is set for all the databases of a spec using
+ * {@link DatabaseSpec#setTuningProfile(TuningProfile)}, and it can be switched temporarily, for instance around a
+ * large import, using {@link SqlAdapter#setTuningProfile(TuningProfile)}.
+ */
+public class TuningProfile {
+    public enum Synchronous {
+        /**
+         * Data is handed to the operating system without waiting for it to reach the disk. Fastest, but the
+         * database can be corrupted if the device loses power
+         */
+        OFF,
+        /**
+         * Syncs at the most critical moments only. Recent transactions can be lost on power loss
+         */
+        NORMAL,
+        /**
+         * Syncs on every transaction. This is the SQLite default
+         */
+        FULL
+    }
+
+    public enum TempStore {
+        DEFAULT, FILE, MEMORY
+    }
+
+    public enum LockingMode {
+        /**
+         * Locks are released after each transaction. This is the SQLite default
+         */
+        NORMAL,
+        /**
+         * Locks are kept until the database is closed, which saves the locking work but prevents other
+         * connections (or processes) from using the database
+         */
+        EXCLUSIVE
+    }
+
+    public enum AutoVacuum {
+        /**
+         * Deleted pages are kept in the file and reused. This is the SQLite default
+         */
+        NONE,
+        /**
+         * The file is truncated after every transaction
+         */
+        FULL,
+        /**
+         * Free pages are tracked and released by the {@link Maintenance} runs
+         */
+        INCREMENTAL
+    }
+
+    private final Map<String, String> mPragmas = new LinkedHashMap<String, String>();
+
+    /**
+     * Settings for data that must survive crashes and power loss
+     *
+     * @return a new profile
+     */
+    public static TuningProfile durable() {
+        return new TuningProfile()
+                .setSynchronous(Synchronous.FULL)
+                .setLockingMode(LockingMode.NORMAL);
+    }
+
+    /**
+     * Settings for large imports: no syncs, temporary data in memory and a bigger page cache. Meant to be used
+     * temporarily, since a crash while it is set can corrupt the database
+     *
+     * @return a new profile
+     */
+    public static TuningProfile bulkLoad() {
+        return new TuningProfile()
+                .setSynchronous(Synchronous.OFF)
+                .setTempStore(TempStore.MEMORY)
+                .setCacheSize(8000);
+    }
+
+    /**
+     * Settings for caches that are read much more than they are written, and that can be rebuilt if they are lost:
+     * relaxed syncs, memory mapped reads, a bounded journal and incremental vacuum
+     *
+     * @return a new profile
+     */
+    public static TuningProfile readMostlyCache() {
+        return new TuningProfile()
+                .setSynchronous(Synchronous.NORMAL)
+                .setTempStore(TempStore.MEMORY)
+                .setCacheSize(4000)
+                .setMmapSize(64 * 1024 * 1024)
+                .setJournalSizeLimit(1024 * 1024)
+                .setAutoVacuum(AutoVacuum.INCREMENTAL);
+    }
+
+    /**
+     * Sets the page size. It only applies to databases created after setting it (or after running VACUUM on them)
+     *
+     * @param bytes a power of two between 512 and 65536
+     * @return instance of current {@link TuningProfile} object
+     */
+    public TuningProfile setPageSize(int bytes) {
+        if (bytes < 512 || bytes > 65536 || (bytes & (bytes - 1)) != 0) {
+            throw new IllegalArgumentException("Page size must be a power of two between 512 and 65536: " + bytes);
+        }
+        return set("page_size", String.valueOf(bytes));
+    }
+
+    /**
+     * @param pages maximum number of database pages kept in memory by each connection
+     * @return instance of current {@link TuningProfile} object
+     */
+    public TuningProfile setCacheSize(int pages) {
+        return set("cache_size", String.valueOf(pages));
+    }
+
+    /**
+     * Makes SQLite read the database file through memory mapping. It is ignored by SQLite versions older than 3.7.17
+     *
+     * @param bytes maximum number of bytes mapped, or 0 to disable memory mapping
+     * @return instance of current {@link TuningProfile} object
+     */
+    public TuningProfile setMmapSize(long bytes) {
+        return set("mmap_size", String.valueOf(bytes));
+    }
+
+    public TuningProfile setSynchronous(Synchronous synchronous) {
+        return set("synchronous", synchronous.name());
+    }
+
+    public TuningProfile setTempStore(TempStore tempStore) {
+        return set("temp_store", tempStore.name());
+    }
+
+    /**
+     * @param bytes size the journal file is truncated to after each transaction, or -1 for no limit
+     * @return instance of current {@link TuningProfile} object
+     */
+    public TuningProfile setJournalSizeLimit(long bytes) {
+        return set("journal_size_limit", String.valueOf(bytes));
+    }
+
+    public TuningProfile setLockingMode(LockingMode lockingMode) {
+        return set("locking_mode", lockingMode.name());
+    }
+
+    /**
+     * Sets how free pages are released. Like the page size, it only applies to databases created after setting
+     * it; {@link Maintenance} converts existing databases to {@link AutoVacuum#INCREMENTAL} the first time it runs.
+     *
+     * @param autoVacuum the auto vacuum mode
+     * @return instance of current {@link TuningProfile} object
+     */
+    public TuningProfile setAutoVacuum(AutoVacuum autoVacuum) {
+        return set("auto_vacuum", autoVacuum.name());
+    }
+
+    /**
+     * @return the auto vacuum mode set in this profile, or null if it was not set
+     */
+    AutoVacuum getAutoVacuum() {
+        String value = mPragmas.get("auto_vacuum");
+        if (value == null) {
+            return null;
+        }
+        // profiles returned by apply hold the values reported by sqlite, which are numbers
+        if (Character.isDigit(value.charAt(0))) {
+            return AutoVacuum.values()[Integer.parseInt(value)];
+        }
+        return AutoVacuum.valueOf(value);
+    }
+
+    /**
+     * @return a profile with the settings of this one that must be applied before the first table is created:
+     *         the page size and the auto vacuum mode
+     */
+    TuningProfile getCreationSettings() {
+        TuningProfile settings = new TuningProfile();
+        for (String pragma : new String[]{"page_size", "auto_vacuum"}) {
+            if (mPragmas.containsKey(pragma)) {
+                settings.set(pragma, mPragmas.get(pragma));
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * @return the PRAGMAs set in this profile and their values, in the order they were set
+     */
+    public Map<String, String> getPragmas() {
+        return Collections.unmodifiableMap(mPragmas);
+    }
+
+    /**
+     * Applies this profile to a storage
+     *
+     * @param storage the storage to tune
+     * @return a profile with the values the changed settings had before applying this one, so that it can be
+     *         used to revert this profile
+     */
+    TuningProfile apply(Storage storage) {
+        TuningProfile previous = new TuningProfile();
+        for (Map.Entry<String, String> pragma : mPragmas.entrySet()) {
+            String value = query(storage, "PRAGMA " + pragma.getKey());
+            if (value != null) {
+                previous.set(pragma.getKey(), value);
+            }
+            // some PRAGMAs return their new value, so they cannot always run through execSQL
+            query(storage, "PRAGMA " + pragma.getKey() + " = " + pragma.getValue());
+        }
+        return previous;
+    }
+
+    private TuningProfile set(String pragma, String value) {
+        mPragmas.put(pragma, value);
+        return this;
+    }
+
+    private static String query(Storage storage, String sql) {
+        Cursor cursor = storage.rawQuery(sql, null);
+        try {
+            return cursor.moveToFirst() && cursor.getColumnCount() > 0 ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TuningProfile" + mPragmas;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records the calls made to {@link SqlAdapter}s and {@link RawQuery}s into a compact binary trace: the method,
+ * its arguments (entity classes, samples, where clauses and their arguments, stored beans), how long it took and
+ * the size of its result. The trace can later be replayed against a fresh database built from the same
+ * {@link DatabaseSpec} using {@link WorkloadReplayer}, to benchmark the library with a real access pattern.
+ * <p/>
+ * Register it using {@link PersistenceConfig#setWorkloadRecorder(WorkloadRecorder)} to record every adapter
+ * created by {@link Persistence}, or wrap specific adapters with {@link #wrap(SqlAdapter)}. Keep in mind the trace
+ * contains the data that was stored and queried. Sessions are not recorded.
+ */
+public class WorkloadRecorder implements Closeable {
+    private static final String TAG = WorkloadRecorder.class.getSimpleName();
+
+    private final WorkloadTrace.Output mOutput;
+    private volatile boolean mRecording = true;
+    private long mCallCount;
+
+    /**
+     * @param out where the trace is written. It is closed when the recorder is closed
+     */
+    public WorkloadRecorder(OutputStream out) throws IOException {
+        mOutput = new WorkloadTrace.Output(out);
+    }
+
+    /**
+     * @param adapter the adapter to record
+     * @return an adapter that records its calls and forwards them to the specified one
+     */
+    public SqlAdapter wrap(SqlAdapter adapter) {
+        return new RecordingSqlAdapter(adapter, this);
+    }
+
+    /**
+     * @param rawQuery the raw query to record
+     * @return a raw query that records its calls and forwards them to the specified one
+     */
+    public RawQuery wrap(RawQuery rawQuery) {
+        return new RecordingRawQuery(rawQuery, this);
+    }
+
+    /**
+     * @return number of calls recorded so far
+     */
+    public synchronized long getCallCount() {
+        return mCallCount;
+    }
+
+    public synchronized void flush() throws IOException {
+        mOutput.flush();
+    }
+
+    /**
+     * Stops recording and closes the trace. Wrapped adapters keep working, but their calls are not recorded
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mRecording) {
+            mRecording = false;
+            mOutput.close();
+        }
+    }
+
+    /**
+     * Must be called before performing a call
+     *
+     * @param args the arguments of the call
+     * @return a copy of the arguments to pass to {@link #end}, or null if the recorder is closed
+     */
+    Object[] begin(Object... args) {
+        if (!mRecording) {
+            return null;
+        }
+        for (int i = 0; i < args.length; i++) {
+            args[i] = WorkloadTrace.freeze(args[i]);
+        }
+        return args;
+    }
+
+    /**
+     * @param call  the call that was performed
+     * @param args  the arguments returned by {@link #begin}
+     * @param start when the call started
+     * @param size  size of the result or -1 if unknown
+     */
+    void end(WorkloadTrace.Call call, Object[] args, long start, long size) {
+        long duration = System.nanoTime() - start;
+        if (args == null) {
+            return;
+        }
+        synchronized (this) {
+            if (!mRecording) {
+                return;
+            }
+            try {
+                mOutput.write(call, args, duration, size);
+                mCallCount++;
+            } catch (IOException e) {
+                PersistenceLogManager.e(TAG, "Could not write the workload trace; recording stopped", e);
+                mRecording = false;
+            }
+        }
+    }
+}
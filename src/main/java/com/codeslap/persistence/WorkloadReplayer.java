@@ -0,0 +1,338 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.database.Cursor;
+import com.codeslap.persistence.WorkloadTrace.Call;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Re-executes a trace written by {@link WorkloadRecorder}, one call after the other, and compares the time each
+ * call takes now with the time it took when it was recorded.
+ * <p/>
+ * Replay it against a fresh database built from the same {@link DatabaseSpec} the recorded one used. Since the
+ * stored beans are replayed too, the replayed database evolves the same way the recorded one did, as long as the
+ * recording started with an empty database. Calls whose result size differs from the recorded one are counted
+ * as mismatches; many of them mean the replay diverged from the recording. The classes used in the trace must be
+ * available when replaying it.
+ */
+public class WorkloadReplayer {
+    private final InputStream mIn;
+
+    /**
+     * @param in the trace to replay. It is closed once replayed
+     */
+    public WorkloadReplayer(InputStream in) {
+        mIn = in;
+    }
+
+    /**
+     * @param adapter  adapter used to replay the {@link SqlAdapter} calls
+     * @param rawQuery used to replay the {@link RawQuery} calls. Cursors are read until the end and closed, but
+     *                 that is not part of the measured time, the same way it was not when recording
+     * @return the comparison of the recorded and replayed timings
+     */
+    public Report replay(SqlAdapter adapter, RawQuery rawQuery) throws IOException {
+        Report report = new Report();
+        WorkloadTrace.Input input = new WorkloadTrace.Input(mIn);
+        try {
+            while (input.next()) {
+                Call call = input.getCall();
+                Object[] args = input.getArgs();
+                long start = System.nanoTime();
+                long size;
+                try {
+                    if (call.name().startsWith("RAW_")) {
+                        Cursor cursor = query(rawQuery, call, args);
+                        long duration = System.nanoTime() - start;
+                        try {
+                            size = 0;
+                            while (cursor.moveToNext()) {
+                                size++;
+                            }
+                        } finally {
+                            cursor.close();
+                        }
+                        report.add(call, input.getDurationNanos(), duration, input.getSize(), size);
+                    } else {
+                        size = execute(adapter, call, args);
+                        report.add(call, input.getDurationNanos(), System.nanoTime() - start, input.getSize(), size);
+                    }
+                } catch (RuntimeException e) {
+                    report.error(call, e);
+                }
+            }
+        } finally {
+            input.close();
+        }
+        return report;
+    }
+
+    private static long execute(SqlAdapter adapter, Call call, Object[] args) {
+        switch (call) {
+            case STORE:
+                adapter.store(args[0]);
+                return 1;
+            case STORE_ATTACHED:
+                adapter.store(args[0], args[1]);
+                return 1;
+            case STORE_COLLECTION:
+                adapter.storeCollection((List<?>) args[0], null);
+                return ((List<?>) args[0]).size();
+            case STORE_COLLECTION_ATTACHED:
+                adapter.storeCollection((List<?>) args[0], args[1], null);
+                return ((List<?>) args[0]).size();
+            case STORE_UNIQUE_COLLECTION:
+                adapter.storeUniqueCollection((List<?>) args[0], null);
+                return ((List<?>) args[0]).size();
+            case UPDATE_SAMPLE:
+                return adapter.update(args[0], args[1]);
+            case UPDATE_WHERE:
+                return adapter.update(args[0], (String) args[1], (String[]) args[2]);
+            case FIND_FIRST_SAMPLE:
+                return adapter.findFirst(args[0]) == null ? 0 : 1;
+            case FIND_FIRST_WHERE:
+                return adapter.findFirst((Class<?>) args[0], (String) args[1], (String[]) args[2]) == null ? 0 : 1;
+            case FIND_BY_ID:
+                return adapter.findById((Class<?>) args[0], args[1]) == null ? 0 : 1;
+            case FIND_BY_IDS:
+                return adapter.findByIds((Class<?>) args[0], (Collection<?>) args[1]).size();
+            case FIND_ALL_CLASS:
+                return adapter.findAll((Class<?>) args[0]).size();
+            case FIND_ALL_SAMPLE:
+                return adapter.findAll(args[0]).size();
+            case FIND_ALL_CONSTRAINT:
+                return adapter.findAll(args[0], (Constraint) args[1]).size();
+            case FIND_ALL_ATTACHED:
+                return adapter.findAll(args[0], args[1]).size();
+            case FIND_ALL_WHERE:
+                return adapter.findAll((Class<?>) args[0], (String) args[1], (String[]) args[2]).size();
+            case DELETE_SAMPLE:
+                return adapter.delete(args[0], (Boolean) args[1]);
+            case DELETE_WHERE:
+                return adapter.delete((Class<?>) args[0], (String) args[1], (String[]) args[2], (Boolean) args[3]);
+            case TRUNCATE:
+                adapter.truncate((Class<?>[]) args[0]);
+                return -1;
+            case COUNT_SAMPLE:
+                return adapter.count(args[0]);
+            case COUNT_WHERE:
+                return adapter.count((Class<?>) args[0], (String) args[1], (String[]) args[2]);
+            case COUNT_CLASS:
+                return adapter.count((Class<?>) args[0]);
+            case EXISTS_SAMPLE:
+                return adapter.exists(args[0]) ? 1 : 0;
+            case EXISTS_WHERE:
+                return adapter.exists((Class<?>) args[0], (String) args[1], (String[]) args[2]) ? 1 : 0;
+            case EXISTS_CLASS:
+                return adapter.exists((Class<?>) args[0]) ? 1 : 0;
+            case AGGREGATE:
+                return adapter.aggregate((Class<?>) args[0], (Aggregation) args[1]).size();
+            default:
+                throw new IllegalStateException("Unexpected call " + call);
+        }
+    }
+
+    private static Cursor query(RawQuery rawQuery, Call call, Object[] args) {
+        switch (call) {
+            case RAW_FIND_ALL_CLASS:
+                return rawQuery.findAll((Class<?>) args[0]);
+            case RAW_FIND_ALL_SAMPLE:
+                return rawQuery.findAll(args[0]);
+            case RAW_FIND_ALL_CONSTRAINT:
+                return rawQuery.findAll(args[0], (Constraint) args[1]);
+            case RAW_FIND_ALL_ATTACHED:
+                return rawQuery.findAll(args[0], args[1]);
+            case RAW_FIND_ALL_WHERE:
+                return rawQuery.findAll((Class<?>) args[0], (String) args[1], (String[]) args[2]);
+            case RAW_QUERY:
+                return rawQuery.rawQuery((String) args[0]);
+            case RAW_FIND_ALL_TABLE:
+                return rawQuery.findAll((String) args[0], (String[]) args[1], (String) args[2], (String[]) args[3],
+                        (String) args[4], (String) args[5], (String) args[6], (String) args[7]);
+            default:
+                throw new IllegalStateException("Unexpected call " + call);
+        }
+    }
+
+    /**
+     * Result of a replay. Latencies are in microseconds
+     */
+    public static class Report {
+        private static final int MAX_ERRORS = 20;
+
+        private final Map<Call, Stats> mStats = new EnumMap<Call, Stats>(Call.class);
+        private final List<String> mErrors = new ArrayList<String>();
+        private int mErrorCount;
+
+        Report() {
+        }
+
+        void add(Call call, long recordedNanos, long replayedNanos, long recordedSize, long replayedSize) {
+            Stats stats = getStats(call);
+            stats.mRecorded.record(recordedNanos / 1000);
+            stats.mReplayed.record(replayedNanos / 1000);
+            stats.mRecordedMicros += recordedNanos / 1000;
+            stats.mReplayedMicros += replayedNanos / 1000;
+            if (recordedSize >= 0 && recordedSize != replayedSize) {
+                stats.mMismatches++;
+            }
+        }
+
+        void error(Call call, RuntimeException e) {
+            getStats(call).mErrors++;
+            mErrorCount++;
+            if (mErrors.size() < MAX_ERRORS) {
+                mErrors.add(call + ": " + e);
+            }
+        }
+
+        private Stats getStats(Call call) {
+            Stats stats = mStats.get(call);
+            if (stats == null) {
+                stats = new Stats(call.name());
+                mStats.put(call, stats);
+            }
+            return stats;
+        }
+
+        /**
+         * @return the statistics of each type of call found in the trace
+         */
+        public List<Stats> getStats() {
+            return new ArrayList<Stats>(mStats.values());
+        }
+
+        public long getRecordedMicros() {
+            long total = 0;
+            for (Stats stats : mStats.values()) {
+                total += stats.mRecordedMicros;
+            }
+            return total;
+        }
+
+        public long getReplayedMicros() {
+            long total = 0;
+            for (Stats stats : mStats.values()) {
+                total += stats.mReplayedMicros;
+            }
+            return total;
+        }
+
+        /**
+         * @return number of calls whose result size differs from the recorded one
+         */
+        public long getMismatchCount() {
+            long total = 0;
+            for (Stats stats : mStats.values()) {
+                total += stats.mMismatches;
+            }
+            return total;
+        }
+
+        /**
+         * @return number of calls that failed when replayed
+         */
+        public int getErrorCount() {
+            return mErrorCount;
+        }
+
+        /**
+         * @return the first errors found
+         */
+        public List<String> getErrors() {
+            return mErrors;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (Stats stats : mStats.values()) {
+                builder.append(stats).append('\n');
+            }
+            builder.append(String.format("total recorded=%dus replayed=%dus mismatches=%d errors=%d",
+                    getRecordedMicros(), getReplayedMicros(), getMismatchCount(), mErrorCount));
+            for (String error : mErrors) {
+                builder.append('\n').append(error);
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Recorded and replayed latencies of one type of call
+     */
+    public static class Stats {
+        private final String mCall;
+        private final LatencyHistogram mRecorded = new LatencyHistogram();
+        private final LatencyHistogram mReplayed = new LatencyHistogram();
+        private long mRecordedMicros;
+        private long mReplayedMicros;
+        private long mMismatches;
+        private long mErrors;
+
+        Stats(String call) {
+            mCall = call;
+        }
+
+        /**
+         * @return the name of the call, for instance FIND_ALL_WHERE
+         */
+        public String getCall() {
+            return mCall;
+        }
+
+        public long getCount() {
+            return mReplayed.getCount();
+        }
+
+        public long getRecordedMicros() {
+            return mRecordedMicros;
+        }
+
+        public long getReplayedMicros() {
+            return mReplayedMicros;
+        }
+
+        public long getRecordedPercentile(double percentile) {
+            return mRecorded.getValueAtPercentile(percentile);
+        }
+
+        public long getReplayedPercentile(double percentile) {
+            return mReplayed.getValueAtPercentile(percentile);
+        }
+
+        public long getMismatches() {
+            return mMismatches;
+        }
+
+        public long getErrors() {
+            return mErrors;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s count=%d recorded=%dus replayed=%dus p50=%dus/%dus p99=%dus/%dus " +
+                    "mismatches=%d errors=%d", mCall, getCount(), mRecordedMicros, mReplayedMicros,
+                    getRecordedPercentile(50), getReplayedPercentile(50), getRecordedPercentile(99),
+                    getReplayedPercentile(99), mMismatches, mErrors);
+        }
+    }
+}
@@ -0,0 +1,535 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * Binary format of the workload traces written by {@link WorkloadRecorder} and read by {@link WorkloadReplayer}.
+ * <p/>
+ * A trace is a header followed by one record per call: the call type, its arguments, how long it took and the
+ * size of its result. Strings (class names, field names, where clauses) are written once and then referenced by
+ * index, and numbers are written as variable length integers, so repetitive workloads produce small files.
+ * A bean that appears more than once in the arguments of a call, like the two ends of a bidirectional relation,
+ * is written once and then referenced by its position in the record.
+ */
+final class WorkloadTrace {
+    private static final int MAGIC = 0x50575452;
+    private static final int VERSION = 2;
+
+    private static final int NULL = 0;
+    private static final int INT = 1;
+    private static final int LONG = 2;
+    private static final int FLOAT = 3;
+    private static final int DOUBLE = 4;
+    private static final int BOOLEAN = 5;
+    private static final int STRING = 6;
+    private static final int BYTES = 7;
+    private static final int BOXED_BYTES = 8;
+    private static final int BEAN = 9;
+    private static final int LIST = 10;
+    private static final int STRING_ARRAY = 11;
+    private static final int CLASS = 12;
+    private static final int CLASS_ARRAY = 13;
+    private static final int CONSTRAINT = 14;
+    private static final int AGGREGATION = 15;
+    private static final int BEAN_REFERENCE = 16;
+
+    /**
+     * The {@link SqlAdapter} and {@link RawQuery} methods that are recorded
+     */
+    enum Call {
+        STORE, STORE_ATTACHED, STORE_COLLECTION, STORE_COLLECTION_ATTACHED, STORE_UNIQUE_COLLECTION,
+        UPDATE_SAMPLE, UPDATE_WHERE,
+        FIND_FIRST_SAMPLE, FIND_FIRST_WHERE, FIND_BY_ID, FIND_BY_IDS,
+        FIND_ALL_CLASS, FIND_ALL_SAMPLE, FIND_ALL_CONSTRAINT, FIND_ALL_ATTACHED, FIND_ALL_WHERE,
+        DELETE_SAMPLE, DELETE_WHERE, TRUNCATE,
+        COUNT_SAMPLE, COUNT_WHERE, COUNT_CLASS, EXISTS_SAMPLE, EXISTS_WHERE, EXISTS_CLASS, AGGREGATE,
+        RAW_FIND_ALL_CLASS, RAW_FIND_ALL_SAMPLE, RAW_FIND_ALL_CONSTRAINT, RAW_FIND_ALL_ATTACHED,
+        RAW_FIND_ALL_WHERE, RAW_QUERY, RAW_FIND_ALL_TABLE
+    }
+
+    private WorkloadTrace() {
+    }
+
+    /**
+     * Copies the state of an argument, since beans can be modified by the call (stores set their ids) and the
+     * record is written once the call finished
+     *
+     * @param value the argument
+     * @return an immutable copy of the argument
+     */
+    static Object freeze(Object value) {
+        return freeze(value, new IdentityHashMap<Object, Bean>());
+    }
+
+    /**
+     * @param beans the copies of the beans already seen in this argument, so that cycles are copied once
+     */
+    private static Object freeze(Object value, Map<Object, Bean> beans) {
+        if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean ||
+                value instanceof Class || value instanceof Constraint || value instanceof Aggregation) {
+            return value;
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        if (value instanceof Byte[]) {
+            return ((Byte[]) value).clone();
+        }
+        if (value instanceof Object[]) {
+            return ((Object[]) value).clone();
+        }
+        if (value instanceof Collection) {
+            List<Object> list = new ArrayList<Object>();
+            for (Object element : (Collection<?>) value) {
+                list.add(freeze(element, beans));
+            }
+            return list;
+        }
+        Bean bean = beans.get(value);
+        return bean != null ? bean : new Bean(value, beans);
+    }
+
+    private static class Bean {
+        private final Class<?> mClass;
+        private final String[] mNames;
+        private final Object[] mValues;
+
+        Bean(Object bean, Map<Object, Bean> beans) {
+            // registered before copying the fields, so that the fields pointing back to the bean find it
+            beans.put(bean, this);
+            mClass = bean.getClass();
+            Field[] fields = SQLHelper.getDeclaredFields(mClass);
+            mNames = new String[fields.length];
+            mValues = new Object[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                Field field = fields[i];
+                mNames[i] = field.getName();
+                try {
+                    field.setAccessible(true);
+                    mValues[i] = freeze(field.get(bean), beans);
+                } catch (IllegalAccessException e) {
+                    mValues[i] = null;
+                }
+            }
+        }
+    }
+
+    static class Output implements Closeable, Flushable {
+        private final DataOutputStream mOut;
+        private final Map<String, Integer> mStrings = new HashMap<String, Integer>();
+        // beans written in the current record and their positions
+        private final Map<Bean, Integer> mBeans = new IdentityHashMap<Bean, Integer>();
+
+        Output(OutputStream out) throws IOException {
+            mOut = new DataOutputStream(new BufferedOutputStream(out));
+            mOut.writeInt(MAGIC);
+            mOut.writeByte(VERSION);
+        }
+
+        /**
+         * @param call          the call type
+         * @param args          the arguments of the call, already frozen
+         * @param durationNanos how long the call took
+         * @param size          size of the result (rows, affected rows, etc.) or -1 if unknown
+         */
+        void write(Call call, Object[] args, long durationNanos, long size) throws IOException {
+            mBeans.clear();
+            mOut.writeByte(call.ordinal());
+            writeVarLong(args.length);
+            for (Object arg : args) {
+                writeValue(arg);
+            }
+            writeVarLong(durationNanos);
+            writeVarLong((size << 1) ^ (size >> 63));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                mOut.writeByte(NULL);
+            } else if (value instanceof Integer) {
+                mOut.writeByte(INT);
+                long number = (Integer) value;
+                writeVarLong((number << 1) ^ (number >> 63));
+            } else if (value instanceof Long) {
+                mOut.writeByte(LONG);
+                long number = (Long) value;
+                writeVarLong((number << 1) ^ (number >> 63));
+            } else if (value instanceof Float) {
+                mOut.writeByte(FLOAT);
+                mOut.writeFloat((Float) value);
+            } else if (value instanceof Double) {
+                mOut.writeByte(DOUBLE);
+                mOut.writeDouble((Double) value);
+            } else if (value instanceof Boolean) {
+                mOut.writeByte(BOOLEAN);
+                mOut.writeBoolean((Boolean) value);
+            } else if (value instanceof String) {
+                mOut.writeByte(STRING);
+                writeString((String) value);
+            } else if (value instanceof byte[]) {
+                mOut.writeByte(BYTES);
+                writeVarLong(((byte[]) value).length);
+                mOut.write((byte[]) value);
+            } else if (value instanceof Byte[]) {
+                mOut.writeByte(BOXED_BYTES);
+                Byte[] bytes = (Byte[]) value;
+                writeVarLong(bytes.length);
+                for (Byte b : bytes) {
+                    mOut.writeByte(b == null ? 0 : b);
+                }
+            } else if (value instanceof Bean && mBeans.containsKey(value)) {
+                mOut.writeByte(BEAN_REFERENCE);
+                writeVarLong(mBeans.get(value));
+            } else if (value instanceof Bean) {
+                Bean bean = (Bean) value;
+                mBeans.put(bean, mBeans.size());
+                mOut.writeByte(BEAN);
+                writeString(bean.mClass.getName());
+                writeVarLong(bean.mNames.length);
+                for (int i = 0; i < bean.mNames.length; i++) {
+                    writeString(bean.mNames[i]);
+                    writeValue(bean.mValues[i]);
+                }
+            } else if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                mOut.writeByte(LIST);
+                writeVarLong(list.size());
+                for (Object element : list) {
+                    writeValue(element);
+                }
+            } else if (value instanceof String[]) {
+                String[] strings = (String[]) value;
+                mOut.writeByte(STRING_ARRAY);
+                writeVarLong(strings.length);
+                for (String string : strings) {
+                    writeString(string);
+                }
+            } else if (value instanceof Class) {
+                mOut.writeByte(CLASS);
+                writeString(((Class<?>) value).getName());
+            } else if (value instanceof Class[]) {
+                Class<?>[] classes = (Class<?>[]) value;
+                mOut.writeByte(CLASS_ARRAY);
+                writeVarLong(classes.length);
+                for (Class<?> theClass : classes) {
+                    writeString(theClass.getName());
+                }
+            } else if (value instanceof Constraint) {
+                Constraint constraint = (Constraint) value;
+                mOut.writeByte(CONSTRAINT);
+                writeString(constraint.getOrderBy());
+                writeValue(constraint.getLimit());
+                writeString(constraint.getGroupBy());
+                writeString(constraint.getStringMatch() == null ? null : constraint.getStringMatch().name());
+            } else if (value instanceof Aggregation) {
+                Aggregation aggregation = (Aggregation) value;
+                mOut.writeByte(AGGREGATION);
+                writeValue(aggregation.getFunctions());
+                writeValue(aggregation.getFields());
+                writeValue(aggregation.getGroupByFields());
+                writeString(aggregation.getWhere());
+                writeValue(aggregation.getWhereArgs());
+                writeString(aggregation.getHaving());
+            } else {
+                // not a type the library can persist
+                mOut.writeByte(NULL);
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            Integer index = mStrings.get(value);
+            if (index != null) {
+                writeVarLong(index + 1);
+                return;
+            }
+            index = mStrings.size();
+            mStrings.put(value, index);
+            writeVarLong(index + 1);
+            byte[] bytes = value.getBytes("UTF-8");
+            writeVarLong(bytes.length);
+            mOut.write(bytes);
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                mOut.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            mOut.writeByte((int) value);
+        }
+    }
+
+    static class Input implements Closeable {
+        private final DataInputStream mIn;
+        private final List<String> mStrings = new ArrayList<String>();
+        private final Map<Class<?>, Map<String, Field>> mFields = new HashMap<Class<?>, Map<String, Field>>();
+        // beans read in the current record, by position
+        private final List<Object> mBeans = new ArrayList<Object>();
+        private Call mCall;
+        private Object[] mArgs;
+        private long mDuration;
+        private long mSize;
+
+        Input(InputStream in) throws IOException {
+            mIn = new DataInputStream(new BufferedInputStream(in));
+            if (mIn.readInt() != MAGIC) {
+                throw new IOException("Not a workload trace");
+            }
+            int version = mIn.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported workload trace version " + version);
+            }
+        }
+
+        /**
+         * Reads the next record
+         *
+         * @return false if the end of the trace was reached
+         */
+        boolean next() throws IOException {
+            int call = mIn.read();
+            if (call < 0) {
+                return false;
+            }
+            Call[] calls = Call.values();
+            if (call >= calls.length) {
+                throw new IOException("Unknown call type " + call);
+            }
+            mCall = calls[call];
+            mBeans.clear();
+            mArgs = new Object[(int) readVarLong()];
+            for (int i = 0; i < mArgs.length; i++) {
+                mArgs[i] = readValue();
+            }
+            mDuration = readVarLong();
+            long size = readVarLong();
+            mSize = (size >>> 1) ^ -(size & 1);
+            return true;
+        }
+
+        Call getCall() {
+            return mCall;
+        }
+
+        /**
+         * @return the arguments of the current record. Beans are recreated, so the classes must be available
+         */
+        Object[] getArgs() {
+            return mArgs;
+        }
+
+        long getDurationNanos() {
+            return mDuration;
+        }
+
+        long getSize() {
+            return mSize;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+
+        private Object readValue() throws IOException {
+            int tag = mIn.readUnsignedByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case INT: {
+                    long number = readVarLong();
+                    return (int) ((number >>> 1) ^ -(number & 1));
+                }
+                case LONG: {
+                    long number = readVarLong();
+                    return (number >>> 1) ^ -(number & 1);
+                }
+                case FLOAT:
+                    return mIn.readFloat();
+                case DOUBLE:
+                    return mIn.readDouble();
+                case BOOLEAN:
+                    return mIn.readBoolean();
+                case STRING:
+                    return readString();
+                case BYTES: {
+                    byte[] bytes = new byte[(int) readVarLong()];
+                    mIn.readFully(bytes);
+                    return bytes;
+                }
+                case BOXED_BYTES: {
+                    Byte[] bytes = new Byte[(int) readVarLong()];
+                    for (int i = 0; i < bytes.length; i++) {
+                        bytes[i] = mIn.readByte();
+                    }
+                    return bytes;
+                }
+                case BEAN:
+                    return readBean();
+                case BEAN_REFERENCE: {
+                    int index = (int) readVarLong();
+                    if (index >= mBeans.size()) {
+                        throw new IOException("Reference to an unknown bean " + index);
+                    }
+                    return mBeans.get(index);
+                }
+                case LIST: {
+                    int size = (int) readVarLong();
+                    List<Object> list = new ArrayList<Object>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                }
+                case STRING_ARRAY: {
+                    String[] strings = new String[(int) readVarLong()];
+                    for (int i = 0; i < strings.length; i++) {
+                        strings[i] = readString();
+                    }
+                    return strings;
+                }
+                case CLASS:
+                    return readClass();
+                case CLASS_ARRAY: {
+                    Class<?>[] classes = new Class<?>[(int) readVarLong()];
+                    for (int i = 0; i < classes.length; i++) {
+                        classes[i] = readClass();
+                    }
+                    return classes;
+                }
+                case CONSTRAINT: {
+                    Constraint constraint = new Constraint()
+                            .orderBy(readString())
+                            .limit((Integer) readValue())
+                            .groupBy(readString());
+                    String stringMatch = readString();
+                    if (stringMatch != null) {
+                        constraint.stringMatch(StringMatch.valueOf(stringMatch));
+                    }
+                    return constraint;
+                }
+                case AGGREGATION: {
+                    List<?> functions = (List<?>) readValue();
+                    List<?> fields = (List<?>) readValue();
+                    List<?> groupBy = (List<?>) readValue();
+                    Aggregation aggregation = new Aggregation();
+                    for (int i = 0; i < functions.size(); i++) {
+                        aggregation.add((String) functions.get(i), (String) fields.get(i));
+                    }
+                    aggregation.groupBy(groupBy.toArray(new String[groupBy.size()]));
+                    String where = readString();
+                    aggregation.where(where, (String[]) readValue());
+                    aggregation.having(readString());
+                    return aggregation;
+                }
+                default:
+                    throw new IOException("Unknown value type " + tag);
+            }
+        }
+
+        private Object readBean() throws IOException {
+            Class<?> theClass = readClass();
+            Map<String, Field> fields = mFields.get(theClass);
+            if (fields == null) {
+                fields = new HashMap<String, Field>();
+                for (Field field : SQLHelper.getDeclaredFields(theClass)) {
+                    field.setAccessible(true);
+                    fields.put(field.getName(), field);
+                }
+                mFields.put(theClass, fields);
+            }
+            Object bean;
+            try {
+                bean = theClass.getConstructor().newInstance();
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not create object of type " + theClass, e);
+            }
+            mBeans.add(bean);
+            int count = (int) readVarLong();
+            for (int i = 0; i < count; i++) {
+                Field field = fields.get(readString());
+                Object value = readValue();
+                if (field == null || (value == null && field.getType().isPrimitive())) {
+                    continue;
+                }
+                try {
+                    field.set(bean, value);
+                } catch (Exception e) {
+                    throw new IllegalStateException("Could not set field " + field.getName() + " of " + theClass, e);
+                }
+            }
+            return bean;
+        }
+
+        private Class<?> readClass() throws IOException {
+            String name = readString();
+            try {
+                return Class.forName(name);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException("Class " + name + " used in the trace is not available", e);
+            }
+        }
+
+        private String readString() throws IOException {
+            int index = (int) readVarLong() - 1;
+            if (index < 0) {
+                return null;
+            }
+            if (index < mStrings.size()) {
+                return mStrings.get(index);
+            }
+            if (index != mStrings.size()) {
+                throw new IOException("Corrupted string table");
+            }
+            byte[] bytes = new byte[(int) readVarLong()];
+            mIn.readFully(bytes);
+            String value = new String(bytes, "UTF-8");
+            mStrings.add(value);
+            return value;
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = mIn.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed variable length number");
+        }
+    }
+}
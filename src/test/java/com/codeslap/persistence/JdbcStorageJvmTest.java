@@ -0,0 +1,164 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import android.database.Cursor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link JdbcStorage} and the adapters on top of it on a plain JVM, without Robolectric: the Android classes
+ * in the classpath are the ones of the stub android.jar, which throw when they are used.
+ */
+public class JdbcStorageJvmTest {
+    private File mFile;
+    private JdbcStorage mStorage;
+
+    @Before
+    public void openStorage() throws IOException {
+        PersistenceConfig.clear();
+        // the log must not need android.util.Log either
+        PersistenceLogManager.register("jvm");
+        mFile = File.createTempFile("jdbc-jvm", ".db");
+        mStorage = new JdbcStorage("jdbc:sqlite:" + mFile.getPath());
+    }
+
+    @After
+    public void deleteDatabase() {
+        PersistenceLogManager.clear();
+        mStorage.close();
+        mFile.delete();
+        for (String suffix : new String[]{"", "-journal"}) {
+            new File(mFile.getParentFile(), "adapter-" + mFile.getName() + suffix).delete();
+        }
+    }
+
+    @Test
+    public void testAdapterRoundTripWithoutAndroid() {
+        DatabaseSpec spec = PersistenceConfig.registerSpec("jvm", 1);
+        spec.match(new HasMany(Notebook.class, Note.class));
+        spec.setStorageBuilder(JdbcStorage.builder(mFile.getParentFile()));
+        String name = "adapter-" + mFile.getName();
+        SqlAdapter adapter = Persistence.getAdapter(null, name, "jvm");
+
+        Notebook notebook = new Notebook();
+        notebook.name = "Work";
+        notebook.notes = new ArrayList<Note>();
+        notebook.notes.add(newNote("Foo", 1, new byte[]{1, 2}));
+        notebook.notes.add(newNote("Bar", 2, null));
+        adapter.store(notebook);
+        assertTrue(notebook.id > 0);
+
+        List<Notebook> notebooks = adapter.findAll(Notebook.class);
+        assertEquals(1, notebooks.size());
+        assertEquals("Work", notebooks.get(0).name);
+        assertEquals(2, notebooks.get(0).notes.size());
+        assertEquals(2, adapter.count(Note.class));
+
+        Note foo = adapter.findFirst(Note.class, "text = ?", new String[]{"Foo"});
+        assertArrayEquals(new byte[]{1, 2}, foo.attachment);
+        foo.pages = 10;
+        assertEquals(1, adapter.update(foo, "_id = ?", new String[]{String.valueOf(foo.id)}));
+        assertEquals(10, adapter.findById(Note.class, foo.id).pages);
+
+        RawQuery rawQuery = Persistence.getRawQuery(null, name, "jvm");
+        int openCursors = CursorTracker.getOpenCursorCount();
+        Cursor cursor = rawQuery.findAll(Note.class, "pages > ?", new String[]{"5"});
+        assertEquals(openCursors + 1, CursorTracker.getOpenCursorCount());
+        try {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Foo", cursor.getString(cursor.getColumnIndexOrThrow("text")));
+            assertFalse(cursor.moveToNext());
+            assertTrue(cursor.isAfterLast());
+        } finally {
+            cursor.close();
+        }
+        assertEquals(openCursors, CursorTracker.getOpenCursorCount());
+
+        assertEquals(1, adapter.delete(Note.class, "text = ?", new String[]{"Bar"}));
+        assertEquals(1, adapter.count(Note.class));
+        try {
+            rawQuery.rawQuery("SELECT * FROM missing");
+            fail("Failing statements throw");
+        } catch (StorageException expected) {
+            // the missing table
+        }
+    }
+
+    @Test
+    public void testStatementsRunWithoutAndroid() throws SQLException {
+        mStorage.execSQL("CREATE TABLE foo (_id INTEGER PRIMARY KEY, name TEXT, number INTEGER, blob BLOB)");
+        mStorage.execSQL("INSERT INTO foo (name, number, blob) VALUES (?, ?, ?)",
+                new Object[]{"Foo", 42, new byte[]{1, 2}});
+        mStorage.execSQL("INSERT INTO foo (name, number, blob) VALUES (?, ?, ?)", new Object[]{"Bar", true, null});
+        mStorage.setVersion(3);
+        assertEquals(3, mStorage.getVersion());
+
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + mFile.getPath());
+        try {
+            Statement statement = connection.createStatement();
+            ResultSet rows = statement.executeQuery("SELECT name, number, blob FROM foo ORDER BY _id");
+            assertTrue(rows.next());
+            assertEquals("Foo", rows.getString(1));
+            assertEquals(42, rows.getInt(2));
+            assertArrayEquals(new byte[]{1, 2}, rows.getBytes(3));
+            assertTrue(rows.next());
+            assertEquals("Bar", rows.getString(1));
+            assertEquals(1, rows.getInt(2));
+            assertNull(rows.getBytes(3));
+            assertFalse(rows.next());
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static Note newNote(String text, int pages, byte[] attachment) {
+        Note note = new Note();
+        note.text = text;
+        note.pages = pages;
+        note.attachment = attachment;
+        return note;
+    }
+
+    public static class Notebook {
+        long id;
+        String name;
+        List<Note> notes;
+    }
+
+    public static class Note {
+        long id;
+        String text;
+        int pages;
+        byte[] attachment;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.persistence;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StatementTracerTest {
+    @Test
+    public void testTracingStopsWhenAllTracersAreDisabled() {
+        List<StatementListener> listeners = Collections.<StatementListener>singletonList(new StatementListener() {
+            @Override
+            public void onStatement(String sql, int bindCount, long rows, long durationNanos,
+                                    MetricsSink.Operation caller) {
+            }
+        });
+        List<StatementListener> none = Collections.emptyList();
+
+        StatementTracer first = new StatementTracer();
+        StatementTracer second = new StatementTracer();
+        first.configure(listeners, -1, 0);
+        second.configure(none, 10, 5);
+        assertTrue(first.isEnabled());
+        assertTrue(second.isEnabled());
+        assertOperationTracked(true);
+
+        first.configure(none, -1, 0);
+        // configuring it twice must not be counted twice
+        first.configure(none, -1, 0);
+        assertOperationTracked(true);
+
+        second.configure(none, -1, 0);
+        assertFalse(second.isEnabled());
+        assertOperationTracked(false);
+    }
+
+    private static void assertOperationTracked(boolean tracked) {
+        long start = Metrics.begin(MetricsSink.Operation.FIND);
+        try {
+            assertEquals(tracked ? MetricsSink.Operation.FIND : null, Metrics.currentOperation());
+        } finally {
+            Metrics.end(MetricsSink.Operation.FIND, (String) null, start);
+        }
+    }
+}
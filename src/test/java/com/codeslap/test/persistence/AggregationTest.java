@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import com.codeslap.persistence.Aggregation;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AggregationTest extends SqliteTest {
+    @Test
+    public void testAggregateWithoutGroups() {
+        List<ExampleAutoincrement> collection = new ArrayList<ExampleAutoincrement>();
+        for (int i = 1; i <= 10; i++) {
+            ExampleAutoincrement foo = new ExampleAutoincrement();
+            foo.name = "Foo " + (i % 3);
+            foo.number = i;
+            collection.add(foo);
+        }
+        getAdapter().storeCollection(collection, null);
+
+        Aggregation aggregation = new Aggregation().sum("number").min("number").max("number").avg("number")
+                .countDistinct("name");
+        List<Aggregation.Row> rows = getAdapter().aggregate(ExampleAutoincrement.class, aggregation);
+        assertEquals(1, rows.size());
+        Aggregation.Row row = rows.get(0);
+        assertEquals(55L, row.getLong(0));
+        assertEquals(1L, row.getLong(1));
+        assertEquals(10L, row.getLong(2));
+        assertEquals(5.5, row.getDouble(3), 0.001);
+        assertEquals(3L, row.getLong(4));
+
+        aggregation = new Aggregation().sum("number").where("number > ?", new String[]{"5"});
+        rows = getAdapter().aggregate(ExampleAutoincrement.class, aggregation);
+        assertEquals(40L, rows.get(0).getLong(0));
+    }
+
+    @Test
+    public void testAggregateWithGroups() {
+        List<ExampleAutoincrement> collection = new ArrayList<ExampleAutoincrement>();
+        for (int i = 1; i <= 10; i++) {
+            ExampleAutoincrement foo = new ExampleAutoincrement();
+            foo.name = i % 2 == 0 ? "even" : "odd";
+            foo.number = i;
+            collection.add(foo);
+        }
+        getAdapter().storeCollection(collection, null);
+
+        Aggregation aggregation = new Aggregation().sum("number").groupBy("name");
+        List<Aggregation.Row> rows = getAdapter().aggregate(ExampleAutoincrement.class, aggregation);
+        assertEquals(2, rows.size());
+        for (Aggregation.Row row : rows) {
+            if ("even".equals(row.getGroup("name"))) {
+                assertEquals(30L, row.getLong(0));
+            } else {
+                assertEquals("odd", row.getGroup("name"));
+                assertEquals(25L, row.getLong(0));
+            }
+        }
+
+        aggregation = new Aggregation().sum("number").groupBy("name").having("SUM(number) > 26");
+        rows = getAdapter().aggregate(ExampleAutoincrement.class, aggregation);
+        assertEquals(1, rows.size());
+        assertEquals("even", rows.get(0).getGroup("name"));
+    }
+
+    @Test
+    public void testAggregateEmptyTable() {
+        List<Aggregation.Row> rows = getAdapter().aggregate(ExampleAutoincrement.class, new Aggregation().sum("number"));
+        assertEquals(1, rows.size());
+        assertTrue(rows.get(0).isNull(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailWithUnknownField() {
+        getAdapter().aggregate(ExampleAutoincrement.class, new Aggregation().sum("doesNotExist"));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the bytes allocated by the current thread while running an operation, using the allocation counters
+ * of the HotSpot {@link com.sun.management.ThreadMXBean}.
+ */
+class AllocationMeter {
+    private static final int WARM_UP_ITERATIONS = 20;
+    private static final int ROUNDS = 3;
+
+    private final com.sun.management.ThreadMXBean mThreadBean;
+
+    AllocationMeter() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+            mThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+            mThreadBean.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            mThreadBean = null;
+        }
+    }
+
+    /**
+     * @return true if the JVM can count the bytes allocated by a thread
+     */
+    boolean isSupported() {
+        return mThreadBean != null;
+    }
+
+    /**
+     * Runs the operation a few times to warm up caches, and then measures it. The lowest of several rounds is
+     * used, so that one-off allocations (class loading, resizing of caches) are not counted.
+     *
+     * @param iterations number of times the operation is run per round
+     * @param operation  the operation to measure
+     * @return bytes allocated per run of the operation
+     */
+    long measure(int iterations, Runnable operation) {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            operation.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = mThreadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < iterations; i++) {
+                operation.run();
+            }
+            long allocated = mThreadBean.getThreadAllocatedBytes(threadId) - before;
+            best = Math.min(best, allocated / iterations);
+        }
+        return best;
+    }
+}
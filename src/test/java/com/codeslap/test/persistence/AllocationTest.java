@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import com.codeslap.persistence.Persistence;
+import com.codeslap.persistence.PersistenceConfig;
+import com.codeslap.persistence.PreferencesAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Fails when the bytes allocated by the mapping and write paths grow over the budgets in
+ * allocation-budgets.properties. Run it with -Dpersistence.allocations.report=true to print the measured values
+ * in the format of the budgets file instead of checking them.
+ */
+public class AllocationTest extends SqliteTest {
+    private static final String BUDGETS = "/allocation-budgets.properties";
+    private static final int ROWS = 100;
+    private static final int RELATIONS = 10;
+
+    private final AllocationMeter mMeter = new AllocationMeter();
+    private Properties mBudgets;
+
+    @Before
+    public void loadBudgets() throws IOException {
+        assumeTrue(mMeter.isSupported());
+        mBudgets = new Properties();
+        InputStream input = AllocationTest.class.getResourceAsStream(BUDGETS);
+        assertNotNull("Missing " + BUDGETS, input);
+        try {
+            mBudgets.load(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    @Test
+    public void testStore() {
+        final ExampleAutoincrement bean = newBean(0);
+        check("store", 100, new Runnable() {
+            @Override
+            public void run() {
+                bean.id = 0;
+                getAdapter().store(bean);
+            }
+        });
+    }
+
+    @Test
+    public void testUpdate() {
+        final ExampleAutoincrement bean = newBean(0);
+        getAdapter().store(bean);
+        final String[] args = {String.valueOf(bean.id)};
+        check("update", 100, new Runnable() {
+            @Override
+            public void run() {
+                bean.number++;
+                getAdapter().update(bean, "_id = ?", args);
+            }
+        });
+    }
+
+    @Test
+    public void testFindAll() {
+        List<ExampleAutoincrement> beans = new ArrayList<ExampleAutoincrement>();
+        for (int i = 0; i < ROWS; i++) {
+            beans.add(newBean(i));
+        }
+        getAdapter().storeCollection(beans, null);
+        check("findAll." + ROWS, 10, new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(ROWS, getAdapter().findAll(ExampleAutoincrement.class).size());
+            }
+        });
+    }
+
+    @Test
+    public void testHasManyLoad() {
+        PolyTheist polyTheist = new PolyTheist();
+        polyTheist.gods = new ArrayList<God>();
+        for (int i = 0; i < RELATIONS; i++) {
+            God god = new God();
+            god.name = "God " + i;
+            god.power = i;
+            polyTheist.gods.add(god);
+        }
+        getAdapter().store(polyTheist);
+        check("hasMany." + RELATIONS, 20, new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(RELATIONS, getAdapter().findAll(PolyTheist.class).get(0).gods.size());
+            }
+        });
+    }
+
+    @Test
+    public void testManyToManyLoad() {
+        Author author = new Author();
+        author.name = "Author";
+        author.books = new ArrayList<Book>();
+        for (int i = 0; i < RELATIONS; i++) {
+            Book book = new Book();
+            book.name = "Book " + i;
+            author.books.add(book);
+        }
+        getAdapter().store(author);
+        check("manyToMany." + RELATIONS, 20, new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(RELATIONS, getAdapter().findAll(Author.class).get(0).books.size());
+            }
+        });
+    }
+
+    @Test
+    public void testPreferencesRetrieve() {
+        PersistenceConfig.getPreference().match(PrefTest.PreferenceBean.class);
+        final PreferencesAdapter adapter = Persistence.getPreferenceAdapter(new Activity());
+        PrefTest.PreferenceBean bean = new PrefTest.PreferenceBean();
+        bean.name = "Foo";
+        bean.number = 42;
+        adapter.store(bean);
+        check("prefs.retrieve", 100, new Runnable() {
+            @Override
+            public void run() {
+                assertNotNull(adapter.retrieve(PrefTest.PreferenceBean.class));
+            }
+        });
+    }
+
+    private void check(String operation, int iterations, Runnable runnable) {
+        long allocated = mMeter.measure(iterations, runnable);
+        if (Boolean.getBoolean("persistence.allocations.report")) {
+            System.out.println(operation + "=" + allocated);
+            return;
+        }
+        String budget = mBudgets.getProperty(operation);
+        assertNotNull("There is no allocation budget for " + operation + " (it allocated " + allocated + " bytes)",
+                budget);
+        assertTrue(String.format("%s allocated %d bytes per operation; its budget is %s", operation, allocated,
+                budget), allocated <= Long.parseLong(budget.trim()));
+    }
+
+    private static ExampleAutoincrement newBean(int index) {
+        ExampleAutoincrement bean = new ExampleAutoincrement();
+        bean.name = "Foo " + index;
+        bean.number = index;
+        bean.decimal = index / 2f;
+        bean.bool = index % 2 == 0;
+        bean.blob = bean.name.getBytes();
+        return bean;
+    }
+}
@@ -18,6 +18,7 @@ package com.codeslap.test.persistence;
 
 import android.app.Activity;
 import android.content.ContentValues;
+import android.database.CrossProcessCursor;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.net.Uri;
@@ -75,6 +76,24 @@ public class ContentProviderTest extends SqliteTest {
         assertEquals(1, deleted);
     }
 
+    @Test
+    public void queryShouldReturnCrossProcessCursor() {
+        Uri uri = BaseContentProvider.buildBaseUri("com.codeslap.test", ExampleAutoincrement.class);
+        ContentValues values = new ContentValues();
+        values.put("name", "Foo Bar");
+        mProvider.insert(uri, values);
+
+        // before Honeycomb, the provider transport casts the cursor to CrossProcessCursor to send its window
+        // to the process of the ContentResolver
+        Cursor query = mProvider.query(uri, new String[]{"name"}, null, null, null);
+        assertTrue(query instanceof CrossProcessCursor);
+        CrossProcessCursor crossProcessCursor = (CrossProcessCursor) query;
+        assertEquals(1, crossProcessCursor.getCount());
+        assertTrue(crossProcessCursor.moveToFirst());
+        assertEquals("Foo Bar", crossProcessCursor.getString(0));
+        crossProcessCursor.close();
+    }
+
     @Test(expected = SQLException.class)
     public void shouldFailWithEmptyValuesTest() throws NoSuchFieldException, IllegalAccessException {
         Uri uri = BaseContentProvider.buildBaseUri("com.codeslap.test", ExampleAutoincrement.class);
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import android.database.Cursor;
+import com.codeslap.persistence.CursorTracker;
+import com.codeslap.persistence.Persistence;
+import com.codeslap.persistence.PersistenceConfig;
+import com.codeslap.persistence.RawQuery;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CursorTrackerTest extends SqliteTest {
+
+    @After
+    public void disableDebugMode() {
+        PersistenceConfig.setCursorDebugMode(false);
+    }
+
+    @Test
+    public void testAdapterClosesItsCursors() {
+        int open = CursorTracker.getOpenCursorCount();
+        for (int i = 0; i < 10; i++) {
+            ExampleAutoincrement foo = new ExampleAutoincrement();
+            foo.name = "Foo " + i;
+            getAdapter().store(foo);
+        }
+        assertEquals(10, getAdapter().findAll(ExampleAutoincrement.class).size());
+        assertEquals(10, getAdapter().count(ExampleAutoincrement.class));
+        assertTrue(getAdapter().exists(ExampleAutoincrement.class));
+        getAdapter().delete(ExampleAutoincrement.class, null, null);
+        assertEquals(open, CursorTracker.getOpenCursorCount());
+    }
+
+    @Test
+    public void testRawCursorsAreTracked() {
+        PersistenceConfig.setCursorDebugMode(true);
+        int open = CursorTracker.getOpenCursorCount();
+        int allocations = CursorTracker.getOpenCursorAllocations().size();
+
+        RawQuery rawQuery = Persistence.getRawQuery(new Activity());
+        Cursor cursor = rawQuery.findAll(ExampleAutoincrement.class);
+        assertEquals(open + 1, CursorTracker.getOpenCursorCount());
+        assertEquals(allocations + 1, CursorTracker.getOpenCursorAllocations().size());
+
+        cursor.close();
+        // closing twice must not affect the counter
+        cursor.close();
+        assertEquals(open, CursorTracker.getOpenCursorCount());
+        assertEquals(allocations, CursorTracker.getOpenCursorAllocations().size());
+    }
+}
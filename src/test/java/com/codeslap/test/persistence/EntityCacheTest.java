@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import com.codeslap.persistence.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EntityCacheTest extends SqliteTest {
+
+    private EntityCache mCache;
+
+    @Before
+    public void enableCache() {
+        getDatabase().cache(ExampleAutoincrement.class);
+        mCache = getAdapter().getEntityCache();
+        mCache.clear();
+    }
+
+    @Test
+    public void testReadsArePopulatedAndServedFromCache() {
+        ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Foo Bar";
+        Object id = getAdapter().store(foo);
+
+        long misses = mCache.getMissCount();
+        ExampleAutoincrement first = getAdapter().findById(ExampleAutoincrement.class, id);
+        assertEquals(misses + 1, mCache.getMissCount());
+        assertEquals(1, mCache.size());
+
+        long hits = mCache.getHitCount();
+        ExampleAutoincrement second = getAdapter().findById(ExampleAutoincrement.class, id);
+        assertEquals(hits + 1, mCache.getHitCount());
+        assertEquals(first, second);
+        // cached entities are copies, so modifying them does not modify the cache
+        assertNotSame(first, second);
+        second.name = "Modified";
+        assertEquals("Foo Bar", getAdapter().findById(ExampleAutoincrement.class, id).name);
+
+        // a sample with only the primary key also uses the cache
+        ExampleAutoincrement sample = new ExampleAutoincrement();
+        sample.id = foo.id;
+        hits = mCache.getHitCount();
+        assertEquals(foo, getAdapter().findFirst(sample));
+        assertEquals(hits + 1, mCache.getHitCount());
+    }
+
+    @Test
+    public void testWritesInvalidateCache() {
+        ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Foo Bar";
+        Object id = getAdapter().store(foo);
+        getAdapter().findById(ExampleAutoincrement.class, id);
+        assertEquals(1, mCache.size());
+
+        foo.name = "Baz";
+        getAdapter().store(foo);
+        assertEquals(0, mCache.size());
+        assertEquals("Baz", getAdapter().findById(ExampleAutoincrement.class, id).name);
+
+        ExampleAutoincrement update = new ExampleAutoincrement();
+        update.name = "Updated";
+        getAdapter().update(update, "name = ?", new String[]{"Baz"});
+        assertEquals(0, mCache.size());
+        assertEquals("Updated", getAdapter().findById(ExampleAutoincrement.class, id).name);
+
+        getAdapter().delete(ExampleAutoincrement.class, null, null);
+        assertEquals(0, mCache.size());
+        assertNull(getAdapter().findById(ExampleAutoincrement.class, id));
+    }
+
+    @Test
+    public void testTrimMemory() {
+        for (int i = 0; i < 10; i++) {
+            ExampleAutoincrement foo = new ExampleAutoincrement();
+            foo.name = "Foo " + i;
+            getAdapter().store(foo);
+        }
+        getAdapter().findAll(ExampleAutoincrement.class);
+        assertEquals(10, mCache.size());
+        assertTrue(mCache.getEstimatedBytes() > 0);
+
+        PersistenceConfig.onTrimMemory(10);
+        assertEquals(5, mCache.size());
+        PersistenceConfig.onLowMemory();
+        assertEquals(0, mCache.size());
+        assertEquals(0, mCache.getEstimatedBytes());
+    }
+
+    @Test
+    public void testStringKeysKeepTheirMatchMode() {
+        getDatabase().cache(StringAsPrimaryKey.class);
+        StringAsPrimaryKey foo = new StringAsPrimaryKey();
+        foo.primaryKey = "key";
+        foo.foo = "Foo";
+        getAdapter().store(foo);
+
+        StringAsPrimaryKey sample = new StringAsPrimaryKey();
+        sample.primaryKey = "KEY";
+        // LIKE is case insensitive, the same as without the cache
+        assertEquals(foo, getAdapter().findFirst(sample));
+    }
+
+    @Test
+    public void testRowsReadBeforeAWriteAreNotCached() {
+        final ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Foo";
+        final Object id = getAdapter().store(foo);
+        // 0: not armed, 1: armed, 2: written
+        final int[] state = new int[1];
+        StatementListener writer = new StatementListener() {
+            @Override
+            public void onStatement(String sql, int bindCount, long rows, long durationNanos,
+                                    MetricsSink.Operation caller) {
+                if (state[0] == 1 && sql.startsWith("SELECT")) {
+                    // another writer changes the row after it was read but before it is cached
+                    state[0] = 2;
+                    foo.name = "Written";
+                    getAdapter().store(foo);
+                }
+            }
+        };
+        getDatabase().addStatementListener(writer);
+        SqlAdapter adapter = Persistence.getAdapter(new Activity());
+        try {
+            state[0] = 1;
+            assertEquals("Foo", adapter.findById(ExampleAutoincrement.class, id).name);
+        } finally {
+            getDatabase().removeStatementListener(writer);
+            Persistence.getAdapter(new Activity());
+        }
+
+        assertEquals(2, state[0]);
+        assertEquals(0, mCache.size());
+        assertEquals("Written", getAdapter().findById(ExampleAutoincrement.class, id).name);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class FindByIdTest extends SqliteTest {
+    @Test
+    public void testFindById() {
+        ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Foo Bar";
+        foo.number = 111;
+        Object id = getAdapter().store(foo);
+
+        ExampleAutoincrement found = getAdapter().findById(ExampleAutoincrement.class, id);
+        assertNotNull(found);
+        assertEquals(foo, found);
+        assertNull(getAdapter().findById(ExampleAutoincrement.class, 12345L));
+        assertNull(getAdapter().findById(ExampleAutoincrement.class, null));
+
+        StringAsPrimaryKey bar = new StringAsPrimaryKey();
+        bar.primaryKey = "Key";
+        bar.foo = "bar";
+        getAdapter().store(bar);
+        assertEquals(bar, getAdapter().findById(StringAsPrimaryKey.class, "Key"));
+        // primary keys are matched exactly
+        assertNull(getAdapter().findById(StringAsPrimaryKey.class, "key"));
+    }
+
+    @Test
+    public void testFindByIds() {
+        List<ExampleAutoincrement> collection = new ArrayList<ExampleAutoincrement>();
+        for (int i = 0; i < 1200; i++) {
+            ExampleAutoincrement foo = new ExampleAutoincrement();
+            foo.name = "Foo Bar " + i;
+            foo.number = i;
+            collection.add(foo);
+        }
+        getAdapter().storeCollection(collection, null);
+
+        // ask for more ids than the ones allowed in a single statement
+        Set<Long> ids = new HashSet<Long>();
+        for (long i = 1; i <= 1300; i++) {
+            ids.add(i);
+        }
+        Map<Object, ExampleAutoincrement> found = getAdapter().findByIds(ExampleAutoincrement.class, ids);
+        assertEquals(1200, found.size());
+        for (Map.Entry<Object, ExampleAutoincrement> entry : found.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue().id);
+        }
+        assertEquals("Foo Bar 0", found.get(1L).name);
+
+        assertTrue(getAdapter().findByIds(ExampleAutoincrement.class, Collections.emptyList()).isEmpty());
+
+        // the result is keyed by the ids that were passed, whatever their type
+        Map<Object, ExampleAutoincrement> mixed = getAdapter().findByIds(ExampleAutoincrement.class,
+                Arrays.<Object>asList(1, "2", 2L));
+        assertEquals(3, mixed.size());
+        assertEquals("Foo Bar 0", mixed.get(1).name);
+        assertEquals("Foo Bar 1", mixed.get("2").name);
+        assertEquals("Foo Bar 1", mixed.get(2L).name);
+    }
+}
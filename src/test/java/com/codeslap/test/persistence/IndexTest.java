@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import android.database.Cursor;
+import com.codeslap.persistence.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IndexTest extends SqliteTest {
+
+    private String mName;
+
+    @Before
+    public void registerSpec() {
+        DatabaseSpec spec = PersistenceConfig.registerSpec("indexes", 1);
+        spec.match(Person.class, Account.class);
+        mName = "indexes-" + System.nanoTime() + ".db";
+    }
+
+    @Test
+    public void testIndexesAreCreated() {
+        Persistence.getAdapter(new Activity(), mName, "indexes");
+        List<String> indexes = getIndexes(Persistence.getRawQuery(new Activity(), mName, "indexes"));
+        // declared in the field and the class
+        assertTrue(indexes.contains("idx_people_nick"));
+        assertTrue(indexes.contains("idx_people_last_name_name"));
+        assertTrue(indexes.contains("uq_accounts_email"));
+    }
+
+    @Test
+    public void testForeignKeysAreIndexed() {
+        List<String> indexes = getIndexes(Persistence.getRawQuery(new Activity()));
+        // foreign keys of has-many relations
+        assertTrue(indexes.contains("idx_bugs_cow_id"));
+        assertTrue(indexes.contains("idx_gods_poly_theist_id"));
+        // both sides of many-to-many relations
+        assertTrue(indexes.contains("idx_authors_books_authors_id"));
+        assertTrue(indexes.contains("idx_authors_books_books_id"));
+    }
+
+    @Test
+    public void testUniqueIndexRejectsDuplicates() {
+        SqlAdapter adapter = Persistence.getAdapter(new Activity(), mName, "indexes");
+        Account account = new Account();
+        account.email = "foo@example.com";
+        adapter.store(account);
+
+        Account duplicate = new Account();
+        duplicate.email = "foo@example.com";
+        try {
+            adapter.store(duplicate);
+        } catch (RuntimeException expected) {
+            // depending on the storage the violation is thrown or the row is just not inserted
+        }
+        assertEquals(1, adapter.count(Account.class));
+
+        RawQuery rawQuery = Persistence.getRawQuery(new Activity(), mName, "indexes");
+        Cursor cursor = rawQuery.rawQuery("PRAGMA index_list(accounts)");
+        try {
+            boolean unique = false;
+            while (cursor.moveToNext()) {
+                if ("uq_accounts_email".equals(cursor.getString(cursor.getColumnIndex("name")))) {
+                    unique = cursor.getInt(cursor.getColumnIndex("unique")) != 0;
+                }
+            }
+            assertTrue(unique);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static List<String> getIndexes(RawQuery rawQuery) {
+        Cursor cursor = rawQuery.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index'");
+        List<String> indexes = new ArrayList<String>();
+        while (cursor.moveToNext()) {
+            indexes.add(cursor.getString(0));
+        }
+        cursor.close();
+        return indexes;
+    }
+
+    @Table("people")
+    @Index({"lastName", "name"})
+    public static class Person {
+        long id;
+        String name;
+        @Column("last_name")
+        String lastName;
+        @Index
+        String nick;
+    }
+
+    @Table("accounts")
+    public static class Account {
+        long id;
+        @Unique
+        String email;
+    }
+}
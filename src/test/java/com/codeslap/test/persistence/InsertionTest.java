@@ -55,6 +55,14 @@ public class InsertionTest extends SqliteTest {
         assertEquals(1, getAdapter().count(ExampleAutoincrement.class));
         assertEquals(1, getAdapter().count(ExampleAutoincrement.class, null, null));
         assertEquals(1, getAdapter().count(foo));
+        assertTrue(getAdapter().exists(ExampleAutoincrement.class));
+        assertTrue(getAdapter().exists(ExampleAutoincrement.class, "name = ?", new String[]{"Foo Bar"}));
+        assertTrue(getAdapter().exists(foo));
+
+        ExampleAutoincrement missing = new ExampleAutoincrement();
+        missing.name = "Not there";
+        assertEquals(0, getAdapter().count(missing));
+        assertFalse(getAdapter().exists(missing));
     }
 
     @Test
@@ -115,6 +123,7 @@ public class InsertionTest extends SqliteTest {
         assertEquals(0, getAdapter().findAll(ExampleAutoincrement.class, null, null).size());
         assertEquals(0, getAdapter().count(ExampleAutoincrement.class));
         assertEquals(0, getAdapter().count(ExampleAutoincrement.class, null, null));
+        assertFalse(getAdapter().exists(ExampleAutoincrement.class));
     }
 
     @Test
@@ -272,4 +281,32 @@ public class InsertionTest extends SqliteTest {
         sample.foo = "bar";
         getAdapter().store(sample);
     }
+
+    @Test
+    public void testSamplesWithDifferentFields() {
+        ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Foo";
+        foo.number = 1;
+        ExampleAutoincrement bar = new ExampleAutoincrement();
+        bar.name = "Bar";
+        bar.number = 1;
+        bar.bool = true;
+        getAdapter().storeCollection(Arrays.asList(foo, bar), null);
+
+        // samples with the same populated fields share the same plan, but not the values
+        ExampleAutoincrement sample = new ExampleAutoincrement();
+        sample.name = "Foo";
+        assertEquals("Foo", getAdapter().findFirst(sample).name);
+        sample.name = "Bar";
+        assertEquals("Bar", getAdapter().findFirst(sample).name);
+
+        sample = new ExampleAutoincrement();
+        sample.number = 1;
+        assertEquals(2, getAdapter().findAll(sample).size());
+        sample.bool = true;
+        List<ExampleAutoincrement> found = getAdapter().findAll(sample);
+        assertEquals(1, found.size());
+        assertEquals("Bar", found.get(0).name);
+        assertEquals(2, getAdapter().findAll(new ExampleAutoincrement()).size());
+    }
 }
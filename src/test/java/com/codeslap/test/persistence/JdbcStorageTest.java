@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import android.database.Cursor;
+import com.codeslap.persistence.*;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JdbcStorageTest extends SqliteTest {
+
+    @Test
+    public void testAdapterOperations() {
+        SqlAdapter adapter = openAdapter("jdbc", 1);
+        ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Foo";
+        foo.number = 42;
+        foo.decimal = 2.5f;
+        foo.bool = true;
+        foo.blob = new byte[]{1, 2, 3};
+        adapter.store(foo);
+        assertTrue(foo.id > 0);
+        assertEquals(foo, adapter.findById(ExampleAutoincrement.class, foo.id));
+
+        foo.name = "Bar";
+        assertEquals(1, adapter.update(foo, "_id = ?", new String[]{String.valueOf(foo.id)}));
+        ExampleAutoincrement sample = new ExampleAutoincrement();
+        sample.name = "Bar";
+        assertEquals(foo, adapter.findFirst(sample));
+        assertEquals(1, adapter.count(ExampleAutoincrement.class));
+
+        PolyTheist polyTheist = new PolyTheist();
+        God thor = new God();
+        thor.name = "Thor";
+        thor.power = 9;
+        God odin = new God();
+        odin.name = "Odin";
+        odin.power = 10;
+        polyTheist.gods = Arrays.asList(thor, odin);
+        adapter.store(polyTheist);
+        List<PolyTheist> polyTheists = adapter.findAll(PolyTheist.class);
+        assertEquals(1, polyTheists.size());
+        assertEquals(polyTheist, polyTheists.get(0));
+
+        assertEquals(1, adapter.delete(sample));
+        assertEquals(0, adapter.count(ExampleAutoincrement.class));
+    }
+
+    @Test
+    public void testCompiledStatements() {
+        JdbcStorage storage = new JdbcStorage("jdbc:sqlite:" + new File(getDirectory(), getDatabaseName()).getPath());
+        try {
+            storage.execSQL("CREATE TABLE compiled (name TEXT, number INTEGER);");
+            String sql = "INSERT INTO compiled (name, number) VALUES (?, ?);";
+            Storage.CompiledStatement insert = storage.compileStatement(sql);
+            insert.execute(new Object[]{"Foo", 1});
+            insert.execute(new Object[]{null, 2L});
+            // the same shape run through execSQL shares the compiled statement
+            storage.execSQL(sql, new Object[]{"Bar", 3});
+
+            Cursor cursor = storage.rawQuery("SELECT name, number FROM compiled ORDER BY number", null);
+            try {
+                assertEquals(3, cursor.getCount());
+                assertTrue(cursor.moveToNext());
+                assertEquals("Foo", cursor.getString(0));
+                assertTrue(cursor.moveToNext());
+                assertTrue(cursor.isNull(0));
+                assertEquals(2, cursor.getInt(1));
+            } finally {
+                cursor.close();
+            }
+
+            try {
+                storage.compileStatement("INSERT INTO missing (name) VALUES (?);");
+                fail("Statements are compiled eagerly");
+            } catch (StorageException expected) {
+                // the missing table
+            }
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void testRawQueries() {
+        openAdapter("jdbc-raw", 1).store(newExample("Raw", 7));
+        RawQuery rawQuery = Persistence.getRawQuery(new Activity(), getDatabaseName(), "jdbc-raw");
+        Cursor cursor = rawQuery.findAll(ExampleAutoincrement.class, "number = ?", new String[]{"7"});
+        try {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Raw", cursor.getString(cursor.getColumnIndex("name")));
+            assertEquals(7, cursor.getInt(cursor.getColumnIndex("number")));
+            assertFalse(cursor.moveToNext());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testUpgradeKeepsTheRows() {
+        SqlAdapter adapter = openAdapter("jdbc-v1", 1);
+        adapter.store(newExample("Old", 1));
+        assertEquals(1, adapter.count(ExampleAutoincrement.class));
+
+        adapter = openAdapter("jdbc-v2", 2);
+        assertEquals(1, adapter.count(ExampleAutoincrement.class));
+        adapter.store(newExample("New", 2));
+        assertEquals(2, adapter.count(ExampleAutoincrement.class));
+    }
+
+    private SqlAdapter openAdapter(String specId, int version) {
+        registerJdbcSpec(specId, version).match(new HasMany(PolyTheist.class, God.class));
+        return Persistence.getAdapter(new Activity(), getDatabaseName(), specId);
+    }
+}
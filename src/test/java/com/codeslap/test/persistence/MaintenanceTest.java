@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import com.codeslap.persistence.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MaintenanceTest extends SqliteTest {
+    @Test
+    public void testRunAnalyzesWrittenTablesAndReclaimsSpace() {
+        SqlAdapter adapter = openAdapter("maintenance", 0);
+        adapter.storeCollection(newExamples(300), null);
+        assertEquals(300, adapter.getMaintenance().getPendingWrites());
+
+        Maintenance.Report report = adapter.getMaintenance().run(10000);
+        assertTrue(report.isCompleted());
+        assertEquals(1, report.getAnalyzedTables().size());
+        assertEquals("automatic", report.getAnalyzedTables().get(0));
+        assertEquals(0, adapter.getMaintenance().getPendingWrites());
+
+        adapter.truncate(ExampleAutoincrement.class);
+        report = adapter.getMaintenance().run(10000);
+        assertTrue(report.isCompleted());
+        assertTrue(report.getReclaimedBytes() > 0);
+        assertSame(report, adapter.getMaintenance().getLastReport());
+    }
+
+    @Test
+    public void testThresholdStartsBackgroundRun() throws InterruptedException {
+        SqlAdapter adapter = openAdapter("maintenance-threshold", 50);
+        for (ExampleAutoincrement example : newExamples(49)) {
+            adapter.store(example);
+        }
+        assertNull(adapter.getMaintenance().getLastReport());
+
+        adapter.store(newExamples(1).get(0));
+        for (int i = 0; i < 100 && adapter.getMaintenance().getLastReport() == null; i++) {
+            Thread.sleep(50);
+        }
+        Maintenance.Report report = adapter.getMaintenance().getLastReport();
+        assertNotNull(report);
+        assertTrue(report.getAnalyzedTables().contains("automatic"));
+    }
+
+    @Test
+    public void testThresholdWaitsForTheTransaction() throws InterruptedException {
+        final SqlAdapter adapter = openAdapter("maintenance-transaction", 50);
+        final List<Maintenance.Report> atCommit = new ArrayList<Maintenance.Report>();
+        PersistenceConfig.getDatabaseSpec("maintenance-transaction").addStatementListener(new StatementListener() {
+            @Override
+            public void onStatement(String sql, int bindCount, long rows, long durationNanos,
+                                    MetricsSink.Operation caller) {
+                if (sql.startsWith("COMMIT")) {
+                    atCommit.add(adapter.getMaintenance().getLastReport());
+                }
+            }
+        });
+        // listeners are picked up when the database is requested again
+        Persistence.getAdapter(new Activity(), getDatabaseName(), "maintenance-transaction");
+
+        // the collection is stored in one transaction, which crosses the threshold many times
+        adapter.storeCollection(newExamples(300), null);
+        assertEquals(1, atCommit.size());
+        assertNull(atCommit.get(0));
+        for (int i = 0; i < 100 && adapter.getMaintenance().getLastReport() == null; i++) {
+            Thread.sleep(50);
+        }
+        Maintenance.Report report = adapter.getMaintenance().getLastReport();
+        assertNotNull(report);
+        assertTrue(report.getAnalyzedTables().contains("automatic"));
+    }
+
+    @Test
+    public void testImportedRowsCountAsWrites() throws IOException {
+        SqlAdapter adapter = openAdapter("maintenance-import", 0);
+        String script = "INSERT INTO automatic (name, number) VALUES ('first', 1);\n" +
+                "INSERT INTO automatic (name, number) VALUES ('second', 2);\n" +
+                "UPDATE automatic SET number = number + 1;\n";
+        assertEquals(3, adapter.importSql(new ByteArrayInputStream(script.getBytes("UTF-8")), null));
+        assertEquals(4, adapter.getMaintenance().getPendingWrites());
+
+        Maintenance.Report report = adapter.getMaintenance().run(10000);
+        assertTrue(report.getAnalyzedTables().contains("automatic"));
+    }
+
+    private SqlAdapter openAdapter(String specId, long writeThreshold) {
+        DatabaseSpec spec = registerJdbcSpec(specId, 1);
+        spec.setTuningProfile(new TuningProfile().setAutoVacuum(TuningProfile.AutoVacuum.INCREMENTAL));
+        spec.scheduleMaintenance(writeThreshold, 1000);
+        return Persistence.getAdapter(new Activity(), getDatabaseName(), specId);
+    }
+
+    private static List<ExampleAutoincrement> newExamples(int count) {
+        List<ExampleAutoincrement> examples = new ArrayList<ExampleAutoincrement>();
+        for (int i = 0; i < count; i++) {
+            ExampleAutoincrement example = new ExampleAutoincrement();
+            example.name = "Example " + i;
+            example.number = i;
+            example.blob = new byte[1024];
+            examples.add(example);
+        }
+        return examples;
+    }
+}
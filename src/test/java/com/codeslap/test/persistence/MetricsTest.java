@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import android.database.Cursor;
+import com.codeslap.persistence.AggregatingMetricsSink;
+import com.codeslap.persistence.LatencyHistogram;
+import com.codeslap.persistence.MetricsSink;
+import com.codeslap.persistence.Persistence;
+import com.codeslap.persistence.PersistenceConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest extends SqliteTest {
+
+    private AggregatingMetricsSink mSink;
+
+    @Before
+    public void installSink() {
+        mSink = new AggregatingMetricsSink();
+        PersistenceConfig.setMetricsSink(mSink);
+    }
+
+    @After
+    public void removeSink() {
+        PersistenceConfig.setMetricsSink(null);
+    }
+
+    @Test
+    public void testOperationsAreReported() {
+        List<ExampleAutoincrement> beans = new ArrayList<ExampleAutoincrement>();
+        for (int i = 0; i < 5; i++) {
+            ExampleAutoincrement bean = new ExampleAutoincrement();
+            bean.name = "Foo " + i;
+            beans.add(bean);
+        }
+        getAdapter().storeCollection(beans, null);
+        assertEquals(5, getAdapter().findAll(ExampleAutoincrement.class).size());
+        getAdapter().count(ExampleAutoincrement.class);
+
+        AggregatingMetricsSink.Snapshot store = find(MetricsSink.Operation.STORE_COLLECTION);
+        assertNotNull(store);
+        assertEquals(1, store.getCount());
+        assertEquals(5, store.getRows());
+        assertTrue(store.getStatements() >= 5);
+
+        AggregatingMetricsSink.Snapshot findAll = find(MetricsSink.Operation.FIND);
+        assertNotNull(findAll);
+        assertEquals(1, findAll.getCount());
+        assertEquals(5, findAll.getRows());
+        assertTrue(findAll.getStatements() >= 1);
+
+        // nested operations are only reported once, as part of the outermost one
+        assertNull(find(MetricsSink.Operation.STORE));
+        assertNotNull(find(MetricsSink.Operation.COUNT));
+
+        mSink.reset();
+        assertTrue(mSink.snapshot().isEmpty());
+    }
+
+    @Test
+    public void testRawQueriesReportRows() {
+        for (int i = 0; i < 3; i++) {
+            ExampleAutoincrement bean = new ExampleAutoincrement();
+            bean.name = "Foo " + i;
+            getAdapter().store(bean);
+        }
+        mSink.reset();
+        Cursor cursor = Persistence.getRawQuery(new Activity()).findAll(ExampleAutoincrement.class);
+        try {
+            AggregatingMetricsSink.Snapshot raw = find(MetricsSink.Operation.RAW_QUERY);
+            assertNotNull(raw);
+            assertEquals(1, raw.getCount());
+            // the cursor is filled while measured, so the rows are known when the operation ends
+            assertEquals(3, raw.getRows());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testNothingIsReportedWithoutSink() {
+        PersistenceConfig.setMetricsSink(null);
+        ExampleAutoincrement bean = new ExampleAutoincrement();
+        bean.name = "Foo";
+        getAdapter().store(bean);
+        assertTrue(mSink.snapshot().isEmpty());
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        // buckets have a relative error of at most 1/8
+        assertEquals(500, histogram.getValueAtPercentile(50), 500 / 8);
+        assertEquals(990, histogram.getValueAtPercentile(99), 990 / 8);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+    private AggregatingMetricsSink.Snapshot find(MetricsSink.Operation operation) {
+        for (AggregatingMetricsSink.Snapshot snapshot : mSink.snapshot()) {
+            if (snapshot.getOperation() == operation) {
+                return snapshot;
+            }
+        }
+        return null;
+    }
+}
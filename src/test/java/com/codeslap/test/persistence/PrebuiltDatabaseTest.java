@@ -0,0 +1,160 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import com.codeslap.persistence.*;
+import com.xtremelabs.robolectric.Robolectric;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class PrebuiltDatabaseTest extends SqliteTest {
+    private static final String IMPORT = "INSERT INTO automatic (name, number) VALUES ('Imported', 0);";
+
+    @Before
+    public void bindAssetShadows() {
+        Robolectric.bindShadowClass(ShadowAssetManager.class);
+        Robolectric.bindShadowClass(ShadowAssetFileDescriptor.class);
+    }
+
+    @After
+    public void resetAssets() {
+        ShadowAssetManager.reset();
+    }
+
+    @Test
+    public void testPrebuiltDatabaseIsInstalled() {
+        DatabaseSpec spec = registerSpec("prebuilt");
+        spec.prepopulateFromDatabase(createPrebuiltDatabase());
+        SqlAdapter adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "prebuilt");
+        assertPrebuiltDatabaseInstalled(adapter);
+
+        ExampleAutoincrement next = new ExampleAutoincrement();
+        next.name = "Next";
+        adapter.store(next);
+        assertEquals(2, next.id);
+    }
+
+    @Test
+    public void testStoredAssetIsCopiedFromItsOffset() throws IOException {
+        byte[] database = read(createPrebuiltDatabase());
+        // stored assets are a region of the apk, surround the database with other data
+        File apk = new File(getDirectory(), "test.apk");
+        OutputStream output = new FileOutputStream(apk);
+        try {
+            output.write(new byte[1021]);
+            output.write(database);
+            output.write(new byte[517]);
+        } finally {
+            output.close();
+        }
+        ShadowAssetManager.addStoredAsset("databases/prebuilt.db", apk, 1021, database.length);
+
+        DatabaseSpec spec = registerSpec("prebuilt-stored-asset");
+        spec.prepopulateFromAssetDatabase(new Activity(), "databases/prebuilt.db");
+        SqlAdapter adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "prebuilt-stored-asset");
+        assertPrebuiltDatabaseInstalled(adapter);
+        assertEquals(1, ShadowAssetManager.getOpenedDescriptors());
+    }
+
+    @Test
+    public void testCompressedAssetIsStreamed() throws IOException {
+        byte[] database = read(createPrebuiltDatabase());
+        File compressed = new File(getDirectory(), "prebuilt.db.gz");
+        OutputStream output = new GZIPOutputStream(new FileOutputStream(compressed));
+        try {
+            output.write(database);
+        } finally {
+            output.close();
+        }
+        ShadowAssetManager.addCompressedAsset("databases/prebuilt.db", compressed);
+
+        DatabaseSpec spec = registerSpec("prebuilt-compressed-asset");
+        spec.prepopulateFromAssetDatabase(new Activity(), "databases/prebuilt.db");
+        SqlAdapter adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "prebuilt-compressed-asset");
+        assertPrebuiltDatabaseInstalled(adapter);
+        assertEquals(0, ShadowAssetManager.getOpenedDescriptors());
+    }
+
+    @Test
+    public void testInvalidPrebuiltDatabaseFallsBackToImporters() {
+        File prebuilt = new File(getDirectory(), "source.db");
+        JdbcStorage source = new JdbcStorage("jdbc:sqlite:" + prebuilt.getPath());
+        source.execSQL("CREATE TABLE automatic (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT);");
+        source.execSQL("INSERT INTO automatic (name) VALUES ('Prebuilt');");
+        source.close();
+
+        DatabaseSpec spec = registerSpec("prebuilt-invalid");
+        spec.prepopulateFromDatabase(prebuilt);
+        SqlAdapter adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "prebuilt-invalid");
+
+        List<ExampleAutoincrement> examples = adapter.findAll(ExampleAutoincrement.class);
+        assertEquals(1, examples.size());
+        assertEquals("Imported", examples.get(0).name);
+    }
+
+    @Test
+    public void testMissingPrebuiltDatabaseFallsBackToImporters() {
+        DatabaseSpec spec = registerSpec("prebuilt-missing");
+        spec.prepopulateFromDatabase(new File(getDirectory(), "missing.db"));
+        SqlAdapter adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "prebuilt-missing");
+        assertEquals(1, adapter.count(ExampleAutoincrement.class));
+    }
+
+    private File createPrebuiltDatabase() {
+        File prebuilt = new File(getDirectory(), "source.db");
+        JdbcStorage source = new JdbcStorage("jdbc:sqlite:" + prebuilt.getPath());
+        source.execSQL("CREATE TABLE automatic (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT, number INTEGER, " +
+                "decimal REAL, bool BOOLEAN, blob BLOB);");
+        source.execSQL("INSERT INTO automatic (name, number) VALUES ('Prebuilt', 42);");
+        source.close();
+        return prebuilt;
+    }
+
+    private void assertPrebuiltDatabaseInstalled(SqlAdapter adapter) {
+        List<ExampleAutoincrement> examples = adapter.findAll(ExampleAutoincrement.class);
+        assertEquals(1, examples.size());
+        assertEquals("Prebuilt", examples.get(0).name);
+        assertEquals(42, examples.get(0).number);
+        assertTrue(new File(getDirectory(), getDatabaseName()).isFile());
+        assertFalse(new File(getDirectory(), getDatabaseName() + ".prebuilt").exists());
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream input = new DataInputStream(new FileInputStream(file));
+        try {
+            input.readFully(bytes);
+        } finally {
+            input.close();
+        }
+        return bytes;
+    }
+
+    private DatabaseSpec registerSpec(String specId) {
+        DatabaseSpec spec = registerJdbcSpec(specId, 1);
+        spec.afterCreateImportFromString(IMPORT);
+        return spec;
+    }
+}
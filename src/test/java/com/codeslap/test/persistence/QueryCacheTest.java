@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import com.codeslap.persistence.Persistence;
+import com.codeslap.persistence.PersistenceConfig;
+import com.codeslap.persistence.QueryCache;
+import com.codeslap.persistence.SqlAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QueryCacheTest extends SqliteTest {
+
+    private SqlAdapter mAdapter;
+    private QueryCache mCache;
+
+    @Before
+    public void enableCache() {
+        getDatabase().setQueryCacheSize(10);
+        mAdapter = Persistence.getAdapter(new Activity());
+        mCache = mAdapter.getQueryCache();
+        mCache.clear();
+    }
+
+    @After
+    public void disableCache() {
+        getDatabase().setQueryCacheSize(0);
+        Persistence.getAdapter(new Activity());
+    }
+
+    @Test
+    public void testResultsAreCachedUntilTableIsWritten() {
+        ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Foo";
+        mAdapter.store(foo);
+
+        long misses = mCache.getMissCount();
+        assertEquals(1, mAdapter.findAll(ExampleAutoincrement.class).size());
+        assertEquals(1, mAdapter.count(ExampleAutoincrement.class));
+        assertEquals(misses + 2, mCache.getMissCount());
+        assertEquals(2, mCache.size());
+
+        long hits = mCache.getHitCount();
+        assertEquals(1, mAdapter.findAll(ExampleAutoincrement.class).size());
+        assertEquals(1, mAdapter.count(ExampleAutoincrement.class));
+        assertEquals(hits + 2, mCache.getHitCount());
+
+        // writing a different table does not invalidate the results
+        StringAsPrimaryKey other = new StringAsPrimaryKey();
+        other.primaryKey = "key";
+        mAdapter.store(other);
+        hits = mCache.getHitCount();
+        assertEquals(1, mAdapter.count(ExampleAutoincrement.class));
+        assertEquals(hits + 1, mCache.getHitCount());
+
+        ExampleAutoincrement bar = new ExampleAutoincrement();
+        bar.name = "Bar";
+        mAdapter.store(bar);
+        assertEquals(2, mAdapter.findAll(ExampleAutoincrement.class).size());
+        assertEquals(2, mAdapter.count(ExampleAutoincrement.class));
+
+        mAdapter.delete(ExampleAutoincrement.class, "name = ?", new String[]{"Foo"});
+        assertEquals(1, mAdapter.count(ExampleAutoincrement.class));
+    }
+
+    @Test
+    public void testReturnedListsDoNotAffectCache() {
+        ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Foo";
+        mAdapter.store(foo);
+
+        List<ExampleAutoincrement> first = mAdapter.findAll(ExampleAutoincrement.class);
+        first.clear();
+        assertEquals(1, mAdapter.findAll(ExampleAutoincrement.class).size());
+    }
+
+    @Test
+    public void testRelatedTablesInvalidateResults() {
+        PolyTheist polyTheist = new PolyTheist();
+        polyTheist.gods = new ArrayList<God>();
+        mAdapter.store(polyTheist);
+        assertEquals(0, mAdapter.findAll(PolyTheist.class).get(0).gods.size());
+
+        God god = new God();
+        god.name = "Zeus";
+        mAdapter.store(god, polyTheist);
+        assertEquals(1, mAdapter.findAll(PolyTheist.class).get(0).gods.size());
+    }
+
+    @Test
+    public void testRawWritesInvalidateEverything() {
+        ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Foo";
+        mAdapter.store(foo);
+        assertEquals(1, mAdapter.count(ExampleAutoincrement.class));
+
+        Persistence.getRawQuery(new Activity()).rawQuery("DELETE FROM automatic").close();
+        assertEquals(0, mAdapter.count(ExampleAutoincrement.class));
+    }
+
+    @Test
+    public void testDisabledCacheIsNotUsed() {
+        getDatabase().setQueryCacheSize(0);
+        SqlAdapter adapter = Persistence.getAdapter(new Activity());
+        adapter.findAll(ExampleAutoincrement.class);
+        adapter.count(ExampleAutoincrement.class);
+        assertEquals(0, adapter.getQueryCache().size());
+    }
+
+    @Test
+    public void testCachedBeansAreCopies() {
+        ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Foo";
+        mAdapter.store(foo);
+
+        mAdapter.findAll(ExampleAutoincrement.class).get(0).name = "Modified";
+        long hits = mCache.getHitCount();
+        ExampleAutoincrement cached = mAdapter.findAll(ExampleAutoincrement.class).get(0);
+        assertEquals(hits + 1, mCache.getHitCount());
+        assertEquals("Foo", cached.name);
+        cached.name = "Modified again";
+        assertEquals("Foo", mAdapter.findAll(ExampleAutoincrement.class).get(0).name);
+    }
+
+    @Test
+    public void testTrimMemory() {
+        mAdapter.findAll(ExampleAutoincrement.class);
+        mAdapter.count(ExampleAutoincrement.class);
+        mAdapter.findAll(StringAsPrimaryKey.class);
+        mAdapter.count(StringAsPrimaryKey.class);
+        assertEquals(4, mCache.size());
+
+        // TRIM_MEMORY_RUNNING_MODERATE
+        PersistenceConfig.onTrimMemory(5);
+        assertEquals(4, mCache.size());
+        // TRIM_MEMORY_RUNNING_LOW
+        PersistenceConfig.onTrimMemory(10);
+        assertEquals(2, mCache.size());
+        PersistenceConfig.onLowMemory();
+        assertEquals(0, mCache.size());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import com.codeslap.persistence.Persistence;
+import com.codeslap.persistence.QueryPlanGuard;
+import com.codeslap.persistence.SqlAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class QueryPlanGuardTest extends SqliteTest {
+
+    private SqlAdapter mAdapter;
+
+    @Before
+    public void populate() {
+        ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Foo";
+        getAdapter().store(foo);
+    }
+
+    @After
+    public void disableGuard() {
+        getDatabase().guardQueryPlans(QueryPlanGuard.Mode.OFF, 0);
+        Persistence.getAdapter(new Activity()).getQueryPlanGuard().clear();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFullScanFails() {
+        enableGuard(QueryPlanGuard.Mode.FAIL, 0);
+        ExampleAutoincrement sample = new ExampleAutoincrement();
+        sample.name = "Foo";
+        mAdapter.findFirst(sample);
+    }
+
+    @Test
+    public void testIndexedQueriesAndWholeTableReadsPass() {
+        enableGuard(QueryPlanGuard.Mode.FAIL, 0);
+        ExampleAutoincrement foo = mAdapter.findAll(ExampleAutoincrement.class).get(0);
+        assertEquals(foo, mAdapter.findById(ExampleAutoincrement.class, foo.id));
+        assertTrue(mAdapter.getQueryPlanGuard().getFlaggedQueries().isEmpty());
+    }
+
+    @Test
+    public void testWarnModeRecordsScans() {
+        enableGuard(QueryPlanGuard.Mode.WARN, 0);
+        assertEquals(1, mAdapter.findAll(ExampleAutoincrement.class, "name = ?", new String[]{"Foo"}).size());
+        assertTrue(mAdapter.findAll(ExampleAutoincrement.class, "name = ?", new String[]{"Bar"}).isEmpty());
+        // each query shape is reported once
+        assertEquals(1, mAdapter.getQueryPlanGuard().getFlaggedQueries().size());
+    }
+
+    @Test
+    public void testSmallTablesAreIgnored() {
+        enableGuard(QueryPlanGuard.Mode.FAIL, 100);
+        assertEquals(1, mAdapter.findAll(ExampleAutoincrement.class, "name = ?", new String[]{"Foo"}).size());
+    }
+
+    private void enableGuard(QueryPlanGuard.Mode mode, long minRowCount) {
+        getDatabase().guardQueryPlans(mode, minRowCount);
+        mAdapter = Persistence.getAdapter(new Activity());
+        mAdapter.getQueryPlanGuard().clear();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import android.database.Cursor;
+import com.codeslap.persistence.Constraint;
+import com.codeslap.persistence.Persistence;
+import com.codeslap.persistence.QueryRecorder;
+import com.codeslap.persistence.RawQuery;
+import com.codeslap.persistence.SqlAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QueryRecorderTest extends SqliteTest {
+
+    private SqlAdapter mAdapter;
+    private QueryRecorder mRecorder;
+
+    @Before
+    public void enableRecorder() {
+        getDatabase().recordQueryShapes(true);
+        mAdapter = Persistence.getAdapter(new Activity());
+        mRecorder = mAdapter.getQueryRecorder();
+        mRecorder.clear();
+    }
+
+    @After
+    public void disableRecorder() {
+        mRecorder.clear();
+        getDatabase().recordQueryShapes(false);
+        Persistence.getAdapter(new Activity());
+    }
+
+    @Test
+    public void testShapesAreRecorded() {
+        for (int i = 0; i < 3; i++) {
+            mAdapter.findAll(ExampleAutoincrement.class, "number = ? AND decimal > ?", new String[]{"1", "0.5"});
+        }
+        ExampleAutoincrement sample = new ExampleAutoincrement();
+        sample.number = 1;
+        mAdapter.findAll(sample, new Constraint().orderBy("name"));
+
+        List<QueryRecorder.QueryShape> shapes = mRecorder.getShapes();
+        assertEquals(2, shapes.size());
+        for (QueryRecorder.QueryShape shape : shapes) {
+            assertEquals("automatic", shape.getTable());
+            assertEquals(Arrays.asList("number"), shape.getEqualityColumns());
+            if (shape.getSortColumns().isEmpty()) {
+                assertEquals(3, shape.getExecutions());
+                assertEquals(Arrays.asList("decimal"), shape.getRangeColumns());
+            } else {
+                assertEquals(1, shape.getExecutions());
+                assertEquals(Arrays.asList("name"), shape.getSortColumns());
+            }
+        }
+    }
+
+    @Test
+    public void testAdvisesMissingIndexes() {
+        for (int i = 0; i < 5; i++) {
+            mAdapter.findAll(ExampleAutoincrement.class, "number = ?", new String[]{"1"});
+        }
+        // primary key lookups are already covered
+        mAdapter.findById(ExampleAutoincrement.class, 1);
+
+        assertTrue(mRecorder.advise(10).isEmpty());
+        List<QueryRecorder.IndexAdvice> advices = mRecorder.advise(5);
+        assertEquals(1, advices.size());
+        assertEquals(Arrays.asList("number"), advices.get(0).getColumns());
+        assertEquals("CREATE INDEX IF NOT EXISTS idx_automatic_number ON automatic (number);",
+                advices.get(0).getCreateStatement());
+
+        mRecorder.createAdvisedIndexes(5);
+        assertTrue(mRecorder.advise(5).isEmpty());
+        assertFalse(mRecorder.getUnusedIndexes().contains("idx_automatic_number"));
+    }
+
+    @Test
+    public void testReportsUnusedIndexes() {
+        RawQuery rawQuery = Persistence.getRawQuery(new Activity());
+        rawQuery.rawQuery("CREATE INDEX IF NOT EXISTS idx_unused_middle_name ON annotation_autoincrements " +
+                "(middle_name)").close();
+        rawQuery.rawQuery("CREATE UNIQUE INDEX IF NOT EXISTS uq_unused_the_last_name ON annotation_autoincrements " +
+                "(the_last_name)").close();
+        try {
+            mAdapter.findAll(AnnotationAutoincrement.class, "char_sequence = ?", new String[]{"Foo"});
+            List<String> unused = mRecorder.getUnusedIndexes();
+            assertTrue(unused.contains("idx_unused_middle_name"));
+            // unique indexes are constraints, and relations are always loaded by their foreign keys
+            assertFalse(unused.contains("uq_unused_the_last_name"));
+            assertFalse(unused.contains("idx_gods_poly_theist_id"));
+            assertFalse(unused.contains("idx_authors_books_authors_id"));
+        } finally {
+            rawQuery.rawQuery("DROP INDEX idx_unused_middle_name").close();
+            rawQuery.rawQuery("DROP INDEX uq_unused_the_last_name").close();
+        }
+    }
+
+    @Test
+    public void testStatisticsCanBeSaved() {
+        mAdapter.findAll(ExampleAutoincrement.class, "number = ?", new String[]{"1"});
+        mRecorder.save();
+        mRecorder.clear();
+        assertTrue(mRecorder.getShapes().isEmpty());
+    }
+
+    @Test
+    public void testSavedStatisticsCreateIndexesOnNextStart() {
+        registerJdbcSpec("shapes-v1", 1).recordQueryShapes(true);
+        SqlAdapter adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "shapes-v1");
+        for (int i = 0; i < 5; i++) {
+            adapter.findAll(ExampleAutoincrement.class, "number = ?", new String[]{"1"});
+        }
+        adapter.getQueryRecorder().save();
+        assertTrue(new File(getDirectory(), getDatabaseName() + "-shapes").isFile());
+        // the statistics are not part of the schema of the database
+        Cursor cursor = Persistence.getRawQuery(new Activity(), getDatabaseName(), "shapes-v1")
+                .rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'");
+        try {
+            while (cursor.moveToNext()) {
+                assertFalse(cursor.getString(0).contains("shapes"));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        registerJdbcSpec("shapes-v2", 2).autoCreateIndexes(5);
+        adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "shapes-v2");
+        assertTrue(adapter.getQueryRecorder().advise(5).isEmpty());
+        assertEquals(5, adapter.getQueryRecorder().getShapes().get(0).getExecutions());
+    }
+}
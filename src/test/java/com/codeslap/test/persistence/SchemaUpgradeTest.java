@@ -0,0 +1,213 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import android.database.Cursor;
+import com.codeslap.persistence.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SchemaUpgradeTest extends SqliteTest {
+    @Test
+    public void testNewColumnsAndIndexesKeepRows() {
+        DatabaseSpec v1 = registerJdbcSpec("upgrade-v1", 1);
+        v1.match(PlayerV1.class);
+        SqlAdapter adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "upgrade-v1");
+        PlayerV1 old = new PlayerV1();
+        old.name = "Foo";
+        old.score = "10";
+        adapter.store(old);
+
+        final List<Integer> migrated = new ArrayList<Integer>();
+        DatabaseSpec v2 = registerJdbcSpec("upgrade-v2", 2);
+        v2.match(PlayerV2.class);
+        v2.addMigration(2, new DatabaseSpec.Migration() {
+            @Override
+            public void migrate(Storage storage) {
+                migrated.add(2);
+                storage.execSQL("UPDATE players SET nick = name || '!'");
+            }
+        });
+        adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "upgrade-v2");
+        assertEquals(1, migrated.size());
+
+        PlayerV2 player = adapter.findFirst(PlayerV2.class, null, null);
+        assertEquals(old.id, player.id);
+        assertEquals("Foo", player.name);
+        assertEquals("10", player.score);
+        assertEquals(0, player.level);
+        assertEquals("Foo!", player.nick);
+
+        RawQuery rawQuery = Persistence.getRawQuery(new Activity(), getDatabaseName(), "upgrade-v2");
+        Cursor cursor = rawQuery.rawQuery("PRAGMA index_list(players)");
+        try {
+            boolean found = false;
+            while (cursor.moveToNext()) {
+                found |= "idx_players_name".equals(cursor.getString(cursor.getColumnIndex("name")));
+            }
+            assertTrue(found);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testTypeChangeRebuildsTable() {
+        DatabaseSpec v1 = registerJdbcSpec("rebuild-v1", 1);
+        v1.match(PlayerV1.class);
+        SqlAdapter adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "rebuild-v1");
+        for (int i = 1; i <= 3; i++) {
+            PlayerV1 player = new PlayerV1();
+            player.name = "Player " + i;
+            player.score = String.valueOf(i * 10);
+            adapter.store(player);
+        }
+
+        DatabaseSpec v3 = registerJdbcSpec("rebuild-v3", 3);
+        v3.match(PlayerV3.class);
+        adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "rebuild-v3");
+        List<PlayerV3> players = adapter.findAll(PlayerV3.class);
+        assertEquals(3, players.size());
+        for (PlayerV3 player : players) {
+            assertEquals("Player " + player.id, player.name);
+            assertEquals(player.id * 10, player.score);
+        }
+
+        PlayerV3 next = new PlayerV3();
+        next.name = "Player 4";
+        adapter.store(next);
+        assertEquals(4, next.id);
+    }
+
+    @Test
+    public void testDuplicatesDoNotFailTheUpgrade() {
+        DatabaseSpec v1 = registerJdbcSpec("unique-v1", 1);
+        v1.match(PlayerV1.class);
+        SqlAdapter adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "unique-v1");
+        for (int i = 0; i < 2; i++) {
+            PlayerV1 player = new PlayerV1();
+            player.name = "Foo";
+            adapter.store(player);
+        }
+
+        // the unique index cannot be created yet, so a non unique one is created instead
+        DatabaseSpec v2 = registerJdbcSpec("unique-v2", 2);
+        v2.match(UniquePlayer.class);
+        adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "unique-v2");
+        assertEquals(2, adapter.count(UniquePlayer.class));
+        RawQuery rawQuery = Persistence.getRawQuery(new Activity(), getDatabaseName(), "unique-v2");
+        assertEquals(Boolean.FALSE, isUnique(rawQuery, "uq_players_name"));
+
+        // once a migration removes the duplicates the index becomes unique
+        DatabaseSpec v3 = registerJdbcSpec("unique-v3", 3);
+        v3.match(UniquePlayer.class);
+        v3.addMigration(3, new DatabaseSpec.Migration() {
+            @Override
+            public void migrate(Storage storage) {
+                storage.execSQL("DELETE FROM players WHERE _id NOT IN (SELECT MIN(_id) FROM players GROUP BY name)");
+            }
+        });
+        adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "unique-v3");
+        assertEquals(1, adapter.count(UniquePlayer.class));
+        rawQuery = Persistence.getRawQuery(new Activity(), getDatabaseName(), "unique-v3");
+        assertEquals(Boolean.TRUE, isUnique(rawQuery, "uq_players_name"));
+    }
+
+    @Test
+    public void testCollationChangeRebuildsTable() {
+        DatabaseSpec v1 = registerJdbcSpec("collation-v1", 1);
+        v1.match(PlayerV1.class);
+        SqlAdapter adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "collation-v1");
+        PlayerV1 player = new PlayerV1();
+        player.name = "Foo";
+        adapter.store(player);
+
+        DatabaseSpec v2 = registerJdbcSpec("collation-v2", 2);
+        v2.match(NoCasePlayer.class);
+        adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "collation-v2");
+        assertEquals(1, adapter.count(NoCasePlayer.class, "name = ?", new String[]{"FOO"}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMigrationVersionMustExist() {
+        PersistenceConfig.registerSpec("upgrade-invalid", 2).addMigration(3, new DatabaseSpec.Migration() {
+            @Override
+            public void migrate(Storage storage) {
+            }
+        });
+    }
+
+    private static Boolean isUnique(RawQuery rawQuery, String index) {
+        Cursor cursor = rawQuery.rawQuery("PRAGMA index_list(players)");
+        try {
+            while (cursor.moveToNext()) {
+                if (index.equals(cursor.getString(cursor.getColumnIndex("name")))) {
+                    return cursor.getInt(cursor.getColumnIndex("unique")) != 0;
+                }
+            }
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Table("players")
+    public static class PlayerV1 {
+        long id;
+        String name;
+        String score;
+    }
+
+    @Table("players")
+    public static class PlayerV2 {
+        long id;
+        @Index
+        String name;
+        String score;
+        int level;
+        @Column(value = "nick", notNull = true)
+        String nick;
+    }
+
+    @Table("players")
+    public static class PlayerV3 {
+        long id;
+        String name;
+        int score;
+    }
+
+    @Table("players")
+    public static class UniquePlayer {
+        long id;
+        @Unique
+        String name;
+        String score;
+    }
+
+    @Table("players")
+    public static class NoCasePlayer {
+        long id;
+        @Column(value = "name", match = StringMatch.NOCASE)
+        String name;
+        String score;
+    }
+}
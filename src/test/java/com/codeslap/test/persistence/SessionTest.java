@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import com.codeslap.persistence.Session;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SessionTest extends SqliteTest {
+    @Test
+    public void testSameInstanceWithinSession() {
+        ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Foo Bar";
+        Object id = getAdapter().store(foo);
+
+        Session session = getAdapter().openSession();
+        ExampleAutoincrement first = session.findById(ExampleAutoincrement.class, id);
+        ExampleAutoincrement second = session.findFirst(ExampleAutoincrement.class, "name = ?", new String[]{"Foo Bar"});
+        assertSame(first, second);
+        assertSame(first, session.findAll(ExampleAutoincrement.class).get(0));
+
+        // the plain adapter always creates new instances
+        assertNotSame(getAdapter().findById(ExampleAutoincrement.class, id), getAdapter().findById(ExampleAutoincrement.class, id));
+
+        session.clear();
+        assertNotSame(first, session.findById(ExampleAutoincrement.class, id));
+        session.close();
+    }
+
+    @Test
+    public void testClosedSessionCannotBeUsed() {
+        ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Foo";
+        Object id = getAdapter().store(foo);
+
+        Session session = getAdapter().openSession();
+        session.findById(ExampleAutoincrement.class, id);
+        session.close();
+        // closing it again does nothing
+        session.close();
+        try {
+            // even if the instance was in the identity map
+            session.findById(ExampleAutoincrement.class, id);
+            fail("The session is closed");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            session.count(ExampleAutoincrement.class);
+            fail("The session is closed");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testSharedRelationsWithinSession() {
+        Author fernando = new Author();
+        fernando.name = "Vallejo";
+        Author william = new Author();
+        william.name = "Ospinas";
+        Book tautologia = new Book();
+        tautologia.name = "Tautología Darwinista";
+        Book foo = new Book();
+        foo.name = "Bar";
+        fernando.books = Arrays.asList(tautologia);
+        william.books = Arrays.asList(tautologia, foo);
+        getAdapter().storeCollection(Arrays.asList(william, fernando), null);
+
+        Session session = getAdapter().openSession();
+        Author vallejo = session.findFirst(Author.class, "name = ?", new String[]{"Vallejo"});
+        Author ospina = session.findFirst(Author.class, "name = ?", new String[]{"Ospinas"});
+        assertEquals(fernando, vallejo);
+        assertEquals(william, ospina);
+        assertSame(vallejo.books.get(0), ospina.books.get(0));
+        session.close();
+    }
+
+    @Test
+    public void testWritesClearSession() {
+        ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Foo Bar";
+        Session session = getAdapter().openSession();
+        Object id = session.store(foo);
+
+        ExampleAutoincrement loaded = session.findById(ExampleAutoincrement.class, id);
+        loaded.name = "Baz";
+        session.store(loaded);
+
+        ExampleAutoincrement reloaded = session.findById(ExampleAutoincrement.class, id);
+        assertNotSame(loaded, reloaded);
+        assertEquals("Baz", reloaded.name);
+        session.close();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.content.res.AssetFileDescriptor;
+import android.os.ParcelFileDescriptor;
+import com.xtremelabs.robolectric.internal.Implementation;
+import com.xtremelabs.robolectric.internal.Implements;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Descriptor of a region of a file, as returned by {@link ShadowAssetManager#openFd(String)}
+ */
+@Implements(AssetFileDescriptor.class)
+public class ShadowAssetFileDescriptor {
+    public File file;
+    private long mStartOffset;
+    private long mLength;
+
+    public void __constructor__(ParcelFileDescriptor fd, long startOffset, long length) {
+        mStartOffset = startOffset;
+        mLength = length;
+    }
+
+    @Implementation
+    public FileInputStream createInputStream() throws IOException {
+        return new FileInputStream(file);
+    }
+
+    @Implementation
+    public long getStartOffset() {
+        return mStartOffset;
+    }
+
+    @Implementation
+    public long getLength() {
+        return mLength;
+    }
+
+    @Implementation
+    public void close() throws IOException {
+    }
+}
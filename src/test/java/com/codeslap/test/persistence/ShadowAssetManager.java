@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.internal.Implementation;
+import com.xtremelabs.robolectric.internal.Implements;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Serves assets from files: stored assets are a region of a file, like the ones packed in an apk, and can be
+ * opened as file descriptors; compressed assets are gzip files and can only be streamed.
+ */
+@Implements(AssetManager.class)
+public class ShadowAssetManager {
+    private static final Map<String, Asset> sAssets = new HashMap<String, Asset>();
+    private static int sOpenedDescriptors;
+
+    private static class Asset {
+        final File file;
+        final long offset;
+        final long length;
+        final boolean compressed;
+
+        Asset(File file, long offset, long length, boolean compressed) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.compressed = compressed;
+        }
+    }
+
+    public static void addStoredAsset(String path, File file, long offset, long length) {
+        sAssets.put(path, new Asset(file, offset, length, false));
+    }
+
+    public static void addCompressedAsset(String path, File gzipFile) {
+        sAssets.put(path, new Asset(gzipFile, 0, gzipFile.length(), true));
+    }
+
+    public static int getOpenedDescriptors() {
+        return sOpenedDescriptors;
+    }
+
+    public static void reset() {
+        sAssets.clear();
+        sOpenedDescriptors = 0;
+    }
+
+    @Implementation
+    public InputStream open(String path) throws IOException {
+        Asset asset = get(path);
+        if (asset.compressed) {
+            return new GZIPInputStream(new FileInputStream(asset.file));
+        }
+        FileInputStream input = new FileInputStream(asset.file);
+        if (input.skip(asset.offset) != asset.offset) {
+            input.close();
+            throw new IOException("Asset " + path + " is truncated");
+        }
+        return input;
+    }
+
+    @Implementation
+    public AssetFileDescriptor openFd(String path) throws IOException {
+        Asset asset = get(path);
+        if (asset.compressed) {
+            throw new FileNotFoundException("This file can not be opened as a file descriptor; it is probably compressed");
+        }
+        AssetFileDescriptor descriptor = new AssetFileDescriptor(null, asset.offset, asset.length);
+        ShadowAssetFileDescriptor shadow = Robolectric.shadowOf_(descriptor);
+        shadow.file = asset.file;
+        sOpenedDescriptors++;
+        return descriptor;
+    }
+
+    private static Asset get(String path) throws FileNotFoundException {
+        Asset asset = sAssets.get(path);
+        if (asset == null) {
+            throw new FileNotFoundException(path);
+        }
+        return asset;
+    }
+}
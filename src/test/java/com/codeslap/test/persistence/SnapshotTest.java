@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import com.codeslap.persistence.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SnapshotTest extends SqliteTest {
+    private File mSnapshot;
+
+    @Before
+    public void createFile() {
+        mSnapshot = new File(getDirectory(), "snapshot.db");
+    }
+
+    @Test
+    public void testSnapshotAndRestore() {
+        SqlAdapter adapter = getAdapter();
+        adapter.store(newExample("Foo", 1));
+        adapter.store(newExample("Bar", 2));
+        PolyTheist polyTheist = new PolyTheist();
+        God thor = new God();
+        thor.name = "Thor";
+        polyTheist.gods = Arrays.asList(thor);
+        adapter.store(polyTheist);
+        List<ExampleAutoincrement> expected = adapter.findAll(ExampleAutoincrement.class);
+
+        adapter.snapshotTo(mSnapshot);
+        assertTrue(mSnapshot.isFile());
+
+        adapter.truncate(ExampleAutoincrement.class, PolyTheist.class, God.class);
+        adapter.store(newExample("Baz", 3));
+
+        adapter.restoreFrom(mSnapshot);
+        assertEquals(expected, adapter.findAll(ExampleAutoincrement.class));
+        List<PolyTheist> polyTheists = adapter.findAll(PolyTheist.class);
+        assertEquals(1, polyTheists.size());
+        assertEquals(polyTheist, polyTheists.get(0));
+
+        // autoincrement ids continue after the restored rows
+        ExampleAutoincrement next = newExample("Next", 4);
+        adapter.store(next);
+        assertEquals(3, next.id);
+    }
+
+    @Test
+    public void testInMemoryDatabase() {
+        registerJdbcSpec("memory", 1).setInMemory(true);
+        SqlAdapter memory = Persistence.getAdapter(new Activity(), getDatabaseName(), "memory");
+
+        memory.store(newExample("Foo", 1));
+        assertEquals(1, memory.count(ExampleAutoincrement.class));
+        assertFalse(new File(getDirectory(), getDatabaseName()).exists());
+
+        memory.snapshotTo(mSnapshot);
+        memory.store(newExample("Bar", 2));
+        memory.restoreFrom(mSnapshot);
+        assertEquals(1, memory.count(ExampleAutoincrement.class));
+        assertEquals("Foo", memory.findFirst(ExampleAutoincrement.class, null, null).name);
+    }
+
+    @Test
+    public void testFailedSaveKeepsThePreviousSnapshot() throws IOException {
+        SqlAdapter adapter = getAdapter();
+        adapter.store(newExample("Foo", 1));
+        adapter.snapshotTo(mSnapshot);
+        adapter.store(newExample("Bar", 2));
+        adapter.snapshotTo(mSnapshot);
+        File temp = new File(mSnapshot.getPath() + ".tmp");
+        assertFalse(temp.exists());
+
+        // a directory that cannot be deleted where the new snapshot is written
+        File blocker = new File(temp, "blocker");
+        assertTrue(temp.mkdir());
+        try {
+            assertTrue(blocker.createNewFile());
+            adapter.store(newExample("Baz", 3));
+            try {
+                adapter.snapshotTo(mSnapshot);
+                fail("The snapshot should not have been saved");
+            } catch (IllegalStateException expected) {
+            }
+        } finally {
+            blocker.delete();
+            temp.delete();
+        }
+
+        adapter.restoreFrom(mSnapshot);
+        assertEquals(2, adapter.count(ExampleAutoincrement.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRestoreMissingSnapshot() {
+        getAdapter().restoreFrom(mSnapshot);
+    }
+}
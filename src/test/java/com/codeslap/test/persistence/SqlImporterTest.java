@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import com.codeslap.persistence.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class SqlImporterTest extends SqliteTest {
+    @Test
+    public void testSemicolonsInsideLiteralsAndComments() {
+        DatabaseSpec spec = registerJdbcSpec("import-literals", 1);
+        spec.afterCreateImportFromString("BEGIN TRANSACTION;\n" +
+                "INSERT INTO automatic (name, number) VALUES ('first; with semicolon', 1); -- trailing; comment\n" +
+                "/* a; block\n comment; */ INSERT INTO automatic (name, number, blob)\n" +
+                "    VALUES ('it''s; quoted', 2, X'0102');\n" +
+                "COMMIT;");
+        SqlAdapter adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "import-literals");
+
+        List<ExampleAutoincrement> examples = adapter.findAll(ExampleAutoincrement.class);
+        assertEquals(2, examples.size());
+        assertEquals("first; with semicolon", examples.get(0).name);
+        assertEquals(1, examples.get(0).number);
+        assertEquals("it's; quoted", examples.get(1).name);
+        assertTrue(Arrays.equals(new byte[]{1, 2}, examples.get(1).blob));
+    }
+
+    @Test
+    public void testTriggerBodyIsOneStatement() throws IOException {
+        SqlAdapter adapter = getAdapter("import-trigger");
+        String script = "CREATE TRIGGER bump AFTER INSERT ON automatic BEGIN\n" +
+                "  UPDATE automatic SET number = number + 1 WHERE _id = NEW._id;\n" +
+                "  UPDATE automatic SET name = name || ';' WHERE _id = NEW._id;\n" +
+                "END;\n" +
+                "INSERT INTO automatic (name, number) VALUES ('triggered', 41);\n";
+
+        assertEquals(2, adapter.importSql(new ByteArrayInputStream(script.getBytes("UTF-8")), null));
+
+        ExampleAutoincrement example = adapter.findAll(ExampleAutoincrement.class).get(0);
+        assertEquals(42, example.number);
+        assertEquals("triggered;", example.name);
+    }
+
+    @Test
+    public void testGzipScriptReportsProgress() throws IOException {
+        SqlAdapter adapter = getAdapter("import-gzip");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeInserts(new GZIPOutputStream(bytes), 1200);
+        final List<Integer> progress = new ArrayList<Integer>();
+
+        int count = adapter.importSql(new ByteArrayInputStream(bytes.toByteArray()), new SqlAdapter.ProgressListener() {
+            @Override
+            public void onProgressChange(int percentage) {
+                progress.add(percentage);
+            }
+        });
+
+        assertEquals(1200, count);
+        assertEquals(1200, adapter.count(ExampleAutoincrement.class));
+        assertEquals(Integer.valueOf(0), progress.get(0));
+        assertEquals(Integer.valueOf(100), progress.get(progress.size() - 1));
+        for (int i = 1; i < progress.size(); i++) {
+            assertTrue(progress.get(i) > progress.get(i - 1));
+        }
+    }
+
+    @Test
+    public void testDeflateScript() throws IOException {
+        SqlAdapter adapter = getAdapter("import-deflate");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeInserts(new DeflaterOutputStream(bytes), 10);
+
+        assertEquals(10, adapter.importSql(new ByteArrayInputStream(bytes.toByteArray()), null));
+
+        ExampleAutoincrement sample = new ExampleAutoincrement();
+        sample.number = 7;
+        ExampleAutoincrement example = adapter.findFirst(sample);
+        assertEquals("row 7; of 10", example.name);
+        assertTrue(example.decimal == 3.5f);
+    }
+
+    @Test
+    public void testFailingStatementRollsBackItsChunk() throws IOException {
+        SqlAdapter adapter = getAdapter("import-failure");
+        String script = "INSERT INTO automatic (name, number) VALUES ('kept?', 1);\n" +
+                "INSERT INTO missing_table (name) VALUES ('boom');\n";
+
+        try {
+            adapter.importSql(new ByteArrayInputStream(script.getBytes("UTF-8")), null);
+            fail("The import should fail");
+        } catch (RuntimeException expected) {
+            // the missing table
+        }
+
+        assertEquals(0, adapter.count(ExampleAutoincrement.class));
+    }
+
+    @Test
+    public void testRollbackIsRejected() throws IOException {
+        SqlAdapter adapter = getAdapter("import-rollback");
+        String script = "BEGIN TRANSACTION;\n" +
+                "INSERT INTO automatic (name, number) VALUES ('discarded', 1);\n" +
+                "ROLLBACK;\n";
+
+        try {
+            adapter.importSql(new ByteArrayInputStream(script.getBytes("UTF-8")), null);
+            fail("Scripts cannot roll back");
+        } catch (IllegalArgumentException expected) {
+            // the rollback
+        }
+
+        assertEquals(0, adapter.count(ExampleAutoincrement.class));
+    }
+
+    @Test
+    public void testInvalidBlobLiteralsAreLeftToSqlite() throws IOException {
+        SqlAdapter adapter = getAdapter("import-invalid-blob");
+        for (String blob : new String[]{"X'ABC'", "X'0G'"}) {
+            String script = "INSERT INTO automatic (name, blob) VALUES ('invalid', " + blob + ");\n";
+            try {
+                adapter.importSql(new ByteArrayInputStream(script.getBytes("UTF-8")), null);
+                fail("The blob literal " + blob + " is not valid");
+            } catch (RuntimeException expected) {
+                // reported by sqlite instead of being truncated or failing to parse
+                assertFalse(expected instanceof NumberFormatException);
+            }
+        }
+
+        assertEquals(0, adapter.count(ExampleAutoincrement.class));
+    }
+
+    private SqlAdapter getAdapter(String specId) {
+        registerJdbcSpec(specId, 1);
+        return Persistence.getAdapter(new Activity(), getDatabaseName(), specId);
+    }
+
+    private static void writeInserts(OutputStream output, int rows) throws IOException {
+        output.write("BEGIN TRANSACTION;\n".getBytes("UTF-8"));
+        for (int i = 1; i <= rows; i++) {
+            String insert = "INSERT INTO automatic (name, number, decimal) VALUES ('row " + i + "; of " + rows +
+                    "', " + i + ", 3.5);\n";
+            output.write(insert.getBytes("UTF-8"));
+        }
+        output.write("COMMIT;\n".getBytes("UTF-8"));
+        output.close();
+    }
+}
@@ -20,13 +20,16 @@ import android.app.Activity;
 import com.codeslap.persistence.*;
 import com.codeslap.robolectric.RobolectricSimpleRunner;
 import com.xtremelabs.robolectric.Robolectric;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.runner.RunWith;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author cristian
@@ -36,6 +39,8 @@ public abstract class SqliteTest {
 
     private SqlAdapter mAdapter;
     private DatabaseSpec mDatabaseSpec;
+    private File mDirectory;
+    private String mDatabaseName;
 
     @Before
     public void configure() {
@@ -64,6 +69,64 @@ public abstract class SqliteTest {
         return mAdapter;
     }
 
+    @After
+    public void deleteDirectory() {
+        if (mDirectory != null) {
+            delete(mDirectory);
+            mDirectory = null;
+        }
+        mDatabaseName = null;
+    }
+
+    /**
+     * @return a temporary directory for the databases and files of the test, deleted after it
+     */
+    File getDirectory() {
+        if (mDirectory == null) {
+            mDirectory = new File(System.getProperty("java.io.tmpdir"), "persistence-test-" + System.nanoTime());
+            assertTrue(mDirectory.mkdirs());
+        }
+        return mDirectory;
+    }
+
+    /**
+     * @return a database name that no other test uses, since opened databases are kept by name
+     */
+    String getDatabaseName() {
+        if (mDatabaseName == null) {
+            mDatabaseName = "test-" + System.nanoTime() + ".db";
+        }
+        return mDatabaseName;
+    }
+
+    /**
+     * Registers a spec with {@link ExampleAutoincrement} whose databases are stored in {@link #getDirectory()} by
+     * a {@link JdbcStorage}
+     */
+    DatabaseSpec registerJdbcSpec(String specId, int version) {
+        DatabaseSpec spec = PersistenceConfig.registerSpec(specId, version);
+        spec.match(ExampleAutoincrement.class);
+        spec.setStorageBuilder(JdbcStorage.builder(getDirectory()));
+        return spec;
+    }
+
+    static ExampleAutoincrement newExample(String name, int number) {
+        ExampleAutoincrement example = new ExampleAutoincrement();
+        example.name = name;
+        example.number = number;
+        return example;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
     public DatabaseSpec getDatabase() {
         return mDatabaseSpec;
     }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import com.codeslap.persistence.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StatementTracingTest extends SqliteTest {
+
+    private final List<String> mStatements = new ArrayList<String>();
+    private final List<MetricsSink.Operation> mCallers = new ArrayList<MetricsSink.Operation>();
+    private final List<Long> mRows = new ArrayList<Long>();
+    private final List<Integer> mBindCounts = new ArrayList<Integer>();
+    private final StatementListener mListener = new StatementListener() {
+        @Override
+        public void onStatement(String sql, int bindCount, long rows, long durationNanos,
+                                MetricsSink.Operation caller) {
+            mStatements.add(sql);
+            mCallers.add(caller);
+            mRows.add(rows);
+            mBindCounts.add(bindCount);
+        }
+    };
+    private SqlAdapter mAdapter;
+
+    @Before
+    public void addListener() {
+        getDatabase().addStatementListener(mListener).logSlowStatements(0, 10);
+        mAdapter = Persistence.getAdapter(new Activity());
+        mAdapter.getSlowQueryLog().clear();
+    }
+
+    @After
+    public void removeListener() {
+        getDatabase().removeStatementListener(mListener).logSlowStatements(-1, 0);
+        Persistence.getAdapter(new Activity());
+    }
+
+    @Test
+    public void testStatementsAreTraced() {
+        ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Foo";
+        mAdapter.store(foo);
+        int inserted = indexOf("INSERT INTO");
+        assertTrue(inserted >= 0);
+        assertEquals(MetricsSink.Operation.STORE, mCallers.get(inserted));
+        assertEquals(1L, (long) mRows.get(inserted));
+        // values are not part of the traced statement
+        assertFalse(mStatements.get(inserted).contains("Foo"));
+
+        mStatements.clear();
+        mCallers.clear();
+        mRows.clear();
+        assertEquals(1, mAdapter.findAll(ExampleAutoincrement.class).size());
+        int selected = indexOf("SELECT");
+        assertTrue(selected >= 0);
+        assertEquals(MetricsSink.Operation.FIND, mCallers.get(selected));
+        assertEquals(1L, (long) mRows.get(selected));
+    }
+
+    @Test
+    public void testRawStatementsAreTracedByTheirShape() {
+        ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Secret";
+        ExampleAutoincrement bar = new ExampleAutoincrement();
+        bar.name = "Secret";
+        mStatements.clear();
+        // collections are stored with raw inserts that inline the values
+        mAdapter.storeCollection(Arrays.asList(foo, bar), null);
+
+        int inserted = indexOf("INSERT INTO");
+        assertTrue(inserted >= 0);
+        assertFalse(mStatements.get(inserted).contains("Secret"));
+        assertTrue(mBindCounts.get(inserted) > 0);
+        assertEquals(2L, (long) mRows.get(inserted));
+        for (SlowQueryLog.Entry entry : mAdapter.getSlowQueryLog().getEntries()) {
+            assertFalse(entry.getSql().contains("Secret"));
+        }
+    }
+
+    @Test
+    public void testSlowStatementsAreLogged() {
+        ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Foo";
+        mAdapter.store(foo);
+        mAdapter.findAll(ExampleAutoincrement.class);
+
+        List<SlowQueryLog.Entry> entries = mAdapter.getSlowQueryLog().getEntries();
+        assertFalse(entries.isEmpty());
+        assertTrue(entries.size() <= 10);
+        boolean sawQuery = false;
+        for (SlowQueryLog.Entry entry : entries) {
+            if (entry.getSql().startsWith("SELECT")) {
+                sawQuery = true;
+                assertNotNull(entry.getPlan());
+            } else {
+                assertNull(entry.getPlan());
+            }
+        }
+        assertTrue(sawQuery);
+
+        mAdapter.getSlowQueryLog().clear();
+        assertTrue(mAdapter.getSlowQueryLog().getEntries().isEmpty());
+    }
+
+    private int indexOf(String prefix) {
+        for (int i = 0; i < mStatements.size(); i++) {
+            if (mStatements.get(i).startsWith(prefix)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import android.database.Cursor;
+import com.codeslap.persistence.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StringMatchTest extends SqliteTest {
+
+    private final List<String> mStatements = new ArrayList<String>();
+    private String mName;
+    private SqlAdapter mContacts;
+
+    @Before
+    public void populate() {
+        ExampleAutoincrement foo = new ExampleAutoincrement();
+        foo.name = "Foo";
+        ExampleAutoincrement bar = new ExampleAutoincrement();
+        bar.name = "Fo%bar";
+        getAdapter().storeCollection(Arrays.asList(foo, bar), null);
+
+        DatabaseSpec spec = PersistenceConfig.registerSpec("string-match", 1);
+        spec.match(Contact.class);
+        spec.addStatementListener(new StatementListener() {
+            @Override
+            public void onStatement(String sql, int bindCount, long rows, long durationNanos,
+                                    MetricsSink.Operation caller) {
+                mStatements.add(sql);
+            }
+        });
+        mName = "string-match-" + System.nanoTime() + ".db";
+        mContacts = Persistence.getAdapter(new Activity(), mName, "string-match");
+        for (String[] values : new String[][]{{"Alejandro", "Bogota"}, {"Bob", "Boston"}, {"Carl", "Cali"},
+                {"Mark", "bo_d"}}) {
+            Contact contact = new Contact();
+            contact.nick = values[0];
+            contact.city = values[1];
+            mContacts.store(contact);
+        }
+    }
+
+    @Test
+    public void testLikeIsTheDefault() {
+        ExampleAutoincrement sample = new ExampleAutoincrement();
+        sample.name = "foo";
+        assertEquals(1, getAdapter().findAll(sample).size());
+        sample.name = "Fo%";
+        assertEquals(2, getAdapter().findAll(sample).size());
+    }
+
+    @Test
+    public void testExactMatch() {
+        ExampleAutoincrement sample = new ExampleAutoincrement();
+        sample.name = "foo";
+        Constraint exact = new Constraint().stringMatch(StringMatch.EXACT);
+        assertTrue(getAdapter().findAll(sample, exact).isEmpty());
+        sample.name = "Foo";
+        assertEquals(1, getAdapter().findAll(sample, exact).size());
+    }
+
+    @Test
+    public void testNoCaseMatch() {
+        ExampleAutoincrement sample = new ExampleAutoincrement();
+        sample.name = "FOO";
+        assertEquals(1, getAdapter().findAll(sample, new Constraint().stringMatch(StringMatch.NOCASE)).size());
+    }
+
+    @Test
+    public void testPrefixMatchIgnoresWildcards() {
+        ExampleAutoincrement sample = new ExampleAutoincrement();
+        sample.name = "fo";
+        Constraint prefix = new Constraint().stringMatch(StringMatch.PREFIX);
+        assertEquals(2, getAdapter().findAll(sample, prefix).size());
+        sample.name = "Fo%";
+        assertEquals("Fo%bar", getAdapter().findAll(sample, prefix).get(0).name);
+        assertEquals(1, getAdapter().findAll(sample, prefix).size());
+    }
+
+    @Test
+    public void testColumnMatchMode() {
+        Contact sample = new Contact();
+        sample.nick = "ALEJANDRO";
+        assertEquals(1, mContacts.findAll(sample).size());
+        sample.nick = "Alejan%";
+        assertTrue(mContacts.findAll(sample).isEmpty());
+
+        sample = new Contact();
+        sample.city = "BO";
+        List<Contact> contacts = mContacts.findAll(sample);
+        assertEquals(3, contacts.size());
+        sample.city = "bo_";
+        assertEquals("bo_d", mContacts.findFirst(sample).city);
+        sample.city = "Bogota";
+        assertEquals(1, mContacts.findAll(sample).size());
+        sample.city = "Bogotaa";
+        assertTrue(mContacts.findAll(sample).isEmpty());
+    }
+
+    @Test
+    public void testPrefixMatchSeeksTheIndex() {
+        Contact sample = new Contact();
+        sample.city = "bo";
+        mStatements.clear();
+        assertEquals(3, mContacts.findAll(sample).size());
+
+        String select = null;
+        for (String statement : mStatements) {
+            if (statement.startsWith("SELECT") && statement.contains("contacts")) {
+                select = statement;
+            }
+        }
+        assertNotNull(select);
+        RawQuery rawQuery = Persistence.getRawQuery(new Activity(), mName, "string-match");
+        Cursor plan = rawQuery.rawQuery("EXPLAIN QUERY PLAN " + select.replace("?", "'bo'"));
+        try {
+            StringBuilder details = new StringBuilder();
+            while (plan.moveToNext()) {
+                details.append(plan.getString(plan.getColumnCount() - 1)).append('\n');
+            }
+            assertTrue(details.toString(), details.toString().contains("INDEX idx_contacts_city"));
+        } finally {
+            plan.close();
+        }
+    }
+
+    @Test
+    public void testPrefixBoundIsCaseInsensitive() {
+        for (String city : new String[]{"Ab@c", "Ab[z"}) {
+            Contact contact = new Contact();
+            contact.city = city;
+            mContacts.store(contact);
+        }
+        Contact sample = new Contact();
+        // the character after '@' is 'A', which NOCASE compares as 'a' (after '[')
+        sample.city = "ab@";
+        List<Contact> contacts = mContacts.findAll(sample);
+        assertEquals(1, contacts.size());
+        assertEquals("Ab@c", contacts.get(0).city);
+    }
+
+    @Table("contacts")
+    public static class Contact {
+        long id;
+        @Column(value = "nick", match = StringMatch.NOCASE)
+        String nick;
+        @Index
+        @Column(value = "city", match = StringMatch.PREFIX)
+        String city;
+    }
+}
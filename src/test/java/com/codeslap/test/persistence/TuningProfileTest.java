@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import android.database.Cursor;
+import com.codeslap.persistence.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TuningProfileTest extends SqliteTest {
+    @Test
+    public void testProfileIsAppliedOnOpen() {
+        DatabaseSpec spec = registerJdbcSpec("tuning", 1);
+        spec.setTuningProfile(new TuningProfile()
+                .setPageSize(8192)
+                .setCacheSize(1234)
+                .setSynchronous(TuningProfile.Synchronous.OFF)
+                .setTempStore(TuningProfile.TempStore.MEMORY));
+        Persistence.getAdapter(new Activity(), getDatabaseName(), "tuning").store(new ExampleAutoincrement());
+
+        RawQuery rawQuery = Persistence.getRawQuery(new Activity(), getDatabaseName(), "tuning");
+        assertEquals(8192, queryInt(rawQuery, "PRAGMA page_size"));
+        assertEquals(1234, queryInt(rawQuery, "PRAGMA cache_size"));
+        assertEquals(0, queryInt(rawQuery, "PRAGMA synchronous"));
+        assertEquals(2, queryInt(rawQuery, "PRAGMA temp_store"));
+    }
+
+    @Test
+    public void testProfileIsAppliedToAndroidDatabases() {
+        DatabaseSpec spec = PersistenceConfig.registerSpec("tuning-android", 1);
+        spec.match(ExampleAutoincrement.class);
+        spec.setTuningProfile(new TuningProfile()
+                .setPageSize(8192)
+                .setAutoVacuum(TuningProfile.AutoVacuum.INCREMENTAL)
+                .setCacheSize(1234));
+        Persistence.getAdapter(new Activity(), getDatabaseName(), "tuning-android").store(new ExampleAutoincrement());
+
+        // the page size and the auto vacuum mode only take effect if set before the tables are created
+        RawQuery rawQuery = Persistence.getRawQuery(new Activity(), getDatabaseName(), "tuning-android");
+        assertEquals(8192, queryInt(rawQuery, "PRAGMA page_size"));
+        assertEquals(2, queryInt(rawQuery, "PRAGMA auto_vacuum"));
+        assertEquals(1234, queryInt(rawQuery, "PRAGMA cache_size"));
+    }
+
+    @Test
+    public void testProfileCanBeSwitchedTemporarily() {
+        registerJdbcSpec("switch", 1).setTuningProfile(TuningProfile.durable());
+        SqlAdapter adapter = Persistence.getAdapter(new Activity(), getDatabaseName(), "switch");
+        RawQuery rawQuery = Persistence.getRawQuery(new Activity(), getDatabaseName(), "switch");
+        assertEquals(2, queryInt(rawQuery, "PRAGMA synchronous"));
+
+        TuningProfile previous = adapter.setTuningProfile(TuningProfile.bulkLoad());
+        assertEquals(0, queryInt(rawQuery, "PRAGMA synchronous"));
+        assertEquals(8000, queryInt(rawQuery, "PRAGMA cache_size"));
+        assertEquals(TuningProfile.bulkLoad().getPragmas().keySet(), previous.getPragmas().keySet());
+
+        adapter.setTuningProfile(previous);
+        assertEquals(2, queryInt(rawQuery, "PRAGMA synchronous"));
+        assertEquals(previous.getPragmas().get("cache_size"), String.valueOf(queryInt(rawQuery, "PRAGMA cache_size")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPageSize() {
+        new TuningProfile().setPageSize(1000);
+    }
+
+    private static int queryInt(RawQuery rawQuery, String sql) {
+        Cursor cursor = rawQuery.rawQuery(sql);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
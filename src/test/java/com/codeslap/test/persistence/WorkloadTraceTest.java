@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013 CodeSlap
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codeslap.test.persistence;
+
+import android.app.Activity;
+import android.database.Cursor;
+import com.codeslap.persistence.*;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WorkloadTraceTest extends SqliteTest {
+
+    @After
+    public void stopRecording() {
+        PersistenceConfig.setWorkloadRecorder(null);
+    }
+
+    @Test
+    public void testReplayReproducesTheWorkload() throws IOException {
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        WorkloadRecorder recorder = new WorkloadRecorder(trace);
+        runWorkload(recorder.wrap(getAdapter()), recorder.wrap(Persistence.getRawQuery(new Activity())));
+        recorder.close();
+        assertEquals(14, recorder.getCallCount());
+
+        List<ExampleAutoincrement> examples = getAdapter().findAll(ExampleAutoincrement.class);
+        List<PolyTheist> polyTheists = getAdapter().findAll(PolyTheist.class);
+        assertEquals(12, examples.size());
+        assertEquals(1, polyTheists.size());
+
+        getAdapter().truncate(ExampleAutoincrement.class, PolyTheist.class, God.class);
+        WorkloadReplayer replayer = new WorkloadReplayer(new ByteArrayInputStream(trace.toByteArray()));
+        WorkloadReplayer.Report report = replayer.replay(getAdapter(), Persistence.getRawQuery(new Activity()));
+
+        assertEquals(report.toString(), 0, report.getErrorCount());
+        assertEquals(report.toString(), 0, report.getMismatchCount());
+        assertEquals(examples, getAdapter().findAll(ExampleAutoincrement.class));
+        assertEquals(polyTheists, getAdapter().findAll(PolyTheist.class));
+        long calls = 0;
+        for (WorkloadReplayer.Stats stats : report.getStats()) {
+            calls += stats.getCount();
+            if (stats.getCall().equals("STORE")) {
+                assertEquals(5, stats.getCount());
+            }
+        }
+        assertEquals(14, calls);
+    }
+
+    @Test
+    public void testRegisteredRecorderWrapsNewAdapters() throws IOException {
+        WorkloadRecorder recorder = new WorkloadRecorder(new ByteArrayOutputStream());
+        PersistenceConfig.setWorkloadRecorder(recorder);
+        SqlAdapter adapter = Persistence.getAdapter(new Activity());
+        adapter.store(new ExampleAutoincrement());
+        adapter.count(ExampleAutoincrement.class);
+        Persistence.getRawQuery(new Activity()).findAll(ExampleAutoincrement.class).close();
+        assertEquals(3, recorder.getCallCount());
+
+        recorder.close();
+        adapter.count(ExampleAutoincrement.class);
+        assertEquals(3, recorder.getCallCount());
+    }
+
+    @Test
+    public void testRepeatedCallsAreCompact() throws IOException {
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        WorkloadRecorder recorder = new WorkloadRecorder(trace);
+        SqlAdapter adapter = recorder.wrap(getAdapter());
+        for (int i = 0; i < 100; i++) {
+            adapter.findAll(ExampleAutoincrement.class, "number = ? AND name = ?", new String[]{"1", "foo"});
+        }
+        recorder.close();
+        assertTrue("Trace took " + trace.size() + " bytes", trace.size() < 100 * 24);
+    }
+
+    @Test
+    public void testCyclicBeansAreRecorded() throws IOException {
+        Author author = new Author();
+        author.name = "Author";
+        Book book = new Book();
+        book.name = "Book";
+        author.books = Arrays.asList(book);
+        book.authors = Arrays.asList(author);
+
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        WorkloadRecorder recorder = new WorkloadRecorder(trace);
+        recorder.wrap(getAdapter()).count(author);
+        recorder.close();
+        assertEquals(1, recorder.getCallCount());
+
+        WorkloadReplayer replayer = new WorkloadReplayer(new ByteArrayInputStream(trace.toByteArray()));
+        WorkloadReplayer.Report report = replayer.replay(getAdapter(), Persistence.getRawQuery(new Activity()));
+        assertEquals(report.toString(), 0, report.getErrorCount());
+        assertEquals(report.toString(), 0, report.getMismatchCount());
+    }
+
+    private static void runWorkload(SqlAdapter adapter, RawQuery rawQuery) {
+        for (int i = 0; i < 4; i++) {
+            ExampleAutoincrement example = new ExampleAutoincrement();
+            example.name = "Example " + i;
+            example.number = i;
+            example.decimal = i / 2f;
+            example.bool = i % 2 == 0;
+            example.blob = new byte[]{(byte) i, 42};
+            adapter.store(example);
+        }
+        List<ExampleAutoincrement> collection = new ArrayList<ExampleAutoincrement>();
+        for (int i = 0; i < 12; i++) {
+            ExampleAutoincrement example = new ExampleAutoincrement();
+            example.name = "Batch " + (i % 3);
+            example.number = 100 + i;
+            collection.add(example);
+        }
+        adapter.storeCollection(collection, null);
+
+        ExampleAutoincrement changed = new ExampleAutoincrement();
+        changed.name = "Changed";
+        changed.number = 7;
+        adapter.update(changed, "number = ?", new String[]{"2"});
+        adapter.findAll(ExampleAutoincrement.class, "number >= ?", new String[]{"100"});
+
+        ExampleAutoincrement sample = new ExampleAutoincrement();
+        sample.name = "Batch 1";
+        adapter.findAll(sample, new Constraint().orderBy("number").limit(2));
+        adapter.delete(sample);
+        adapter.count(ExampleAutoincrement.class);
+        adapter.aggregate(ExampleAutoincrement.class, new Aggregation().sum("number").groupBy("name"));
+
+        PolyTheist polyTheist = new PolyTheist();
+        God thor = new God();
+        thor.name = "Thor";
+        thor.power = 9;
+        God loki = new God();
+        loki.name = "Loki";
+        loki.power = 7;
+        polyTheist.gods = Arrays.asList(thor, loki);
+        adapter.store(polyTheist);
+        adapter.findById(PolyTheist.class, polyTheist.id);
+
+        Cursor cursor = rawQuery.findAll(ExampleAutoincrement.class, "name LIKE ?", new String[]{"Batch%"});
+        assertEquals(8, cursor.getCount());
+        cursor.close();
+    }
+}